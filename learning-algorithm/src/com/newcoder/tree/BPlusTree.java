@@ -0,0 +1,466 @@
+package com.newcoder.tree;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * B+树，接口与{@link BTree}相同（insert/put/search/delete）。
+ *
+ * 与BTree的区别：
+ * 	1.  值只存放在叶节点中，内节点只存放分隔键，同样大小的内节点可以有更多的子节点
+ * 	2.  叶节点之间用next/prev连成双向链表，范围扫描定位到第一个叶节点之后只需沿链表顺序前进
+ * 	3.  分隔键只是子树的边界：第i个子树中的键k满足 keys[i-1] <= k < keys[i]，
+ * 	    删除叶节点中的键时不需要修改内节点中的同名分隔键
+ *
+ * 插入和删除仍然是自顶向下一遍完成的：
+ * 	插入：下降之前先分裂满的子节点。叶节点分裂时右半部分的第一个键复制到父节点，内节点分裂时中间键上升到父节点
+ * 	删除：下降之前保证子节点至少有t个键。先从左右兄弟借（叶节点之间直接移动键值对，内节点经由父节点的分隔键旋转），
+ * 	    兄弟都只有t-1个键时合并（叶节点直接拼接并从链表中摘掉，内节点要带上父节点的分隔键）
+ */
+public class BPlusTree<K, V> {
+    /**
+     *@Desc B+树中的节点。
+     *	键存放在按最大容量2t-1预先分配的数组中；叶节点另有等长的值数组，内节点另有2t个子节点的数组。
+     */
+    private static class BPlusTreeNode<K, V> {
+        /** 叶节点中是键，内节点中是分隔键，升序存放在[0, size)中 */
+        private K[] keys;
+        /** 叶节点中与keys一一对应的值 */
+        private V[] values;
+        /** 内节点的子节点，存放在[0, size + 1)中 */
+        private BPlusTreeNode<K, V>[] children;
+        /** 键的个数 */
+        private int size;
+        /** 是否为叶子节点 */
+        private final boolean leaf;
+        /** 叶节点链表中的后一个、前一个叶节点 */
+        private BPlusTreeNode<K, V> next;
+        private BPlusTreeNode<K, V> prev;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public BPlusTreeNode(int t, boolean leaf) {
+            this.leaf = leaf;
+            keys = (K[]) new Object[2*t - 1];
+            if(leaf)
+                values = (V[]) new Object[2*t - 1];
+            else
+                children = (BPlusTreeNode<K, V>[]) new BPlusTreeNode[2*t];
+        }
+
+        public boolean isLeaf() { return leaf; }
+        public int size() { return size; }
+        public K keyAt(int index) { return keys[index]; }
+        public V valueAt(int index) { return values[index]; }
+        public BPlusTreeNode<K, V> childAt(int index) { return children[index]; }
+
+        /**
+         *@Desc 在index处插入一个键（叶节点同时插入值），[index, size)整体右移
+         */
+        public void insertKey(int index, K key, V value) {
+            System.arraycopy(keys, index, keys, index + 1, size - index);
+            keys[index] = key;
+            if(leaf) {
+                System.arraycopy(values, index, values, index + 1, size - index);
+                values[index] = value;
+            }
+            ++ size;
+        }
+
+        /**
+         *@Desc 删除index处的键（叶节点同时删除值）
+         */
+        public void removeKey(int index) {
+            System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+            keys[size - 1] = null;
+            if(leaf) {
+                System.arraycopy(values, index + 1, values, index, size - index - 1);
+                values[size - 1] = null;
+            }
+            -- size;
+        }
+
+        /**
+         *@Desc 在index处插入子节点，childCount为插入前的子节点个数
+         */
+        public void insertChild(int index, BPlusTreeNode<K, V> child, int childCount) {
+            System.arraycopy(children, index, children, index + 1, childCount - index);
+            children[index] = child;
+        }
+
+        /**
+         *@Desc 删除index处的子节点，childCount为删除前的子节点个数
+         */
+        public void removeChild(int index, int childCount) {
+            System.arraycopy(children, index + 1, children, index, childCount - index - 1);
+            children[childCount - 1] = null;
+        }
+
+        /**
+         *@Desc 把src中从from开始的count个键（以及值或子节点）追加到末尾；内节点追加count + 1个子节点
+         */
+        public void append(BPlusTreeNode<K, V> src, int from, int count) {
+            System.arraycopy(src.keys, from, keys, size, count);
+            if(leaf)
+                System.arraycopy(src.values, from, values, size, count);
+            else
+                System.arraycopy(src.children, from, children, size, count + 1);
+            size += count;
+        }
+
+        /**
+         *@Desc 只保留前newSize个键（内节点保留newSize + 1个子节点）
+         */
+        public void truncate(int newSize) {
+            Arrays.fill(keys, newSize, size, null);
+            if(leaf)
+                Arrays.fill(values, newSize, size, null);
+            else
+                Arrays.fill(children, newSize + 1, size + 1, null);
+            size = newSize;
+        }
+    }
+
+    private static final int DEFAULT_T = 2;
+
+    /** B+树的根节点 */
+    private BPlusTreeNode<K, V> root;
+    /** 每个非根节点的键数n满足(t - 1) <= n <= (2t - 1) */
+    private final int t;
+    /** 非根节点中最大的键数 */
+    private final int maxKeySize;
+    /** 键的比较函数对象 */
+    private final Comparator<K> kComparator;
+    /** 键值对的个数 */
+    private int size;
+    /** 结构性修改的次数，用于让迭代器快速失败 */
+    private int modCount;
+
+    public BPlusTree() {
+        this(null, DEFAULT_T);
+    }
+
+    public BPlusTree(int t) {
+        this(null, t);
+    }
+
+    public BPlusTree(Comparator<K> kComparator) {
+        this(kComparator, DEFAULT_T);
+    }
+
+    public BPlusTree(Comparator<K> kComparator, int t) {
+        if(t < 2)
+            throw new IllegalArgumentException("The minimum degree t must be at least 2: " + t);
+        this.kComparator = kComparator;
+        this.t = t;
+        maxKeySize = 2*t - 1;
+        root = new BPlusTreeNode<K, V>(t, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    int compare(K key1, K key2) {
+        return kComparator == null ? ((Comparable<K>)key1).compareTo(key2) : kComparator.compare(key1, key2);
+    }
+
+    /**
+     *@Desc 节点内二分查找，返回值的约定同Arrays.binarySearch
+     */
+    private int searchKey(BPlusTreeNode<K, V> node, K key) {
+        int low = 0;
+        int high = node.size() - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(node.keyAt(mid), key);
+            if(cmp < 0)
+                low = mid + 1;
+            else if(cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    /**
+     *@Desc 内节点中key所在子树的索引：等于分隔键时属于右边的子树
+     */
+    private int childIndex(BPlusTreeNode<K, V> node, K key) {
+        int index = searchKey(node, key);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     *@Desc 从根节点下降到key所在的叶节点
+     */
+    private BPlusTreeNode<K, V> findLeaf(K key) {
+        BPlusTreeNode<K, V> node = root;
+        while(!node.isLeaf())
+            node = node.childAt(childIndex(node, key));
+        return node;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     *@Desc 搜索给定的键，不存在时返回null
+     */
+    public V search(K key) {
+        BPlusTreeNode<K, V> leaf = findLeaf(key);
+        int index = searchKey(leaf, key);
+        return index >= 0 ? leaf.valueAt(index) : null;
+    }
+
+    /**
+     *@Desc 在B+树中插入给定的键值对，键已存在时返回false
+     */
+    public boolean insert(K key, V value) {
+        BPlusTreeNode<K, V> leaf = descendForInsert(key);
+        int index = searchKey(leaf, key);
+        if(index >= 0)
+            return false;
+        leaf.insertKey(-index - 1, key, value);
+        ++ size;
+        ++ modCount;
+        return true;
+    }
+
+    /**
+     *@Desc 如果B+树中存在给定的键，则更新值并返回旧值，否则插入并返回null
+     */
+    public V put(K key, V value) {
+        BPlusTreeNode<K, V> leaf = descendForInsert(key);
+        int index = searchKey(leaf, key);
+        if(index >= 0) {
+            V oldValue = leaf.valueAt(index);
+            leaf.values[index] = value;
+            return oldValue;
+        }
+        leaf.insertKey(-index - 1, key, value);
+        ++ size;
+        ++ modCount;
+        return null;
+    }
+
+    /**
+     *@Desc 从根节点下降到key应在的叶节点，沿途先分裂满节点，保证返回的叶节点未满
+     */
+    private BPlusTreeNode<K, V> descendForInsert(K key) {
+        if(root.size() == maxKeySize) { // 如果根节点满了，则B+树长高
+            BPlusTreeNode<K, V> newRoot = new BPlusTreeNode<K, V>(t, false);
+            newRoot.children[0] = root;
+            splitNode(newRoot, root, 0);
+            root = newRoot;
+        }
+        BPlusTreeNode<K, V> node = root;
+        while(!node.isLeaf()) {
+            int index = childIndex(node, key);
+            BPlusTreeNode<K, V> childNode = node.childAt(index);
+            if(childNode.size() == maxKeySize) {
+                splitNode(node, childNode, index);
+                // 分裂后的分隔键是右半部分的下界
+                if(compare(key, node.keyAt(index)) >= 0)
+                    childNode = node.childAt(index + 1);
+            }
+            node = childNode;
+        }
+        return node;
+    }
+
+    /**
+     *@Desc 分裂一个满子节点<code>childNode</code>，新节点作为第index + 1个子节点插入父节点。
+     *	叶节点：[0, t-1)留在原节点，[t-1, 2t-1)移到新节点，新节点的第一个键复制到父节点，并把新节点接入叶节点链表
+     *	内节点：同BTree，中间键(t-1)上升到父节点，它右边的键和子节点移到新节点
+     */
+    private void splitNode(BPlusTreeNode<K, V> parentNode, BPlusTreeNode<K, V> childNode, int index) {
+        assert childNode.size() == maxKeySize;
+        ++ modCount;
+
+        BPlusTreeNode<K, V> siblingNode = new BPlusTreeNode<K, V>(t, childNode.isLeaf());
+        K separator;
+        if(childNode.isLeaf()) {
+            siblingNode.append(childNode, t - 1, t);
+            childNode.truncate(t - 1);
+            separator = siblingNode.keyAt(0);
+            siblingNode.next = childNode.next;
+            siblingNode.prev = childNode;
+            if(childNode.next != null)
+                childNode.next.prev = siblingNode;
+            childNode.next = siblingNode;
+        } else {
+            separator = childNode.keyAt(t - 1);
+            siblingNode.append(childNode, t, t - 1);
+            childNode.truncate(t - 1);
+        }
+        parentNode.insertChild(index + 1, siblingNode, parentNode.size() + 1);
+        parentNode.insertKey(index, separator, null);
+    }
+
+    /**
+     *@Desc 从B+树中删除给定的键，返回被删除的值，不存在时返回null
+     */
+    public V delete(K key) {
+        ++ modCount;
+        BPlusTreeNode<K, V> node = root;
+        while(!node.isLeaf()) {
+            int index = childIndex(node, key);
+            BPlusTreeNode<K, V> childNode = node.childAt(index);
+            if(childNode.size() < t)
+                childNode = fillChild(node, index);
+            // 如果node是root并且在合并后不包含任何键了，则B+树变矮
+            if(node == root && node.size() == 0)
+                root = childNode;
+            node = childNode;
+        }
+        int index = searchKey(node, key);
+        if(index < 0)
+            return null;
+        V value = node.valueAt(index);
+        node.removeKey(index);
+        -- size;
+        return value;
+    }
+
+    /**
+     *@Desc 第index个子节点只有t-1个键：从兄弟借一个，或者与兄弟合并，返回key所在的子节点
+     */
+    private BPlusTreeNode<K, V> fillChild(BPlusTreeNode<K, V> node, int index) {
+        BPlusTreeNode<K, V> childNode = node.childAt(index);
+        if(index > 0 && node.childAt(index - 1).size() >= t) {
+            // 从左兄弟借最后一个
+            BPlusTreeNode<K, V> siblingNode = node.childAt(index - 1);
+            int last = siblingNode.size() - 1;
+            if(childNode.isLeaf()) {
+                childNode.insertKey(0, siblingNode.keyAt(last), siblingNode.valueAt(last));
+                node.keys[index - 1] = childNode.keyAt(0);
+            } else {
+                childNode.insertChild(0, siblingNode.childAt(last + 1), childNode.size() + 1);
+                childNode.insertKey(0, node.keyAt(index - 1), null);
+                node.keys[index - 1] = siblingNode.keyAt(last);
+                siblingNode.children[last + 1] = null;
+            }
+            siblingNode.removeKey(last);
+            return childNode;
+        }
+        if(index < node.size() && node.childAt(index + 1).size() >= t) {
+            // 从右兄弟借第一个
+            BPlusTreeNode<K, V> siblingNode = node.childAt(index + 1);
+            if(childNode.isLeaf()) {
+                childNode.insertKey(childNode.size(), siblingNode.keyAt(0), siblingNode.valueAt(0));
+                siblingNode.removeKey(0);
+                node.keys[index] = siblingNode.keyAt(0);
+            } else {
+                childNode.insertKey(childNode.size(), node.keyAt(index), null);
+                childNode.children[childNode.size()] = siblingNode.childAt(0);
+                node.keys[index] = siblingNode.keyAt(0);
+                siblingNode.removeChild(0, siblingNode.size() + 1);
+                siblingNode.removeKey(0);
+            }
+            return childNode;
+        }
+        // 左右兄弟都只有t-1个键，与其中一个合并
+        if(index < node.size()) {
+            mergeChildren(node, index);
+            return childNode;
+        }
+        mergeChildren(node, index - 1);
+        return node.childAt(index - 1);
+    }
+
+    /**
+     *@Desc 把第index + 1个子节点并入第index个子节点，删除两者之间的分隔键
+     */
+    private void mergeChildren(BPlusTreeNode<K, V> node, int index) {
+        BPlusTreeNode<K, V> leftNode = node.childAt(index);
+        BPlusTreeNode<K, V> rightNode = node.childAt(index + 1);
+        if(leftNode.isLeaf()) {
+            leftNode.append(rightNode, 0, rightNode.size());
+            leftNode.next = rightNode.next;
+            if(rightNode.next != null)
+                rightNode.next.prev = leftNode;
+        } else {
+            // 内节点合并时分隔键下降为中间的键，右节点的子节点接在其后
+            leftNode.insertKey(leftNode.size(), node.keyAt(index), null);
+            leftNode.append(rightNode, 0, rightNode.size());
+        }
+        node.removeChild(index + 1, node.size() + 1);
+        node.removeKey(index);
+    }
+
+    /**
+     *@Desc 按键升序遍历[from, to]范围内的键值对（端点为null表示不设界）。
+     *	只下降一次找到起始的叶节点，之后沿叶节点链表顺序前进。
+     */
+    public Iterator<Map.Entry<K, V>> range(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        return new RangeIterator(from, fromInclusive, to, toInclusive);
+    }
+
+    /**
+     *@Desc range()返回的迭代器
+     */
+    private class RangeIterator implements Iterator<Map.Entry<K, V>> {
+        private BPlusTreeNode<K, V> leaf;
+        private int index;
+        private final K to;
+        private final boolean toInclusive;
+        private final int expectedModCount = modCount;
+
+        RangeIterator(K from, boolean fromInclusive, K to, boolean toInclusive) {
+            this.to = to;
+            this.toInclusive = toInclusive;
+            if(from == null) {
+                leaf = root;
+                while(!leaf.isLeaf())
+                    leaf = leaf.childAt(0);
+                index = 0;
+            } else {
+                leaf = findLeaf(from);
+                index = searchKey(leaf, from);
+                if(index < 0)
+                    index = -index - 1;
+                else if(!fromInclusive)
+                    ++ index;
+            }
+            skipExhaustedLeaves();
+        }
+
+        /**
+         *@Desc 当前叶节点走完之后，沿链表跳到下一个非空的叶节点
+         */
+        private void skipExhaustedLeaves() {
+            while(leaf != null && index >= leaf.size()) {
+                leaf = leaf.next;
+                index = 0;
+            }
+        }
+
+        public boolean hasNext() {
+            if(modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if(leaf == null)
+                return false;
+            if(to == null)
+                return true;
+            int cmp = compare(leaf.keyAt(index), to);
+            return cmp < 0 || (cmp == 0 && toInclusive);
+        }
+
+        public Map.Entry<K, V> next() {
+            if(!hasNext())
+                throw new NoSuchElementException();
+            Map.Entry<K, V> entry = new AbstractMap.SimpleImmutableEntry<K, V>(leaf.keyAt(index), leaf.valueAt(index));
+            ++ index;
+            skipExhaustedLeaves();
+            return entry;
+        }
+    }
+}
@@ -1,8 +1,25 @@
 package com.newcoder.tree;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
 定义：
@@ -33,14 +50,40 @@ import java.util.List;
 			1）如果u.pi，至少有一个相邻的兄弟丰满（至少t个关键字）：
 				例如左兄弟节点比较丰满，将u.pi对应的u的位置的左边的关键字下降至u.pi最左边，将做兄弟节点的最右边上升至u.pi对对应u的位置的左边
 			2）如果u.pi的两个兄弟都不丰满：合并u.pi和其中一个兄弟，再将u的一个关键字下降至新合并的节点，作为中间节点，继续扫描
+
+快照（写时复制）：
+	snapshot()在O(1)时间内返回一个只读快照，快照与B树共享所有节点。
+	之后插入、删除在修改一个节点之前，如果它可能被快照引用，就先复制它并把父节点指向副本，
+	因此每次修改只复制从根节点到被修改节点的路径（以及借项、合并涉及的兄弟节点），未修改的子树由各个版本共享。
+
+顺序统计（可选的增强模式）：
+	每个节点记录子树中的项数（以及可选的聚合值，见BTreeAggregate），节点被修改之后由它的子节点和项重新计算。
+	插入、删除都只修改从根节点出发的一条路径（以及分裂、借项涉及的兄弟节点），所以维护的代价是每层O(t)。
+	rank、select、count沿一条路径下降，每层把左边的子树的项数加起来，时间为O(t log n)，不需要遍历。
+
+宽松删除（可选）：
+	delete不再在下降过程中借项、合并，只修改一条路径：项在叶节点中、移除之后叶节点不少于t - 1项时直接移除，
+	否则（项在内节点中，或者叶节点已经是最少的项数）把项原地换成一个墓碑（键不变、值为TOMBSTONE），不改变树的结构。
+	查找、游标、范围遍历、顺序统计都跳过墓碑；之后再插入同一个键时直接替换墓碑。
+	被删除的键记在一个队列中，墓碑占全部项的比例超过阈值后，用普通的删除真正移除墓碑，每次至多compactionStep个，
+	每次的额外工作有上界，墓碑的比例逐渐回到阈值之下。整理不在delete中进行，集中删除时每次delete只是换上墓碑：
+	默认由之后的insert、put、putAll顺带整理；设置了整理的执行器（setCompactionExecutor）时，delete只提交整理任务，
+	由调用方决定在什么时候、哪个线程中整理（例如空闲时）；也可以随时调用compact。
+	重新插入的键留在队列中成为过期的键；过期的键超过全部项的一半时，遍历一次树按键的顺序重建队列，
+	队列的长度因此是O(n)，重建的代价分摊到每次重新插入上是O(1)。
+	默认关闭。BTreeBenchmark的测量见setRelaxedDeleteEnabled。
+
+二进制快照文件：
+	writeSnapshot按层序写出所有节点（格式见SnapshotFile），readSnapshot直接由文件中的节点重建B树，
+	不执行插入和分裂；文件分成带校验和的块，读入时各块分别映射到内存、并行解码，再按层连接子节点。
  */
 public class BTree<K, V> {
     /**
-     *@Desc B树节点中的键值对。
+     *@Desc B树节点中的键值对。创建之后不再修改，因此可以被多个版本的节点共享。
      */
     private static class Entry<K, V> {
-        private K key;
-        private V value;
+        private final K key;
+        private final V value;
 
         public Entry(K key, V value) {
             this.key = key;
@@ -49,66 +92,73 @@ public class BTree<K, V> {
 
         public K getKey() { return key; }
         public V getValue() { return value; }
-        public void setValue(V value) { this.value = value; }
         @Override
         public String toString() { return key + ":" + value; }
     }
 
-    /**
-     *@Desc 在B树节点中搜索给定键值的返回结果。
-     */
-    private static class SearchResult<V> {
-        private boolean exist;	// 此次查找是否成功
-        private int index;		// 给定键值在B树节点中的位置（如果查找失败，则表示子节点应该在哪个子节点中）
-        private V value;		
-
-        public SearchResult(boolean exist, int index) {
-            this.exist = exist;
-            this.index = index;
-        }
-
-        public SearchResult(boolean exist, int index, V value) {
-            this(exist, index);
-            this.value = value;
-        }
-
-        public boolean isExist() { return exist; }
-        public int getIndex() { return index; }
-        public V getValue() { return value; }
-    }
-
     /**
      *@Desc B树中的节点。
+     *	项和子节点都存放在按最大容量（2t-1个项，2t个子节点）预先分配的数组中，
+     *	插入、删除、分裂、合并都是在数组内原地移动，不再每次重建列表。
      */
     private static class BTreeNode<K, V> {
-        /** 节点的项，按键非降序存放 */
-        private volatile List<Entry<K,V>> entrys;
-        /** 内节点的子节点 */
-        private volatile List<BTreeNode<K, V>> children;
+        /** 节点的项，按键非降序存放在[0, size)中 */
+        private Entry<K, V>[] entrys;
+        /** 内节点的子节点，存放在[0, childCount)中；叶节点不分配 */
+        private BTreeNode<K, V>[] children;
+        /** 项的个数 */
+        private int size;
+        /** 子节点的个数 */
+        private int childCount;
         /** 是否为叶子节点 */
         private boolean leaf;
         /** 键的比较函数对象 */
         private Comparator<K> kComparator;
+        /** 创建该节点时B树的写版本（见BTree.edit），与B树当前的写版本不同时，节点可能被快照引用，不能原地修改 */
+        private final Object owner;
+        /** 开启顺序统计时，子树中项的个数 */
+        private int count;
+        /** 设置了聚合时，子树的聚合值 */
+        private Object aggregate;
 
-        private BTreeNode() {
-            entrys = new ArrayList<Entry<K, V>>();
-            children = new ArrayList<BTreeNode<K, V>>();
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public BTreeNode(int t, Comparator<K> kComparator, Object owner) {
+            entrys = (Entry<K, V>[]) new Entry[2*t - 1];
             leaf = false;
+            this.kComparator = kComparator;
+            this.owner = owner;
         }
 
-        public BTreeNode(Comparator<K> kComparator) {
-            this();
-            this.kComparator = kComparator;
+        /**
+         *@Desc 复制src，新节点属于owner。只复制数组，项和子节点由两个节点共享
+         */
+        private BTreeNode(BTreeNode<K, V> src, Object owner) {
+            entrys = src.entrys.clone();
+            children = src.children == null ? null : src.children.clone();
+            size = src.size;
+            childCount = src.childCount;
+            leaf = src.leaf;
+            kComparator = src.kComparator;
+            count = src.count;
+            aggregate = src.aggregate;
+            this.owner = owner;
         }
 
         public boolean isLeaf() { return leaf; }
-        public void setLeaf(boolean leaf) { this.leaf = leaf; }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public void setLeaf(boolean leaf) {
+            this.leaf = leaf;
+            // 只有内节点才需要子节点数组，容量比项多一个
+            if(!leaf && children == null)
+                children = (BTreeNode<K, V>[]) new BTreeNode[entrys.length + 1];
+        }
 
         /**
          * @Desc 关键字的个数
          */
         public int size() {
-            return entrys.size();
+            return size;
         }
 
         /**
@@ -121,71 +171,90 @@ public class BTree<K, V> {
 
         /**
          *@Desc 二分查找指定key
+         *	找到时返回key所在的位置；
+         *	找不到时返回(-(插入位置) - 1)，与Arrays.binarySearch的约定相同。
+         *	查找路径上不分配任何对象，每一步只比较一次。
          */
-        public SearchResult<V> searchKey(K key) {
+        public int searchKey(K key) {
             int low = 0;
-            int high = entrys.size() - 1;
-            int mid = 0;
-            while(low <= high)
-            {
-                mid = (low + high) / 2;
-                Entry<K, V> entry = entrys.get(mid);
-                if(compare(entry.getKey(), key) == 0)
-                    break;
-                else if(compare(entry.getKey(), key) > 0)
+            int high = size - 1;
+            while(low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(entrys[mid].getKey(), key);
+                if(cmp < 0)
+                    low = mid + 1;
+                else if(cmp > 0)
                     high = mid - 1;
                 else
-                    low = mid + 1;
-            }
-            boolean result = false;
-            int index = 0;
-            V value = null;
-            if(low <= high) { // 查找成功
-                result = true;
-                index = mid; // index表示元素所在的位置
-                value = entrys.get(index).getValue();
+                    return mid; // 查找成功，返回元素所在的位置
             }
-            else {
-                result = false;
-                index = low; // index表示元素应该存在的位置
+            return -(low + 1); // 查找失败，low表示元素应该存在的位置
+        }
+
+        /**
+         *@Desc 与searchKey(K)相同，同时把比较次数累加到statistics中
+         */
+        public int searchKey(K key, BTreeStatistics statistics) {
+            int low = 0;
+            int high = size - 1;
+            while(low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(entrys[mid].getKey(), key);
+                ++ statistics.comparisons;
+                if(cmp < 0)
+                    low = mid + 1;
+                else if(cmp > 0)
+                    high = mid - 1;
+                else
+                    return mid;
             }
-            return new SearchResult<V>(result, index, value);
+            return -(low + 1);
         }
 
         /**
          *@Desc 将给定的项追加到节点的末尾
          */
         public void addEntry(Entry<K, V> entry) {
-            entrys.add(entry);
+            entrys[size++] = entry;
         }
 
         /**
          *@Desc 删除给定索引的entry
          */
         public Entry<K, V> removeEntry(int index) {
-            return entrys.remove(index);
+            Entry<K, V> entry = entrys[index];
+            System.arraycopy(entrys, index + 1, entrys, index, size - index - 1);
+            entrys[--size] = null;
+            return entry;
         }
 
         /**
          *@Desc 得到节点中给定索引的项。
          */
         public Entry<K, V> entryAt(int index) {
-            return entrys.get(index);
+            return entrys[index];
+        }
+
+        /**
+         *@Desc 用给定的项替换给定索引处的项，返回被替换的项
+         */
+        public Entry<K, V> setEntry(int index, Entry<K, V> entry) {
+            Entry<K, V> oldEntry = entrys[index];
+            entrys[index] = entry;
+            return oldEntry;
         }
 
         /**
          *@Desc 插入entry
-         * 	如果节点中存在给定的键，则更新其关联的值。
+         * 	如果节点中存在给定的键，则用entry替换原来的项（原来的项可能还被快照引用，不能修改它）。
          * 	否则插入。
          */
         public V putEntry(Entry<K, V> entry) {
-            SearchResult<V> result = searchKey(entry.getKey());
-            if(result.isExist()) {
-                V oldValue = entrys.get(result.getIndex()).getValue();
-                entrys.get(result.getIndex()).setValue(entry.getValue());
-                return oldValue;
+            int index = searchKey(entry.getKey());
+            if(index >= 0) {
+                return setEntry(index, entry).getValue();
             } else {
-                insertEntry(entry, result.getIndex());
+                insertEntry(entry, -index - 1);
                 return null;
             }
         }
@@ -195,11 +264,11 @@ public class BTree<K, V> {
          */
         public boolean insertEntry(Entry<K, V> entry)
         {
-            SearchResult<V> result = searchKey(entry.getKey());
-            if(result.isExist()) {
+            int index = searchKey(entry.getKey());
+            if(index >= 0) {
                 return false;
             } else {
-                insertEntry(entry, result.getIndex());
+                insertEntry(entry, -index - 1);
                 return true;
             }
         }
@@ -208,16 +277,26 @@ public class BTree<K, V> {
          *@Desc 在该节点中给定索引的位置插入给定的项
          */
         public void insertEntry(Entry<K, V> entry, int index) {
-            List<Entry<K, V>> newEntrys = new ArrayList<Entry<K, V>>();
-            int i = 0;
-            // index = 0或者index = keys.size()都没有问题
-            for(; i < index; ++ i)
-                newEntrys.add(entrys.get(i));
-            newEntrys.add(entry);
-            for(; i < entrys.size(); ++ i)
-                newEntrys.add(entrys.get(i));
-            entrys.clear();
-            entrys = newEntrys;
+            // index = 0或者index = size都没有问题，[index, size)整体右移一位
+            System.arraycopy(entrys, index, entrys, index + 1, size - index);
+            entrys[index] = entry;
+            ++ size;
+        }
+
+        /**
+         *@Desc 将src中[from, from + count)的项追加到该节点的末尾
+         */
+        public void addEntries(BTreeNode<K, V> src, int from, int count) {
+            System.arraycopy(src.entrys, from, entrys, size, count);
+            size += count;
+        }
+
+        /**
+         *@Desc 只保留前newSize个项，其余的项置空
+         */
+        public void truncateEntries(int newSize) {
+            Arrays.fill(entrys, newSize, size, null);
+            size = newSize;
         }
 
         /**
@@ -226,21 +305,29 @@ public class BTree<K, V> {
         public BTreeNode<K, V> childAt(int index) {
             if(isLeaf())
                 throw new UnsupportedOperationException("Leaf node doesn't have children.");
-            return children.get(index);
+            return children[index];
         }
 
         /**
          *@Desc 将给定的子节点追加到该节点的末尾
          */
         public void addChild(BTreeNode<K, V> child) {
-            children.add(child);
+            children[childCount++] = child;
+        }
+
+        /**
+         *@Desc 用给定的子节点替换给定索引处的子节点
+         */
+        public void setChild(int index, BTreeNode<K, V> child) {
+            children[index] = child;
         }
 
         /**
          *@Desc 删除该节点中给定索引位置的子节点 
          */
         public void removeChild(int index) {
-            children.remove(index);
+            System.arraycopy(children, index + 1, children, index, childCount - index - 1);
+            children[--childCount] = null;
         }
 
         /**
@@ -248,18 +335,45 @@ public class BTree<K, V> {
          */
         public void insertChild(BTreeNode<K, V> child, int index)
         {
-            List<BTreeNode<K, V>> newChildren = new ArrayList<BTreeNode<K, V>>();
-            int i = 0;
-            for(; i < index; ++ i)
-                newChildren.add(children.get(i));
-            newChildren.add(child);
-            for(; i < children.size(); ++ i)
-                newChildren.add(children.get(i));
-            children = newChildren;
+            System.arraycopy(children, index, children, index + 1, childCount - index);
+            children[index] = child;
+            ++ childCount;
+        }
+
+        /**
+         *@Desc 将src中[from, from + count)的子节点追加到该节点的末尾
+         */
+        public void addChildren(BTreeNode<K, V> src, int from, int count) {
+            System.arraycopy(src.children, from, children, childCount, count);
+            childCount += count;
+        }
+
+        /**
+         *@Desc 只保留前newCount个子节点，其余的子节点置空
+         */
+        public void truncateChildren(int newCount) {
+            Arrays.fill(children, newCount, childCount, null);
+            childCount = newCount;
         }
     }
 
     private static final int DEFAULT_T = 2;
+    /** 墓碑项的值：宽松删除时被删除的项换成值为TOMBSTONE的项 */
+    private static final Object TOMBSTONE = new Object();
+    /** 墓碑比例的默认阈值 */
+    private static final double DEFAULT_TOMBSTONE_RATIO = 0.25;
+    /** 默认每次整理移除的墓碑数 */
+    private static final int DEFAULT_COMPACTION_STEP = 2;
+    /** 墓碑队列中过期的键不超过这个数时不重建队列，避免小树上频繁遍历 */
+    private static final int MIN_STALE_TOMBSTONE_KEYS = 64;
+    /** replaceValue没有原地替换时的返回值 */
+    static final Object ABSENT = new Object();
+    /** purge的结果：key不是墓碑 */
+    private static final int KEPT = 0;
+    /** purge的结果：已经从叶节点中直接移除 */
+    private static final int REMOVED = 1;
+    /** purge的结果：是墓碑，但移除之后节点会不足t-1个项，需要普通的删除 */
+    private static final int REBALANCE = 2;
 
     /** B树的根节点 */
     private BTreeNode<K, V> root;
@@ -271,36 +385,127 @@ public class BTree<K, V> {
     private int maxKeySize = 2*t - 1;
     /** 键的比较函数对象 */
     private Comparator<K> kComparator;
+    /** 项的个数 */
+    private int size;
+    /** 结构性修改（插入、删除、分裂）的次数，用于让游标和迭代器快速失败 */
+    private int modCount;
+    /**
+     * 当前的写版本：只有owner等于edit的节点才能原地修改。
+     * snapshot()之后换成一个新的对象，此前的节点都归快照所有，修改前要先复制；快照的edit为null，不允许修改。
+     */
+    private Object edit = new Object();
+    /** 结构计数，为null时不统计 */
+    private BTreeStatistics statistics;
+    /** 是否在每个节点中维护子树的项数 */
+    private boolean orderStatistics;
+    /** 每个子树上维护的聚合，为null时不维护；设置了聚合时一定开启了顺序统计 */
+    private BTreeAggregate<K, V, Object> aggregate;
+    /** 是否宽松删除 */
+    private boolean relaxedDelete;
+    /** 树中墓碑的个数，不计入size */
+    private int tombstones;
+    /** 可能还是墓碑的键，按删除的顺序（重建之后按键的顺序）；其中的键可能已经被重新插入或者移除 */
+    private final ArrayDeque<K> tombstoneKeys = new ArrayDeque<K>();
+    /** 墓碑占全部项（包括墓碑）的比例超过它时整理墓碑 */
+    private double maxTombstoneRatio = DEFAULT_TOMBSTONE_RATIO;
+    /** 每次整理移除的墓碑数的上限 */
+    private int compactionStep = DEFAULT_COMPACTION_STEP;
+    /** 运行整理任务的执行器，为null时由插入顺带整理 */
+    private Executor compactionExecutor;
+    /** 已经提交给compactionExecutor而还没有运行的整理任务 */
+    private boolean compactionScheduled;
 
     /**
      *@Desc 构造一颗B树，键值采用采用自然排序方式
      */
     public BTree() {
-        root = new BTreeNode<K, V>();
-        root.setLeaf(true);
+        this(null, DEFAULT_T);
     }
 
     public BTree(int t) {
-        this();
-        this.t = t;
-        minKeySize = t - 1;
-        maxKeySize = 2*t - 1;
+        this(null, t);
     }
 
     /**
      *@Desc 以给定的键值比较函数对象构造一颗B树。
      */
     public BTree(Comparator<K> kComparator) {
-        root = new BTreeNode<K, V>(kComparator);
-        root.setLeaf(true);
-        this.kComparator = kComparator;
+        this(kComparator, DEFAULT_T);
     }
 
     public BTree(Comparator<K> kComparator, int t) {
-        this(kComparator);
+        if(t < 2)
+            throw new IllegalArgumentException("The minimum degree t must be at least 2: " + t);
+        this.kComparator = kComparator;
         this.t = t;
         minKeySize = t - 1;
         maxKeySize = 2*t - 1;
+        root = newNode(true);
+    }
+
+    /**
+     *@Desc 快照：与source共享根节点，edit为null表示只读
+     */
+    private BTree(BTree<K, V> source) {
+        kComparator = source.kComparator;
+        t = source.t;
+        minKeySize = source.minKeySize;
+        maxKeySize = source.maxKeySize;
+        root = source.root;
+        size = source.size;
+        orderStatistics = source.orderStatistics;
+        aggregate = source.aggregate;
+        tombstones = source.tombstones;
+        edit = null;
+    }
+
+    /**
+     *@Desc 按当前的t创建一个节点，节点的数组容量由t决定
+     */
+    private BTreeNode<K, V> newNode(boolean leaf) {
+        BTreeNode<K, V> node = new BTreeNode<K, V>(t, kComparator, edit);
+        node.setLeaf(leaf);
+        return node;
+    }
+
+    /**
+     *@Desc 返回当前内容的只读快照，时间为O(1)。
+     *	快照和B树共享全部节点，此后B树在修改一个节点之前先复制它，快照中的节点不会再被修改，
+     *	因此写线程继续修改B树的同时，其他线程可以不加锁地读取快照（需要经由volatile字段、并发容器等安全发布）。
+     *	快照的插入、删除等修改操作抛出UnsupportedOperationException；不再被引用的快照及其独有的节点由GC回收。
+     */
+    public BTree<K, V> snapshot() {
+        BTree<K, V> snapshot = new BTree<K, V>(this);
+        if(edit != null)
+            edit = new Object();
+        return snapshot;
+    }
+
+    private void checkWritable() {
+        if(edit == null)
+            throw new UnsupportedOperationException("A BTree snapshot is read-only.");
+    }
+
+    /**
+     *@Desc 返回可以原地修改的node：node属于当前写版本时就是它本身，否则是它的副本
+     */
+    private BTreeNode<K, V> writable(BTreeNode<K, V> node) {
+        if(node.owner == edit)
+            return node;
+        // 游标可能还指向被复制的节点，让它们快速失败
+        ++ modCount;
+        return new BTreeNode<K, V>(node, edit);
+    }
+
+    /**
+     *@Desc 返回node（必须可以原地修改）中给定索引处可以原地修改的子节点，必要时复制子节点并让node指向副本
+     */
+    private BTreeNode<K, V> writableChild(BTreeNode<K, V> node, int index) {
+        BTreeNode<K, V> child = node.childAt(index);
+        BTreeNode<K, V> copy = writable(child);
+        if(copy != child)
+            node.setChild(index, copy);
+        return copy;
     }
 
     @SuppressWarnings("unchecked")
@@ -311,288 +516,1825 @@ public class BTree<K, V> {
 
     /**
      *@Desc 搜索给定的键 
+     *	从根节点逐层向下查找，不需要递归，也不分配任何对象
      */
     public V search(K key)
     {
-        return search(root, key);
+        if(statistics != null)
+            return countedSearch(key);
+        BTreeNode<K, V> node = root;
+        while(true) {
+            int index = node.searchKey(key);
+            if(index >= 0)
+                return valueOf(node.entryAt(index));
+            if(node.isLeaf())
+                return null;
+            node = node.childAt(-index - 1);
+        }
     }
 
     /**
-     *@Desc 在以给定节点为根的子树中，递归搜索给定的<code>key</code>
+     *@Desc 开启统计时的search：额外记录经过的节点数和比较次数
      */
-    private V search(BTreeNode<K, V> node, K key)
-    {
-        SearchResult<V> result = node.searchKey(key);
-        if(result.isExist()) {
-            return result.getValue();
-        } else {
+    private V countedSearch(K key) {
+        BTreeStatistics statistics = this.statistics;
+        ++ statistics.lookups;
+        BTreeNode<K, V> node = root;
+        while(true) {
+            ++ statistics.nodesVisited;
+            int index = node.searchKey(key, statistics);
+            if(index >= 0)
+                return valueOf(node.entryAt(index));
             if(node.isLeaf())
                 return null;
-            else
-                search(node.childAt(result.getIndex()), key);
+            node = node.childAt(-index - 1);
         }
-        return null;
     }
 
     /**
-     *@Desc 分裂一个满子节点<code>childNode</code>。
-     *	将中间节点(t-1)拉出来放进父节点中
-     *	(t-1)右侧独立出来成为新子节点（ps：它的孩子也要移交给新子节点）
+     *@Desc 开启或关闭结构计数（分裂、合并、借项、树高变化、search的比较次数和深度）。
+     *	关闭时计数清空，操作中只多一次判空；重新开启时从0开始
      */
-    private void splitNode(BTreeNode<K, V> parentNode, BTreeNode<K, V> childNode, int index) {
-        assert childNode.size() == maxKeySize;
+    public void setStatisticsEnabled(boolean enabled) {
+        if(!enabled)
+            statistics = null;
+        else if(statistics == null)
+            statistics = new BTreeStatistics();
+    }
 
-        BTreeNode<K, V> siblingNode = new BTreeNode<K, V>(kComparator);
-        siblingNode.setLeaf(childNode.isLeaf());
-        // 将满子节点中索引为[t, 2t - 2]的(t - 1)个项插入新的节点中
-        for(int i = 0; i < minKeySize; ++ i)
-            siblingNode.addEntry(childNode.entryAt(t + i));
-        // 提取满子节点中的中间项，其索引为(t - 1)
-        Entry<K, V> entry = childNode.entryAt(t - 1);
-        // 删除满子节点中索引为[t - 1, 2t - 2]的t个项
-        for(int i = maxKeySize - 1; i >= t - 1; -- i)
-            childNode.removeEntry(i);
-        if(!childNode.isLeaf()) { // 如果满子节点不是叶节点，则还需要处理其子节点
-            // 将满子节点中索引为[t, 2t - 1]的t个子节点插入新的节点中
-            for(int i = 0; i < minKeySize + 1; ++ i)
-                siblingNode.addChild(childNode.childAt(t + i));
-            // 删除满子节点中索引为[t, 2t - 1]的t个子节点
-            for(int i = maxKeySize; i >= t; -- i)
-                childNode.removeChild(i);
-        }
-        // 将entry插入父节点
-        parentNode.insertEntry(entry, index);
-        // 将新节点插入父节点
-        parentNode.insertChild(siblingNode, index + 1);
+    /**
+     *@Desc 结构计数，没有开启时返回null
+     */
+    public BTreeStatistics statistics() {
+        return statistics;
     }
 
     /**
-     *@Desc 在一个非满节点中插入给定的项。
+     *@Desc 遍历整棵树，计算树高和节点填充率的分布，时间为O(节点数)
      */
-    private boolean insertNotFull(BTreeNode<K, V> node, Entry<K, V> entry) {
-        assert node.size() < maxKeySize;
+    public BTreeStatistics.Shape shape() {
+        int height = 1;
+        for(BTreeNode<K, V> node = root; !node.isLeaf(); node = node.childAt(0))
+            ++ height;
+        long[] fillHistogram = new long[BTreeStatistics.Shape.BUCKETS];
+        long[] nodesPerLevel = new long[height];
+        long[] totals = new long[2]; // {节点数, 项数}
+        shape(root, 0, fillHistogram, nodesPerLevel, totals);
+        return new BTreeStatistics.Shape(height, totals[0], totals[1], maxKeySize, fillHistogram, nodesPerLevel);
+    }
 
-        if(node.isLeaf()) {
-        	// 如果是叶子节点，直接插入
-            return node.insertEntry(entry);
-        } else {
-            // 找到entry在给定节点应该插入的位置，那么entry应该插入该位置对应的子树中
-            SearchResult<V> result = node.searchKey(entry.getKey());
-            // 如果存在，则直接返回失败
-            if(result.isExist())
-                return false;
-            
-            BTreeNode<K, V> childNode = node.childAt(result.getIndex());
-            if(childNode.size() == 2*t - 1) {
-                // 如果子节点是满节点, 则先分裂
-                splitNode(node, childNode, result.getIndex());
-                // 如果给定entry的键大于分裂之后新生成项的键，则需要插入该新项的右边， 否则左边。
-                if(compare(entry.getKey(), node.entryAt(result.getIndex()).getKey()) > 0)
-                    childNode = node.childAt(result.getIndex() + 1);
-            }
-            return insertNotFull(childNode, entry);
+    private void shape(BTreeNode<K, V> node, int level, long[] fillHistogram, long[] nodesPerLevel, long[] totals) {
+        ++ totals[0];
+        totals[1] += node.size();
+        ++ nodesPerLevel[level];
+        ++ fillHistogram[Math.min(BTreeStatistics.Shape.BUCKETS - 1, node.size() * BTreeStatistics.Shape.BUCKETS / maxKeySize)];
+        if(!node.isLeaf()) {
+            for(int i = 0; i <= node.size(); ++ i)
+                shape(node.childAt(i), level + 1, fillHistogram, nodesPerLevel, totals);
         }
     }
 
     /**
-     *@Desc 在B树中插入给定的键值对。
+     *@Desc 开启或关闭顺序统计：每个节点维护子树中的项数，rank、select、count的时间为O(t log n)。
+     *	开启时遍历整棵树计算一次，时间为O(n)（可能被快照引用的节点先复制，快照不受影响），之后每次修改只重新计算路径上的节点；
+     *	关闭时同时去掉聚合
      */
-    public boolean insert(K key, V value) {
-        if(root.size() == maxKeySize) { // 如果根节点满了，则B树长高
-            BTreeNode<K, V> newRoot = new BTreeNode<K, V>(kComparator);
-            newRoot.setLeaf(false);
-            newRoot.addChild(root);
-            splitNode(newRoot, root, 0);
-            root = newRoot;
+    public void setOrderStatisticsEnabled(boolean enabled) {
+        checkWritable();
+        if(!enabled) {
+            orderStatistics = false;
+            aggregate = null;
+        } else if(!orderStatistics) {
+            orderStatistics = true;
+            root = writable(root);
+            augmentAll(root);
         }
-        return insertNotFull(root, new Entry<K, V>(key, value));
     }
 
     /**
-     *@Desc 如果存在给定的键，则更新键关联的值，否则插入给定的项。(同insertNotFull)
+     *@Desc 在每个子树上维护给定的聚合（同时开启顺序统计），之后可以用aggregate在O(t log n)时间内求任意范围的聚合值。
+     *	设置时遍历整棵树计算一次，时间为O(n)；aggregate为null时去掉聚合，只保留项数
      */
-    private V putNotFull(BTreeNode<K, V> node, Entry<K, V> entry)
-    {
-        assert node.size() < maxKeySize;
+    @SuppressWarnings("unchecked")
+    public <A> void setAggregate(BTreeAggregate<? super K, ? super V, A> aggregate) {
+        checkWritable();
+        this.aggregate = (BTreeAggregate<K, V, Object>) aggregate;
+        if(aggregate != null) {
+            orderStatistics = true;
+            root = writable(root);
+            augmentAll(root);
+        }
+    }
 
-        if(node.isLeaf()) {
-        	// 如果是叶子节点，直接插入
-            return node.putEntry(entry);
-        } else {
-            // 找到entry在给定节点应该插入的位置，那么entry应该插入该位置对应的子树中
-            SearchResult<V> result = node.searchKey(entry.getKey());
-            // 如果存在，则更新
-            if(result.isExist())
-                return node.putEntry(entry);
-            
-            BTreeNode<K, V> childNode = node.childAt(result.getIndex());
-            if(childNode.size() == 2*t - 1) {
-                // 如果子节点是满节点, 则先分裂
-                splitNode(node, childNode, result.getIndex());
-                // 如果给定entry的键大于分裂之后新生成项的键，则需要插入该新项的右边，否则左边。
-                if(compare(entry.getKey(), node.entryAt(result.getIndex()).getKey()) > 0)
-                    childNode = node.childAt(result.getIndex() + 1);
+    private void checkOrderStatistics() {
+        if(!orderStatistics)
+            throw new IllegalStateException("Order statistics are not enabled on this BTree.");
+    }
+
+    /**
+     *@Desc 小于key的项数，key存在时就是它按键升序的序号（从0开始）。需要开启顺序统计
+     */
+    public int rank(K key) {
+        checkOrderStatistics();
+        return rank(key, false);
+    }
+
+    /**
+     *@Desc 小于（inclusive时为小于等于）key的项数：沿key的查找路径下降，累加每层排在key之前的项和子树
+     */
+    private int rank(K key, boolean inclusive) {
+        int rank = 0;
+        BTreeNode<K, V> node = root;
+        while(true) {
+            int index = node.searchKey(key);
+            // 节点中排在key之前的项和它们左边的子树
+            int before = index >= 0 ? index : -index - 1;
+            rank += liveEntries(node, before);
+            if(!node.isLeaf()) {
+                for(int i = 0; i < before; ++ i)
+                    rank += node.childAt(i).count;
+            }
+            if(index >= 0) {
+                // key左边的子树也都小于key
+                if(!node.isLeaf())
+                    rank += node.childAt(index).count;
+                return inclusive && !isTombstone(node.entryAt(index)) ? rank + 1 : rank;
             }
-            return putNotFull(childNode, entry);
+            if(node.isLeaf())
+                return rank;
+            node = node.childAt(before);
         }
     }
 
     /**
-     *@Desc 如果B树中存在给定的键，则更新值，否则插入。
+     *@Desc 按键升序的第index个项（从0开始）。需要开启顺序统计
      */
-    public V put(K key, V value) {
-        if(root.size() == maxKeySize) {// 如果根节点满了，则B树长高
-            BTreeNode<K, V> newRoot = new BTreeNode<K, V>(kComparator);
-            newRoot.setLeaf(false);
-            newRoot.addChild(root);
-            splitNode(newRoot, root, 0);
-            root = newRoot;
+    public Map.Entry<K, V> select(int index) {
+        checkOrderStatistics();
+        if(index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        BTreeNode<K, V> node = root;
+        while(!node.isLeaf()) {
+            // 依次跳过左边的子树和项，直到第index个项落在某个子树中或者就是节点中的项
+            int i = 0;
+            while(index >= node.childAt(i).count) {
+                index -= node.childAt(i).count;
+                if(!isTombstone(node.entryAt(i))) {
+                    if(index == 0)
+                        return exportEntry(node.entryAt(i));
+                    -- index;
+                }
+                ++ i;
+            }
+            node = node.childAt(i);
+        }
+        // 叶节点中第index个不是墓碑的项
+        for(int i = 0; ; ++ i) {
+            if(!isTombstone(node.entryAt(i)) && index-- == 0)
+                return exportEntry(node.entryAt(i));
         }
-        return putNotFull(root, new Entry<K, V>(key, value));
     }
 
     /**
-     *@Desc 从B树中删除一个与给定键关联的项 
+     *@Desc [from, to]范围内的项数（是否包含端点由fromInclusive/toInclusive决定，端点为null表示不设界），
+     *	即两次rank之差。需要开启顺序统计
      */
-    public Entry<K, V> delete(K key) {
-        return delete(root, key);
+    public int count(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        checkOrderStatistics();
+        int low = from == null ? 0 : rank(from, !fromInclusive);
+        int high = to == null ? size : rank(to, toInclusive);
+        return Math.max(0, high - low);
     }
 
     /**
-     *@Desc 从以给定<code>node</code>为根的子树中删除与给定键关联的项。
+     *@Desc [from, to]范围内的项的聚合值（参数同count），范围内没有项时返回identity()。需要先setAggregate。
+     *	只有范围两端的两条路径需要逐项合并，中间完整的子树直接使用节点中的聚合值
      */
-    private Entry<K, V> delete(BTreeNode<K, V> node, K key) {
-        // 该过程需要保证，对非根节点执行删除操作时，其关键字个数至少为t。
-        assert node.size() >= t || node == root;
+    @SuppressWarnings("unchecked")
+    public <A> A aggregate(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        if(aggregate == null)
+            throw new IllegalStateException("No aggregate is set on this BTree.");
+        return (A) aggregate(root, from, fromInclusive, to, toInclusive);
+    }
 
-        SearchResult<V> result = node.searchKey(key);
-        
-        // 因为这是查找成功的情况，0 <= result.getIndex() <= (node.size() - 1)，因此(result.getIndex() + 1)不会溢出
-        if(result.isExist()) {
-            // 1.如果关键字在节点node中，并且是叶节点，则直接删除。
-            if(node.isLeaf()) {
-                return node.removeEntry(result.getIndex());
-            } else {
-                // 2.a 如果节点node.key的左孩子至少包含至少t个项，则从左孩子中找到最大的代替此节点，删除之（递归至叶节点）
-                BTreeNode<K, V> leftChildNode = node.childAt(result.getIndex());
-                if(leftChildNode.size() >= t) {
-                    // 使用leftChildNode中的最后一个项代替node中需要删除的项
-                    node.removeEntry(result.getIndex());
-                    node.insertEntry(leftChildNode.entryAt(leftChildNode.size() - 1), result.getIndex());
-                    // 递归删除左子节点中的最后一个项
-                    return delete(leftChildNode, leftChildNode.entryAt(leftChildNode.size() - 1).getKey());
-                }
-                else {
-                    // 2.b 如果节点node.key的右孩子至少包含t个项，则从右孩子中找到最小的代替此节点，删除之（递归至叶节点）
-                    BTreeNode<K, V> rightChildNode = node.childAt(result.getIndex() + 1);
-                    if(rightChildNode.size() >= t) {
-                        // 使用rightChildNode中的第一个项代替node中需要删除的项
-                        node.removeEntry(result.getIndex());
-                        node.insertEntry(rightChildNode.entryAt(0), result.getIndex());
-                        // 递归删除右子节点中的第一个项
-                        return delete(rightChildNode, rightChildNode.entryAt(0).getKey());
-                    } else { 
-                    	// 2.c node.key的左孩子和右孩子都是t-1个，将右孩子和node.key一起并入左孩子，递归删除
-                        Entry<K, V> deletedEntry = node.removeEntry(result.getIndex());
-                        node.removeChild(result.getIndex() + 1);
-                        // 将node中与key关联的项和rightChildNode中的项合并进leftChildNode
-                        leftChildNode.addEntry(deletedEntry);
-                        for(int i = 0; i < rightChildNode.size(); ++ i)
-                            leftChildNode.addEntry(rightChildNode.entryAt(i));
-                        // 将rightChildNode中的子节点合并进leftChildNode，如果有的话
-                        if(!rightChildNode.isLeaf()) {
-                            for(int i = 0; i <= rightChildNode.size(); ++ i)
-                                leftChildNode.addChild(rightChildNode.childAt(i));
-                        }
-                        return delete(leftChildNode, key);
-                    }
-                }
-            }
-        } else {
-            // 查找过程中，node.index是包含key的子树
-            if(node.isLeaf()) {
-            	// 如果关键字不在节点node中，并且是叶节点，则什么都不做，因为该关键字不在该B树中
-                System.out.println("The key: " + key + " isn't in this BTree.");
-                return null;
+    private Object aggregate(BTreeNode<K, V> node, K from, boolean fromInclusive, K to, boolean toInclusive) {
+        if(from == null && to == null)
+            return node.aggregate;
+        // 节点中[low, high)的项在范围内
+        int low = from == null ? 0 : entriesBefore(node, from, !fromInclusive);
+        int high = to == null ? node.size() : entriesBefore(node, to, toInclusive);
+        if(low >= high) {
+            // 节点中没有项在范围内，范围至多落在第low个子树中
+            if(node.isLeaf() || low > high)
+                return aggregate.identity();
+            return aggregate(node.childAt(low), from, fromInclusive, to, toInclusive);
+        }
+        // 第low个子树中的键都小于第low个项，只受下界限制；第high个子树只受上界限制
+        Object result = node.isLeaf() ? aggregate.identity() : aggregate(node.childAt(low), from, fromInclusive, null, true);
+        for(int i = low; i < high; ++ i) {
+            Entry<K, V> entry = node.entryAt(i);
+            if(!isTombstone(entry))
+                result = aggregate.combine(result, aggregate.of(entry.getKey(), entry.getValue()));
+            if(!node.isLeaf()) {
+                Object child = i + 1 < high ? node.childAt(i + 1).aggregate : aggregate(node.childAt(high), null, true, to, toInclusive);
+                result = aggregate.combine(result, child);
             }
-            
-            BTreeNode<K, V> childNode = node.childAt(result.getIndex());
-            if(childNode.size() >= t) { // 如果子节点有不少于t个项，无法合并，则递归删除
-                return delete(childNode, key);
-            } else {
-            	// 该子树只包含t-1个关键字，需合并
-                // 先查找右边的兄弟节点
-                BTreeNode<K, V> siblingNode = null;
-                int siblingIndex = -1;
-                if(result.getIndex() < node.size()) { // 存在右兄弟节点
-                    if(node.childAt(result.getIndex() + 1).size() >= t) {
-                        siblingNode = node.childAt(result.getIndex() + 1);
-                        siblingIndex = result.getIndex() + 1;
-                    }
-                }
-                // 如果右边的兄弟节点不符合条件，则试试左边的兄弟节点
-                if(siblingNode == null) {
-                    if(result.getIndex() > 0) { // 存在左兄弟节点 
-                        if(node.childAt(result.getIndex() - 1).size() >= t) {
-                            siblingNode = node.childAt(result.getIndex() - 1);
-                            siblingIndex = result.getIndex() - 1;
-                        }
-                    }
-                }
-                // 3.a 有一个相邻兄弟节点至少包含t个项（将兄弟的上司移至child里面，将兄弟节点的一个键上升至node）
-                if(siblingNode != null) {
-                    if(siblingIndex < result.getIndex()) {// 左兄弟节点满足条件
-                        childNode.insertEntry(node.entryAt(siblingIndex), 0);
-                        node.removeEntry(siblingIndex);
-                        node.insertEntry(siblingNode.entryAt(siblingNode.size() - 1), siblingIndex);
-                        siblingNode.removeEntry(siblingNode.size() - 1);
-                        // 将左兄弟节点的最后一个孩子移到childNode
-                        if(!siblingNode.isLeaf()) {
-                            childNode.insertChild(siblingNode.childAt(siblingNode.size()), 0);
-                            siblingNode.removeChild(siblingNode.size());
-                        }
-                    } else {// 右兄弟节点满足条件 
-                        childNode.insertEntry(node.entryAt(result.getIndex()), childNode.size() - 1);
-                        node.removeEntry(result.getIndex());
-                        node.insertEntry(siblingNode.entryAt(0), result.getIndex());
-                        siblingNode.removeEntry(0);
-                        // 将右兄弟节点的第一个孩子移到childNode
-                        if(!siblingNode.isLeaf()) {
-                            childNode.addChild(siblingNode.childAt(0));
-                            siblingNode.removeChild(0);
-                        }
-                    }
-                    return delete(childNode, key);
-                } else {// 3.b 如果其相邻左右节点都包含t-1个项：合并child和其中一个兄弟，再将node中的一个键值下降至新合并的节点（成为中间节点）
-                    if(result.getIndex() < node.size()) { // 存在右兄弟，直接在后面追加
-                        BTreeNode<K, V> rightSiblingNode = node.childAt(result.getIndex() + 1);
-                        childNode.addEntry(node.entryAt(result.getIndex()));
-                        node.removeEntry(result.getIndex());
-                        node.removeChild(result.getIndex() + 1);
-                        for(int i = 0; i < rightSiblingNode.size(); ++ i)
-                            childNode.addEntry(rightSiblingNode.entryAt(i));
-                        if(!rightSiblingNode.isLeaf()) {
-                            for(int i = 0; i <= rightSiblingNode.size(); ++ i)
-                                childNode.addChild(rightSiblingNode.childAt(i));
-                        }
-                    } else {// 存在左节点，在前面插入 
-                        BTreeNode<K, V> leftSiblingNode = node.childAt(result.getIndex() - 1);
-                        childNode.insertEntry(node.entryAt(result.getIndex() - 1), 0);
-                        node.removeEntry(result.getIndex() - 1);
-                        node.removeChild(result.getIndex() - 1);
-                        for(int i = leftSiblingNode.size() - 1; i >= 0; -- i)
-                            childNode.insertEntry(leftSiblingNode.entryAt(i), 0);
-                        if(!leftSiblingNode.isLeaf()) {
-                            for(int i = leftSiblingNode.size(); i >= 0; -- i)
-                                childNode.insertChild(leftSiblingNode.childAt(i), 0);
-                        }
-                    }
-                    // 如果node是root并且node不包含任何项了
-                    if(node == root && node.size() == 0)
-                        root = childNode;
-                    return delete(childNode, key);
-                }
+        }
+        return result;
+    }
+
+    /**
+     *@Desc node的前end个项中不是墓碑的项数
+     */
+    private int liveEntries(BTreeNode<K, V> node, int end) {
+        if(tombstones == 0)
+            return end;
+        int live = 0;
+        for(int i = 0; i < end; ++ i) {
+            if(!isTombstone(node.entryAt(i)))
+                ++ live;
+        }
+        return live;
+    }
+
+    /**
+     *@Desc 节点中小于（inclusive时为小于等于）key的项数
+     */
+    private int entriesBefore(BTreeNode<K, V> node, K key, boolean inclusive) {
+        int index = node.searchKey(key);
+        if(index >= 0)
+            return inclusive ? index + 1 : index;
+        return -index - 1;
+    }
+
+    /**
+     *@Desc 开启顺序统计时，由子节点和节点中的项重新计算node的项数和聚合值，node必须可以原地修改
+     */
+    private void augment(BTreeNode<K, V> node) {
+        if(!orderStatistics)
+            return;
+        int count = liveEntries(node, node.size());
+        if(!node.isLeaf()) {
+            for(int i = 0; i <= node.size(); ++ i)
+                count += node.childAt(i).count;
+        }
+        node.count = count;
+        if(aggregate != null) {
+            Object value = node.isLeaf() ? aggregate.identity() : node.childAt(0).aggregate;
+            for(int i = 0; i < node.size(); ++ i) {
+                Entry<K, V> entry = node.entryAt(i);
+                if(!isTombstone(entry))
+                    value = aggregate.combine(value, aggregate.of(entry.getKey(), entry.getValue()));
+                if(!node.isLeaf())
+                    value = aggregate.combine(value, node.childAt(i + 1).aggregate);
             }
+            node.aggregate = value;
+        }
+    }
+
+    /**
+     *@Desc 自底向上重新计算以node为根的整棵子树，node必须可以原地修改，子节点必要时先复制
+     */
+    private void augmentAll(BTreeNode<K, V> node) {
+        if(!node.isLeaf()) {
+            for(int i = 0; i <= node.size(); ++ i)
+                augmentAll(writableChild(node, i));
+        }
+        augment(node);
+    }
+
+    /**
+     *@Desc 项的个数
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     *@Desc 是否存在给定的键（值可能为null时，用它区分search返回的null）
+     */
+    public boolean containsKey(K key) {
+        BTreeNode<K, V> node = root;
+        while(true) {
+            int index = node.searchKey(key);
+            if(index >= 0)
+                return !isTombstone(node.entryAt(index));
+            if(node.isLeaf())
+                return false;
+            node = node.childAt(-index - 1);
+        }
+    }
+
+    /**
+     *@Desc 删除所有的项
+     */
+    public void clear() {
+        checkWritable();
+        root = newNode(true);
+        augment(root);
+        size = 0;
+        tombstones = 0;
+        tombstoneKeys.clear();
+        ++ modCount;
+    }
+
+    /**
+     *@Desc 键的比较函数对象，自然排序时为null
+     */
+    Comparator<K> comparator() {
+        return kComparator;
+    }
+
+    /**
+     *@Desc 最小的项，B树为空时返回null
+     */
+    public Map.Entry<K, V> first() {
+        if(tombstones > 0) {
+            Cursor cursor = new Cursor();
+            return cursor.seekFirst() ? exportEntry(cursor.current()) : null;
+        }
+        return root.size() == 0 ? null : exportEntry(firstEntry(root));
+    }
+
+    /**
+     *@Desc 最大的项，B树为空时返回null
+     */
+    public Map.Entry<K, V> last() {
+        if(tombstones > 0) {
+            Cursor cursor = new Cursor();
+            return cursor.seekLast() ? exportEntry(cursor.current()) : null;
+        }
+        return root.size() == 0 ? null : exportEntry(lastEntry(root));
+    }
+
+    /**
+     *@Desc 小于等于key的最大项，不存在时返回null
+     */
+    public Map.Entry<K, V> floor(K key) {
+        return exportEntry(floorEntry(key, true));
+    }
+
+    /**
+     *@Desc 大于等于key的最小项，不存在时返回null
+     */
+    public Map.Entry<K, V> ceiling(K key) {
+        return exportEntry(ceilingEntry(key, true));
+    }
+
+    /**
+     *@Desc 大于key的最小项，不存在时返回null
+     */
+    public Map.Entry<K, V> higher(K key) {
+        return exportEntry(ceilingEntry(key, false));
+    }
+
+    /**
+     *@Desc 小于key的最大项，不存在时返回null
+     */
+    public Map.Entry<K, V> lower(K key) {
+        return exportEntry(floorEntry(key, false));
+    }
+
+    /**
+     *@Desc 按键升序遍历[from, to]范围内的项（是否包含端点由fromInclusive/toInclusive决定，端点为null表示不设界）。
+     *	只在开始时用游标定位一次，之后顺着游标逐项移动，不再为每个键从root重新下降。
+     */
+    public Iterator<Map.Entry<K, V>> range(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        return new RangeIterator(from, fromInclusive, to, toInclusive);
+    }
+
+    /**
+     *@Desc 创建一个尚未定位的游标
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     *@Desc 以NavigableMap的形式访问该B树，对视图的修改直接作用在B树上
+     */
+    public NavigableMap<K, V> asNavigableMap() {
+        return new BTreeMap<K, V>(this);
+    }
+
+    /**
+     *@Desc 第一个大于（inclusive时为大于等于）key的项，不存在时返回null
+     */
+    private Entry<K, V> ceilingEntry(K key, boolean inclusive) {
+        if(tombstones > 0) {
+            // 有墓碑时由游标跳过墓碑
+            Cursor cursor = new Cursor();
+            return (inclusive ? cursor.seekCeiling(key) : cursor.seekHigher(key)) ? cursor.current() : null;
+        }
+        Entry<K, V> candidate = null;
+        BTreeNode<K, V> node = root;
+        while(true) {
+            int index = node.searchKey(key);
+            if(index >= 0) {
+                if(inclusive)
+                    return node.entryAt(index);
+                // 内节点中key的后继是右子树中最小的项
+                if(!node.isLeaf())
+                    return firstEntry(node.childAt(index + 1));
+                return index + 1 < node.size() ? node.entryAt(index + 1) : candidate;
+            }
+            index = -index - 1;
+            // 下降到第index个子树之前，node中第index个项是目前最小的候选
+            if(index < node.size())
+                candidate = node.entryAt(index);
+            if(node.isLeaf())
+                return candidate;
+            node = node.childAt(index);
+        }
+    }
+
+    /**
+     *@Desc 最后一个小于（inclusive时为小于等于）key的项，不存在时返回null
+     */
+    private Entry<K, V> floorEntry(K key, boolean inclusive) {
+        if(tombstones > 0) {
+            Cursor cursor = new Cursor();
+            return (inclusive ? cursor.seekFloor(key) : cursor.seekLower(key)) ? cursor.current() : null;
+        }
+        Entry<K, V> candidate = null;
+        BTreeNode<K, V> node = root;
+        while(true) {
+            int index = node.searchKey(key);
+            if(index >= 0) {
+                if(inclusive)
+                    return node.entryAt(index);
+                // 内节点中key的前驱是左子树中最大的项
+                if(!node.isLeaf())
+                    return lastEntry(node.childAt(index));
+                return index > 0 ? node.entryAt(index - 1) : candidate;
+            }
+            index = -index - 1;
+            if(index > 0)
+                candidate = node.entryAt(index - 1);
+            if(node.isLeaf())
+                return candidate;
+            node = node.childAt(index);
+        }
+    }
+
+    /**
+     *@Desc 对外返回不可修改的键值对，避免调用方经由setValue绕过B树修改节点中的项
+     */
+    private Map.Entry<K, V> exportEntry(Entry<K, V> entry) {
+        return entry == null ? null : new AbstractMap.SimpleImmutableEntry<K, V>(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     *@Desc 分裂一个满子节点<code>childNode</code>，parentNode和childNode都必须可以原地修改。
+     *	将中间节点(t-1)拉出来放进父节点中
+     *	(t-1)右侧独立出来成为新子节点（ps：它的孩子也要移交给新子节点）
+     */
+    private void splitNode(BTreeNode<K, V> parentNode, BTreeNode<K, V> childNode, int index) {
+        assert childNode.size() == maxKeySize;
+        ++ modCount;
+        BTreeEvents.Split event = new BTreeEvents.Split();
+        event.begin();
+        // 只有刚创建的新根节点是空的父节点
+        boolean rootSplit = parentNode.size() == 0;
+
+        BTreeNode<K, V> siblingNode = newNode(childNode.isLeaf());
+        // 将满子节点中索引为[t, 2t - 2]的(t - 1)个项整体复制到新的节点中
+        siblingNode.addEntries(childNode, t, minKeySize);
+        // 提取满子节点中的中间项，其索引为(t - 1)
+        Entry<K, V> entry = childNode.entryAt(t - 1);
+        // 截掉满子节点中索引为[t - 1, 2t - 2]的t个项
+        childNode.truncateEntries(t - 1);
+        if(!childNode.isLeaf()) { // 如果满子节点不是叶节点，则还需要处理其子节点
+            // 将满子节点中索引为[t, 2t - 1]的t个子节点整体复制到新的节点中
+            siblingNode.addChildren(childNode, t, minKeySize + 1);
+            // 截掉满子节点中索引为[t, 2t - 1]的t个子节点
+            childNode.truncateChildren(t);
+        }
+        // 将entry插入父节点
+        parentNode.insertEntry(entry, index);
+        // 将新节点插入父节点
+        parentNode.insertChild(siblingNode, index + 1);
+        // 父节点子树中的项没有变化，只有新的根节点还需要计算
+        augment(childNode);
+        augment(siblingNode);
+        if(rootSplit)
+            augment(parentNode);
+
+        if(statistics != null) {
+            ++ statistics.splits;
+            if(rootSplit)
+                ++ statistics.rootGrowths;
+        }
+        if(event.shouldCommit()) {
+            event.t = t;
+            event.leaf = childNode.isLeaf();
+            event.rootSplit = rootSplit;
+            event.commit();
+        }
+    }
+
+    /**
+     *@Desc 在一个非满节点中插入给定的项。
+     */
+    private boolean insertNotFull(BTreeNode<K, V> node, Entry<K, V> entry) {
+        assert node.size() < maxKeySize;
+
+        if(node.isLeaf()) {
+        	// 如果是叶子节点，直接插入
+            int index = node.searchKey(entry.getKey());
+            if(index >= 0 && !revive(node, index, entry))
+                return false;
+            if(index < 0)
+                node.insertEntry(entry, -index - 1);
+            augment(node);
+            return true;
+        } else {
+            // 找到entry在给定节点应该插入的位置，那么entry应该插入该位置对应的子树中
+            int index = node.searchKey(entry.getKey());
+            // 如果存在，则直接返回失败；是墓碑时用entry替换它
+            if(index >= 0) {
+                if(!revive(node, index, entry))
+                    return false;
+                augment(node);
+                return true;
+            }
+            index = -index - 1;
+            
+            BTreeNode<K, V> childNode = writableChild(node, index);
+            if(childNode.size() == 2*t - 1) {
+                // 如果子节点是满节点, 则先分裂
+                splitNode(node, childNode, index);
+                // 如果给定entry的键大于分裂之后新生成项的键，则需要插入该新项的右边， 否则左边；
+                // 如果恰好等于上升的中间项，说明键已经存在于node中。
+                int cmp = compare(entry.getKey(), node.entryAt(index).getKey());
+                if(cmp == 0) {
+                    if(!revive(node, index, entry))
+                        return false;
+                    augment(node);
+                    return true;
+                }
+                if(cmp > 0)
+                    childNode = node.childAt(index + 1);
+            }
+            boolean inserted = insertNotFull(childNode, entry);
+            if(inserted)
+                augment(node);
+            return inserted;
+        }
+    }
+
+    /**
+     *@Desc 在B树中插入给定的键值对。
+     */
+    public boolean insert(K key, V value) {
+        checkWritable();
+        root = writable(root);
+        if(root.size() == maxKeySize) { // 如果根节点满了，则B树长高
+            BTreeNode<K, V> newRoot = newNode(false);
+            newRoot.addChild(root);
+            splitNode(newRoot, root, 0);
+            root = newRoot;
+        }
+        boolean inserted = insertNotFull(root, new Entry<K, V>(key, value));
+        if(inserted) {
+            ++ size;
+            ++ modCount;
+        }
+        compactOnInsert();
+        return inserted;
+    }
+
+    /**
+     *@Desc 如果存在给定的键，则更新键关联的值，否则插入给定的项。(同insertNotFull)
+     */
+    private V putNotFull(BTreeNode<K, V> node, Entry<K, V> entry)
+    {
+        assert node.size() < maxKeySize;
+
+        if(node.isLeaf()) {
+        	// 如果是叶子节点，直接插入；项数变了说明插入的是新键
+            int oldSize = node.size();
+            V oldValue = replaced(node.putEntry(entry));
+            if(node.size() != oldSize) {
+                ++ size;
+                ++ modCount;
+            }
+            augment(node);
+            return oldValue;
+        } else {
+            // 找到entry在给定节点应该插入的位置，那么entry应该插入该位置对应的子树中
+            int index = node.searchKey(entry.getKey());
+            // 如果存在，则更新（值变了，聚合值也要重新计算）
+            if(index >= 0) {
+                V oldValue = replaced(node.putEntry(entry));
+                augment(node);
+                return oldValue;
+            }
+            index = -index - 1;
+            
+            BTreeNode<K, V> childNode = writableChild(node, index);
+            if(childNode.size() == 2*t - 1) {
+                // 如果子节点是满节点, 则先分裂
+                splitNode(node, childNode, index);
+                // 如果给定entry的键大于分裂之后新生成项的键，则需要插入该新项的右边，否则左边；
+                // 如果恰好等于上升的中间项，说明键已经存在于node中。
+                int cmp = compare(entry.getKey(), node.entryAt(index).getKey());
+                if(cmp == 0) {
+                    V oldValue = replaced(node.putEntry(entry));
+                    augment(node);
+                    return oldValue;
+                }
+                if(cmp > 0)
+                    childNode = node.childAt(index + 1);
+            }
+            V oldValue = putNotFull(childNode, entry);
+            augment(node);
+            return oldValue;
+        }
+    }
+
+    /**
+     *@Desc 如果B树中存在给定的键，则更新值，否则插入。
+     */
+    public V put(K key, V value) {
+        checkWritable();
+        root = writable(root);
+        if(root.size() == maxKeySize) {// 如果根节点满了，则B树长高
+            BTreeNode<K, V> newRoot = newNode(false);
+            newRoot.addChild(root);
+            splitNode(newRoot, root, 0);
+            root = newRoot;
+        }
+        V oldValue = putNotFull(root, new Entry<K, V>(key, value));
+        compactOnInsert();
+        return oldValue;
+    }
+
+    /**
+     *@Desc 只替换已有键的值：从根节点下降一次，找到键时在节点中原地换上新的项，不分裂、不复制节点，
+     *	因此不是结构性修改，游标和迭代器可以继续使用（之后读到的是新值）。
+     *	键不存在、是墓碑，或者路径上的节点还与快照共享时什么也不改，返回ABSENT，由调用方退回put
+     */
+    Object replaceValue(K key, V value) {
+        checkWritable();
+        return replaceValue(root, key, value);
+    }
+
+    private Object replaceValue(BTreeNode<K, V> node, K key, V value) {
+        if(node.owner != edit)
+            return ABSENT;
+        int index = node.searchKey(key);
+        Object oldValue;
+        if(index >= 0) {
+            Entry<K, V> entry = node.entryAt(index);
+            if(isTombstone(entry))
+                return ABSENT;
+            node.setEntry(index, new Entry<K, V>(entry.getKey(), value));
+            oldValue = entry.getValue();
+        } else if(node.isLeaf()) {
+            return ABSENT;
+        } else {
+            oldValue = replaceValue(node.childAt(-index - 1), key, value);
+            if(oldValue == ABSENT)
+                return ABSENT;
+        }
+        // 项数不变，只有聚合值依赖于值
+        if(aggregate != null)
+            augment(node);
+        return oldValue;
+    }
+
+    /**
+     *@Desc 批量put，结果与按entries的顺序逐个put相同（同一个键出现多次时最后一次生效）。
+     *	先把项按键稳定排序，再从根节点下降一次：落在同一个子树中的一段连续的键一起下降，
+     *	省下的是每个键从根节点重新下降时对路径上节点的访问，而不是比较次数：
+     *	每个键在它经过的每个节点上仍然各做一次二分查找（searchKey），划分这一段时还要再和分隔项比较一次；
+     *	落在同一个叶节点中的键一起插入，叶节点满了才回到父节点分裂一次，然后继续。
+     *	键成簇时路径上的节点一直留在CPU缓存中，代价接近顺序扫描；键分散时几乎不共享节点，排序的开销占主要部分。
+     */
+    public void putAll(Collection<? extends Map.Entry<? extends K, ? extends V>> entries) {
+        checkWritable();
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        final Entry<K, V>[] sorted = new Entry[entries.size()];
+        int count = 0;
+        for(Map.Entry<? extends K, ? extends V> entry : entries)
+            sorted[count++] = new Entry<K, V>(entry.getKey(), entry.getValue());
+        // 稳定排序：同一个键的多个项保持输入的顺序，依次覆盖
+        Arrays.sort(sorted, 0, count, new Comparator<Entry<K, V>>() {
+            public int compare(Entry<K, V> e1, Entry<K, V> e2) {
+                return BTree.this.compare(e1.getKey(), e2.getKey());
+            }
+        });
+        root = writable(root);
+        int next = 0;
+        while(next < count) {
+            if(root.size() == maxKeySize) { // 如果根节点满了，则B树长高
+                BTreeNode<K, V> newRoot = newNode(false);
+                newRoot.addChild(root);
+                splitNode(newRoot, root, 0);
+                root = newRoot;
+            }
+            next = putAll(root, sorted, next, count);
+        }
+        compactOnInsert();
+    }
+
+    /**
+     *@Desc 把sorted[from, to)中的项放入以node为根的子树，node必须可以原地修改且不满。
+     *	node满了（叶节点插满，或者分裂子节点后上升的项填满了node）就停下，由父节点分裂它之后继续；
+     *	返回第一个还没有处理的项的索引。
+     */
+    private int putAll(BTreeNode<K, V> node, Entry<K, V>[] sorted, int from, int to) {
+        int next = from;
+        while(next < to && node.size() < maxKeySize) {
+            Entry<K, V> entry = sorted[next];
+            int index = node.searchKey(entry.getKey());
+            if(index >= 0) {
+                replaced(node.setEntry(index, entry).getValue());
+                ++ next;
+                continue;
+            }
+            index = -index - 1;
+            if(node.isLeaf()) {
+                node.insertEntry(entry, index);
+                ++ size;
+                ++ modCount;
+                ++ next;
+                continue;
+            }
+            BTreeNode<K, V> childNode = writableChild(node, index);
+            if(childNode.size() == maxKeySize) {
+                // 子节点满了，先分裂，再对同一个键重新定位
+                splitNode(node, childNode, index);
+                continue;
+            }
+            // 小于分隔项的一段键都落在这个子树中
+            int end = next + 1;
+            if(index < node.size()) {
+                K separator = node.entryAt(index).getKey();
+                while(end < to && compare(sorted[end].getKey(), separator) < 0)
+                    ++ end;
+            } else {
+                end = to;
+            }
+            next = putAll(childNode, sorted, next, end);
+        }
+        augment(node);
+        return next;
+    }
+
+    /**
+     *@Desc 批量查找，返回的列表与keys的顺序一一对应，不存在的键对应null。
+     *	与putAll一样，先排序再一起下降，连续的一段键共享从根节点开始的路径，
+     *	但每个键在经过的每个节点上仍然各做一次二分查找。
+     */
+    public List<V> getAll(Collection<? extends K> keys) {
+        @SuppressWarnings("unchecked")
+        final K[] input = (K[]) keys.toArray();
+        Integer[] order = new Integer[input.length];
+        for(int i = 0; i < order.length; ++ i)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer i1, Integer i2) {
+                return BTree.this.compare(input[i1], input[i2]);
+            }
+        });
+        @SuppressWarnings("unchecked")
+        K[] sorted = (K[]) new Object[input.length];
+        for(int i = 0; i < sorted.length; ++ i)
+            sorted[i] = input[order[i]];
+        @SuppressWarnings("unchecked")
+        V[] values = (V[]) new Object[input.length];
+        getAll(root, sorted, 0, sorted.length, values);
+        // 按输入的顺序排列结果
+        @SuppressWarnings("unchecked")
+        V[] results = (V[]) new Object[input.length];
+        for(int i = 0; i < results.length; ++ i)
+            results[order[i]] = values[i];
+        return Arrays.asList(results);
+    }
+
+    /**
+     *@Desc 在以node为根的子树中查找sorted[from, to)，结果放在values的对应位置
+     */
+    private void getAll(BTreeNode<K, V> node, K[] sorted, int from, int to, V[] values) {
+        int next = from;
+        while(next < to) {
+            int index = node.searchKey(sorted[next]);
+            if(index >= 0) {
+                values[next++] = valueOf(node.entryAt(index));
+                continue;
+            }
+            if(node.isLeaf()) {
+                values[next++] = null;
+                continue;
+            }
+            index = -index - 1;
+            int end = next + 1;
+            if(index < node.size()) {
+                K separator = node.entryAt(index).getKey();
+                while(end < to && compare(sorted[end], separator) < 0)
+                    ++ end;
+            } else {
+                end = to;
+            }
+            getAll(node.childAt(index), sorted, next, end, values);
+            next = end;
+        }
+    }
+
+    /**
+     *@Desc 用按键严格升序排列的键值对自底向上构建B树，要求当前B树为空。
+     *	每个节点装入约fillFactor * (2t-1)个项（不少于t-1个），装满后下一个项上升为上一层节点的分隔项，
+     *	因此一遍扫描就能同时建好所有层，时间是线性的，也不会像逐个insert那样留下半满的节点。
+     *	最后只需修补最右侧一列可能不足t-1个项的节点。
+     *	输入不是严格升序时抛出IllegalArgumentException，此时B树保持为空。
+     */
+    public void bulkLoad(Iterator<? extends Map.Entry<? extends K, ? extends V>> sorted, double fillFactor) {
+        checkWritable();
+        if(size != 0)
+            throw new IllegalStateException("bulkLoad requires an empty BTree.");
+        if(!(fillFactor > 0 && fillFactor <= 1))
+            throw new IllegalArgumentException("fillFactor must be in (0, 1]: " + fillFactor);
+        int fill = Math.max(minKeySize, Math.min(maxKeySize, (int) Math.round(maxKeySize * fillFactor)));
+
+        // open.get(level)是每一层当前正在填充的最右节点，第0层是叶节点，最后一层是根节点
+        List<BTreeNode<K, V>> open = new ArrayList<BTreeNode<K, V>>();
+        open.add(newNode(true));
+        Entry<K, V> lastEntry = null;
+        int count = 0;
+        while(sorted.hasNext()) {
+            Map.Entry<? extends K, ? extends V> next = sorted.next();
+            Entry<K, V> entry = new Entry<K, V>(next.getKey(), next.getValue());
+            if(lastEntry != null && compare(lastEntry.getKey(), entry.getKey()) >= 0)
+                throw new IllegalArgumentException("Input is not strictly ascending: " + lastEntry.getKey() + " then " + entry.getKey());
+            lastEntry = entry;
+            ++ count;
+
+            if(open.get(0).size() < fill) {
+                open.get(0).addEntry(entry);
+                continue;
+            }
+            // 叶节点已装满，该项作为分隔项放进第一个没有装满的上层节点，所有层都满了则长出新的根节点
+            int level = 1;
+            while(level < open.size() && open.get(level).size() >= fill)
+                ++ level;
+            if(level == open.size()) {
+                BTreeNode<K, V> newRoot = newNode(false);
+                newRoot.addChild(open.get(level - 1));
+                open.add(newRoot);
+            }
+            open.get(level).addEntry(entry);
+            // 分隔项右边的各层都从一个新的空节点重新开始
+            for(int l = level - 1; l >= 0; -- l) {
+                BTreeNode<K, V> node = newNode(l == 0);
+                open.get(l + 1).addChild(node);
+                open.set(l, node);
+            }
+        }
+        // 除最右一列外，所有节点都恰好有fill个项；从上往下修补最右一列
+        for(int level = open.size() - 2; level >= 0; -- level)
+            fixRightmost(open, level);
+        root = open.get(open.size() - 1);
+        if(orderStatistics)
+            augmentAll(root);
+        // 原来可能只剩下墓碑
+        tombstones = 0;
+        tombstoneKeys.clear();
+        size = count;
+        ++ modCount;
+    }
+
+    /**
+     *@Desc bulkLoad的收尾：第level层最右的节点不足t-1个项时，从它的左兄弟借项或与左兄弟合并。
+     *	合并会让父节点少一个项，必要时向上继续修补；根节点没有项时B树变矮。
+     */
+    private void fixRightmost(List<BTreeNode<K, V>> open, int level) {
+        BTreeNode<K, V> node = open.get(level);
+        if(node.size() >= minKeySize)
+            return;
+        BTreeNode<K, V> parentNode = open.get(level + 1);
+        int separator = parentNode.size() - 1;
+        BTreeNode<K, V> siblingNode = parentNode.childAt(separator);
+        if(siblingNode.size() + node.size() >= 2 * minKeySize) {
+            // 左兄弟足够丰满：经由父节点的分隔项逐个右旋，直到node有t-1个项（同delete的3.a）
+            while(node.size() < minKeySize) {
+                node.insertEntry(parentNode.entryAt(separator), 0);
+                parentNode.setEntry(separator, siblingNode.removeEntry(siblingNode.size() - 1));
+                if(!siblingNode.isLeaf()) {
+                    node.insertChild(siblingNode.childAt(siblingNode.size() + 1), 0);
+                    siblingNode.removeChild(siblingNode.size() + 1);
+                }
+            }
+        } else {
+            // 两者加上分隔项也不超过2t-2个项：把node和分隔项并入左兄弟（同delete的3.b）
+            siblingNode.addEntry(parentNode.removeEntry(separator));
+            parentNode.removeChild(separator + 1);
+            siblingNode.addEntries(node, 0, node.size());
+            if(!node.isLeaf())
+                siblingNode.addChildren(node, 0, node.size() + 1);
+            open.set(level, siblingNode);
+            if(level + 1 == open.size() - 1) {
+                if(parentNode.size() == 0)
+                    open.remove(level + 1);
+            } else if(parentNode.size() < minKeySize) {
+                fixRightmost(open, level + 1);
+            }
+        }
+    }
+
+    /**
+     *@Desc 把当前的内容写成二进制快照文件（格式见SnapshotFile），之后可以用readSnapshot直接重建节点，不需要逐个插入。
+     *	从根节点开始逐层写出节点，同时只保存相邻两层的节点；写出的同时需要修改B树时，先取snapshot()再在快照上调用
+     */
+    public void writeSnapshot(Path path, Serializer<K> keySerializer, Serializer<V> valueSerializer) throws IOException {
+        if(tombstones > 0) {
+            // 快照中不包含墓碑：把存活的项装入一棵临时的B树再写出
+            BTree<K, V> compacted = new BTree<K, V>(kComparator, t);
+            compacted.bulkLoad(range(null, true, null, true), 1.0);
+            compacted.writeSnapshot(path, keySerializer, valueSerializer);
+            return;
+        }
+        int height = 1;
+        for(BTreeNode<K, V> node = root; !node.isLeaf(); node = node.childAt(0))
+            ++ height;
+        SnapshotFile.Writer<K, V> writer = new SnapshotFile.Writer<K, V>(path, t, height, size, keySerializer, valueSerializer);
+        try {
+            List<BTreeNode<K, V>> level = new ArrayList<BTreeNode<K, V>>();
+            level.add(root);
+            for(int depth = 0; depth < height; ++ depth) {
+                List<BTreeNode<K, V>> nextLevel = new ArrayList<BTreeNode<K, V>>();
+                for(BTreeNode<K, V> node : level) {
+                    writer.node(depth, node.size());
+                    for(int i = 0; i < node.size(); ++ i)
+                        writer.entry(node.entryAt(i).getKey(), node.entryAt(i).getValue());
+                    if(!node.isLeaf()) {
+                        for(int i = 0; i <= node.size(); ++ i)
+                            nextLevel.add(node.childAt(i));
+                    }
+                }
+                level = nextLevel;
+            }
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     *@Desc 读入writeSnapshot写出的快照文件，在公共线程池中并行解码
+     */
+    public static <K, V> BTree<K, V> readSnapshot(Path path, Comparator<K> kComparator,
+            Serializer<K> keySerializer, Serializer<V> valueSerializer) throws IOException {
+        return readSnapshot(path, kComparator, keySerializer, valueSerializer, ForkJoinPool.commonPool());
+    }
+
+    /**
+     *@Desc 读入writeSnapshot写出的快照文件，kComparator必须与写出时的B树一致。
+     *	每个块映射到内存中、校验之后作为一个任务在pool中解码成节点，然后按层把第level + 1层的节点依次分配给第level层的节点作为子节点。
+     *	不执行插入和分裂，时间与文件大小成正比。文件不完整、校验和不对或者结构不合法时抛出IOException
+     */
+    public static <K, V> BTree<K, V> readSnapshot(Path path, Comparator<K> kComparator,
+            final Serializer<K> keySerializer, final Serializer<V> valueSerializer, ForkJoinPool pool) throws IOException {
+        final SnapshotFile.Reader reader = new SnapshotFile.Reader(path);
+        try {
+            int height = reader.height();
+            if(reader.t() < 2 || height < 1 || reader.size() < 0 || reader.size() > Integer.MAX_VALUE)
+                throw new IOException("Corrupted BTree snapshot header: " + path);
+            final BTree<K, V> tree = new BTree<K, V>(kComparator, reader.t());
+            List<ForkJoinTask<BTreeNode<K, V>[]>> tasks = new ArrayList<ForkJoinTask<BTreeNode<K, V>[]>>();
+            for(int i = 0; i < reader.blockCount(); ++ i) {
+                final int block = i;
+                tasks.add(pool.submit(new Callable<BTreeNode<K, V>[]>() {
+                    public BTreeNode<K, V>[] call() {
+                        try {
+                            return tree.decodeBlock(reader, block, keySerializer, valueSerializer);
+                        } catch(IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                }));
+            }
+            List<List<BTreeNode<K, V>>> levels = new ArrayList<List<BTreeNode<K, V>>>();
+            for(int level = 0; level < height; ++ level)
+                levels.add(new ArrayList<BTreeNode<K, V>>());
+            for(int i = 0; i < tasks.size(); ++ i) {
+                try {
+                    levels.get(reader.level(i)).addAll(Arrays.asList(tasks.get(i).join()));
+                } catch(UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            }
+
+            if(levels.get(0).size() != 1)
+                throw new IOException("Corrupted BTree snapshot: " + path);
+            long entries = 0;
+            for(int level = 0; level < height; ++ level) {
+                int nextChild = 0;
+                for(BTreeNode<K, V> node : levels.get(level)) {
+                    entries += node.size();
+                    // 非根节点至少有t-1个项，内节点形式的根节点至少有一个项
+                    if(level > 0 ? node.size() < tree.minKeySize : height > 1 && node.size() == 0)
+                        throw new IOException("Corrupted BTree snapshot: " + path);
+                    if(level + 1 < height) {
+                        List<BTreeNode<K, V>> children = levels.get(level + 1);
+                        if(nextChild + node.size() + 1 > children.size())
+                            throw new IOException("Corrupted BTree snapshot: " + path);
+                        for(int i = 0; i <= node.size(); ++ i)
+                            node.addChild(children.get(nextChild++));
+                    }
+                }
+                if(level + 1 < height && nextChild != levels.get(level + 1).size())
+                    throw new IOException("Corrupted BTree snapshot: " + path);
+            }
+            if(entries != reader.size())
+                throw new IOException("Corrupted BTree snapshot: " + path);
+            tree.root = levels.get(0).get(0);
+            tree.size = (int) entries;
+            return tree;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     *@Desc 把快照文件中的第block个块解码成节点，节点还没有连接子节点。可以在多个线程中同时调用
+     */
+    private BTreeNode<K, V>[] decodeBlock(SnapshotFile.Reader reader, int block,
+            Serializer<K> keySerializer, Serializer<V> valueSerializer) throws IOException {
+        ByteBuffer buffer = reader.block(block);
+        boolean leaf = reader.level(block) == reader.height() - 1;
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        BTreeNode<K, V>[] nodes = (BTreeNode<K, V>[]) new BTreeNode[reader.nodeCount(block)];
+        try {
+            for(int i = 0; i < nodes.length; ++ i) {
+                int entryCount = buffer.getInt();
+                if(entryCount < 0 || entryCount > maxKeySize)
+                    throw new IOException("Corrupted block " + block + " in BTree snapshot: invalid entry count " + entryCount);
+                BTreeNode<K, V> node = newNode(leaf);
+                for(int j = 0; j < entryCount; ++ j)
+                    node.addEntry(new Entry<K, V>(keySerializer.read(buffer), valueSerializer.read(buffer)));
+                nodes[i] = node;
+            }
+        } catch(RuntimeException e) {
+            // 校验和正确而内容读不出来，通常是序列化器与写出时不一致
+            throw new IOException("Cannot decode block " + block + " in BTree snapshot", e);
+        }
+        if(buffer.hasRemaining())
+            throw new IOException("Cannot decode block " + block + " in BTree snapshot: " + buffer.remaining() + " trailing bytes");
+        return nodes;
+    }
+
+    /**
+     *@Desc 从B树中删除一个与给定键关联的项，返回被删除的值
+     */
+    public V delete(K key) {
+        checkWritable();
+        if(relaxedDelete) {
+            V value = markDeleted(key);
+            if(compactionExecutor != null && !compactionScheduled && needsCompaction()) {
+                compactionScheduled = true;
+                compactionExecutor.execute(compactionTask);
+            }
+            return value;
+        }
+        // 即使键不存在，下降过程中也可能已经借项或合并过
+        ++ modCount;
+        root = writable(root);
+        Entry<K, V> deletedEntry = delete(root, key);
+        if(deletedEntry == null)
+            return null;
+        // 移除的是墓碑：键早已被删除
+        if(isTombstone(deletedEntry)) {
+            -- tombstones;
+            return null;
+        }
+        -- size;
+        return deletedEntry.getValue();
+    }
+
+    /**
+     *@Desc 开启或关闭宽松删除（见类的说明）。关闭时立即移除所有的墓碑。
+     *	BTreeBenchmark的测量（100万个Long键，t=32，uniform，几次运行的p99的中位数）：
+     *	删除所有的键时（ops=delete），普通删除1.9us，宽松删除2.0us（整理在delete中进行时是4.3us）。
+     *	两者每次下降经过的节点相同，墓碑留在树中，之后的删除经过的树更大，所以只是持平而不是更快；
+     *	删除之后很快又插入同一批键时（ops=churn），普通删除2.8us，宽松删除2.6us，每个操作分配25字节而不是656字节
+     */
+    public void setRelaxedDeleteEnabled(boolean enabled) {
+        checkWritable();
+        relaxedDelete = enabled;
+        if(!enabled)
+            compact(Integer.MAX_VALUE);
+    }
+
+    /**
+     *@Desc 宽松删除时的整理策略：墓碑占全部项（包括墓碑）的比例超过maxTombstoneRatio时，每次整理移除至多step个墓碑。
+     *	step为0时不自动整理，只在调用compact时移除
+     */
+    public void setCompactionPolicy(double maxTombstoneRatio, int step) {
+        if(!(maxTombstoneRatio >= 0 && maxTombstoneRatio <= 1) || step < 0)
+            throw new IllegalArgumentException("maxTombstoneRatio must be in [0, 1] and step non-negative: " + maxTombstoneRatio + ", " + step);
+        this.maxTombstoneRatio = maxTombstoneRatio;
+        this.compactionStep = step;
+    }
+
+    /**
+     *@Desc 设置运行整理任务的执行器，为null时（默认）由insert、put、putAll顺带整理。
+     *	设置之后，delete使墓碑超过阈值时向executor提交一个整理任务（已提交而没有运行时不再提交），
+     *	任务移除至多compactionStep个墓碑，仍然超过阈值时再提交自己，其间可以穿插其他操作。
+     *	B树不是线程安全的：executor必须在与其他操作互斥的时候运行任务，例如所有操作共用的单线程执行器，
+     *	或者把任务放进队列、在空闲时持有调用方的锁逐个运行
+     */
+    public void setCompactionExecutor(Executor executor) {
+        checkWritable();
+        compactionExecutor = executor;
+    }
+
+    /**
+     *@Desc 墓碑超过了整理的阈值
+     */
+    private boolean needsCompaction() {
+        return tombstones > 0 && compactionStep > 0 && tombstones > maxTombstoneRatio * (size + tombstones);
+    }
+
+    /**
+     *@Desc 没有整理的执行器时，插入之后顺带整理至多compactionStep个墓碑
+     */
+    private void compactOnInsert() {
+        if(compactionExecutor == null && needsCompaction())
+            compact(compactionStep);
+    }
+
+    /** 提交给compactionExecutor的整理任务 */
+    private final Runnable compactionTask = new Runnable() {
+        public void run() {
+            compactionScheduled = false;
+            if(compactionExecutor == null || !needsCompaction())
+                return;
+            compact(compactionStep);
+            if(needsCompaction()) {
+                compactionScheduled = true;
+                compactionExecutor.execute(this);
+            }
+        }
+    };
+
+    /**
+     *@Desc 树中墓碑的个数
+     */
+    public int tombstones() {
+        return tombstones;
+    }
+
+    /**
+     *@Desc 按墓碑队列的顺序用普通的删除（借项、合并）真正移除至多maxTombstones个墓碑，返回移除的个数。
+     *	每移除一个墓碑的代价与一次delete相同，因此每次调用的工作量有上界；B树不是线程安全的，
+     *	需要在其他线程中定期整理时，由调用方用与其他操作相同的锁保护
+     */
+    public int compact(int maxTombstones) {
+        checkWritable();
+        int removed = 0;
+        while(removed < maxTombstones && tombstones > 0 && !tombstoneKeys.isEmpty()) {
+            K key = tombstoneKeys.poll();
+            root = writable(root);
+            int result = purge(root, key);
+            // 键可能已经被重新插入，或者同一个键被删除了多次
+            if(result == KEPT)
+                continue;
+            ++ modCount;
+            if(result == REBALANCE)
+                delete(root, key);
+            -- tombstones;
+            ++ removed;
+        }
+        // 剩下的键都已过期
+        if(tombstones == 0)
+            tombstoneKeys.clear();
+        return removed;
+    }
+
+    /**
+     *@Desc 在以node为根的子树中移除key所在的墓碑，node必须可以原地修改。
+     *	墓碑不计入项数和聚合值，因此从叶节点中直接移除时不需要重新计算路径上的节点
+     */
+    private int purge(BTreeNode<K, V> node, K key) {
+        int index = node.searchKey(key);
+        if(index >= 0) {
+            if(!isTombstone(node.entryAt(index)))
+                return KEPT;
+            if(!node.isLeaf() || (node.size() <= minKeySize && node != root))
+                return REBALANCE;
+            node.removeEntry(index);
+            return REMOVED;
+        }
+        if(node.isLeaf())
+            return KEPT;
+        return purge(writableChild(node, -index - 1), key);
+    }
+
+    /**
+     *@Desc 宽松删除：从叶节点中直接移除key所在的项或者把它换成墓碑，只复制、重新计算从根节点到该项的路径，不借项也不合并
+     */
+    private V markDeleted(K key) {
+        root = writable(root);
+        int oldTombstones = tombstones;
+        Entry<K, V> entry = markDeleted(root, key);
+        if(entry == null)
+            return null;
+        if(tombstones == oldTombstones)
+            return entry.getValue();
+        tombstoneKeys.add(key);
+        // 队列中的键至少有tombstones个是墓碑，其余的已经过期
+        if(tombstoneKeys.size() - tombstones > Math.max(MIN_STALE_TOMBSTONE_KEYS, (size + tombstones) / 2)) {
+            tombstoneKeys.clear();
+            collectTombstones(root);
+        }
+        return entry.getValue();
+    }
+
+    /**
+     *@Desc 按键的顺序把以node为根的子树中所有墓碑的键加入队列
+     */
+    private void collectTombstones(BTreeNode<K, V> node) {
+        for(int i = 0; i < node.size(); ++ i) {
+            if(!node.isLeaf())
+                collectTombstones(node.childAt(i));
+            if(isTombstone(node.entryAt(i)))
+                tombstoneKeys.add(node.entryAt(i).getKey());
+        }
+        if(!node.isLeaf())
+            collectTombstones(node.childAt(node.size()));
+    }
+
+    /**
+     *@Desc 在以node为根的子树中从叶节点中移除key所在的项或者把它换成墓碑，node必须可以原地修改；
+     *	返回被移除或者替换的项，key不存在或者已经是墓碑时返回null
+     */
+    @SuppressWarnings("unchecked")
+    private Entry<K, V> markDeleted(BTreeNode<K, V> node, K key) {
+        int index = node.searchKey(key);
+        Entry<K, V> entry;
+        if(index >= 0) {
+            entry = node.entryAt(index);
+            if(isTombstone(entry))
+                return null;
+            if(node.isLeaf() && (node.size() > minKeySize || node == root)) {
+                // 与普通删除中不需要借项、合并的情况相同，直接移除
+                node.removeEntry(index);
+            } else {
+                node.setEntry(index, new Entry<K, V>(key, (V) TOMBSTONE));
+                // 先计数，重新计算路径上的项数时墓碑已经不算在内
+                ++ tombstones;
+            }
+            -- size;
+            ++ modCount;
+        } else {
+            if(node.isLeaf())
+                return null;
+            entry = markDeleted(writableChild(node, -index - 1), key);
+            if(entry == null)
+                return null;
+        }
+        augment(node);
+        return entry;
+    }
+
+    private static boolean isTombstone(Entry<?, ?> entry) {
+        return entry.getValue() == TOMBSTONE;
+    }
+
+    /**
+     *@Desc 查找命中的项的值，墓碑视为不存在
+     */
+    private static <V> V valueOf(Entry<?, V> entry) {
+        V value = entry.getValue();
+        return value == TOMBSTONE ? null : value;
+    }
+
+    /**
+     *@Desc 如果node中第index个项是墓碑，则用entry替换它并返回true（插入了新键），否则返回false（键已存在）
+     */
+    private boolean revive(BTreeNode<K, V> node, int index, Entry<K, V> entry) {
+        if(!isTombstone(node.entryAt(index)))
+            return false;
+        node.setEntry(index, entry);
+        revived();
+        return true;
+    }
+
+    /**
+     *@Desc 一个墓碑被重新插入的键替换：它在队列中的键过期了，没有墓碑时整个队列都已过期
+     */
+    private void revived() {
+        if(-- tombstones == 0)
+            tombstoneKeys.clear();
+    }
+
+    /**
+     *@Desc 替换一个已有的项之后：被替换的是墓碑时相当于插入了新键，项数加一并返回null，否则返回旧值
+     */
+    private V replaced(V oldValue) {
+        if(oldValue != TOMBSTONE)
+            return oldValue;
+        revived();
+        ++ size;
+        ++ modCount;
+        return null;
+    }
+
+    /**
+     *@Desc 从以给定<code>node</code>为根的子树中删除与给定键关联的项。node必须可以原地修改。
+     *	下降过程中node和它的子节点可能已经借项或合并，返回之前重新计算node的项数和聚合值
+     */
+    private Entry<K, V> delete(BTreeNode<K, V> node, K key) {
+        Entry<K, V> deletedEntry = deleteInSubtree(node, key);
+        augment(node);
+        return deletedEntry;
+    }
+
+    /**
+     *@Desc delete(node, key)的实现，递归时调用delete(child, key)
+     */
+    private Entry<K, V> deleteInSubtree(BTreeNode<K, V> node, K key) {
+        // 该过程需要保证，对非根节点执行删除操作时，其关键字个数至少为t。
+        assert node.size() >= t || node == root;
+
+        int index = node.searchKey(key);
+        
+        // 因为这是查找成功的情况，0 <= index <= (node.size() - 1)，因此(index + 1)不会溢出
+        if(index >= 0) {
+            // 1.如果关键字在节点node中，并且是叶节点，则直接删除。
+            if(node.isLeaf()) {
+                return node.removeEntry(index);
+            } else {
+                // 2.a 如果节点node.key的左孩子至少包含至少t个项，则从左子树中找到最大的(前驱)代替此节点，删除之（递归至叶节点）
+                BTreeNode<K, V> leftChildNode = node.childAt(index);
+                if(leftChildNode.size() >= t) {
+                    leftChildNode = writableChild(node, index);
+                    // 使用左子树中的最后一个项代替node中需要删除的项
+                    Entry<K, V> predecessor = lastEntry(leftChildNode);
+                    Entry<K, V> deletedEntry = node.setEntry(index, predecessor);
+                    // 递归删除左子树中的最后一个项
+                    delete(leftChildNode, predecessor.getKey());
+                    return deletedEntry;
+                }
+                else {
+                    // 2.b 如果节点node.key的右孩子至少包含t个项，则从右子树中找到最小的(后继)代替此节点，删除之（递归至叶节点）
+                    BTreeNode<K, V> rightChildNode = node.childAt(index + 1);
+                    if(rightChildNode.size() >= t) {
+                        rightChildNode = writableChild(node, index + 1);
+                        // 使用右子树中的第一个项代替node中需要删除的项
+                        Entry<K, V> successor = firstEntry(rightChildNode);
+                        Entry<K, V> deletedEntry = node.setEntry(index, successor);
+                        // 递归删除右子树中的第一个项
+                        delete(rightChildNode, successor.getKey());
+                        return deletedEntry;
+                    } else { 
+                    	// 2.c node.key的左孩子和右孩子都是t-1个，将右孩子和node.key一起并入左孩子，递归删除
+                        BTreeEvents.Rebalance event = new BTreeEvents.Rebalance();
+                        event.begin();
+                        leftChildNode = writableChild(node, index);
+                        Entry<K, V> deletedEntry = node.removeEntry(index);
+                        node.removeChild(index + 1);
+                        // 将node中与key关联的项和rightChildNode中的项合并进leftChildNode
+                        leftChildNode.addEntry(deletedEntry);
+                        leftChildNode.addEntries(rightChildNode, 0, rightChildNode.size());
+                        // 将rightChildNode中的子节点合并进leftChildNode，如果有的话
+                        if(!rightChildNode.isLeaf())
+                            leftChildNode.addChildren(rightChildNode, 0, rightChildNode.size() + 1);
+                        // 如果node是root并且node不包含任何项了，则B树变矮
+                        boolean rootShrink = node == root && node.size() == 0;
+                        if(rootShrink)
+                            root = leftChildNode;
+                        rebalanced(event, BTreeEvents.Operation.MERGE, leftChildNode, rootShrink);
+                        return delete(leftChildNode, key);
+                    }
+                }
+            }
+        } else {
+            // 查找过程中，node.index是包含key的子树
+            index = -index - 1;
+            if(node.isLeaf()) {
+            	// 如果关键字不在节点node中，并且是叶节点，则什么都不做，因为该关键字不在该B树中
+                return null;
+            }
+            
+            BTreeNode<K, V> childNode = writableChild(node, index);
+            if(childNode.size() >= t) { // 如果子节点有不少于t个项，无法合并，则递归删除
+                return delete(childNode, key);
+            } else {
+            	// 该子树只包含t-1个关键字，需合并
+                // 先查找右边的兄弟节点
+                BTreeNode<K, V> siblingNode = null;
+                int siblingIndex = -1;
+                if(index < node.size()) { // 存在右兄弟节点
+                    if(node.childAt(index + 1).size() >= t) {
+                        siblingNode = node.childAt(index + 1);
+                        siblingIndex = index + 1;
+                    }
+                }
+                // 如果右边的兄弟节点不符合条件，则试试左边的兄弟节点
+                if(siblingNode == null) {
+                    if(index > 0) { // 存在左兄弟节点 
+                        if(node.childAt(index - 1).size() >= t) {
+                            siblingNode = node.childAt(index - 1);
+                            siblingIndex = index - 1;
+                        }
+                    }
+                }
+                // 3.a 有一个相邻兄弟节点至少包含t个项（将兄弟的上司移至child里面，将兄弟节点的一个键上升至node）
+                BTreeEvents.Rebalance event = new BTreeEvents.Rebalance();
+                event.begin();
+                if(siblingNode != null) {
+                    siblingNode = writableChild(node, siblingIndex);
+                    if(siblingIndex < index) {// 左兄弟节点满足条件
+                        childNode.insertEntry(node.entryAt(siblingIndex), 0);
+                        node.setEntry(siblingIndex, siblingNode.removeEntry(siblingNode.size() - 1));
+                        // 将左兄弟节点的最后一个孩子移到childNode
+                        if(!siblingNode.isLeaf()) {
+                            childNode.insertChild(siblingNode.childAt(siblingNode.size() + 1), 0);
+                            siblingNode.removeChild(siblingNode.size() + 1);
+                        }
+                        augment(siblingNode);
+                        rebalanced(event, BTreeEvents.Operation.BORROW_FROM_LEFT, childNode, false);
+                    } else {// 右兄弟节点满足条件 
+                        childNode.addEntry(node.entryAt(index));
+                        node.setEntry(index, siblingNode.removeEntry(0));
+                        // 将右兄弟节点的第一个孩子移到childNode
+                        if(!siblingNode.isLeaf()) {
+                            childNode.addChild(siblingNode.childAt(0));
+                            siblingNode.removeChild(0);
+                        }
+                        augment(siblingNode);
+                        rebalanced(event, BTreeEvents.Operation.BORROW_FROM_RIGHT, childNode, false);
+                    }
+                    return delete(childNode, key);
+                } else {// 3.b 如果其相邻左右节点都包含t-1个项：合并child和其中一个兄弟，再将node中的一个键值下降至新合并的节点（成为中间节点）
+                    if(index < node.size()) { // 存在右兄弟，直接在后面追加
+                        BTreeNode<K, V> rightSiblingNode = node.childAt(index + 1);
+                        childNode.addEntry(node.removeEntry(index));
+                        node.removeChild(index + 1);
+                        childNode.addEntries(rightSiblingNode, 0, rightSiblingNode.size());
+                        if(!rightSiblingNode.isLeaf())
+                            childNode.addChildren(rightSiblingNode, 0, rightSiblingNode.size() + 1);
+                    } else {// 存在左节点，将childNode追加到左兄弟的后面，由左兄弟作为合并后的节点
+                        BTreeNode<K, V> leftSiblingNode = writableChild(node, index - 1);
+                        leftSiblingNode.addEntry(node.removeEntry(index - 1));
+                        node.removeChild(index);
+                        leftSiblingNode.addEntries(childNode, 0, childNode.size());
+                        if(!childNode.isLeaf())
+                            leftSiblingNode.addChildren(childNode, 0, childNode.size() + 1);
+                        childNode = leftSiblingNode;
+                    }
+                    // 如果node是root并且node不包含任何项了
+                    boolean rootShrink = node == root && node.size() == 0;
+                    if(rootShrink)
+                        root = childNode;
+                    rebalanced(event, BTreeEvents.Operation.MERGE, childNode, rootShrink);
+                    return delete(childNode, key);
+                }
+            }
+        }
+    }
+
+    /**
+     *@Desc delete中借项或合并之后：累加计数，提交JFR事件
+     */
+    private void rebalanced(BTreeEvents.Rebalance event, BTreeEvents.Operation operation, BTreeNode<K, V> node, boolean rootShrink) {
+        if(statistics != null) {
+            switch(operation) {
+            case MERGE: ++ statistics.merges; break;
+            case BORROW_FROM_LEFT: ++ statistics.borrowsFromLeft; break;
+            case BORROW_FROM_RIGHT: ++ statistics.borrowsFromRight; break;
+            }
+            if(rootShrink)
+                ++ statistics.rootShrinks;
+        }
+        if(event.shouldCommit()) {
+            event.operation = operation.name;
+            event.leaf = node.isLeaf();
+            event.rootShrink = rootShrink;
+            event.commit();
+        }
+    }
+
+    /**
+     *@Desc 以给定节点为根的子树中最小的项（沿最左边的孩子下降到叶节点）
+     */
+    private Entry<K, V> firstEntry(BTreeNode<K, V> node) {
+        while(!node.isLeaf())
+            node = node.childAt(0);
+        return node.entryAt(0);
+    }
+
+    /**
+     *@Desc 以给定节点为根的子树中最大的项（沿最右边的孩子下降到叶节点）
+     */
+    private Entry<K, V> lastEntry(BTreeNode<K, V> node) {
+        while(!node.isLeaf())
+            node = node.childAt(node.size());
+        return node.entryAt(node.size() - 1);
+    }
+    /**
+     *@Desc B树上的游标：记录从根节点到当前项的路径，定位一次之后可以逐项前后移动，
+     *	每一步均摊O(1)，不需要每次都从root重新下降。
+     *	B树发生结构性修改（插入、删除、分裂）之后，除了重新seek，游标的其他操作会抛出ConcurrentModificationException。
+     *	有墓碑时，定位和移动之后继续朝同一个方向跳过墓碑。
+     */
+    public class Cursor {
+        /** path[0..depth]是从根节点到当前节点的路径 */
+        private BTreeNode<K, V>[] path;
+        /** 祖先节点记录下降到的子节点的索引，当前节点(path[depth])记录当前项的索引 */
+        private int[] indexes;
+        /** 当前节点在路径中的深度，-1表示游标没有指向任何项 */
+        private int depth = -1;
+        private int expectedModCount = modCount;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Cursor() {
+            path = (BTreeNode<K, V>[]) new BTreeNode[8];
+            indexes = new int[8];
+        }
+
+        /**
+         *@Desc 游标是否指向某个项
+         */
+        public boolean isValid() {
+            return depth >= 0;
+        }
+
+        public K getKey() {
+            return current().getKey();
+        }
+
+        public V getValue() {
+            return current().getValue();
+        }
+
+        /**
+         *@Desc 定位到最小的项，B树为空时返回false
+         */
+        public boolean seekFirst() {
+            reset();
+            if(root.size() == 0)
+                return false;
+            descendLeftmost(root);
+            return skipTombstones(true);
+        }
+
+        /**
+         *@Desc 定位到最大的项，B树为空时返回false
+         */
+        public boolean seekLast() {
+            reset();
+            if(root.size() == 0)
+                return false;
+            descendRightmost(root);
+            return skipTombstones(false);
+        }
+
+        /**
+         *@Desc 定位到大于等于key的最小项
+         */
+        public boolean seekCeiling(K key) {
+            return seekForward(key, true) && skipTombstones(true);
+        }
+
+        /**
+         *@Desc 定位到大于key的最小项
+         */
+        public boolean seekHigher(K key) {
+            return seekForward(key, false) && skipTombstones(true);
+        }
+
+        /**
+         *@Desc 定位到小于等于key的最大项
+         */
+        public boolean seekFloor(K key) {
+            return seekBackward(key, true) && skipTombstones(false);
+        }
+
+        /**
+         *@Desc 定位到小于key的最大项
+         */
+        public boolean seekLower(K key) {
+            return seekBackward(key, false) && skipTombstones(false);
+        }
+
+        /**
+         *@Desc 移动到下一个（更大的）项，没有下一个项时游标失效并返回false
+         */
+        public boolean next() {
+            return moveNext() && skipTombstones(true);
+        }
+
+        /**
+         *@Desc 移动到上一个（更小的）项，没有上一个项时游标失效并返回false
+         */
+        public boolean prev() {
+            return movePrev() && skipTombstones(false);
+        }
+
+        /**
+         *@Desc 当前项是墓碑时继续朝forward的方向移动，直到一个不是墓碑的项，返回游标是否有效
+         */
+        private boolean skipTombstones(boolean forward) {
+            while(tombstones > 0 && depth >= 0 && isTombstone(path[depth].entryAt(indexes[depth]))) {
+                if(!(forward ? moveNext() : movePrev()))
+                    return false;
+            }
+            return depth >= 0;
+        }
+
+        /**
+         *@Desc 移动到下一个项（可能是墓碑）
+         */
+        private boolean moveNext() {
+            if(depth < 0)
+                return false;
+            checkForComodification();
+            BTreeNode<K, V> node = path[depth];
+            int index = indexes[depth];
+            if(!node.isLeaf()) {
+                // 内节点中第index个项的下一个项是第index + 1个子树中最小的项
+                indexes[depth] = index + 1;
+                descendLeftmost(node.childAt(index + 1));
+                return true;
+            }
+            if(index + 1 < node.size()) {
+                indexes[depth] = index + 1;
+                return true;
+            }
+            // 叶节点已走完，向上找到第一个从左边子树上来的祖先，它的第j个项紧跟在第j个子树之后
+            while(-- depth >= 0) {
+                if(indexes[depth] < path[depth].size())
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         *@Desc 移动到上一个项（可能是墓碑）
+         */
+        private boolean movePrev() {
+            if(depth < 0)
+                return false;
+            checkForComodification();
+            BTreeNode<K, V> node = path[depth];
+            int index = indexes[depth];
+            if(!node.isLeaf()) {
+                // 内节点中第index个项的上一个项是第index个子树中最大的项
+                descendRightmost(node.childAt(index));
+                return true;
+            }
+            if(index > 0) {
+                indexes[depth] = index - 1;
+                return true;
+            }
+            // 叶节点已走完，向上找到第一个不是从最左子树上来的祖先，第j个子树之前是第j - 1个项
+            while(-- depth >= 0) {
+                if(indexes[depth] > 0) {
+                    -- indexes[depth];
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean seekForward(K key, boolean inclusive) {
+            reset();
+            BTreeNode<K, V> node = root;
+            while(true) {
+                int index = node.searchKey(key);
+                if(index >= 0) {
+                    push(node, index);
+                    return inclusive || moveNext();
+                }
+                index = -index - 1;
+                if(node.isLeaf()) {
+                    if(index < node.size()) {
+                        push(node, index);
+                        return true;
+                    }
+                    // 比该叶节点中所有的项都大，从它的最后一个项往后找
+                    if(node.size() == 0)
+                        return false;
+                    push(node, node.size() - 1);
+                    return moveNext();
+                }
+                push(node, index);
+                node = node.childAt(index);
+            }
+        }
+
+        private boolean seekBackward(K key, boolean inclusive) {
+            reset();
+            BTreeNode<K, V> node = root;
+            while(true) {
+                int index = node.searchKey(key);
+                if(index >= 0) {
+                    push(node, index);
+                    return inclusive || movePrev();
+                }
+                index = -index - 1;
+                if(node.isLeaf()) {
+                    if(index > 0) {
+                        push(node, index - 1);
+                        return true;
+                    }
+                    // 比该叶节点中所有的项都小，从它的第一个项往前找
+                    if(node.size() == 0)
+                        return false;
+                    push(node, 0);
+                    return movePrev();
+                }
+                push(node, index);
+                node = node.childAt(index);
+            }
+        }
+
+        private void descendLeftmost(BTreeNode<K, V> node) {
+            while(!node.isLeaf()) {
+                push(node, 0);
+                node = node.childAt(0);
+            }
+            push(node, 0);
+        }
+
+        private void descendRightmost(BTreeNode<K, V> node) {
+            while(!node.isLeaf()) {
+                push(node, node.size());
+                node = node.childAt(node.size());
+            }
+            push(node, node.size() - 1);
+        }
+
+        private void push(BTreeNode<K, V> node, int index) {
+            if(++ depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
+                indexes = Arrays.copyOf(indexes, depth * 2);
+            }
+            path[depth] = node;
+            indexes[depth] = index;
+        }
+
+        private void reset() {
+            Arrays.fill(path, 0, depth + 1, null);
+            depth = -1;
+            expectedModCount = modCount;
+        }
+
+        private Entry<K, V> current() {
+            if(depth < 0)
+                throw new NoSuchElementException();
+            checkForComodification();
+            return path[depth].entryAt(indexes[depth]);
+        }
+
+        private void checkForComodification() {
+            if(modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    /**
+     *@Desc range()返回的迭代器，用一个游标顺序走过范围内的项
+     */
+    private class RangeIterator implements Iterator<Map.Entry<K, V>> {
+        private final Cursor cursor = new Cursor();
+        private final K to;
+        private final boolean toInclusive;
+
+        RangeIterator(K from, boolean fromInclusive, K to, boolean toInclusive) {
+            this.to = to;
+            this.toInclusive = toInclusive;
+            if(from == null)
+                cursor.seekFirst();
+            else if(fromInclusive)
+                cursor.seekCeiling(from);
+            else
+                cursor.seekHigher(from);
+        }
+
+        public boolean hasNext() {
+            if(!cursor.isValid())
+                return false;
+            if(to == null)
+                return true;
+            int cmp = compare(cursor.getKey(), to);
+            return cmp < 0 || (cmp == 0 && toInclusive);
+        }
+
+        public Map.Entry<K, V> next() {
+            if(!hasNext())
+                throw new NoSuchElementException();
+            Map.Entry<K, V> entry = exportEntry(cursor.current());
+            cursor.next();
+            return entry;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,84 @@
+package com.newcoder.tree;
+
+import java.util.Comparator;
+
+/**
+ * B树每个子树上维护的聚合值，供{@link BTree#setAggregate}使用。
+ *
+ * 子树的聚合值是按键的顺序把其中每个项的of(key, value)用combine合并的结果，空子树是identity()。
+ * combine必须满足结合律（不要求交换律），返回的聚合值创建之后不能再修改，因为它们会被快照共享。
+ * 修改一个节点之后，由子节点的聚合值和节点中的项重新计算，因此不需要逆运算，最小值、最大值也可以。
+ */
+public interface BTreeAggregate<K, V, A> {
+    /**
+     *@Desc 空子树的聚合值
+     */
+    A identity();
+
+    /**
+     *@Desc 单个项的聚合值
+     */
+    A of(K key, V value);
+
+    /**
+     *@Desc 合并相邻的两段，left中的键都小于right中的键
+     */
+    A combine(A left, A right);
+
+    /**
+     *@Desc 值的long之和，值为null时按0计算
+     */
+    static <K, V extends Number> BTreeAggregate<K, V, Long> longSum() {
+        return new BTreeAggregate<K, V, Long>() {
+            public Long identity() { return 0L; }
+            public Long of(K key, V value) { return value == null ? 0L : value.longValue(); }
+            public Long combine(Long left, Long right) { return left + right; }
+        };
+    }
+
+    /**
+     *@Desc 值的double之和，值为null时按0计算
+     */
+    static <K, V extends Number> BTreeAggregate<K, V, Double> doubleSum() {
+        return new BTreeAggregate<K, V, Double>() {
+            public Double identity() { return 0.0; }
+            public Double of(K key, V value) { return value == null ? 0.0 : value.doubleValue(); }
+            public Double combine(Double left, Double right) { return left + right; }
+        };
+    }
+
+    /**
+     *@Desc 最小的值，vComparator为null时按自然排序；空子树和值为null的项是null，不参与比较
+     */
+    static <K, V> BTreeAggregate<K, V, V> min(final Comparator<? super V> vComparator) {
+        return new BTreeAggregate<K, V, V>() {
+            public V identity() { return null; }
+            public V of(K key, V value) { return value; }
+            public V combine(V left, V right) {
+                if(left == null || right == null)
+                    return left == null ? right : left;
+                return compareValues(vComparator, left, right) <= 0 ? left : right;
+            }
+        };
+    }
+
+    /**
+     *@Desc 最大的值，vComparator为null时按自然排序；空子树和值为null的项是null，不参与比较
+     */
+    static <K, V> BTreeAggregate<K, V, V> max(final Comparator<? super V> vComparator) {
+        return new BTreeAggregate<K, V, V>() {
+            public V identity() { return null; }
+            public V of(K key, V value) { return value; }
+            public V combine(V left, V right) {
+                if(left == null || right == null)
+                    return left == null ? right : left;
+                return compareValues(vComparator, left, right) >= 0 ? left : right;
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> int compareValues(Comparator<? super V> vComparator, V left, V right) {
+        return vComparator == null ? ((Comparable<V>) left).compareTo(right) : vComparator.compare(left, right);
+    }
+}
@@ -0,0 +1,65 @@
+package com.newcoder.tree;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * {@link BTree}在结构变化时发出的JFR事件，在飞行记录中可以看到每次分裂、借项、合并的时间和位置。
+ *
+ * 用法同JFR的惯例：操作前new一个事件并begin()，结束时commit()。没有在记录这些事件时，
+ * commit()只检查一次开关，事件对象经逃逸分析后通常不会真的分配，因此不需要额外的开关。
+ * 记录：java -XX:StartFlightRecording:filename=tree.jfr ...，或者在JMC中按类别"B-Tree"筛选。
+ */
+final class BTreeEvents {
+    /**
+     *@Desc 借项或合并的种类；JFR事件的字段不能是枚举，事件中记录的是name
+     */
+    enum Operation {
+        MERGE("merge"), BORROW_FROM_LEFT("borrowFromLeft"), BORROW_FROM_RIGHT("borrowFromRight");
+
+        final String name;
+
+        Operation(String name) {
+            this.name = name;
+        }
+    }
+
+    private BTreeEvents() {
+    }
+
+    @Name("com.newcoder.tree.BTree.Split")
+    @Label("B-Tree Split")
+    @Category("B-Tree")
+    @Description("A full node was split and its middle entry moved up to the parent")
+    static final class Split extends Event {
+        @Label("Minimum Degree")
+        int t;
+
+        @Label("Leaf")
+        boolean leaf;
+
+        @Label("Root Split")
+        @Description("The root was split and the tree grew by one level")
+        boolean rootSplit;
+    }
+
+    @Name("com.newcoder.tree.BTree.Rebalance")
+    @Label("B-Tree Rebalance")
+    @Category("B-Tree")
+    @Description("A delete refilled a node with t-1 entries by borrowing from a sibling or merging with it")
+    static final class Rebalance extends Event {
+        @Label("Operation")
+        @Description("merge, borrowFromLeft or borrowFromRight")
+        String operation;
+
+        @Label("Leaf")
+        boolean leaf;
+
+        @Label("Root Shrink")
+        @Description("The merge emptied the root and the tree lost one level")
+        boolean rootShrink;
+    }
+}
@@ -0,0 +1,501 @@
+package com.newcoder.tree;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/**
+ * {@link BTree}的NavigableMap视图，由{@link BTree#asNavigableMap()}创建。
+ *
+ * 所有的读写都直接作用在底层的B树上：导航方法由B树的游标定位，遍历时用游标逐项移动。
+ * 子视图（subMap/headMap/tailMap/descendingMap）只记录键的范围和方向，同TreeMap一样，
+ * 在子视图中put范围之外的键会抛出IllegalArgumentException。
+ *
+ * 与TreeMap的行为相同的地方：
+ * 	1.  entrySet的迭代器返回的项支持setValue，新值直接写入B树
+ * 	2.  遍历时put已有的键（包括setValue）只原地替换值，不是结构性修改，迭代器可以继续使用；
+ * 	    插入、删除（迭代器自己的remove除外）之后迭代器快速失败，抛出ConcurrentModificationException
+ * 	3.  firstEntry、ceilingEntry等导航方法返回不可修改的快照
+ * 不同的地方：B树与快照（BTree.snapshot()）还共享节点时，第一次put要先复制路径上的节点，
+ * 此时的put也是结构性修改。put一个不存在的键要下降两次（先尝试原地替换）。
+ */
+public class BTreeMap<K, V> extends AbstractMap<K, V> implements NavigableMap<K, V> {
+    private final BTree<K, V> tree;
+    /** 是否没有下界，为false时lo/loInclusive有效 */
+    private final boolean fromStart;
+    private final K lo;
+    private final boolean loInclusive;
+    /** 是否没有上界，为false时hi/hiInclusive有效 */
+    private final boolean toEnd;
+    private final K hi;
+    private final boolean hiInclusive;
+    /** 是否为降序视图，lo/hi始终是按B树的升序定义的 */
+    private final boolean descending;
+
+    BTreeMap(BTree<K, V> tree) {
+        this(tree, true, null, true, true, null, true, false);
+    }
+
+    private BTreeMap(BTree<K, V> tree, boolean fromStart, K lo, boolean loInclusive,
+                     boolean toEnd, K hi, boolean hiInclusive, boolean descending) {
+        if(!fromStart && !toEnd && tree.compare(lo, hi) > 0)
+            throw new IllegalArgumentException("fromKey > toKey");
+        this.tree = tree;
+        this.fromStart = fromStart;
+        this.lo = lo;
+        this.loInclusive = loInclusive;
+        this.toEnd = toEnd;
+        this.hi = hi;
+        this.hiInclusive = hiInclusive;
+        this.descending = descending;
+    }
+
+    /* ---------------- 范围判断 ---------------- */
+
+    private boolean tooLow(K key) {
+        if(fromStart)
+            return false;
+        int cmp = tree.compare(key, lo);
+        return cmp < 0 || (cmp == 0 && !loInclusive);
+    }
+
+    private boolean tooHigh(K key) {
+        if(toEnd)
+            return false;
+        int cmp = tree.compare(key, hi);
+        return cmp > 0 || (cmp == 0 && !hiInclusive);
+    }
+
+    private boolean inRange(K key) {
+        return !tooLow(key) && !tooHigh(key);
+    }
+
+    /**
+     *@Desc 创建子视图时检查新的端点：inclusive的端点必须在范围内，非inclusive的端点可以落在闭区间上
+     */
+    private boolean inRange(K key, boolean inclusive) {
+        if(inclusive)
+            return inRange(key);
+        return (fromStart || tree.compare(key, lo) >= 0) && (toEnd || tree.compare(hi, key) >= 0);
+    }
+
+    /* ---------------- 按B树升序的导航，结果限制在范围内 ---------------- */
+
+    private Map.Entry<K, V> absLowest() {
+        BTree<K, V>.Cursor cursor = tree.cursor();
+        if(fromStart)
+            cursor.seekFirst();
+        else if(loInclusive)
+            cursor.seekCeiling(lo);
+        else
+            cursor.seekHigher(lo);
+        return exportIf(cursor, !cursor.isValid() || tooHigh(cursor.getKey()));
+    }
+
+    private Map.Entry<K, V> absHighest() {
+        BTree<K, V>.Cursor cursor = tree.cursor();
+        if(toEnd)
+            cursor.seekLast();
+        else if(hiInclusive)
+            cursor.seekFloor(hi);
+        else
+            cursor.seekLower(hi);
+        return exportIf(cursor, !cursor.isValid() || tooLow(cursor.getKey()));
+    }
+
+    private Map.Entry<K, V> absCeiling(K key, boolean inclusive) {
+        if(tooLow(key))
+            return absLowest();
+        BTree<K, V>.Cursor cursor = tree.cursor();
+        if(inclusive)
+            cursor.seekCeiling(key);
+        else
+            cursor.seekHigher(key);
+        return exportIf(cursor, !cursor.isValid() || tooHigh(cursor.getKey()));
+    }
+
+    private Map.Entry<K, V> absFloor(K key, boolean inclusive) {
+        if(tooHigh(key))
+            return absHighest();
+        BTree<K, V>.Cursor cursor = tree.cursor();
+        if(inclusive)
+            cursor.seekFloor(key);
+        else
+            cursor.seekLower(key);
+        return exportIf(cursor, !cursor.isValid() || tooLow(cursor.getKey()));
+    }
+
+    private Map.Entry<K, V> exportIf(BTree<K, V>.Cursor cursor, boolean outOfRange) {
+        return outOfRange ? null : new SimpleImmutableEntry<K, V>(cursor.getKey(), cursor.getValue());
+    }
+
+    private static <K> K keyOrNull(Map.Entry<K, ?> entry) {
+        return entry == null ? null : entry.getKey();
+    }
+
+    private static <K> K keyOrThrow(Map.Entry<K, ?> entry) {
+        if(entry == null)
+            throw new NoSuchElementException();
+        return entry.getKey();
+    }
+
+    /* ---------------- Map ---------------- */
+
+    @Override
+    public int size() {
+        if(fromStart && toEnd)
+            return tree.size();
+        int count = 0;
+        for(Iterator<Map.Entry<K, V>> it = new EntryIterator(); it.hasNext(); it.next())
+            ++ count;
+        return count;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return fromStart && toEnd ? tree.isEmpty() : absLowest() == null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean containsKey(Object key) {
+        K k = (K) key;
+        return inRange(k) && tree.containsKey(k);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        K k = (K) key;
+        return inRange(k) ? tree.search(k) : null;
+    }
+
+    /**
+     *@Desc 已有的键原地替换值，不让正在进行的遍历失效；否则插入
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        if(!inRange(key))
+            throw new IllegalArgumentException("key out of range");
+        Object oldValue = tree.replaceValue(key, value);
+        return oldValue != BTree.ABSENT ? (V) oldValue : tree.put(key, value);
+    }
+
+    /**
+     *@Desc 整个B树的视图由BTree.putAll批量写入，子视图逐个put以检查范围
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        if(fromStart && toEnd)
+            tree.putAll(map.entrySet());
+        else
+            super.putAll(map);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        K k = (K) key;
+        return inRange(k) ? tree.delete(k) : null;
+    }
+
+    @Override
+    public void clear() {
+        if(fromStart && toEnd)
+            tree.clear();
+        else
+            super.clear();
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return BTreeMap.this.size();
+            }
+
+            @Override
+            public boolean isEmpty() {
+                return BTreeMap.this.isEmpty();
+            }
+        };
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return navigableKeySet();
+    }
+
+    /* ---------------- NavigableMap ---------------- */
+
+    public Comparator<? super K> comparator() {
+        Comparator<K> comparator = tree.comparator();
+        if(!descending)
+            return comparator;
+        return comparator == null ? Collections.<K>reverseOrder() : Collections.reverseOrder(comparator);
+    }
+
+    public Map.Entry<K, V> firstEntry() {
+        return descending ? absHighest() : absLowest();
+    }
+
+    public Map.Entry<K, V> lastEntry() {
+        return descending ? absLowest() : absHighest();
+    }
+
+    public Map.Entry<K, V> lowerEntry(K key) {
+        return descending ? absCeiling(key, false) : absFloor(key, false);
+    }
+
+    public Map.Entry<K, V> floorEntry(K key) {
+        return descending ? absCeiling(key, true) : absFloor(key, true);
+    }
+
+    public Map.Entry<K, V> ceilingEntry(K key) {
+        return descending ? absFloor(key, true) : absCeiling(key, true);
+    }
+
+    public Map.Entry<K, V> higherEntry(K key) {
+        return descending ? absFloor(key, false) : absCeiling(key, false);
+    }
+
+    public K firstKey() {
+        return keyOrThrow(firstEntry());
+    }
+
+    public K lastKey() {
+        return keyOrThrow(lastEntry());
+    }
+
+    public K lowerKey(K key) {
+        return keyOrNull(lowerEntry(key));
+    }
+
+    public K floorKey(K key) {
+        return keyOrNull(floorEntry(key));
+    }
+
+    public K ceilingKey(K key) {
+        return keyOrNull(ceilingEntry(key));
+    }
+
+    public K higherKey(K key) {
+        return keyOrNull(higherEntry(key));
+    }
+
+    public Map.Entry<K, V> pollFirstEntry() {
+        Map.Entry<K, V> entry = firstEntry();
+        if(entry != null)
+            tree.delete(entry.getKey());
+        return entry;
+    }
+
+    public Map.Entry<K, V> pollLastEntry() {
+        Map.Entry<K, V> entry = lastEntry();
+        if(entry != null)
+            tree.delete(entry.getKey());
+        return entry;
+    }
+
+    public NavigableMap<K, V> descendingMap() {
+        return new BTreeMap<K, V>(tree, fromStart, lo, loInclusive, toEnd, hi, hiInclusive, !descending);
+    }
+
+    public NavigableSet<K> navigableKeySet() {
+        return new KeySet<K>(this);
+    }
+
+    public NavigableSet<K> descendingKeySet() {
+        return new KeySet<K>(descendingMap());
+    }
+
+    public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        if(!inRange(fromKey, fromInclusive))
+            throw new IllegalArgumentException("fromKey out of range");
+        if(!inRange(toKey, toInclusive))
+            throw new IllegalArgumentException("toKey out of range");
+        if(descending)
+            return new BTreeMap<K, V>(tree, false, toKey, toInclusive, false, fromKey, fromInclusive, true);
+        return new BTreeMap<K, V>(tree, false, fromKey, fromInclusive, false, toKey, toInclusive, false);
+    }
+
+    public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+        if(!inRange(toKey, inclusive))
+            throw new IllegalArgumentException("toKey out of range");
+        if(descending)
+            return new BTreeMap<K, V>(tree, false, toKey, inclusive, toEnd, hi, hiInclusive, true);
+        return new BTreeMap<K, V>(tree, fromStart, lo, loInclusive, false, toKey, inclusive, false);
+    }
+
+    public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+        if(!inRange(fromKey, inclusive))
+            throw new IllegalArgumentException("fromKey out of range");
+        if(descending)
+            return new BTreeMap<K, V>(tree, fromStart, lo, loInclusive, false, fromKey, inclusive, true);
+        return new BTreeMap<K, V>(tree, false, fromKey, inclusive, toEnd, hi, hiInclusive, false);
+    }
+
+    public SortedMap<K, V> subMap(K fromKey, K toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    public SortedMap<K, V> headMap(K toKey) {
+        return headMap(toKey, false);
+    }
+
+    public SortedMap<K, V> tailMap(K fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    /**
+     *@Desc 按视图的方向遍历范围内的项，定位一次后用游标逐项移动；游标始终停在下一项上，next()时才读取它的值。
+     *	remove或者setValue退回put之后B树的结构可能已经变了，因此从下一项的键处重新定位游标。
+     */
+    private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        private final BTree<K, V>.Cursor cursor = tree.cursor();
+        /** 游标是否停在范围内的下一项上 */
+        private boolean hasNext;
+        private K lastReturned;
+        private boolean canRemove;
+
+        EntryIterator() {
+            Map.Entry<K, V> first = firstEntry();
+            if(first != null) {
+                cursor.seekCeiling(first.getKey());
+                hasNext = true;
+            }
+        }
+
+        public boolean hasNext() {
+            return hasNext;
+        }
+
+        public Map.Entry<K, V> next() {
+            if(!hasNext)
+                throw new NoSuchElementException();
+            Map.Entry<K, V> entry = new IteratorEntry(cursor.getKey(), cursor.getValue());
+            lastReturned = entry.getKey();
+            canRemove = true;
+            boolean valid = descending ? cursor.prev() : cursor.next();
+            hasNext = valid && inRange(cursor.getKey());
+            return entry;
+        }
+
+        public void remove() {
+            if(!canRemove)
+                throw new IllegalStateException();
+            canRemove = false;
+            K next = hasNext ? cursor.getKey() : null;
+            tree.delete(lastReturned);
+            if(hasNext)
+                cursor.seekCeiling(next);
+        }
+
+        /**
+         *@Desc 迭代器返回的项，setValue写入B树：通常原地替换，游标不受影响；
+         *	键已被删除或节点还与快照共享时退回put，然后重新定位游标
+         */
+        private class IteratorEntry extends SimpleEntry<K, V> {
+            private static final long serialVersionUID = 1L;
+
+            IteratorEntry(K key, V value) {
+                super(key, value);
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public V setValue(V value) {
+                super.setValue(value);
+                Object oldValue = tree.replaceValue(getKey(), value);
+                if(oldValue != BTree.ABSENT)
+                    return (V) oldValue;
+                K next = hasNext ? cursor.getKey() : null;
+                V replaced = tree.put(getKey(), value);
+                if(hasNext)
+                    cursor.seekCeiling(next);
+                return replaced;
+            }
+        }
+    }
+
+    /**
+     *@Desc NavigableMap的键视图，所有操作都转发给对应的Map
+     */
+    private static class KeySet<K> extends AbstractSet<K> implements NavigableSet<K> {
+        private final NavigableMap<K, ?> map;
+
+        KeySet(NavigableMap<K, ?> map) {
+            this.map = map;
+        }
+
+        @Override
+        public Iterator<K> iterator() {
+            final Iterator<? extends Map.Entry<K, ?>> it = map.entrySet().iterator();
+            return new Iterator<K>() {
+                public boolean hasNext() { return it.hasNext(); }
+                public K next() { return it.next().getKey(); }
+                public void remove() { it.remove(); }
+            };
+        }
+
+        @Override
+        public int size() { return map.size(); }
+        @Override
+        public boolean isEmpty() { return map.isEmpty(); }
+        @Override
+        public boolean contains(Object o) { return map.containsKey(o); }
+        @Override
+        public boolean remove(Object o) {
+            if(!map.containsKey(o))
+                return false;
+            map.remove(o);
+            return true;
+        }
+        @Override
+        public void clear() { map.clear(); }
+
+        public Comparator<? super K> comparator() { return map.comparator(); }
+        public K first() { return map.firstKey(); }
+        public K last() { return map.lastKey(); }
+        public K lower(K e) { return map.lowerKey(e); }
+        public K floor(K e) { return map.floorKey(e); }
+        public K ceiling(K e) { return map.ceilingKey(e); }
+        public K higher(K e) { return map.higherKey(e); }
+        public K pollFirst() { return keyOrNull(map.pollFirstEntry()); }
+        public K pollLast() { return keyOrNull(map.pollLastEntry()); }
+        public NavigableSet<K> descendingSet() { return new KeySet<K>(map.descendingMap()); }
+        public Iterator<K> descendingIterator() { return descendingSet().iterator(); }
+
+        public NavigableSet<K> subSet(K fromElement, boolean fromInclusive, K toElement, boolean toInclusive) {
+            return new KeySet<K>(map.subMap(fromElement, fromInclusive, toElement, toInclusive));
+        }
+
+        public NavigableSet<K> headSet(K toElement, boolean inclusive) {
+            return new KeySet<K>(map.headMap(toElement, inclusive));
+        }
+
+        public NavigableSet<K> tailSet(K fromElement, boolean inclusive) {
+            return new KeySet<K>(map.tailMap(fromElement, inclusive));
+        }
+
+        public SortedSet<K> subSet(K fromElement, K toElement) { return subSet(fromElement, true, toElement, false); }
+        public SortedSet<K> headSet(K toElement) { return headSet(toElement, false); }
+        public SortedSet<K> tailSet(K fromElement) { return tailSet(fromElement, true); }
+    }
+}
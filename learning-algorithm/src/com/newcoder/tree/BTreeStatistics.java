@@ -0,0 +1,150 @@
+package com.newcoder.tree;
+
+/**
+ * {@link BTree}的结构计数，由BTree.setStatisticsEnabled(true)开启，BTree.statistics()取得。
+ *
+ * 计数在BTree的操作中直接累加，没有同步，与BTree一样不是线程安全的。
+ * 没有开启时BTree中只多一次判空，查找走原来的路径，不做任何计数。
+ * 节点的填充率和树高不在操作中维护，需要时由BTree.shape()遍历整棵树算出。
+ */
+public final class BTreeStatistics {
+    long splits;
+    long rootGrowths;
+    long merges;
+    long borrowsFromLeft;
+    long borrowsFromRight;
+    long rootShrinks;
+    long lookups;
+    /** 查找经过的节点数之和，除以lookups就是平均的下降深度 */
+    long nodesVisited;
+    long comparisons;
+
+    BTreeStatistics() {
+    }
+
+    /**
+     *@Desc 节点分裂的次数（包括根节点分裂）
+     */
+    public long getSplits() { return splits; }
+
+    /**
+     *@Desc 根节点分裂、B树长高的次数
+     */
+    public long getRootGrowths() { return rootGrowths; }
+
+    /**
+     *@Desc 删除时两个兄弟节点合并的次数
+     */
+    public long getMerges() { return merges; }
+
+    /**
+     *@Desc 删除时从左兄弟借项的次数
+     */
+    public long getBorrowsFromLeft() { return borrowsFromLeft; }
+
+    /**
+     *@Desc 删除时从右兄弟借项的次数
+     */
+    public long getBorrowsFromRight() { return borrowsFromRight; }
+
+    /**
+     *@Desc 根节点的项被合并下去、B树变矮的次数
+     */
+    public long getRootShrinks() { return rootShrinks; }
+
+    /**
+     *@Desc search的次数
+     */
+    public long getLookups() { return lookups; }
+
+    /**
+     *@Desc search中比较键的总次数
+     */
+    public long getComparisons() { return comparisons; }
+
+    public double comparisonsPerLookup() {
+        return lookups == 0 ? 0 : (double) comparisons / lookups;
+    }
+
+    /**
+     *@Desc 每次search平均经过的节点数（找到时可能在内节点提前结束）
+     */
+    public double depthPerLookup() {
+        return lookups == 0 ? 0 : (double) nodesVisited / lookups;
+    }
+
+    /**
+     *@Desc 计数清零
+     */
+    public void reset() {
+        splits = rootGrowths = merges = borrowsFromLeft = borrowsFromRight = rootShrinks = 0;
+        lookups = nodesVisited = comparisons = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BTreeStatistics[splits=%d, rootGrowths=%d, merges=%d, borrowsFromLeft=%d, borrowsFromRight=%d, "
+                + "rootShrinks=%d, lookups=%d, comparisons/lookup=%.2f, depth/lookup=%.2f]",
+                splits, rootGrowths, merges, borrowsFromLeft, borrowsFromRight, rootShrinks, lookups,
+                comparisonsPerLookup(), depthPerLookup());
+    }
+
+    /**
+     *@Desc B树的形状：树高和每个节点的填充率（项数 / (2t-1)）的分布，由BTree.shape()遍历得到
+     */
+    public static final class Shape {
+        /** 填充率直方图的桶数，第i个桶是[i/10, (i+1)/10)，满节点在最后一个桶 */
+        public static final int BUCKETS = 10;
+
+        private final int height;
+        private final long nodes;
+        private final long entries;
+        private final int maxKeySize;
+        private final long[] fillHistogram;
+        private final long[] nodesPerLevel;
+
+        Shape(int height, long nodes, long entries, int maxKeySize, long[] fillHistogram, long[] nodesPerLevel) {
+            this.height = height;
+            this.nodes = nodes;
+            this.entries = entries;
+            this.maxKeySize = maxKeySize;
+            this.fillHistogram = fillHistogram;
+            this.nodesPerLevel = nodesPerLevel;
+        }
+
+        /**
+         *@Desc 树高：从根节点到叶节点的层数，只有根节点时为1
+         */
+        public int getHeight() { return height; }
+
+        public long getNodes() { return nodes; }
+
+        public long getEntries() { return entries; }
+
+        /**
+         *@Desc 平均填充率
+         */
+        public double averageFill() {
+            return nodes == 0 ? 0 : (double) entries / ((double) nodes * maxKeySize);
+        }
+
+        /**
+         *@Desc 填充率落在第bucket个桶中的节点数
+         */
+        public long getFillCount(int bucket) { return fillHistogram[bucket]; }
+
+        /**
+         *@Desc 第level层（根节点为第0层）的节点数
+         */
+        public long getNodesAtLevel(int level) { return nodesPerLevel[level]; }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(String.format("Shape[height=%d, nodes=%d, entries=%d, averageFill=%.3f, fill=", height, nodes, entries, averageFill()));
+            for(int i = 0; i < BUCKETS; ++ i)
+                builder.append(i == 0 ? "{" : ", ").append(i * 10).append("%:").append(fillHistogram[i]);
+            return builder.append("}]").toString();
+        }
+    }
+}
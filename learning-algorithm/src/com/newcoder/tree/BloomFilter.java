@@ -0,0 +1,91 @@
+package com.newcoder.tree;
+
+/**
+ * 按缓存行分块的Bloom过滤器，供{@link CachedBTree}判断键一定不存在。
+ *
+ * 位数组分成512位（8个long，一个缓存行）的块，一个键的所有k个位都落在同一个块中：
+ * 先由键的散列值选出块，再用双重散列在块内取k个位。这样一次查询只访问一个缓存行，
+ * 代价是同样的位数下误判率比普通的Bloom过滤器略高一点。
+ *
+ * 按容量capacity和目标误判率p分配位数：每个键 -ln(p) / (ln2)^2 位，k = 每个键的位数 * ln2；
+ * 块数向上取整到2的幂，因此实际的位数不少于计算值。加入的键超过capacity之后误判率会上升，需要重建。
+ * 不支持删除，由使用者在删除足够多的键之后重建。键的散列值来自hashCode()。
+ * add和mightContain之间没有同步，由使用者保证写的时候没有读。
+ */
+final class BloomFilter {
+    /** 一个块的long个数，8个long是512位 */
+    private static final int BLOCK_WORDS = 8;
+    private static final int BLOCK_BITS = BLOCK_WORDS * 64;
+    /** 最多的块数，位数组最大1 GiB */
+    private static final int MAX_BLOCKS = 1 << 24;
+    private static final int MAX_HASHES = 16;
+
+    private final long[] words;
+    private final int blockMask;
+    private final int hashes;
+    private final int capacity;
+
+    BloomFilter(int capacity, double falsePositiveRate) {
+        if(capacity < 1)
+            throw new IllegalArgumentException("The capacity must be at least 1: " + capacity);
+        if(!(falsePositiveRate > 0 && falsePositiveRate < 1))
+            throw new IllegalArgumentException("The false positive rate must be in (0, 1): " + falsePositiveRate);
+        double bitsPerKey = -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        long blocks = (long) Math.ceil(capacity * bitsPerKey / BLOCK_BITS);
+        int blockCount = 1;
+        while(blockCount < blocks && blockCount < MAX_BLOCKS)
+            blockCount <<= 1;
+        this.words = new long[blockCount * BLOCK_WORDS];
+        this.blockMask = blockCount - 1;
+        this.hashes = (int) Math.max(1, Math.min(MAX_HASHES, Math.round(bitsPerKey * Math.log(2))));
+        this.capacity = capacity;
+    }
+
+    /**
+     *@Desc 计划容纳的键数
+     */
+    int capacity() {
+        return capacity;
+    }
+
+    void add(Object key) {
+        long h = mix(key.hashCode());
+        int base = ((int) (h >>> 32) & blockMask) * BLOCK_WORDS;
+        long g = mix(h);
+        int h1 = (int) g;
+        int h2 = (int) (g >>> 32) | 1;
+        for(int i = 0; i < hashes; ++ i) {
+            int bit = (h1 + i * h2) & (BLOCK_BITS - 1);
+            words[base + (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     *@Desc 返回false时key一定没有加入过；返回true时key可能加入过
+     */
+    boolean mightContain(Object key) {
+        long h = mix(key.hashCode());
+        int base = ((int) (h >>> 32) & blockMask) * BLOCK_WORDS;
+        long g = mix(h);
+        int h1 = (int) g;
+        int h2 = (int) (g >>> 32) | 1;
+        for(int i = 0; i < hashes; ++ i) {
+            int bit = (h1 + i * h2) & (BLOCK_BITS - 1);
+            if((words[base + (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     *@Desc 64位的混合函数（MurmurHash3的fmix64），把hashCode的每一位扩散到所有的位上
+     */
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,342 @@
+package com.newcoder.tree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link PageFile}前面的页缓存，容量按字节数给定，最多缓存capacity / pageSize页（不少于MIN_FRAMES页）。
+ *
+ * 使用页之前先pin，用完unpin，被pin住的页不会被换出；unpin时说明页是否被修改过，
+ * 修改过的页在被换出或flush()时写回文件。
+ *
+ * 换出策略是LRU-2：换出倒数第二次访问最早的页，只访问过一次的页（倒数第二次访问视为无穷远）最先被换出，
+ * 它们之间再按最后一次访问的先后换出。顺序扫描只访问每页一次，不会把反复访问的页挤出去，
+ * B树上层的节点几乎每次操作都会访问，因此一直留在缓存中。
+ * 被换出的页的最后一次访问时间保留在history中，页再次被读入时仍然能算出倒数第二次访问；
+ * 只保留最近frames.length次换出的记录，更早换出的页再读入时按只访问过一次处理。
+ * history同table一样是按页号下标的数组（每页16字节），pin、unpin和换出都不分配对象。
+ *
+ * 写回修改过的页之前先把预写日志fsync（WAL规则），保证数据文件中的页不会超前于日志。
+ *
+ * 同一次pin到unpin之间只算一次访问：PagedBTree在一次操作中对同一页只pin一次，因此不会出现LRU-K中的相关访问问题。
+ * 不是线程安全的。
+ */
+public class BufferPool {
+    /**
+     *@Desc 缓存中的一页
+     */
+    private static final class Frame {
+        /** 缓存的页号，0表示空闲（第0页是文件头，不经过缓存） */
+        private int pageId;
+        private final ByteBuffer page;
+        private int pinCount;
+        private boolean dirty;
+        /** 最后一次和倒数第二次访问的时间，0表示没有 */
+        private long lastAccess;
+        private long previousAccess;
+        /** 在heap中的位置，-1表示不在heap中（被pin住或者空闲） */
+        private int heapIndex = -1;
+
+        Frame(int pageSize) {
+            page = ByteBuffer.allocate(pageSize);
+        }
+    }
+
+    /** 最少缓存的页数，要能放下一次B树操作同时pin住的所有页 */
+    static final int MIN_FRAMES = 64;
+
+    private final PageFile pageFile;
+    private final WriteAheadLog wal;
+    /** 已经分配的页框，最多frames.length个，用到时才分配 */
+    private final Frame[] frames;
+    private int frameCount;
+    /** 被释放的页腾出来的页框 */
+    private final List<Frame> freeFrames = new ArrayList<Frame>();
+    /** 页号到页框的映射，页号是连续分配的，直接用数组下标 */
+    private Frame[] table = new Frame[16];
+    /** 没有被pin住的页框，按(倒数第二次访问, 最后一次访问)排列的小顶堆，堆顶就是下一个被换出的页 */
+    private final Frame[] heap;
+    private int heapSize;
+    /** 逻辑时钟，每次pin加一 */
+    private long clock;
+    /** 被换出的页最后一次被访问的时间，按页号下标 */
+    private long[] history = new long[16];
+    /** 页被换出时evictionClock的值，按页号下标；0表示没有记录，evictionClock前进frames.length之后记录过期 */
+    private long[] evictedAt = new long[16];
+    /** 换出的序号，不随resetStatistics清零 */
+    private long evictionClock;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long writeBacks;
+
+    BufferPool(PageFile pageFile, WriteAheadLog wal, long capacity) {
+        this.pageFile = pageFile;
+        this.wal = wal;
+        int maxFrames = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(MIN_FRAMES, capacity / pageFile.pageSize()));
+        frames = new Frame[maxFrames];
+        heap = new Frame[maxFrames];
+    }
+
+    /**
+     *@Desc 命中的次数
+     */
+    public long getHits() { return hits; }
+
+    /**
+     *@Desc 没有命中、需要从文件读页的次数
+     */
+    public long getMisses() { return misses; }
+
+    /**
+     *@Desc 换出的页数
+     */
+    public long getEvictions() { return evictions; }
+
+    /**
+     *@Desc 换出或flush时写回文件的页数
+     */
+    public long getWriteBacks() { return writeBacks; }
+
+    /**
+     *@Desc 最多缓存的页数
+     */
+    public int getCapacity() { return frames.length; }
+
+    /**
+     *@Desc 当前缓存的页数
+     */
+    public int getResidentPages() { return frameCount - freeFrames.size(); }
+
+    public double hitRatio() {
+        long accesses = hits + misses;
+        return accesses == 0 ? 0 : (double) hits / accesses;
+    }
+
+    /**
+     *@Desc 计数清零，便于分阶段观察
+     */
+    public void resetStatistics() {
+        hits = misses = evictions = writeBacks = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool[capacity=" + frames.length + " pages, resident=" + getResidentPages() + ", hits=" + hits
+                + ", misses=" + misses + ", evictions=" + evictions + ", writeBacks=" + writeBacks + "]";
+    }
+
+    /**
+     *@Desc pin住给定的页并返回它的内容，不在缓存中时从文件读入
+     */
+    ByteBuffer pin(int pageId) throws IOException {
+        Frame frame = lookup(pageId);
+        if(frame != null) {
+            ++ hits;
+        } else {
+            ++ misses;
+            frame = takeFrame();
+            pageFile.readPage(pageId, frame.page);
+            load(frame, pageId, takeHistory(pageId));
+        }
+        pin(frame);
+        return frame.page;
+    }
+
+    /**
+     *@Desc pin住一个刚分配的页，内容全部为0，不读文件
+     */
+    ByteBuffer pinNew(int pageId) throws IOException {
+        assert lookup(pageId) == null;
+        Frame frame = takeFrame();
+        ByteBuffer page = frame.page;
+        zero(page);
+        frame.dirty = true;
+        takeHistory(pageId);
+        load(frame, pageId, 0);
+        pin(frame);
+        return page;
+    }
+
+    /**
+     *@Desc 解除一次pin，dirty表示这期间页被修改过
+     */
+    void unpin(int pageId, boolean dirty) {
+        Frame frame = lookup(pageId);
+        if(frame == null || frame.pinCount == 0)
+            throw new IllegalStateException("Page " + pageId + " isn't pinned.");
+        frame.dirty |= dirty;
+        if(-- frame.pinCount == 0)
+            heapAdd(frame);
+    }
+
+    /**
+     *@Desc 丢弃给定的页，不写回（页中的内容已经不可信，以日志为准）
+     */
+    void discard(int pageId) {
+        Frame frame = lookup(pageId);
+        if(frame == null)
+            return;
+        if(frame.heapIndex >= 0)
+            heapRemove(frame);
+        table[pageId] = null;
+        frame.pageId = 0;
+        frame.pinCount = 0;
+        frame.dirty = false;
+        freeFrames.add(frame);
+    }
+
+    /**
+     *@Desc 把所有修改过的页写回文件
+     */
+    void flush() throws IOException {
+        for(int i = 0; i < frameCount; ++ i) {
+            Frame frame = frames[i];
+            if(frame.pageId != 0 && frame.dirty)
+                writeBack(frame);
+        }
+    }
+
+    /**
+     *@Desc 把整页清零
+     */
+    static void zero(ByteBuffer page) {
+        Arrays.fill(page.array(), page.arrayOffset(), page.arrayOffset() + page.capacity(), (byte) 0);
+    }
+
+    private Frame lookup(int pageId) {
+        return pageId < table.length ? table[pageId] : null;
+    }
+
+    private void load(Frame frame, int pageId, long lastAccess) {
+        if(pageId >= table.length)
+            table = Arrays.copyOf(table, Math.max(pageId + 1, table.length * 2));
+        table[pageId] = frame;
+        frame.pageId = pageId;
+        frame.lastAccess = lastAccess;
+    }
+
+    private void pin(Frame frame) {
+        if(frame.pinCount++ == 0 && frame.heapIndex >= 0)
+            heapRemove(frame);
+        frame.previousAccess = frame.lastAccess;
+        frame.lastAccess = ++ clock;
+    }
+
+    /**
+     *@Desc 取一个可以装入新页的页框：先用空闲的，再新分配，都没有时换出堆顶的页
+     */
+    private Frame takeFrame() throws IOException {
+        if(!freeFrames.isEmpty())
+            return freeFrames.remove(freeFrames.size() - 1);
+        if(frameCount < frames.length)
+            return frames[frameCount++] = new Frame(pageFile.pageSize());
+        if(heapSize == 0)
+            throw new IllegalStateException("All " + frames.length + " pages in the buffer pool are pinned.");
+        Frame victim = heap[0];
+        heapRemove(victim);
+        if(victim.dirty)
+            writeBack(victim);
+        table[victim.pageId] = null;
+        putHistory(victim.pageId, victim.lastAccess);
+        victim.pageId = 0;
+        ++ evictions;
+        return victim;
+    }
+
+    /**
+     *@Desc 记录被换出的页最后一次访问的时间
+     */
+    private void putHistory(int pageId, long lastAccess) {
+        if(pageId >= history.length) {
+            int length = Math.max(pageId + 1, history.length * 2);
+            history = Arrays.copyOf(history, length);
+            evictedAt = Arrays.copyOf(evictedAt, length);
+        }
+        history[pageId] = lastAccess;
+        evictedAt[pageId] = ++ evictionClock;
+    }
+
+    /**
+     *@Desc 取出并清除页的历史记录：页最后一次访问的时间，没有记录或记录已过期时返回0
+     */
+    private long takeHistory(int pageId) {
+        if(pageId >= history.length || evictedAt[pageId] == 0)
+            return 0;
+        boolean expired = evictionClock - evictedAt[pageId] >= frames.length;
+        evictedAt[pageId] = 0;
+        return expired ? 0 : history[pageId];
+    }
+
+    private void writeBack(Frame frame) throws IOException {
+        if(wal != null)
+            wal.sync();
+        pageFile.writePage(frame.pageId, frame.page);
+        frame.dirty = false;
+        ++ writeBacks;
+    }
+
+    /**
+     *@Desc a是否应该比b先被换出
+     */
+    private static boolean before(Frame a, Frame b) {
+        if(a.previousAccess != b.previousAccess)
+            return a.previousAccess < b.previousAccess;
+        return a.lastAccess < b.lastAccess;
+    }
+
+    private void heapAdd(Frame frame) {
+        heap[heapSize] = frame;
+        frame.heapIndex = heapSize++;
+        siftUp(frame.heapIndex);
+    }
+
+    private void heapRemove(Frame frame) {
+        int index = frame.heapIndex;
+        Frame last = heap[--heapSize];
+        heap[heapSize] = null;
+        frame.heapIndex = -1;
+        if(last != frame) {
+            heap[index] = last;
+            last.heapIndex = index;
+            siftDown(index);
+            siftUp(last.heapIndex);
+        }
+    }
+
+    private void siftUp(int index) {
+        Frame frame = heap[index];
+        while(index > 0) {
+            int parent = (index - 1) >>> 1;
+            if(!before(frame, heap[parent]))
+                break;
+            heap[index] = heap[parent];
+            heap[index].heapIndex = index;
+            index = parent;
+        }
+        heap[index] = frame;
+        frame.heapIndex = index;
+    }
+
+    private void siftDown(int index) {
+        Frame frame = heap[index];
+        while(true) {
+            int child = 2 * index + 1;
+            if(child >= heapSize)
+                break;
+            if(child + 1 < heapSize && before(heap[child + 1], heap[child]))
+                ++ child;
+            if(!before(heap[child], frame))
+                break;
+            heap[index] = heap[child];
+            heap[index].heapIndex = index;
+            index = child;
+        }
+        heap[index] = frame;
+        frame.heapIndex = index;
+    }
+}
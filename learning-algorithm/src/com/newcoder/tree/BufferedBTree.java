@@ -0,0 +1,484 @@
+package com.newcoder.tree;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * 写优化的B树（Bε树）：内节点除了分隔键和子节点，还带一个消息缓冲区。
+ * put和delete只是把一条消息放进根节点的缓冲区，缓冲区满了才整批地推给下一层，适合以随机插入为主的写入。
+ *
+ * 与{@link BPlusTree}的区别：
+ * 	1.  值只存放在叶节点中，内节点中是分隔键：第i个子树中的键k满足 keys[i-1] <= k < keys[i]（同BPlusTree）
+ * 	2.  内节点的缓冲区中是按键排序的待处理消息：键 -> 新值，或者键 -> 删除标记，同一个键只保留最新的一条；
+ * 	    同一个子树的消息在缓冲区中是连续的一段
+ * 	3.  缓冲区超过bufferSize条时，把消息较多的子树（不少于平均数，包括最多的那个）的那一段整批移到子节点：
+ * 	    子节点是内节点时并入它的缓冲区（上层的消息更新，覆盖同键的旧消息），它的缓冲区也满了就继续向下推；
+ * 	    子节点是叶节点时与叶节点中的项一次归并。之后子节点过大时在父节点中分裂成几个；
+ * 	    只剩一个子节点、缓冲区为空的内节点由它唯一的子节点代替，变空的叶节点从父节点中摘掉
+ * 	4.  search从根节点向下，先在每个内节点的缓冲区中查找：上层的消息总是比下层的新，遇到的第一条消息就是结果
+ *
+ * 一次put的代价是在根节点的缓冲区中插入一条消息，加上分摊的推送：每条消息在每一层随一批（约bufferSize / fanout条）消息移动一次，
+ * 而B树的每次插入都要走到叶节点。代价是search在每一层多一次缓冲区中的二分查找。
+ * 节点大小B = fanout + bufferSize，叶节点最多B个项：fanout越小、缓冲区越大，写入越快，树越高，查找越慢；
+ * bufferSize为0时每条消息都直接推到叶节点，相当于一棵B+树。
+ *
+ * 为了不在写入时读取叶节点，put和delete不返回旧值，也不维护项的个数。
+ * 删除不做合并，大量删除之后节点可能不满。变空的叶节点被摘掉，子节点都被摘掉的内节点随之变空并被摘掉，
+ * 所以滑动窗口式的写入（插入新键、删除旧键）中节点数由窗口的大小决定，不随写入的总数增长。
+ * 内节点被它的子节点代替时，这个子树比兄弟子树矮一层：查找和推送都只看节点是不是叶节点，不要求各叶节点深度相同。
+ */
+public class BufferedBTree<K, V> {
+    /**
+     *@Desc Bε树中的节点，数组按需要增长
+     */
+    private static class BufferedNode {
+        /** 叶节点中是键，内节点中是分隔键，升序存放在[0, size)中 */
+        private Object[] keys;
+        /** 叶节点中与keys一一对应的值 */
+        private Object[] values;
+        /** 内节点的子节点，存放在[0, size + 1)中 */
+        private BufferedNode[] children;
+        /** 键的个数 */
+        private int size;
+        /** 是否为叶子节点 */
+        private final boolean leaf;
+        /** 内节点的消息缓冲区，按键升序存放在[0, messageCount)中；值为TOMBSTONE时表示删除 */
+        private Object[] messageKeys;
+        private Object[] messageValues;
+        private int messageCount;
+
+        BufferedNode(boolean leaf, int capacity) {
+            this.leaf = leaf;
+            keys = new Object[capacity];
+            if(leaf) {
+                values = new Object[capacity];
+            } else {
+                children = new BufferedNode[capacity + 1];
+                messageKeys = new Object[0];
+                messageValues = new Object[0];
+            }
+        }
+
+        public boolean isLeaf() { return leaf; }
+        public int size() { return size; }
+        public BufferedNode childAt(int index) { return children[index]; }
+
+        /**
+         *@Desc 删除缓冲区中[from, to)的消息
+         */
+        public void removeMessages(int from, int to) {
+            System.arraycopy(messageKeys, to, messageKeys, from, messageCount - to);
+            System.arraycopy(messageValues, to, messageValues, from, messageCount - to);
+            int newCount = messageCount - (to - from);
+            Arrays.fill(messageKeys, newCount, messageCount, null);
+            Arrays.fill(messageValues, newCount, messageCount, null);
+            messageCount = newCount;
+        }
+
+        /**
+         *@Desc 删除第index个子节点以及它左边的分隔键（index为0时是右边的）
+         */
+        public void removeChild(int index) {
+            int keyIndex = index == 0 ? 0 : index - 1;
+            System.arraycopy(keys, keyIndex + 1, keys, keyIndex, size - keyIndex - 1);
+            System.arraycopy(children, index + 1, children, index, size - index);
+            keys[size - 1] = null;
+            children[size] = null;
+            -- size;
+        }
+    }
+
+    /** 缓冲区中删除消息的值 */
+    private static final Object TOMBSTONE = new Object();
+
+    private static final int DEFAULT_FANOUT = 16;
+    private static final int DEFAULT_BUFFER_SIZE = 496;
+
+    /** Bε树的根节点 */
+    private BufferedNode root;
+    /** 内节点最多的子节点数 */
+    private final int fanout;
+    /** 内节点缓冲区中最多的消息数 */
+    private final int bufferSize;
+    /** 叶节点中最多的项数：fanout + bufferSize */
+    private final int leafSize;
+    /** 键的比较函数对象 */
+    private final Comparator<K> kComparator;
+
+    public BufferedBTree() {
+        this(null, DEFAULT_FANOUT, DEFAULT_BUFFER_SIZE);
+    }
+
+    public BufferedBTree(int fanout, int bufferSize) {
+        this(null, fanout, bufferSize);
+    }
+
+    public BufferedBTree(Comparator<K> kComparator) {
+        this(kComparator, DEFAULT_FANOUT, DEFAULT_BUFFER_SIZE);
+    }
+
+    public BufferedBTree(Comparator<K> kComparator, int fanout, int bufferSize) {
+        if(fanout < 2)
+            throw new IllegalArgumentException("The fanout must be at least 2: " + fanout);
+        if(bufferSize < 0)
+            throw new IllegalArgumentException("The buffer size must not be negative: " + bufferSize);
+        this.kComparator = kComparator;
+        this.fanout = fanout;
+        this.bufferSize = bufferSize;
+        leafSize = fanout + bufferSize;
+        root = new BufferedNode(true, leafSize);
+    }
+
+    @SuppressWarnings("unchecked")
+    int compare(Object key1, Object key2) {
+        return kComparator == null ? ((Comparable<K>)key1).compareTo((K) key2) : kComparator.compare((K) key1, (K) key2);
+    }
+
+    /**
+     *@Desc 在keys的[from, to)中二分查找，返回值的约定同Arrays.binarySearch
+     */
+    private int binarySearch(Object[] keys, int from, int to, Object key) {
+        int low = from;
+        int high = to - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(keys[mid], key);
+            if(cmp < 0)
+                low = mid + 1;
+            else if(cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    /**
+     *@Desc keys的[from, to)中第一个不小于key的位置
+     */
+    private int lowerBound(Object[] keys, int from, int to, Object key) {
+        int index = binarySearch(keys, from, to, key);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     *@Desc 内节点中key所在子树的索引：等于分隔键时属于右边的子树
+     */
+    private int childIndex(BufferedNode node, Object key) {
+        int index = binarySearch(node.keys, 0, node.size(), key);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     *@Desc 搜索给定的键，不存在时返回null。沿途遇到的第一条消息就是最新的结果
+     */
+    @SuppressWarnings("unchecked")
+    public V search(K key) {
+        BufferedNode node = root;
+        while(!node.isLeaf()) {
+            int index = binarySearch(node.messageKeys, 0, node.messageCount, key);
+            if(index >= 0) {
+                Object value = node.messageValues[index];
+                return value == TOMBSTONE ? null : (V) value;
+            }
+            node = node.childAt(childIndex(node, key));
+        }
+        int index = binarySearch(node.keys, 0, node.size(), key);
+        return index >= 0 ? (V) node.values[index] : null;
+    }
+
+    /**
+     *@Desc 是否存在给定的键（值可能为null时，用它区分search返回的null）
+     */
+    public boolean containsKey(K key) {
+        BufferedNode node = root;
+        while(!node.isLeaf()) {
+            int index = binarySearch(node.messageKeys, 0, node.messageCount, key);
+            if(index >= 0)
+                return node.messageValues[index] != TOMBSTONE;
+            node = node.childAt(childIndex(node, key));
+        }
+        return binarySearch(node.keys, 0, node.size(), key) >= 0;
+    }
+
+    /**
+     *@Desc 写入给定的键值对：键已存在时更新值，否则插入
+     */
+    public void put(K key, V value) {
+        if(key == null)
+            throw new NullPointerException("The key must not be null.");
+        write(key, value);
+    }
+
+    /**
+     *@Desc 删除给定的键，键不存在时什么都不做
+     */
+    public void delete(K key) {
+        if(key == null)
+            throw new NullPointerException("The key must not be null.");
+        write(key, TOMBSTONE);
+    }
+
+    /**
+     *@Desc 根节点是叶节点时直接修改叶节点，否则把消息放进根节点的缓冲区，缓冲区满了再向下推
+     */
+    private void write(Object key, Object value) {
+        if(root.isLeaf()) {
+            applyToLeaf(root, new Object[] {key}, new Object[] {value}, 0, 1);
+        } else {
+            BufferedNode node = root;
+            int index = binarySearch(node.messageKeys, 0, node.messageCount, key);
+            if(index >= 0) {
+                node.messageValues[index] = value;
+            } else {
+                index = -index - 1;
+                if(node.messageCount == node.messageKeys.length) {
+                    int capacity = Math.max(node.messageCount * 2, bufferSize + 1);
+                    node.messageKeys = Arrays.copyOf(node.messageKeys, capacity);
+                    node.messageValues = Arrays.copyOf(node.messageValues, capacity);
+                }
+                System.arraycopy(node.messageKeys, index, node.messageKeys, index + 1, node.messageCount - index);
+                System.arraycopy(node.messageValues, index, node.messageValues, index + 1, node.messageCount - index);
+                node.messageKeys[index] = key;
+                node.messageValues[index] = value;
+                ++ node.messageCount;
+            }
+            if(node.messageCount > bufferSize)
+                flush(node);
+        }
+        // 根节点过大时B树长高，可能需要不止一层
+        while(overflows(root)) {
+            BufferedNode newRoot = new BufferedNode(false, fanout);
+            newRoot.children[0] = root;
+            splitChild(newRoot, 0);
+            root = newRoot;
+        }
+        // 叶节点都被摘掉只剩一个子节点时，B树变矮
+        while(!root.isLeaf() && root.size() == 0 && root.messageCount == 0)
+            root = root.childAt(0);
+    }
+
+    /**
+     *@Desc 叶节点的项数超过leafSize，或者内节点的子节点数超过fanout
+     */
+    private boolean overflows(BufferedNode node) {
+        return node.isLeaf() ? node.size() > leafSize : node.size() + 1 > fanout;
+    }
+
+    /**
+     *@Desc 把node的缓冲区推到不超过bufferSize条。
+     *	每一轮扫描一遍缓冲区中的各段，把消息数不少于平均数的段整批移到对应的子节点（消息最多的段总在其中），
+     *	一次扫描的代价由多个段分摊，每批消息也不会太少
+     */
+    private void flush(BufferedNode node) {
+        while(node.messageCount > bufferSize) {
+            int count = node.messageCount;
+            int threshold = Math.max(1, count / (node.size() + 1));
+            // 要推的段：{子树, from, to}
+            int[] segments = new int[3 * (node.size() + 1)];
+            int segmentCount = 0;
+            // 按消息分段：每一段的第一条消息决定子树，分隔键决定段的结束，只访问有消息的子树
+            for(int from = 0; from < count; ) {
+                int index = childIndex(node, node.messageKeys[from]);
+                int to = index < node.size() ? lowerBound(node.messageKeys, from, count, node.keys[index]) : count;
+                if(to - from >= threshold) {
+                    segments[3 * segmentCount] = index;
+                    segments[3 * segmentCount + 1] = from;
+                    segments[3 * segmentCount + 2] = to;
+                    ++ segmentCount;
+                }
+                from = to;
+            }
+            // 从右向左推：右边子节点的分裂、摘除不影响左边子节点的索引和消息的位置
+            for(int i = segmentCount - 1; i >= 0; -- i)
+                pushDown(node, segments[3 * i], segments[3 * i + 1], segments[3 * i + 2]);
+            // 一次去掉推走的消息
+            int read = 0;
+            int write = 0;
+            for(int i = 0; i <= segmentCount; ++ i) {
+                int from = i < segmentCount ? segments[3 * i + 1] : count;
+                System.arraycopy(node.messageKeys, read, node.messageKeys, write, from - read);
+                System.arraycopy(node.messageValues, read, node.messageValues, write, from - read);
+                write += from - read;
+                if(i < segmentCount)
+                    read = segments[3 * i + 2];
+            }
+            Arrays.fill(node.messageKeys, write, count, null);
+            Arrays.fill(node.messageValues, write, count, null);
+            node.messageCount = write;
+        }
+    }
+
+    /**
+     *@Desc 把node缓冲区中[from, to)的消息移到第index个子节点，之后子节点过大时分裂，变空时摘掉。
+     *	不从node中删除这些消息
+     */
+    private void pushDown(BufferedNode node, int index, int from, int to) {
+        BufferedNode childNode = node.childAt(index);
+        if(childNode.isLeaf()) {
+            applyToLeaf(childNode, node.messageKeys, node.messageValues, from, to);
+        } else {
+            mergeMessages(childNode, node.messageKeys, node.messageValues, from, to);
+            if(childNode.messageCount > bufferSize)
+                flush(childNode);
+        }
+        if(overflows(childNode))
+            splitChild(node, index);
+        else
+            collapseChild(node, index);
+    }
+
+    /**
+     *@Desc 只剩一个子节点、缓冲区为空的子节点换成它唯一的子节点（可能连续几层），换上来的是空的叶节点时从node中摘掉。
+     *	子节点的flush已经这样处理过它自己的子节点，删空的子树从下到上逐层消失；
+     *	node的最后一个子节点不摘，留给node的父节点处理（或者由write让树变矮）
+     */
+    private void collapseChild(BufferedNode node, int index) {
+        BufferedNode childNode = node.childAt(index);
+        while(!childNode.isLeaf() && childNode.size() == 0 && childNode.messageCount == 0) {
+            childNode = childNode.childAt(0);
+            node.children[index] = childNode;
+        }
+        if(childNode.isLeaf() && childNode.size() == 0 && node.size() > 0)
+            node.removeChild(index);
+    }
+
+    /**
+     *@Desc 树中的节点数，用来检查删除之后节点是否被摘掉
+     */
+    public int nodeCount() {
+        return nodeCount(root);
+    }
+
+    private int nodeCount(BufferedNode node) {
+        int count = 1;
+        if(!node.isLeaf()) {
+            for(int i = 0; i <= node.size(); ++ i)
+                count += nodeCount(node.childAt(i));
+        }
+        return count;
+    }
+
+    /**
+     *@Desc 把消息[from, to)与叶节点中的项归并：同键时消息覆盖旧值，删除消息去掉该项
+     */
+    private void applyToLeaf(BufferedNode leaf, Object[] messageKeys, Object[] messageValues, int from, int to) {
+        int capacity = leaf.size() + to - from;
+        if(capacity > leaf.keys.length) {
+            leaf.keys = Arrays.copyOf(leaf.keys, capacity);
+            leaf.values = Arrays.copyOf(leaf.values, capacity);
+        }
+        leaf.size = merge(leaf.keys, leaf.values, leaf.size(), messageKeys, messageValues, from, to, true);
+    }
+
+    /**
+     *@Desc 把消息[from, to)并入内节点node的缓冲区：这些消息来自上层，同键时覆盖node中的旧消息
+     */
+    private void mergeMessages(BufferedNode node, Object[] messageKeys, Object[] messageValues, int from, int to) {
+        int capacity = node.messageCount + to - from;
+        if(capacity > node.messageKeys.length) {
+            capacity = Math.max(capacity, bufferSize + 1);
+            node.messageKeys = Arrays.copyOf(node.messageKeys, capacity);
+            node.messageValues = Arrays.copyOf(node.messageValues, capacity);
+        }
+        node.messageCount = merge(node.messageKeys, node.messageValues, node.messageCount, messageKeys, messageValues, from, to, false);
+    }
+
+    /**
+     *@Desc 把有序的消息[from, to)原地归并进keys/values的[0, n)中（数组的容量至少为n + (to - from)），返回归并后的个数。
+     *	从最后一条消息开始：二分查找它在未处理的项中的位置，比它大的项整块移到数组的末尾，再写入这条消息。
+     *	一批消息通常远少于节点中的项，比较次数是(to - from) * log(n)，不必逐个比较节点中的每一项。
+     *	同键时消息覆盖旧的项，dropTombstones时删除消息去掉该项而不写入；被跳过的项在开头留下空位，最后整体左移
+     */
+    private int merge(Object[] keys, Object[] values, int n, Object[] messageKeys, Object[] messageValues,
+            int from, int to, boolean dropTombstones) {
+        // 未处理的项是[0, i]，下一个写入的位置是w，w总是不小于i
+        int i = n - 1;
+        int w = n + (to - from) - 1;
+        for(int j = to - 1; j >= from; -- j) {
+            int index = binarySearch(keys, 0, i + 1, messageKeys[j]);
+            int start = index >= 0 ? index + 1 : -index - 1;
+            int length = i + 1 - start;
+            System.arraycopy(keys, start, keys, w - length + 1, length);
+            System.arraycopy(values, start, values, w - length + 1, length);
+            w -= length;
+            // 同键的旧项被这条消息覆盖
+            i = index >= 0 ? index - 1 : start - 1;
+            if(!dropTombstones || messageValues[j] != TOMBSTONE) {
+                keys[w] = messageKeys[j];
+                values[w--] = messageValues[j];
+            }
+        }
+        // 剩下的[0, i]移到w之前，开头留下的空位是gap个
+        System.arraycopy(keys, 0, keys, w - i, i + 1);
+        System.arraycopy(values, 0, values, w - i, i + 1);
+        int gap = w - i;
+        int count = n + (to - from) - gap;
+        if(gap > 0) {
+            System.arraycopy(keys, gap, keys, 0, count);
+            System.arraycopy(values, gap, values, 0, count);
+            Arrays.fill(keys, count, count + gap, null);
+            Arrays.fill(values, count, count + gap, null);
+        }
+        return count;
+    }
+
+    /**
+     *@Desc 把node的第index个子节点均分成若干个不超过上限的节点，在node中插入它们和它们之间的分隔键。
+     *	叶节点：每一段的第一个键复制到node中；
+     *	内节点：段与段之间的分隔键上升到node中，缓冲区中的消息按上升的分隔键分到各段
+     */
+    private void splitChild(BufferedNode node, int index) {
+        BufferedNode childNode = node.childAt(index);
+        // 叶节点按项数分，内节点按子节点数分
+        int count = childNode.isLeaf() ? childNode.size() : childNode.size() + 1;
+        int limit = childNode.isLeaf() ? leafSize : fanout;
+        int pieces = (count + limit - 1) / limit;
+        BufferedNode[] siblings = new BufferedNode[pieces];
+        Object[] separators = new Object[pieces - 1];
+        int messageFrom = 0;
+        for(int p = 0; p < pieces; ++ p) {
+            int from = (int) ((long) count * p / pieces);
+            int to = (int) ((long) count * (p + 1) / pieces);
+            BufferedNode sibling;
+            if(childNode.isLeaf()) {
+                sibling = new BufferedNode(true, leafSize);
+                System.arraycopy(childNode.keys, from, sibling.keys, 0, to - from);
+                System.arraycopy(childNode.values, from, sibling.values, 0, to - from);
+                sibling.size = to - from;
+                if(p > 0)
+                    separators[p - 1] = childNode.keys[from];
+            } else {
+                // 这一段是子节点[from, to)，其间的分隔键是keys[from, to - 1)，keys[to - 1]上升到node中
+                sibling = new BufferedNode(false, fanout);
+                System.arraycopy(childNode.keys, from, sibling.keys, 0, to - from - 1);
+                System.arraycopy(childNode.children, from, sibling.children, 0, to - from);
+                sibling.size = to - from - 1;
+                int messageTo = childNode.messageCount;
+                if(p < pieces - 1) {
+                    separators[p] = childNode.keys[to - 1];
+                    messageTo = lowerBound(childNode.messageKeys, messageFrom, childNode.messageCount, separators[p]);
+                }
+                sibling.messageKeys = Arrays.copyOfRange(childNode.messageKeys, messageFrom, Math.max(messageTo, messageFrom + bufferSize + 1));
+                sibling.messageValues = Arrays.copyOfRange(childNode.messageValues, messageFrom, messageFrom + sibling.messageKeys.length);
+                Arrays.fill(sibling.messageKeys, messageTo - messageFrom, sibling.messageKeys.length, null);
+                Arrays.fill(sibling.messageValues, messageTo - messageFrom, sibling.messageValues.length, null);
+                sibling.messageCount = messageTo - messageFrom;
+                messageFrom = messageTo;
+            }
+            siblings[p] = sibling;
+        }
+
+        // 第index个子节点换成第一段，其余各段和分隔键插在它后面
+        int newSize = node.size() + pieces - 1;
+        if(newSize + 1 > node.children.length) {
+            node.keys = Arrays.copyOf(node.keys, newSize);
+            node.children = Arrays.copyOf(node.children, newSize + 1);
+        }
+        System.arraycopy(node.keys, index, node.keys, index + pieces - 1, node.size() - index);
+        System.arraycopy(node.children, index + 1, node.children, index + pieces, node.size() - index);
+        System.arraycopy(separators, 0, node.keys, index, pieces - 1);
+        System.arraycopy(siblings, 0, node.children, index, pieces);
+        node.size = newSize;
+    }
+}
@@ -0,0 +1,306 @@
+package com.newcoder.tree;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 在{@link BTree}前面加两层，减少search需要从根节点走到叶子节点的次数：
+ *
+ * 	1.  Bloom过滤器（{@link BloomFilter}）：树中的每个键都加入过滤器，过滤器说不存在的键直接返回null，不访问B树。
+ * 	    查找的键大多不存在时，大部分查找只需要一次散列和一个缓存行。
+ * 	    Bloom过滤器不能删除键，删除的键留在过滤器中只会增加误判；删除的键达到过滤器容量的REBUILD_RATIO，
+ * 	    或者项数超过过滤器的容量时，按当前的项数重建过滤器（遍历整棵树，O(n)，分摊到每次修改上是O(1)）
+ * 	2.  热点键缓存（{@link TinyLfuCache}）：通过过滤器、在树中找到的键放入W-TinyLFU缓存，
+ * 	    访问集中在少数键上时大部分查找直接命中缓存；put、delete使对应的键失效
+ *
+ * StampedLock保护B树和过滤器：insert、put、delete、clear持有写锁。search、containsKey先不加锁地乐观读取：
+ * 查过滤器和缓存，校验期间没有写操作之后，过滤器拦下的和命中缓存的查找直接返回，不获取读锁；
+ * 期间有写操作时（读到的过滤器、缓存可能是修改了一半的）在读锁下重做。没有命中缓存的查找在读锁下访问B树，
+ * 再把找到的值交给缓存：缓存的锁被其他线程占用时放弃这次加入（见getDroppedAdmissions），读锁下不会阻塞在缓存的锁上。
+ * 缓存本身是线程安全的，查找在读锁下填充缓存，写操作在写锁下使缓存失效，因此缓存中不会留下旧的值。
+ * 被包装的B树不能再直接修改（修改不会更新过滤器和缓存），也不要开启它的统计（统计的计数没有同步）。
+ * 键的hashCode、equals必须与B树的比较函数一致：比较相等的键散列值也相等。
+ *
+ * 命中率、误判率等计数由LongAdder累加，见getCacheHits、getFalsePositives等。
+ */
+public class CachedBTree<K, V> {
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+    /** 过滤器的最小容量 */
+    private static final int MIN_FILTER_CAPACITY = 1024;
+    /** 重建时过滤器的容量是项数的这个倍数，之后至少插入同样多的键才会因为容量不足而再次重建 */
+    private static final int FILTER_GROWTH = 2;
+    /** 删除的键达到过滤器容量的这个比例时重建过滤器 */
+    private static final double REBUILD_RATIO = 0.25;
+    /** 缓存中代表null值 */
+    private static final Object NULL_VALUE = new Object();
+
+    private final BTree<K, V> tree;
+    private final StampedLock lock = new StampedLock();
+    /** 缓存容量为0时是null */
+    private final TinyLfuCache<K, Object> cache;
+    private final double falsePositiveRate;
+    /** 在写锁下替换和修改，乐观读取时可能读到修改了一半的过滤器，由校验发现 */
+    private BloomFilter filter;
+    /** 上次重建之后删除的键数 */
+    private int deletedKeys;
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder filterRejections = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder droppedAdmissions = new LongAdder();
+    private volatile long filterRebuilds;
+
+    public CachedBTree(BTree<K, V> tree, int cacheCapacity) {
+        this(tree, cacheCapacity, DEFAULT_FALSE_POSITIVE_RATE);
+    }
+
+    /**
+     *@Desc tree中已有的键在这里加入过滤器；cacheCapacity为0时不使用缓存，只有过滤器
+     */
+    public CachedBTree(BTree<K, V> tree, int cacheCapacity, double falsePositiveRate) {
+        if(cacheCapacity < 0)
+            throw new IllegalArgumentException("The cache capacity must not be negative: " + cacheCapacity);
+        if(!(falsePositiveRate > 0 && falsePositiveRate < 1))
+            throw new IllegalArgumentException("The false positive rate must be in (0, 1): " + falsePositiveRate);
+        this.tree = tree;
+        this.cache = cacheCapacity == 0 ? null : new TinyLfuCache<K, Object>(cacheCapacity);
+        this.falsePositiveRate = falsePositiveRate;
+        this.filter = buildFilter();
+    }
+
+    /**
+     *@Desc 搜索给定的键：过滤器说不存在时直接返回null，然后依次查缓存和B树
+     */
+    @SuppressWarnings("unchecked")
+    public V search(K key) {
+        Object value = lookup(key);
+        return value == NULL_VALUE ? null : (V) value;
+    }
+
+    public boolean containsKey(K key) {
+        return lookup(key) != null;
+    }
+
+    /**
+     *@Desc 找到时返回值（null值用NULL_VALUE代替），没有找到时返回null
+     */
+    private Object lookup(K key) {
+        lookups.increment();
+        // 乐观读取：过滤器拦下或者命中缓存时不获取读锁
+        boolean missed = false;
+        long stamp = lock.tryOptimisticRead();
+        if(stamp != 0) {
+            boolean mightContain = filter.mightContain(key);
+            Object cached = mightContain && cache != null ? cache.get(key) : null;
+            if(lock.validate(stamp)) {
+                if(!mightContain) {
+                    filterRejections.increment();
+                    return null;
+                }
+                if(cached != null) {
+                    cacheHits.increment();
+                    return cached;
+                }
+                // 已经确认缓存中没有，读锁下不再查缓存（也不再计一次访问频率）
+                missed = cache != null;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            if(!missed) {
+                if(!filter.mightContain(key)) {
+                    filterRejections.increment();
+                    return null;
+                }
+                if(cache != null) {
+                    Object cached = cache.get(key);
+                    if(cached != null) {
+                        cacheHits.increment();
+                        return cached;
+                    }
+                }
+            }
+            if(cache != null)
+                cacheMisses.increment();
+            V value = tree.search(key);
+            // 值为null时再确认一次键是否存在，只有误判和null值才会走到这里
+            if(value == null && !tree.containsKey(key)) {
+                falsePositives.increment();
+                return null;
+            }
+            Object found = value == null ? NULL_VALUE : value;
+            if(cache != null && !cache.offer(key, found))
+                droppedAdmissions.increment();
+            return found;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     *@Desc 插入键值对，键已经存在时不做任何修改，返回false
+     */
+    public boolean insert(K key, V value) {
+        long stamp = lock.writeLock();
+        try {
+            if(!tree.insert(key, value))
+                return false;
+            added(key);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     *@Desc 插入或更新键值对，返回原来的值
+     */
+    public V put(K key, V value) {
+        long stamp = lock.writeLock();
+        try {
+            int size = tree.size();
+            V oldValue = tree.put(key, value);
+            if(cache != null)
+                cache.invalidate(key);
+            if(tree.size() > size)
+                added(key);
+            return oldValue;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     *@Desc 删除键，返回原来的值
+     */
+    public V delete(K key) {
+        long stamp = lock.writeLock();
+        try {
+            int size = tree.size();
+            V oldValue = tree.delete(key);
+            if(tree.size() < size) {
+                if(cache != null)
+                    cache.invalidate(key);
+                if(++ deletedKeys >= filter.capacity() * REBUILD_RATIO)
+                    rebuildFilter();
+            }
+            return oldValue;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            tree.clear();
+            if(cache != null)
+                cache.clear();
+            rebuildFilter();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return tree.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     *@Desc 新的键加入过滤器，项数超过过滤器的容量时重建
+     */
+    private void added(K key) {
+        filter.add(key);
+        if(tree.size() > filter.capacity())
+            rebuildFilter();
+    }
+
+    private void rebuildFilter() {
+        filter = buildFilter();
+        deletedKeys = 0;
+        ++ filterRebuilds;
+    }
+
+    /**
+     *@Desc 按当前的项数分配过滤器，加入树中所有的键
+     */
+    private BloomFilter buildFilter() {
+        int capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(MIN_FILTER_CAPACITY, (long) tree.size() * FILTER_GROWTH));
+        BloomFilter rebuilt = new BloomFilter(capacity, falsePositiveRate);
+        Iterator<Map.Entry<K, V>> entries = tree.range(null, true, null, true);
+        while(entries.hasNext())
+            rebuilt.add(entries.next().getKey());
+        return rebuilt;
+    }
+
+    /**
+     *@Desc search和containsKey的次数
+     */
+    public long getLookups() { return lookups.sum(); }
+
+    /**
+     *@Desc 过滤器判定不存在、没有访问缓存和B树的查找次数
+     */
+    public long getFilterRejections() { return filterRejections.sum(); }
+
+    /**
+     *@Desc 通过了过滤器、但B树中没有的查找次数
+     */
+    public long getFalsePositives() { return falsePositives.sum(); }
+
+    /**
+     *@Desc 命中缓存的次数
+     */
+    public long getCacheHits() { return cacheHits.sum(); }
+
+    /**
+     *@Desc 通过了过滤器、没有命中缓存而访问B树的次数；不使用缓存时是0
+     */
+    public long getCacheMisses() { return cacheMisses.sum(); }
+
+    /**
+     *@Desc 没有命中缓存、在B树中找到了，但因为缓存的锁被占用而没有放入缓存的次数
+     */
+    public long getDroppedAdmissions() { return droppedAdmissions.sum(); }
+
+    /**
+     *@Desc 过滤器重建的次数（不包括构造时的第一次）
+     */
+    public long getFilterRebuilds() { return filterRebuilds; }
+
+    /**
+     *@Desc 缓存挤出或没有接纳的项数；不使用缓存时是0
+     */
+    public long getCacheEvictions() { return cache == null ? 0 : cache.evictions(); }
+
+    /**
+     *@Desc 通过过滤器的查找中命中缓存的比例
+     */
+    public double hitRatio() {
+        long hits = getCacheHits();
+        long accesses = hits + getCacheMisses();
+        return accesses == 0 ? 0 : (double) hits / accesses;
+    }
+
+    /**
+     *@Desc 不存在的键中没有被过滤器拦下的比例，即过滤器实际的误判率
+     */
+    public double falsePositiveRatio() {
+        long falsePositives = getFalsePositives();
+        long absent = falsePositives + getFilterRejections();
+        return absent == 0 ? 0 : (double) falsePositives / absent;
+    }
+}
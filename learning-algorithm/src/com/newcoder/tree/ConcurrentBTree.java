@@ -0,0 +1,464 @@
+package com.newcoder.tree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 支持多线程并发读写的B树，采用Lehman–Yao的B-link树结构（值只存放在叶节点，同{@link BPlusTree}）。
+ *
+ * 每个节点除了键和子节点之外还记录：
+ * 	highKey：该节点中键的上界（不包含），最右的节点为null，表示正无穷
+ * 	right：同一层右边的兄弟节点
+ * 节点分裂时先让新的右节点可达（经由right指针），再把分隔键插入父节点。
+ * 在这个间隙里下降到旧节点的线程发现key >= highKey，就沿right指针向右移动，不会找错子树。
+ *
+ * 并发控制：
+ * 	1.  节点的键、子节点、highKey、right放在一个不可变的NodeState中，插入、删除时整体替换volatile引用，
+ * 	    读线程只读取一次state，看到的永远是某个完整的版本，因此查找不加任何锁
+ * 	2.  更新已有键的值不改变键的集合，因此不替换state，而是在叶节点的values数组中以release语义原地写入，
+ * 	    读线程以acquire语义读取，一次覆盖写不分配任何对象
+ * 	3.  写线程下降时不加锁，到达叶节点后只锁住要修改的节点；分裂时从根节点重新下降找到父节点，
+ * 	    先锁父节点再释放子节点，加锁顺序总是自下而上、自左向右，不会死锁
+ * 	4.  根节点只会因为分裂而长高，长高时由rootLock保护
+ *
+ * 删除只从叶节点中移除键。节点变空（叶节点没有键，或内节点只剩一个子节点）之后，它吸收同一个父节点下的右兄弟：
+ * 右兄弟的内容整体移过来，右兄弟的state换成只有一个指向吸收者的指针的"已合并"状态，
+ * 父节点删掉两者之间的分隔键和指向右兄弟的指针，父节点也可能因此变空，于是逐层向上。
+ * 这一步让右兄弟的键范围向左移到了吸收者，走到已合并节点的线程被转回吸收者，吸收者的范围包含了右兄弟原来的范围；
+ * 除此之外键的范围只会向右移动，right指针总能把走错的线程带回正确的位置。
+ * 已合并的节点从父节点和同层的right链上摘下之后，只可能还被正在进行的操作引用，
+ * 这些线程离开之后由GC回收（延迟回收），因此插入、删除不断滑动的键区间时节点数保持有界。
+ * 父节点的最后一个子节点没有同一个父节点下的右兄弟，变空之后暂时留着，等父节点吸收了它的右兄弟再回收。
+ * 内节点吸收右兄弟之后最多可以有2t个键，下一次插入时分裂。
+ * size()在并发修改时是一个近似值。
+ */
+public class ConcurrentBTree<K, V> {
+    /**
+     *@Desc 节点在某一时刻的内容，创建之后除了values中的元素（覆盖写原地进行）不再修改
+     */
+    private static final class NodeState<K, V> {
+        /** 叶节点中是键，内节点中是分隔键，第i个子树中的键k满足 keys[i-1] <= k < keys[i]；已合并的节点为null */
+        final Object[] keys;
+        /** 叶节点中与keys一一对应的值，元素通过VALUES以acquire/release语义读写 */
+        final Object[] values;
+        /** 内节点的子节点，比keys多一个 */
+        final Node<K, V>[] children;
+        /** 该节点中键的上界（不包含），null表示没有上界 */
+        final K highKey;
+        /** 同一层右边的兄弟节点；已合并的节点中是吸收了它的节点 */
+        final Node<K, V> right;
+
+        NodeState(Object[] keys, Object[] values, Node<K, V>[] children, K highKey, Node<K, V> right) {
+            this.keys = keys;
+            this.values = values;
+            this.children = children;
+            this.highKey = highKey;
+            this.right = right;
+        }
+
+        boolean isLeaf() { return children == null; }
+        int size() { return keys.length; }
+        /** 是否已被左兄弟吸收，此时right指向吸收者 */
+        boolean isMerged() { return keys == null; }
+    }
+
+    /**
+     *@Desc B-link树中的节点：一个可以被整体替换的state和一把只有写线程使用的锁
+     */
+    private static final class Node<K, V> {
+        final ReentrantLock lock = new ReentrantLock();
+        /** 节点所在的层，叶节点为0 */
+        final int level;
+        volatile NodeState<K, V> state;
+
+        Node(int level, NodeState<K, V> state) {
+            this.level = level;
+            this.state = state;
+        }
+    }
+
+    private static final int DEFAULT_T = 16;
+    private static final Object[] EMPTY = new Object[0];
+    /** doPut插入了新键时的返回值，用来和值为null的已有键区分 */
+    private static final Object ABSENT = new Object();
+    /** 叶节点values数组的元素访问 */
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    /** 根节点，只在rootLock保护下替换 */
+    private volatile Node<K, V> root;
+    private final ReentrantLock rootLock = new ReentrantLock();
+    /** 每个节点最多2t-1个键 */
+    private final int maxKeySize;
+    /** 键的比较函数对象 */
+    private final Comparator<K> kComparator;
+    private final LongAdder size = new LongAdder();
+
+    public ConcurrentBTree() {
+        this(null, DEFAULT_T);
+    }
+
+    public ConcurrentBTree(int t) {
+        this(null, t);
+    }
+
+    public ConcurrentBTree(Comparator<K> kComparator) {
+        this(kComparator, DEFAULT_T);
+    }
+
+    public ConcurrentBTree(Comparator<K> kComparator, int t) {
+        if(t < 2)
+            throw new IllegalArgumentException("The minimum degree t must be at least 2: " + t);
+        this.kComparator = kComparator;
+        maxKeySize = 2*t - 1;
+        root = new Node<K, V>(0, new NodeState<K, V>(EMPTY, EMPTY, null, null, null));
+    }
+
+    @SuppressWarnings("unchecked")
+    int compare(K key1, K key2) {
+        return kComparator == null ? ((Comparable<K>)key1).compareTo(key2) : kComparator.compare(key1, key2);
+    }
+
+    /**
+     *@Desc 在state的键中二分查找，返回值的约定同Arrays.binarySearch
+     */
+    @SuppressWarnings("unchecked")
+    private int searchKey(NodeState<K, V> state, K key) {
+        Object[] keys = state.keys;
+        int low = 0;
+        int high = keys.length - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare((K) keys[mid], key);
+            if(cmp < 0)
+                low = mid + 1;
+            else if(cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    /**
+     *@Desc 内节点中key所在的子节点：等于分隔键时属于右边的子树
+     */
+    private Node<K, V> childFor(NodeState<K, V> state, K key) {
+        int index = searchKey(state, key);
+        return state.children[index >= 0 ? index + 1 : -index - 1];
+    }
+
+    /**
+     *@Desc key是否不在该节点中，需要沿right移动：已经超出了该节点的范围（向右），或者节点已被吸收（转回吸收者）
+     */
+    private boolean beyond(NodeState<K, V> state, K key) {
+        return state.isMerged() || state.highKey != null && compare(key, state.highKey) >= 0;
+    }
+
+    public long size() {
+        return size.sum();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     *@Desc 搜索给定的键，不存在时返回null。整个过程不加锁。
+     */
+    @SuppressWarnings("unchecked")
+    public V search(K key) {
+        Node<K, V> node = root;
+        while(true) {
+            NodeState<K, V> state = node.state;
+            if(beyond(state, key)) {
+                node = state.right;
+            } else if(state.isLeaf()) {
+                int index = searchKey(state, key);
+                return index >= 0 ? (V) VALUES.getAcquire(state.values, index) : null;
+            } else {
+                node = childFor(state, key);
+            }
+        }
+    }
+
+    /**
+     *@Desc 在B树中插入给定的键值对，键已存在时返回false
+     */
+    public boolean insert(K key, V value) {
+        return doPut(key, value, true) == ABSENT;
+    }
+
+    /**
+     *@Desc 如果存在给定的键，则更新值并返回旧值，否则插入并返回null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        Object oldValue = doPut(key, value, false);
+        return oldValue == ABSENT ? null : (V) oldValue;
+    }
+
+    /**
+     *@Desc 从B树中删除给定的键，返回被删除的值，不存在时返回null。叶节点删空之后回收它，见reclaim。
+     */
+    @SuppressWarnings("unchecked")
+    public V delete(K key) {
+        Node<K, V> leaf = lockLeaf(key);
+        boolean emptied = false;
+        try {
+            NodeState<K, V> state = leaf.state;
+            int index = searchKey(state, key);
+            if(index < 0)
+                return null;
+            V oldValue = (V) state.values[index];
+            leaf.state = new NodeState<K, V>(remove(state.keys, index), remove(state.values, index), null, state.highKey, state.right);
+            size.decrement();
+            emptied = state.size() == 1;
+            return oldValue;
+        } finally {
+            leaf.lock.unlock();
+            if(emptied)
+                reclaim(leaf);
+        }
+    }
+
+    /**
+     *@Desc 不加锁地下降到叶节点，然后锁住key所在的叶节点
+     */
+    private Node<K, V> lockLeaf(K key) {
+        Node<K, V> node = root;
+        while(true) {
+            NodeState<K, V> state = node.state;
+            if(beyond(state, key))
+                node = state.right;
+            else if(state.isLeaf())
+                break;
+            else
+                node = childFor(state, key);
+        }
+        node.lock.lock();
+        return moveRight(node, key);
+    }
+
+    /**
+     *@Desc node已加锁：如果key超出了它的范围，则锁住右兄弟、释放node，直到找到key所在的节点。
+     *	node已被吸收时先释放它再锁吸收者（在它左边），不违反自左向右的加锁顺序
+     */
+    private Node<K, V> moveRight(Node<K, V> node, K key) {
+        while(beyond(node.state, key)) {
+            Node<K, V> right = node.state.right;
+            if(node.state.isMerged()) {
+                node.lock.unlock();
+                right.lock.lock();
+            } else {
+                right.lock.lock();
+                node.lock.unlock();
+            }
+            node = right;
+        }
+        return node;
+    }
+
+    /**
+     *@Desc 插入或更新（onlyIfAbsent时不更新），返回旧值；键原来不存在时返回ABSENT
+     */
+    @SuppressWarnings("unchecked")
+    private Object doPut(K key, V value, boolean onlyIfAbsent) {
+        Node<K, V> node = lockLeaf(key);
+
+        NodeState<K, V> state = node.state;
+        int index = searchKey(state, key);
+        if(index >= 0) {
+            // 值的写入都在节点的锁内，这里直接读取
+            Object oldValue = state.values[index];
+            if(!onlyIfAbsent)
+                VALUES.setRelease(state.values, index, value);
+            node.lock.unlock();
+            return oldValue;
+        }
+        index = -index - 1;
+        size.increment();
+        Object[] keys = insert(state.keys, index, key);
+        Object[] values = insert(state.values, index, value);
+        if(keys.length <= maxKeySize) {
+            node.state = new NodeState<K, V>(keys, values, null, state.highKey, state.right);
+            node.lock.unlock();
+            return ABSENT;
+        }
+
+        // 叶节点满了：分裂成两半，右半部分的第一个键作为分隔键插入父节点
+        int half = keys.length / 2;
+        Object[] rightKeys = Arrays.copyOfRange(keys, half, keys.length);
+        Node<K, V> rightNode = new Node<K, V>(0, new NodeState<K, V>(rightKeys,
+                Arrays.copyOfRange(values, half, values.length), null, state.highKey, state.right));
+        K separator = (K) rightKeys[0];
+        node.state = new NodeState<K, V>(Arrays.copyOf(keys, half), Arrays.copyOf(values, half), null, separator, rightNode);
+        insertIntoParent(node, separator, rightNode);
+        return ABSENT;
+    }
+
+    /**
+     *@Desc node（已加锁）刚分裂出rightNode，把(separator, rightNode)插入父节点，必要时继续向上分裂。
+     *	父节点由从根节点重新下降找到（分裂只占插入的约1/t，不必为每次写记下下降的路径）；
+     *	先锁住父节点再释放node；返回时所有的锁都已释放。
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void insertIntoParent(Node<K, V> node, K separator, Node<K, V> rightNode) {
+        while(true) {
+            int parentLevel = node.level + 1;
+            if(root.level < parentLevel) {
+                // 下降时node所在的层就是最高层：如果根节点还是它，则长出新的根节点
+                while(true) {
+                    rootLock.lock();
+                    try {
+                        if(root == node) {
+                            Node<K, V>[] children = (Node<K, V>[]) new Node[] { node, rightNode };
+                            root = new Node<K, V>(parentLevel, new NodeState<K, V>(new Object[] { separator }, null, children, null, null));
+                            node.lock.unlock();
+                            return;
+                        }
+                        if(root.level >= parentLevel)
+                            break;
+                    } finally {
+                        rootLock.unlock();
+                    }
+                    // node是旧根节点分裂出来的右兄弟，而分裂旧根节点的线程还没来得及长出新的根节点
+                    Thread.yield();
+                }
+            }
+            // 从根节点下降到父节点那一层
+            Node<K, V> parent = descendToLevel(separator, parentLevel);
+            parent.lock.lock();
+            node.lock.unlock();
+            parent = moveRight(parent, separator);
+
+            NodeState<K, V> state = parent.state;
+            int index = searchKey(state, separator);
+            index = index >= 0 ? index + 1 : -index - 1;
+            Object[] keys = insert(state.keys, index, separator);
+            Node<K, V>[] children = (Node<K, V>[]) insert(state.children, index + 1, rightNode);
+            if(keys.length <= maxKeySize) {
+                parent.state = new NodeState<K, V>(keys, null, children, state.highKey, state.right);
+                parent.lock.unlock();
+                return;
+            }
+
+            // 内节点满了：中间的键上升，右边的键和子节点移到新节点
+            int half = keys.length / 2;
+            K middle = (K) keys[half];
+            Node<K, V> newRight = new Node<K, V>(parent.level, new NodeState<K, V>(
+                    Arrays.copyOfRange(keys, half + 1, keys.length), null,
+                    Arrays.copyOfRange(children, half + 1, children.length), state.highKey, state.right));
+            parent.state = new NodeState<K, V>(Arrays.copyOf(keys, half), null,
+                    Arrays.copyOf(children, half + 1), middle, newRight);
+            node = parent;
+            separator = middle;
+            rightNode = newRight;
+        }
+    }
+
+    /**
+     *@Desc node（未加锁）可能变空了：只要它还是空的（叶节点没有键，内节点只剩一个子节点），
+     *	就吸收同一个父节点下的右兄弟，并从父节点中删掉指向右兄弟的指针。
+     *	加锁顺序：node、右兄弟（自左向右），然后父节点（自下而上）。
+     *	吸收之后父节点可能也变空了；内节点吸收右兄弟之后，它原来唯一的子节点有了同一个父节点下的右兄弟，
+     *	两者都在释放所有的锁之后接着回收。右兄弟在另一个父节点下，或者分裂出的指针还没有插入父节点时放弃。
+     */
+    @SuppressWarnings("unchecked")
+    private void reclaim(Node<K, V> node) {
+        while(node.level < root.level) {
+            node.lock.lock();
+            NodeState<K, V> state = node.state;
+            if(state.isMerged() || state.size() > 0 || state.right == null) {
+                node.lock.unlock();
+                return;
+            }
+            // node.right在node的锁内读出，只有node自己能吸收它，因此它不是已合并的节点
+            Node<K, V> right = state.right;
+            right.lock.lock();
+            K separator = state.highKey;
+            Node<K, V> parent = descendToLevel(separator, node.level + 1);
+            parent.lock.lock();
+            parent = moveRight(parent, separator);
+            NodeState<K, V> parentState = parent.state;
+            int index = searchKey(parentState, separator);
+            if(index < 0 || parentState.children[index] != node || parentState.children[index + 1] != right) {
+                parent.lock.unlock();
+                right.lock.unlock();
+                node.lock.unlock();
+                return;
+            }
+
+            NodeState<K, V> rightState = right.state;
+            Node<K, V> onlyChild = null;
+            if(state.isLeaf()) {
+                node.state = new NodeState<K, V>(rightState.keys, rightState.values, null, rightState.highKey, rightState.right);
+            } else {
+                onlyChild = state.children[0];
+                node.state = new NodeState<K, V>(insert(rightState.keys, 0, separator), null,
+                        (Node<K, V>[]) insert(rightState.children, 0, onlyChild), rightState.highKey, rightState.right);
+            }
+            // 先让node包含右兄弟的内容，再把右兄弟转向node：读线程在两者中读到的内容相同
+            right.state = new NodeState<K, V>(null, null, null, null, node);
+            parent.state = new NodeState<K, V>(remove(parentState.keys, index), null,
+                    (Node<K, V>[]) remove(parentState.children, index + 1), parentState.highKey, parentState.right);
+            parent.lock.unlock();
+            right.lock.unlock();
+            node.lock.unlock();
+
+            if(onlyChild != null)
+                reclaim(onlyChild);
+            if(parentState.size() == 1)
+                reclaim(parent);
+            // 右兄弟也是空的时node仍然是空的，继续吸收
+        }
+    }
+
+    /**
+     *@Desc 沿每一层最左边的节点和right指针数出的节点数。不加锁，只在没有并发修改时准确，
+     *	用来检查删除之后节点是否被回收
+     */
+    public int nodeCount() {
+        int count = 0;
+        Node<K, V> first = root;
+        while(first != null) {
+            NodeState<K, V> state = first.state;
+            for(Node<K, V> node = first; node != null; node = node.state.right)
+                ++ count;
+            first = state.isLeaf() ? null : state.children[0];
+        }
+        return count;
+    }
+
+    /**
+     *@Desc 不加锁地从根节点下降到给定层中key所在的节点
+     */
+    private Node<K, V> descendToLevel(K key, int level) {
+        Node<K, V> node = root;
+        while(true) {
+            NodeState<K, V> state = node.state;
+            if(beyond(state, key))
+                node = state.right;
+            else if(node.level == level)
+                return node;
+            else
+                node = childFor(state, key);
+        }
+    }
+
+    private static Object[] insert(Object[] array, int index, Object element) {
+        Object[] result = Arrays.copyOf(array, array.length + 1, array.getClass());
+        System.arraycopy(array, index, result, index + 1, array.length - index);
+        result[index] = element;
+        return result;
+    }
+
+    private static Object[] remove(Object[] array, int index) {
+        Object[] result = Arrays.copyOf(array, array.length - 1);
+        System.arraycopy(array, index + 1, result, index, array.length - index - 1);
+        return result;
+    }
+}
@@ -0,0 +1,433 @@
+package com.newcoder.tree;
+
+import java.util.Arrays;
+
+/**
+ * 键和值都为long的B树，结构和算法与{@link LongBTree}相同，值也直接存放在long[]中。
+ *
+ * 由于值不能为null，查找不到、put插入新键、delete删除不存在的键时返回构造时指定的noEntryValue（默认为0），
+ * 需要区分时使用{@link #containsKey(long)}。
+ */
+public class LongLongBTree {
+    /**
+     *@Desc B树中的节点。
+     *	键、值和子节点都存放在按最大容量（2t-1个项，2t个子节点）预先分配的数组中。
+     */
+    private static class LongBTreeNode {
+        /** 节点的键，升序存放在[0, size)中 */
+        private long[] keys;
+        /** 与keys一一对应的值 */
+        private long[] values;
+        /** 内节点的子节点，存放在[0, size + 1)中；叶节点不分配 */
+        private LongBTreeNode[] children;
+        /** 项的个数 */
+        private int size;
+        /** 是否为叶子节点 */
+        private boolean leaf;
+
+        public LongBTreeNode(int t, boolean leaf) {
+            keys = new long[2*t - 1];
+            values = new long[2*t - 1];
+            this.leaf = leaf;
+            if(!leaf)
+                children = new LongBTreeNode[2*t];
+        }
+
+        public boolean isLeaf() { return leaf; }
+
+        /**
+         * @Desc 关键字的个数
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         *@Desc 查找指定key，见{@link LongSearch#search}
+         *	找到时返回key所在的位置；
+         *	找不到时返回(-(插入位置) - 1)，与Arrays.binarySearch的约定相同。
+         */
+        public int searchKey(long key) {
+            return LongSearch.search(keys, size, key);
+        }
+
+        public long keyAt(int index) { return keys[index]; }
+        public long valueAt(int index) { return values[index]; }
+
+        /**
+         *@Desc 替换给定索引处的键值对
+         */
+        public void setEntry(int index, long key, long value) {
+            keys[index] = key;
+            values[index] = value;
+        }
+
+        /**
+         *@Desc 将给定的键值对追加到节点的末尾
+         */
+        public void addEntry(long key, long value) {
+            keys[size] = key;
+            values[size] = value;
+            ++ size;
+        }
+
+        /**
+         *@Desc 在给定索引的位置插入键值对，[index, size)整体右移一位
+         */
+        public void insertEntry(int index, long key, long value) {
+            System.arraycopy(keys, index, keys, index + 1, size - index);
+            System.arraycopy(values, index, values, index + 1, size - index);
+            keys[index] = key;
+            values[index] = value;
+            ++ size;
+        }
+
+        /**
+         *@Desc 删除给定索引的键值对，返回被删除的值
+         */
+        public long removeEntry(int index) {
+            long value = values[index];
+            System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+            System.arraycopy(values, index + 1, values, index, size - index - 1);
+            -- size;
+            return value;
+        }
+
+        /**
+         *@Desc 将src中[from, from + count)的键值对追加到该节点的末尾
+         */
+        public void addEntries(LongBTreeNode src, int from, int count) {
+            System.arraycopy(src.keys, from, keys, size, count);
+            System.arraycopy(src.values, from, values, size, count);
+            size += count;
+        }
+
+        /**
+         *@Desc 只保留前newSize个键值对
+         */
+        public void truncateEntries(int newSize) {
+            size = newSize;
+        }
+
+        /**
+         *@Desc 返回节点中给定索引的子节点。
+         */
+        public LongBTreeNode childAt(int index) {
+            if(isLeaf())
+                throw new UnsupportedOperationException("Leaf node doesn't have children.");
+            return children[index];
+        }
+
+        /**
+         *@Desc 设置给定索引的子节点（子节点个数由size决定，不单独计数）
+         */
+        public void setChild(int index, LongBTreeNode child) {
+            children[index] = child;
+        }
+
+        /**
+         *@Desc 在给定索引的位置插入子节点，childCount为插入前子节点的个数
+         */
+        public void insertChild(int index, LongBTreeNode child, int childCount) {
+            System.arraycopy(children, index, children, index + 1, childCount - index);
+            children[index] = child;
+        }
+
+        /**
+         *@Desc 删除给定索引的子节点，childCount为删除前子节点的个数
+         */
+        public void removeChild(int index, int childCount) {
+            System.arraycopy(children, index + 1, children, index, childCount - index - 1);
+            children[childCount - 1] = null;
+        }
+
+        /**
+         *@Desc 将src中[from, from + count)的子节点复制到该节点从to开始的位置
+         */
+        public void copyChildren(LongBTreeNode src, int from, int to, int count) {
+            System.arraycopy(src.children, from, children, to, count);
+        }
+
+        /**
+         *@Desc 把[from, 2t)的子节点置空
+         */
+        public void clearChildren(int from) {
+            Arrays.fill(children, from, children.length, null);
+        }
+    }
+
+    private static final int DEFAULT_T = 2;
+
+    /** B树的根节点 */
+    private LongBTreeNode root;
+    /** 根据B树的定义，B树的每个非根节点的关键字数n满足(t - 1) <= n <= (2t - 1) */
+    private final int t;
+    /** 非根节点中最小的键值数 */
+    private final int minKeySize;
+    /** 非根节点中最大的键值数 */
+    private final int maxKeySize;
+    /** 查找不到键时返回的值 */
+    private final long noEntryValue;
+
+    public LongLongBTree() {
+        this(DEFAULT_T, 0L);
+    }
+
+    public LongLongBTree(int t) {
+        this(t, 0L);
+    }
+
+    public LongLongBTree(int t, long noEntryValue) {
+        if(t < 2)
+            throw new IllegalArgumentException("The minimum degree t must be at least 2: " + t);
+        this.t = t;
+        minKeySize = t - 1;
+        maxKeySize = 2*t - 1;
+        this.noEntryValue = noEntryValue;
+        root = new LongBTreeNode(t, true);
+    }
+
+    public long getNoEntryValue() {
+        return noEntryValue;
+    }
+
+    /**
+     *@Desc 是否存在给定的键
+     */
+    public boolean containsKey(long key) {
+        LongBTreeNode node = root;
+        while(true) {
+            int index = node.searchKey(key);
+            if(index >= 0)
+                return true;
+            if(node.isLeaf())
+                return false;
+            node = node.childAt(-index - 1);
+        }
+    }
+
+    /**
+     *@Desc 搜索给定的键，不存在时返回noEntryValue
+     */
+    public long search(long key) {
+        LongBTreeNode node = root;
+        while(true) {
+            int index = node.searchKey(key);
+            if(index >= 0)
+                return node.valueAt(index);
+            if(node.isLeaf())
+                return noEntryValue;
+            node = node.childAt(-index - 1);
+        }
+    }
+
+    /**
+     *@Desc 分裂一个满子节点<code>childNode</code>。
+     *	将中间节点(t-1)拉出来放进父节点中
+     *	(t-1)右侧独立出来成为新子节点（ps：它的孩子也要移交给新子节点）
+     */
+    private void splitNode(LongBTreeNode parentNode, LongBTreeNode childNode, int index) {
+        assert childNode.size() == maxKeySize;
+
+        LongBTreeNode siblingNode = new LongBTreeNode(t, childNode.isLeaf());
+        // 将满子节点中索引为[t, 2t - 2]的(t - 1)个项整体复制到新的节点中
+        siblingNode.addEntries(childNode, t, minKeySize);
+        long middleKey = childNode.keyAt(t - 1);
+        long middleValue = childNode.valueAt(t - 1);
+        childNode.truncateEntries(t - 1);
+        if(!childNode.isLeaf()) {
+            // 将满子节点中索引为[t, 2t - 1]的t个子节点整体复制到新的节点中
+            siblingNode.copyChildren(childNode, t, 0, t);
+            childNode.clearChildren(t);
+        }
+        // 父节点插入前有parentNode.size() + 1个子节点
+        parentNode.insertChild(index + 1, siblingNode, parentNode.size() + 1);
+        parentNode.insertEntry(index, middleKey, middleValue);
+    }
+
+    /**
+     *@Desc 根节点满了，则B树长高
+     */
+    private void splitRootIfFull() {
+        if(root.size() == maxKeySize) {
+            LongBTreeNode newRoot = new LongBTreeNode(t, false);
+            newRoot.setChild(0, root);
+            splitNode(newRoot, root, 0);
+            root = newRoot;
+        }
+    }
+
+    /**
+     *@Desc 在B树中插入给定的键值对，键已存在时返回false。
+     */
+    public boolean insert(long key, long value) {
+        splitRootIfFull();
+        LongBTreeNode node = root;
+        while(true) {
+            int index = node.searchKey(key);
+            if(index >= 0)
+                return false;
+            index = -index - 1;
+            if(node.isLeaf()) {
+                node.insertEntry(index, key, value);
+                return true;
+            }
+            LongBTreeNode childNode = node.childAt(index);
+            if(childNode.size() == maxKeySize) {
+                // 如果子节点是满节点, 则先分裂，再决定走上升项的左边还是右边
+                splitNode(node, childNode, index);
+                long middleKey = node.keyAt(index);
+                if(key == middleKey)
+                    return false;
+                if(key > middleKey)
+                    childNode = node.childAt(index + 1);
+            }
+            node = childNode;
+        }
+    }
+
+    /**
+     *@Desc 如果B树中存在给定的键，则更新值并返回旧值，否则插入并返回noEntryValue。
+     */
+    public long put(long key, long value) {
+        splitRootIfFull();
+        LongBTreeNode node = root;
+        while(true) {
+            int index = node.searchKey(key);
+            if(index >= 0) {
+                long oldValue = node.valueAt(index);
+                node.setEntry(index, key, value);
+                return oldValue;
+            }
+            index = -index - 1;
+            if(node.isLeaf()) {
+                node.insertEntry(index, key, value);
+                return noEntryValue;
+            }
+            LongBTreeNode childNode = node.childAt(index);
+            if(childNode.size() == maxKeySize) {
+                splitNode(node, childNode, index);
+                long middleKey = node.keyAt(index);
+                if(key == middleKey) {
+                    long oldValue = node.valueAt(index);
+                    node.setEntry(index, key, value);
+                    return oldValue;
+                }
+                if(key > middleKey)
+                    childNode = node.childAt(index + 1);
+            }
+            node = childNode;
+        }
+    }
+
+    /**
+     *@Desc 从B树中删除给定的键，返回被删除的值，不存在时返回noEntryValue
+     */
+    public long delete(long key) {
+        return delete(root, key);
+    }
+
+    /**
+     *@Desc 从以给定<code>node</code>为根的子树中删除给定的键，各个case与LongBTree.delete相同。
+     */
+    private long delete(LongBTreeNode node, long key) {
+        // 该过程需要保证，对非根节点执行删除操作时，其关键字个数至少为t。
+        assert node.size() >= t || node == root;
+
+        int index = node.searchKey(key);
+        if(index >= 0) {
+            // 1.如果关键字在节点node中，并且是叶节点，则直接删除。
+            if(node.isLeaf())
+                return node.removeEntry(index);
+            LongBTreeNode leftChildNode = node.childAt(index);
+            if(leftChildNode.size() >= t) {
+                // 2.a 用左子树中最大的项(前驱)代替，递归删除前驱
+                LongBTreeNode last = leftChildNode;
+                while(!last.isLeaf())
+                    last = last.childAt(last.size());
+                long predecessorKey = last.keyAt(last.size() - 1);
+                long deletedValue = node.valueAt(index);
+                node.setEntry(index, predecessorKey, last.valueAt(last.size() - 1));
+                delete(leftChildNode, predecessorKey);
+                return deletedValue;
+            }
+            LongBTreeNode rightChildNode = node.childAt(index + 1);
+            if(rightChildNode.size() >= t) {
+                // 2.b 用右子树中最小的项(后继)代替，递归删除后继
+                LongBTreeNode first = rightChildNode;
+                while(!first.isLeaf())
+                    first = first.childAt(0);
+                long successorKey = first.keyAt(0);
+                long deletedValue = node.valueAt(index);
+                node.setEntry(index, successorKey, first.valueAt(0));
+                delete(rightChildNode, successorKey);
+                return deletedValue;
+            }
+            // 2.c 左右孩子都是t-1个，将node.key和右孩子一起并入左孩子，递归删除
+            mergeChildren(node, index);
+            if(node == root && node.size() == 0)
+                root = leftChildNode;
+            return delete(leftChildNode, key);
+        }
+
+        // 查找过程中，node.index是包含key的子树
+        if(node.isLeaf())
+            return noEntryValue;
+        index = -index - 1;
+        LongBTreeNode childNode = node.childAt(index);
+        if(childNode.size() >= t)
+            return delete(childNode, key);
+
+        // 该子树只包含t-1个关键字，先试着从兄弟节点借一个
+        if(index < node.size() && node.childAt(index + 1).size() >= t) {
+            // 3.a 右兄弟节点满足条件
+            LongBTreeNode siblingNode = node.childAt(index + 1);
+            childNode.addEntry(node.keyAt(index), node.valueAt(index));
+            node.setEntry(index, siblingNode.keyAt(0), siblingNode.valueAt(0));
+            if(!siblingNode.isLeaf()) {
+                childNode.setChild(childNode.size(), siblingNode.childAt(0));
+                siblingNode.removeChild(0, siblingNode.size() + 1);
+            }
+            siblingNode.removeEntry(0);
+            return delete(childNode, key);
+        }
+        if(index > 0 && node.childAt(index - 1).size() >= t) {
+            // 3.a 左兄弟节点满足条件
+            LongBTreeNode siblingNode = node.childAt(index - 1);
+            int last = siblingNode.size() - 1;
+            if(!childNode.isLeaf()) {
+                childNode.insertChild(0, siblingNode.childAt(last + 1), childNode.size() + 1);
+                siblingNode.setChild(last + 1, null);
+            }
+            childNode.insertEntry(0, node.keyAt(index - 1), node.valueAt(index - 1));
+            node.setEntry(index - 1, siblingNode.keyAt(last), siblingNode.valueAt(last));
+            siblingNode.removeEntry(last);
+            return delete(childNode, key);
+        }
+        // 3.b 相邻兄弟都只有t-1个项：与其中一个兄弟合并，node中的一个键下降为中间项
+        if(index < node.size()) {
+            mergeChildren(node, index);
+        } else {
+            childNode = node.childAt(index - 1);
+            mergeChildren(node, index - 1);
+        }
+        // 如果node是root并且node不包含任何项了，则B树变矮
+        if(node == root && node.size() == 0)
+            root = childNode;
+        return delete(childNode, key);
+    }
+
+    /**
+     *@Desc 把node的第index个项和第index + 1个子节点并入第index个子节点
+     */
+    private void mergeChildren(LongBTreeNode node, int index) {
+        LongBTreeNode leftNode = node.childAt(index);
+        LongBTreeNode rightNode = node.childAt(index + 1);
+        leftNode.addEntry(node.keyAt(index), node.valueAt(index));
+        if(!leftNode.isLeaf())
+            leftNode.copyChildren(rightNode, 0, leftNode.size(), rightNode.size() + 1);
+        leftNode.addEntries(rightNode, 0, rightNode.size());
+        node.removeChild(index + 1, node.size() + 1);
+        node.removeEntry(index);
+    }
+}
@@ -0,0 +1,93 @@
+package com.newcoder.tree;
+
+/**
+ * 有序long[]中的查找，{@link LongBTree}和{@link LongLongBTree}节点内查找的实现。
+ *
+ * 返回值的约定都同Arrays.binarySearch：找到时返回键的位置，否则返回(-(插入位置) - 1)；各方法的结果完全相同。
+ * 	binarySearch  普通的二分查找，每一步按比较结果跳转，键随机时约一半的分支预测失败
+ * 	branchFree    无分支的下界查找：每一步只根据比较结果选择base（编译为条件传送cmov），步数固定为log2(size)，
+ * 	              没有分支预测失败，下一步的地址依赖这一步的比较，但不会被错误的推测执行拖慢
+ * 	linear        顺序统计小于key的个数，循环中同样没有依赖比较结果的分支，访问是连续的
+ * 	search        按区间的长度自动选择：先用branchFree把区间缩小到LINEAR_THRESHOLD个键以内，再用linear扫描
+ */
+public final class LongSearch {
+    /** 不超过这个长度的区间用顺序扫描 */
+    public static final int LINEAR_THRESHOLD = 4;
+
+    private LongSearch() {
+    }
+
+    /**
+     *@Desc 在keys的[0, size)中查找key
+     */
+    public static int search(long[] keys, int size, long key) {
+        int base = 0;
+        int n = size;
+        // 下界（第一个不小于key的位置）始终在[base, base + n]中
+        while(n > LINEAR_THRESHOLD) {
+            int half = n >>> 1;
+            base = keys[base + half] < key ? base + half : base;
+            n -= half;
+        }
+        return found(keys, size, key, linearLowerBound(keys, base, base + n, key));
+    }
+
+    /**
+     *@Desc 无分支的二分查找
+     */
+    public static int branchFree(long[] keys, int size, long key) {
+        if(size == 0)
+            return -1;
+        int base = 0;
+        int n = size;
+        while(n > 1) {
+            int half = n >>> 1;
+            base = keys[base + half] < key ? base + half : base;
+            n -= half;
+        }
+        return found(keys, size, key, keys[base] < key ? base + 1 : base);
+    }
+
+    /**
+     *@Desc 顺序扫描
+     */
+    public static int linear(long[] keys, int size, long key) {
+        return found(keys, size, key, linearLowerBound(keys, 0, size, key));
+    }
+
+    /**
+     *@Desc 普通的二分查找
+     */
+    public static int binarySearch(long[] keys, int size, long key) {
+        int low = 0;
+        int high = size - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            long midKey = keys[mid];
+            if(midKey < key)
+                low = mid + 1;
+            else if(midKey > key)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    /**
+     *@Desc [from, to)中小于key的键都在前面，个数加上from就是下界
+     */
+    private static int linearLowerBound(long[] keys, int from, int to, long key) {
+        int lowerBound = from;
+        for(int i = from; i < to; ++ i)
+            lowerBound += keys[i] < key ? 1 : 0;
+        return lowerBound;
+    }
+
+    /**
+     *@Desc 由下界得到Arrays.binarySearch约定的返回值
+     */
+    private static int found(long[] keys, int size, long key, int lowerBound) {
+        return lowerBound < size && keys[lowerBound] == key ? lowerBound : -(lowerBound + 1);
+    }
+}
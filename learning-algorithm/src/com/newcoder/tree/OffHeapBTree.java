@@ -0,0 +1,534 @@
+package com.newcoder.tree;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+/**
+ * 节点存放在堆外内存中的B树，结构和算法与{@link BTree}相同：插入时自顶向下分裂满节点，删除时借项或合并。
+ *
+ * 每个节点是{@link SlabAllocator}中的一块直接内存，节点用块的编号表示，布局与{@link PagedBTree}的节点页相同：
+ * 	0         size  项的个数
+ * 	4         leaf  是否为叶节点
+ * 	8         2t个子节点的编号，每个4字节（叶节点不使用）
+ * 	8 + 8t    2t-1个项，每个项占keySerializer.maxSize() + valueSerializer.maxSize()个字节
+ * 键和值经由{@link Serializer}编码后存放，堆上没有Entry、节点对象和数组，
+ * 树再大，GC需要扫描和在老年代中保留的也只有这个对象和slab的ByteBuffer；
+ * 代价是查找时要反序列化比较到的键，返回的键值都是新反序列化的对象。
+ * 释放的节点由SlabAllocator复用，clear()丢弃所有的slab。
+ *
+ * 不支持null键和null值；不是线程安全的。
+ */
+public class OffHeapBTree<K, V> {
+    private static final int DEFAULT_T = 64;
+
+    private final SlabAllocator allocator;
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    /** 每个键、项在节点中占用的字节数 */
+    private final int keySize;
+    private final int entrySize;
+    /** 根据B树的定义，B树的每个非根节点的关键字数n满足(t - 1) <= n <= (2t - 1) */
+    private final int t;
+    /** 非根节点中最小的键值数 */
+    private final int minKeySize;
+    /** 非根节点中最大的键值数 */
+    private final int maxKeySize;
+    /** 键的比较函数对象 */
+    private final Comparator<K> kComparator;
+    /** 当前操作要写入的项，在修改节点之前编码好 */
+    private final ByteBuffer entryBuffer;
+    /** 根节点的编号 */
+    private int root;
+    private long size;
+
+    /**
+     *@Desc 最小度数为64，键值采用自然排序方式
+     */
+    public OffHeapBTree(Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        this(DEFAULT_T, null, keySerializer, valueSerializer);
+    }
+
+    public OffHeapBTree(int t, Comparator<K> kComparator, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        if(t < 2)
+            throw new IllegalArgumentException("The minimum degree t must be at least 2: " + t);
+        this.t = t;
+        minKeySize = t - 1;
+        maxKeySize = 2*t - 1;
+        this.kComparator = kComparator;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        keySize = keySerializer.maxSize();
+        entrySize = keySize + valueSerializer.maxSize();
+        entryBuffer = ByteBuffer.allocate(entrySize);
+        allocator = new SlabAllocator(entryOffset(maxKeySize));
+        root = newNode(true);
+    }
+
+    @SuppressWarnings("unchecked")
+    int compare(K key1, K key2) {
+        return kComparator == null ? ((Comparable<K>)key1).compareTo(key2) : kComparator.compare(key1, key2);
+    }
+
+    /**
+     *@Desc 项的个数
+     */
+    public long size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     *@Desc 节点占用的直接内存的字节数（按已分配的slab计算）
+     */
+    public long offHeapBytes() {
+        return allocator.allocatedBytes();
+    }
+
+    /**
+     *@Desc 节点的个数
+     */
+    public int nodeCount() {
+        return allocator.usedBlocks();
+    }
+
+    /**
+     *@Desc 删除所有的项，释放所有的slab
+     */
+    public void clear() {
+        allocator.clear();
+        size = 0;
+        root = newNode(true);
+    }
+
+    /**
+     *@Desc 搜索给定的键，不存在时返回null
+     */
+    public V search(K key) {
+        int node = root;
+        while(true) {
+            int index = searchKey(node, key);
+            if(index >= 0)
+                return valueAt(node, index);
+            if(isLeaf(node))
+                return null;
+            node = childAt(node, -index - 1);
+        }
+    }
+
+    /**
+     *@Desc 在B树中插入给定的键值对，键已存在时返回false。
+     */
+    public boolean insert(K key, V value) {
+        encode(key, value);
+        splitRootIfFull();
+        int node = root;
+        while(true) {
+            int index = searchKey(node, key);
+            if(index >= 0)
+                return false;
+            index = -index - 1;
+            if(isLeaf(node)) {
+                insertEntry(node, index, entryBuffer);
+                ++ size;
+                return true;
+            }
+            int childNode = childAt(node, index);
+            if(size(childNode) == maxKeySize) {
+                // 如果子节点是满节点, 则先分裂，再决定走上升项的左边还是右边
+                splitNode(node, childNode, index);
+                int cmp = compare(key, keyAt(node, index));
+                if(cmp == 0)
+                    return false;
+                if(cmp > 0)
+                    childNode = childAt(node, index + 1);
+            }
+            node = childNode;
+        }
+    }
+
+    /**
+     *@Desc 如果B树中存在给定的键，则更新值并返回旧值，否则插入并返回null。
+     */
+    public V put(K key, V value) {
+        encode(key, value);
+        splitRootIfFull();
+        int node = root;
+        while(true) {
+            int index = searchKey(node, key);
+            if(index >= 0) {
+                V oldValue = valueAt(node, index);
+                setEntry(node, index, entryBuffer);
+                return oldValue;
+            }
+            index = -index - 1;
+            if(isLeaf(node)) {
+                insertEntry(node, index, entryBuffer);
+                ++ size;
+                return null;
+            }
+            int childNode = childAt(node, index);
+            if(size(childNode) == maxKeySize) {
+                splitNode(node, childNode, index);
+                int cmp = compare(key, keyAt(node, index));
+                if(cmp == 0) {
+                    V oldValue = valueAt(node, index);
+                    setEntry(node, index, entryBuffer);
+                    return oldValue;
+                }
+                if(cmp > 0)
+                    childNode = childAt(node, index + 1);
+            }
+            node = childNode;
+        }
+    }
+
+    /**
+     *@Desc 从B树中删除给定的键，返回被删除的值，不存在时返回null
+     */
+    public V delete(K key) {
+        V deletedValue = delete(root, key);
+        if(deletedValue != null)
+            -- size;
+        return deletedValue;
+    }
+
+    /**
+     *@Desc 把键值对编码到entryBuffer中
+     */
+    private void encode(K key, V value) {
+        entryBuffer.clear();
+        keySerializer.write(entryBuffer, key);
+        entryBuffer.position(keySize);
+        valueSerializer.write(entryBuffer, value);
+    }
+
+    /**
+     *@Desc 根节点满了，则B树长高
+     */
+    private void splitRootIfFull() {
+        if(size(root) == maxKeySize) {
+            int newRoot = newNode(false);
+            setChild(newRoot, 0, root);
+            splitNode(newRoot, root, 0);
+            root = newRoot;
+        }
+    }
+
+    /**
+     *@Desc 分裂一个满子节点<code>childNode</code>，同BTree.splitNode。
+     */
+    private void splitNode(int parentNode, int childNode, int index) {
+        assert size(childNode) == maxKeySize;
+
+        int siblingNode = newNode(isLeaf(childNode));
+        // 将满子节点中索引为[t, 2t - 2]的(t - 1)个项整体复制到新的节点中
+        addEntries(siblingNode, childNode, t, minKeySize);
+        if(!isLeaf(childNode)) {
+            // 将满子节点中索引为[t, 2t - 1]的t个子节点整体复制到新的节点中
+            copyChildren(siblingNode, childNode, t, 0, t);
+        }
+        // 父节点插入前有size(parentNode) + 1个子节点
+        insertChild(parentNode, index + 1, siblingNode, size(parentNode) + 1);
+        // 中间项(t - 1)上升到父节点，再截掉满子节点中索引为[t - 1, 2t - 2]的t个项
+        insertEntry(parentNode, index, childNode, t - 1);
+        setSize(childNode, t - 1);
+    }
+
+    /**
+     *@Desc 从以给定<code>node</code>为根的子树中删除给定的键，各个case与BTree.delete相同。
+     */
+    private V delete(int node, K key) {
+        // 该过程需要保证，对非根节点执行删除操作时，其关键字个数至少为t。
+        assert size(node) >= t || node == root;
+
+        int index = searchKey(node, key);
+        if(index >= 0) {
+            // 1.如果关键字在节点node中，并且是叶节点，则直接删除。
+            if(isLeaf(node)) {
+                V deletedValue = valueAt(node, index);
+                removeEntry(node, index);
+                return deletedValue;
+            }
+            int leftChildNode = childAt(node, index);
+            if(size(leftChildNode) >= t) {
+                // 2.a 用左子树中最大的项(前驱)代替，递归删除前驱
+                int last = leftChildNode;
+                while(!isLeaf(last))
+                    last = childAt(last, size(last));
+                K predecessorKey = keyAt(last, size(last) - 1);
+                V deletedValue = valueAt(node, index);
+                setEntry(node, index, last, size(last) - 1);
+                delete(leftChildNode, predecessorKey);
+                return deletedValue;
+            }
+            int rightChildNode = childAt(node, index + 1);
+            if(size(rightChildNode) >= t) {
+                // 2.b 用右子树中最小的项(后继)代替，递归删除后继
+                int first = rightChildNode;
+                while(!isLeaf(first))
+                    first = childAt(first, 0);
+                K successorKey = keyAt(first, 0);
+                V deletedValue = valueAt(node, index);
+                setEntry(node, index, first, 0);
+                delete(rightChildNode, successorKey);
+                return deletedValue;
+            }
+            // 2.c 左右孩子都是t-1个，将node.key和右孩子一起并入左孩子，递归删除
+            mergeChildren(node, index, leftChildNode, rightChildNode);
+            shrinkRootIfEmpty(node, leftChildNode);
+            return delete(leftChildNode, key);
+        }
+
+        // 查找过程中，node.index是包含key的子树
+        if(isLeaf(node))
+            return null;
+        index = -index - 1;
+        int childNode = childAt(node, index);
+        if(size(childNode) >= t)
+            return delete(childNode, key);
+
+        // 该子树只包含t-1个关键字，先试着从兄弟节点借一个
+        int rightSiblingNode = index < size(node) ? childAt(node, index + 1) : 0;
+        if(rightSiblingNode != 0 && size(rightSiblingNode) >= t) {
+            // 3.a 右兄弟节点满足条件
+            addEntries(childNode, node, index, 1);
+            setEntry(node, index, rightSiblingNode, 0);
+            if(!isLeaf(rightSiblingNode)) {
+                setChild(childNode, size(childNode), childAt(rightSiblingNode, 0));
+                removeChild(rightSiblingNode, 0, size(rightSiblingNode) + 1);
+            }
+            removeEntry(rightSiblingNode, 0);
+            return delete(childNode, key);
+        }
+        int leftSiblingNode = index > 0 ? childAt(node, index - 1) : 0;
+        if(leftSiblingNode != 0 && size(leftSiblingNode) >= t) {
+            // 3.a 左兄弟节点满足条件
+            int last = size(leftSiblingNode) - 1;
+            if(!isLeaf(childNode))
+                insertChild(childNode, 0, childAt(leftSiblingNode, last + 1), size(childNode) + 1);
+            insertEntry(childNode, 0, node, index - 1);
+            setEntry(node, index - 1, leftSiblingNode, last);
+            setSize(leftSiblingNode, last);
+            return delete(childNode, key);
+        }
+        // 3.b 相邻兄弟都只有t-1个项：与其中一个兄弟合并，node中的一个键下降为中间项
+        if(rightSiblingNode != 0) {
+            mergeChildren(node, index, childNode, rightSiblingNode);
+        } else {
+            mergeChildren(node, index - 1, leftSiblingNode, childNode);
+            childNode = leftSiblingNode;
+        }
+        shrinkRootIfEmpty(node, childNode);
+        return delete(childNode, key);
+    }
+
+    /**
+     *@Desc 把node的第index个项和右孩子rightNode并入左孩子leftNode，释放rightNode
+     */
+    private void mergeChildren(int node, int index, int leftNode, int rightNode) {
+        addEntries(leftNode, node, index, 1);
+        if(!isLeaf(leftNode))
+            copyChildren(leftNode, rightNode, 0, size(leftNode), size(rightNode) + 1);
+        addEntries(leftNode, rightNode, 0, size(rightNode));
+        removeChild(node, index + 1, size(node) + 1);
+        removeEntry(node, index);
+        allocator.free(rightNode);
+    }
+
+    /**
+     *@Desc 如果node是根节点并且不包含任何项了，则B树变矮，childNode成为新的根节点
+     */
+    private void shrinkRootIfEmpty(int node, int childNode) {
+        if(node == root && size(node) == 0) {
+            root = childNode;
+            allocator.free(node);
+        }
+    }
+
+    /* 以下是对节点内容的读写，node是节点的编号 */
+
+    private int newNode(boolean leaf) {
+        int node = allocator.allocate();
+        ByteBuffer slab = allocator.slab(node);
+        int base = allocator.offset(node);
+        slab.putInt(base, 0);
+        slab.put(base + 4, (byte) (leaf ? 1 : 0));
+        return node;
+    }
+
+    private int childOffset(int index) {
+        return 8 + 4 * index;
+    }
+
+    private int entryOffset(int index) {
+        return 8 + 8 * t + index * entrySize;
+    }
+
+    private boolean isLeaf(int node) {
+        return allocator.slab(node).get(allocator.offset(node) + 4) != 0;
+    }
+
+    /**
+     * @Desc 关键字的个数
+     */
+    private int size(int node) {
+        return allocator.slab(node).getInt(allocator.offset(node));
+    }
+
+    private void setSize(int node, int size) {
+        allocator.slab(node).putInt(allocator.offset(node), size);
+    }
+
+    private K keyAt(int node, int index) {
+        ByteBuffer slab = allocator.slab(node);
+        slab.position(allocator.offset(node) + entryOffset(index));
+        return keySerializer.read(slab);
+    }
+
+    private V valueAt(int node, int index) {
+        ByteBuffer slab = allocator.slab(node);
+        slab.position(allocator.offset(node) + entryOffset(index) + keySize);
+        return valueSerializer.read(slab);
+    }
+
+    /**
+     *@Desc 二分查找指定key，返回值的约定同Arrays.binarySearch
+     */
+    private int searchKey(int node, K key) {
+        int low = 0;
+        int high = size(node) - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(keyAt(node, mid), key);
+            if(cmp < 0)
+                low = mid + 1;
+            else if(cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    /**
+     *@Desc 把编码好的项（见encode）写入给定索引处
+     */
+    private void setEntry(int node, int index, ByteBuffer entry) {
+        moveBytes(entry, 0, allocator.slab(node), allocator.offset(node) + entryOffset(index), entrySize);
+    }
+
+    /**
+     *@Desc 用src中第srcIndex个项替换给定索引处的项
+     */
+    private void setEntry(int node, int index, int src, int srcIndex) {
+        moveBytes(allocator.slab(src), allocator.offset(src) + entryOffset(srcIndex),
+                allocator.slab(node), allocator.offset(node) + entryOffset(index), entrySize);
+    }
+
+    /**
+     *@Desc 把[index, size)整体右移一位，空出给定索引的位置
+     */
+    private void openEntry(int node, int index) {
+        int size = size(node);
+        ByteBuffer slab = allocator.slab(node);
+        int base = allocator.offset(node);
+        moveBytes(slab, base + entryOffset(index), slab, base + entryOffset(index + 1), (size - index) * entrySize);
+        setSize(node, size + 1);
+    }
+
+    /**
+     *@Desc 在给定索引的位置插入编码好的项
+     */
+    private void insertEntry(int node, int index, ByteBuffer entry) {
+        openEntry(node, index);
+        setEntry(node, index, entry);
+    }
+
+    /**
+     *@Desc 在给定索引的位置插入src中第srcIndex个项
+     */
+    private void insertEntry(int node, int index, int src, int srcIndex) {
+        openEntry(node, index);
+        setEntry(node, index, src, srcIndex);
+    }
+
+    /**
+     *@Desc 删除给定索引的项
+     */
+    private void removeEntry(int node, int index) {
+        int size = size(node);
+        ByteBuffer slab = allocator.slab(node);
+        int base = allocator.offset(node);
+        moveBytes(slab, base + entryOffset(index + 1), slab, base + entryOffset(index), (size - index - 1) * entrySize);
+        setSize(node, size - 1);
+    }
+
+    /**
+     *@Desc 将src中[from, from + count)的项追加到该节点的末尾
+     */
+    private void addEntries(int node, int src, int from, int count) {
+        int size = size(node);
+        moveBytes(allocator.slab(src), allocator.offset(src) + entryOffset(from),
+                allocator.slab(node), allocator.offset(node) + entryOffset(size), count * entrySize);
+        setSize(node, size + count);
+    }
+
+    private int childAt(int node, int index) {
+        return allocator.slab(node).getInt(allocator.offset(node) + childOffset(index));
+    }
+
+    private void setChild(int node, int index, int child) {
+        allocator.slab(node).putInt(allocator.offset(node) + childOffset(index), child);
+    }
+
+    /**
+     *@Desc 在给定索引的位置插入子节点，childCount为插入前子节点的个数
+     */
+    private void insertChild(int node, int index, int child, int childCount) {
+        ByteBuffer slab = allocator.slab(node);
+        int base = allocator.offset(node);
+        moveBytes(slab, base + childOffset(index), slab, base + childOffset(index + 1), (childCount - index) * 4);
+        setChild(node, index, child);
+    }
+
+    /**
+     *@Desc 删除给定索引的子节点，childCount为删除前子节点的个数
+     */
+    private void removeChild(int node, int index, int childCount) {
+        ByteBuffer slab = allocator.slab(node);
+        int base = allocator.offset(node);
+        moveBytes(slab, base + childOffset(index + 1), slab, base + childOffset(index), (childCount - index - 1) * 4);
+    }
+
+    /**
+     *@Desc 将src中[from, from + count)的子节点复制到该节点从to开始的位置
+     */
+    private void copyChildren(int node, int src, int from, int to, int count) {
+        moveBytes(allocator.slab(src), allocator.offset(src) + childOffset(from),
+                allocator.slab(node), allocator.offset(node) + childOffset(to), count * 4);
+    }
+
+    /**
+     *@Desc 复制字节，src和dst可以是同一个slab中重叠的区域。
+     *	按8个字节一组用绝对位置的getLong/putLong复制，不创建临时的数组或ByteBuffer视图
+     */
+    private static void moveBytes(ByteBuffer src, int srcOffset, ByteBuffer dst, int dstOffset, int length) {
+        if(src == dst && srcOffset < dstOffset && dstOffset < srcOffset + length) {
+            // 向后移动且有重叠：从尾部开始复制
+            int i = length;
+            for(; i >= 8; i -= 8)
+                dst.putLong(dstOffset + i - 8, src.getLong(srcOffset + i - 8));
+            for(; i > 0; -- i)
+                dst.put(dstOffset + i - 1, src.get(srcOffset + i - 1));
+        } else {
+            int i = 0;
+            for(; i + 8 <= length; i += 8)
+                dst.putLong(dstOffset + i, src.getLong(srcOffset + i));
+            for(; i < length; ++ i)
+                dst.put(dstOffset + i, src.get(srcOffset + i));
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.newcoder.tree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 由固定大小的页组成的文件，页号从0开始，页i位于文件的i * pageSize处。
+ *
+ * 第0页是文件头：
+ * 	0   magic
+ * 	4   pageSize    页大小
+ * 	8   pageCount   文件中的页数（包括文件头）
+ * 	12  freeHead    空闲页链表的第一页，0表示没有空闲页；空闲页的前4个字节是链表中的下一页
+ * 	16  rootPage    B树根节点所在的页，0表示还没有根节点
+ * 	20  t           B树的最小度数，重新打开时用来检查序列化器是否与文件一致
+ * 	24  entryCount  B树中项的个数
+ * 	32  lsn         检查点时预写日志的下一个lsn，重新打开后lsn从这里继续递增
+ * 文件头只在flush()时写回，打开文件时只读文件头，其余的页用到时才读。
+ * 空闲页链表中的页和普通的页一样经由缓存读写（见PagedBTree.newNode、freeNode），这里只记录链表头。
+ */
+class PageFile implements Closeable {
+    private static final int MAGIC = 0x42545245; // "BTRE"
+    private static final int HEADER_SIZE = 40;
+    /** 最小的页大小，至少要放下文件头 */
+    static final int MIN_PAGE_SIZE = 64;
+
+    private final FileChannel channel;
+    private final int pageSize;
+    private int pageCount;
+    private int freeHead;
+    private int rootPage;
+    private int t;
+    private long entryCount;
+    private long lsn;
+
+    /**
+     *@Desc 打开给定的文件，文件不存在或者为空时按pageSize新建；已有的文件使用文件头中记录的页大小
+     */
+    PageFile(Path path, int pageSize) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if(channel.size() == 0) {
+            if(pageSize < MIN_PAGE_SIZE)
+                throw new IllegalArgumentException("pageSize must be at least " + MIN_PAGE_SIZE + ": " + pageSize);
+            this.pageSize = pageSize;
+            pageCount = 1;
+            writeHeader();
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(header, 0);
+            header.flip();
+            if(header.getInt(0) != MAGIC) {
+                channel.close();
+                throw new IOException("Not a page file: " + path);
+            }
+            this.pageSize = header.getInt(4);
+            pageCount = header.getInt(8);
+            freeHead = header.getInt(12);
+            rootPage = header.getInt(16);
+            t = header.getInt(20);
+            entryCount = header.getLong(24);
+            lsn = header.getLong(32);
+        }
+    }
+
+    int pageSize() { return pageSize; }
+    int pageCount() { return pageCount; }
+    void setPageCount(int pageCount) { this.pageCount = pageCount; }
+    int getFreeHead() { return freeHead; }
+    void setFreeHead(int freeHead) { this.freeHead = freeHead; }
+
+    int getRootPage() { return rootPage; }
+    void setRootPage(int rootPage) { this.rootPage = rootPage; }
+    int getT() { return t; }
+    void setT(int t) { this.t = t; }
+    long getEntryCount() { return entryCount; }
+    void setEntryCount(long entryCount) { this.entryCount = entryCount; }
+    long getLsn() { return lsn; }
+    void setLsn(long lsn) { this.lsn = lsn; }
+
+    /**
+     *@Desc 把给定的页读入page（容量为pageSize）
+     */
+    void readPage(int pageId, ByteBuffer page) throws IOException {
+        checkPageId(pageId);
+        page.clear();
+        readFully(page, (long) pageId * pageSize);
+        page.clear();
+    }
+
+    /**
+     *@Desc 把page中的pageSize个字节写入给定的页
+     */
+    void writePage(int pageId, ByteBuffer page) throws IOException {
+        checkPageId(pageId);
+        ByteBuffer src = page.duplicate();
+        src.clear();
+        writeFully(src, (long) pageId * pageSize);
+    }
+
+    /**
+     *@Desc 在文件末尾追加一页，返回它的页号。页的内容由调用方写入
+     */
+    int appendPage() {
+        return pageCount++;
+    }
+
+    /**
+     *@Desc 写回文件头，并把所有修改刷到磁盘
+     */
+    void flush() throws IOException {
+        writeHeader();
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(!channel.isOpen())
+            return;
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     *@Desc 不写回文件头直接关闭，内存中的状态已经不可信时使用
+     */
+    void abort() throws IOException {
+        channel.close();
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(pageSize).putInt(pageCount).putInt(freeHead)
+                .putInt(rootPage).putInt(t).putLong(entryCount).putLong(lsn);
+        header.flip();
+        writeFully(header, 0);
+    }
+
+    private void checkPageId(int pageId) {
+        if(pageId <= 0 || pageId >= pageCount)
+            throw new IllegalArgumentException("Invalid page id: " + pageId + ", page count: " + pageCount);
+    }
+
+    /**
+     *@Desc 从position开始读满buffer，文件不够长时剩下的部分为0（刚分配、还没写过的页）
+     */
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if(n < 0) {
+                while(buffer.hasRemaining())
+                    buffer.put((byte) 0);
+                break;
+            }
+            position += n;
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+}
@@ -0,0 +1,883 @@
+package com.newcoder.tree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 存放在磁盘文件中的B树，结构和算法与{@link BTree}相同：插入时自顶向下分裂满节点，删除时借项或合并。
+ *
+ * 每个节点占文件中的一页（见{@link PageFile}），子节点用页号表示。节点页的布局：
+ * 	0         size  项的个数
+ * 	4         leaf  是否为叶节点
+ * 	8         pageLsn  最后修改该页的日志记录的lsn，见{@link WriteAheadLog}
+ * 	16        2t个子节点的页号，每个4字节（叶节点不使用）
+ * 	16 + 8t   2t-1个项，每个项占keySerializer.maxSize() + valueSerializer.maxSize()个字节
+ * 每个项的位置是固定的：查找时直接在页中二分，只反序列化比较到的键；插入、删除、分裂、合并都是在页内或页之间复制字节，
+ * 不需要反序列化项。t由页大小和序列化器的maxSize()算出，是一页能放下的最大值。
+ *
+ * 页经由{@link BufferPool}读写：一次操作用到的页都记在touched中并被pin住，同一页在一次操作中只pin一次。
+ * 对页的每次修改同时记入预写日志（见{@link WriteAheadLog}）：页内整体移动项只记偏移和长度，
+ * 检查点之后第一次修改一页之前记下整页。操作结束时提交这条记录并把改过的页的pageLsn设为它的lsn，再unpin，
+ * 修改过的页由缓存在换出或检查点时写回。日志按组提交，每次fsync分摊到多个操作上，见setSyncPolicy。
+ * 检查点（flush()，日志超过checkpointSize时自动进行）把页和文件头写回数据文件并清空日志；
+ * 打开文件时先重做日志，再读文件头，节点用到时才读，不需要加载整棵树。
+ *
+ * 键和值在修改任何页之前就编码好，序列化失败不会留下改了一半的页。操作中途发生IO错误时，
+ * 本次操作改过的页被丢弃，B树不能再使用，关闭后重新打开即可由日志恢复到最后一次提交的操作。
+ * 不支持null键和null值；不是线程安全的。
+ */
+public class PagedBTree<K, V> implements Closeable {
+    /**
+     *@Desc 一个节点页在内存中的副本，所有的读写都直接作用在page上
+     */
+    private class PageNode {
+        private final int pageId;
+        private final ByteBuffer page;
+        /** 本次操作中被修改过 */
+        private boolean modified;
+
+        PageNode(int pageId, ByteBuffer page) {
+            this.pageId = pageId;
+            this.page = page;
+        }
+
+        boolean isLeaf() { return page.get(4) != 0; }
+
+        /**
+         *@Desc 修改页之前调用：检查点之后第一次修改该页时先在日志中记下整页
+         */
+        private void beforeChange() {
+            modified = true;
+            if(!fullPageLogged.get(pageId)) {
+                wal.logFull(pageId, page);
+                fullPageLogged.set(pageId);
+            }
+        }
+
+        /**
+         *@Desc 把src中[srcOffset, srcOffset + length)的字节复制到该页的dstOffset处，src可以就是该页
+         */
+        private void copyFrom(ByteBuffer src, int srcOffset, int dstOffset, int length) {
+            if(length == 0)
+                return;
+            beforeChange();
+            copyBytes(src, srcOffset, page, dstOffset, length);
+            if(src == page)
+                wal.logMove(pageId, srcOffset, dstOffset, length);
+            else
+                wal.logWrite(pageId, page, dstOffset, length);
+        }
+
+        private void putInt(int offset, int value) {
+            beforeChange();
+            page.putInt(offset, value);
+            wal.logWrite(pageId, page, offset, 4);
+        }
+
+        /**
+         * @Desc 关键字的个数
+         */
+        int size() {
+            return page.getInt(0);
+        }
+
+        private void setSize(int size) {
+            putInt(0, size);
+        }
+
+        K keyAt(int index) {
+            page.position(entryOffset(index));
+            return keySerializer.read(page);
+        }
+
+        V valueAt(int index) {
+            page.position(entryOffset(index) + keySize);
+            return valueSerializer.read(page);
+        }
+
+        /**
+         *@Desc 二分查找指定key，返回值的约定同Arrays.binarySearch
+         */
+        int searchKey(K key) {
+            int low = 0;
+            int high = size() - 1;
+            while(low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(keyAt(mid), key);
+                if(cmp < 0)
+                    low = mid + 1;
+                else if(cmp > 0)
+                    high = mid - 1;
+                else
+                    return mid;
+            }
+            return -(low + 1);
+        }
+
+        /**
+         *@Desc 把编码好的项（见encode）写入给定索引处
+         */
+        void setEntry(int index, ByteBuffer entry) {
+            copyFrom(entry, 0, entryOffset(index), entrySize);
+        }
+
+        /**
+         *@Desc 用src中第srcIndex个项替换给定索引处的项
+         */
+        void setEntry(int index, PageNode src, int srcIndex) {
+            copyFrom(src.page, entryOffset(srcIndex), entryOffset(index), entrySize);
+        }
+
+        /**
+         *@Desc 在给定索引的位置插入编码好的项，[index, size)整体右移一位
+         */
+        void insertEntry(int index, ByteBuffer entry) {
+            int size = size();
+            copyFrom(page, entryOffset(index), entryOffset(index + 1), (size - index) * entrySize);
+            setEntry(index, entry);
+            setSize(size + 1);
+        }
+
+        /**
+         *@Desc 在给定索引的位置插入src中第srcIndex个项
+         */
+        void insertEntry(int index, PageNode src, int srcIndex) {
+            int size = size();
+            copyFrom(page, entryOffset(index), entryOffset(index + 1), (size - index) * entrySize);
+            setEntry(index, src, srcIndex);
+            setSize(size + 1);
+        }
+
+        /**
+         *@Desc 删除给定索引的项
+         */
+        void removeEntry(int index) {
+            int size = size();
+            copyFrom(page, entryOffset(index + 1), entryOffset(index), (size - index - 1) * entrySize);
+            setSize(size - 1);
+        }
+
+        /**
+         *@Desc 将src中[from, from + count)的项追加到该节点的末尾
+         */
+        void addEntries(PageNode src, int from, int count) {
+            int size = size();
+            copyFrom(src.page, entryOffset(from), entryOffset(size), count * entrySize);
+            setSize(size + count);
+        }
+
+        /**
+         *@Desc 只保留前newSize个项
+         */
+        void truncateEntries(int newSize) {
+            setSize(newSize);
+        }
+
+        int childAt(int index) {
+            if(isLeaf())
+                throw new UnsupportedOperationException("Leaf node doesn't have children.");
+            return page.getInt(childOffset(index));
+        }
+
+        void setChild(int index, int childId) {
+            putInt(childOffset(index), childId);
+        }
+
+        /**
+         *@Desc 在给定索引的位置插入子节点，childCount为插入前子节点的个数
+         */
+        void insertChild(int index, int childId, int childCount) {
+            copyFrom(page, childOffset(index), childOffset(index + 1), (childCount - index) * 4);
+            setChild(index, childId);
+        }
+
+        /**
+         *@Desc 删除给定索引的子节点，childCount为删除前子节点的个数
+         */
+        void removeChild(int index, int childCount) {
+            copyFrom(page, childOffset(index + 1), childOffset(index), (childCount - index - 1) * 4);
+        }
+
+        /**
+         *@Desc 将src中[from, from + count)的子节点复制到该节点从to开始的位置
+         */
+        void copyChildren(PageNode src, int from, int to, int count) {
+            copyFrom(src.page, childOffset(from), childOffset(to), count * 4);
+        }
+    }
+
+    private static final int DEFAULT_PAGE_SIZE = 8192;
+    /** 默认的页缓存大小：16MiB */
+    private static final long DEFAULT_CACHE_SIZE = 16L << 20;
+    /** 默认在日志超过64MiB时做检查点 */
+    private static final long DEFAULT_CHECKPOINT_SIZE = 64L << 20;
+    /** 节点页中size、leaf和pageLsn占用的字节数 */
+    private static final int NODE_HEADER_SIZE = 16;
+
+    private final PageFile pageFile;
+    private final WriteAheadLog wal;
+    private final BufferPool bufferPool;
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    /** 每个键、值、项在页中占用的字节数 */
+    private final int keySize;
+    private final int valueSize;
+    private final int entrySize;
+    /** 根据B树的定义，B树的每个非根节点的关键字数n满足(t - 1) <= n <= (2t - 1) */
+    private final int t;
+    /** 非根节点中最小的键值数 */
+    private final int minKeySize;
+    /** 非根节点中最大的键值数 */
+    private final int maxKeySize;
+    /** 键的比较函数对象 */
+    private final Comparator<K> kComparator;
+    /** 当前操作用到的节点页 */
+    private final List<PageNode> touched = new ArrayList<PageNode>();
+    /** 检查点之后已经在日志中记过整页的页 */
+    private final BitSet fullPageLogged = new BitSet();
+    /** 当前操作要写入的项，在修改页之前编码好 */
+    private final ByteBuffer entryBuffer;
+    /** 日志超过这个大小时自动做检查点 */
+    private long checkpointSize = DEFAULT_CHECKPOINT_SIZE;
+    /** 某次操作中途失败、改过的页已被丢弃，只能关闭后重新打开 */
+    private boolean broken;
+
+    /**
+     *@Desc 打开或新建给定的文件，页大小为8KiB，键值采用自然排序方式
+     */
+    public PagedBTree(Path path, Serializer<K> keySerializer, Serializer<V> valueSerializer) throws IOException {
+        this(path, DEFAULT_PAGE_SIZE, null, keySerializer, valueSerializer);
+    }
+
+    /**
+     *@Desc 打开或新建给定的文件，预写日志是同一目录下的path + ".wal"。
+     *	pageSize只在新建文件时使用，已有的文件使用文件中记录的页大小；重新打开时的序列化器和比较函数对象必须与新建时相同。
+     */
+    public PagedBTree(Path path, int pageSize, Comparator<K> kComparator,
+            Serializer<K> keySerializer, Serializer<V> valueSerializer) throws IOException {
+        this(path, pageSize, DEFAULT_CACHE_SIZE, kComparator, keySerializer, valueSerializer);
+    }
+
+    /**
+     *@Desc 同上，cacheSize是页缓存最多占用的字节数
+     */
+    public PagedBTree(Path path, int pageSize, long cacheSize, Comparator<K> kComparator,
+            Serializer<K> keySerializer, Serializer<V> valueSerializer) throws IOException {
+        this.kComparator = kComparator;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        keySize = keySerializer.maxSize();
+        valueSize = valueSerializer.maxSize();
+        entrySize = keySize + valueSize;
+        entryBuffer = ByteBuffer.allocate(entrySize);
+        pageFile = new PageFile(path, pageSize);
+        wal = new WriteAheadLog(path.resolveSibling(path.getFileName() + ".wal"));
+        // 一页要放下2t个子节点和2t-1个项：NODE_HEADER_SIZE + 8t + (2t - 1) * entrySize <= pageSize
+        t = (pageFile.pageSize() - NODE_HEADER_SIZE + entrySize) / (8 + 2 * entrySize);
+        minKeySize = t - 1;
+        maxKeySize = 2*t - 1;
+        try {
+            // 上次没有正常关闭：重做日志，然后立即做检查点
+            if(wal.recover(pageFile) > 0 || wal.size() > 0) {
+                pageFile.setLsn(Math.max(pageFile.getLsn(), wal.nextLsn()));
+                pageFile.flush();
+                wal.truncate();
+            }
+            wal.setNextLsn(Math.max(wal.nextLsn(), pageFile.getLsn()));
+            if(t < 2)
+                throw new IllegalArgumentException("Page size " + pageFile.pageSize() + " is too small for entries of " + entrySize + " bytes.");
+            if(pageFile.getRootPage() != 0 && pageFile.getT() != t)
+                throw new IllegalArgumentException("The serializers don't match the file: t = " + t + ", but the file was created with t = " + pageFile.getT());
+        } catch(IOException | RuntimeException e) {
+            wal.close();
+            pageFile.close();
+            throw e;
+        }
+        bufferPool = new BufferPool(pageFile, wal, cacheSize);
+        if(pageFile.getRootPage() == 0) {
+            pageFile.setT(t);
+            try {
+                pageFile.setRootPage(newNode(true).pageId);
+            } catch(Throwable e) {
+                abort();
+                throw e;
+            } finally {
+                finish();
+            }
+            // 让文件头中记录t
+            flush();
+        }
+    }
+
+    /**
+     *@Desc 页缓存，可以从中读取命中、换出等计数
+     */
+    public BufferPool bufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     *@Desc 设置组提交的策略：每opsPerSync个操作或者每maxDelayMillis毫秒至少fsync一次日志（时间在操作提交时检查）。
+     *	opsPerSync为1时每个操作返回前都已持久化。默认每256个操作或10毫秒。
+     */
+    public void setSyncPolicy(int opsPerSync, long maxDelayMillis) {
+        wal.setSyncPolicy(opsPerSync, maxDelayMillis);
+    }
+
+    /**
+     *@Desc 日志超过checkpointSize个字节时自动做检查点
+     */
+    public void setCheckpointSize(long checkpointSize) {
+        if(checkpointSize <= 0)
+            throw new IllegalArgumentException("checkpointSize must be positive: " + checkpointSize);
+        this.checkpointSize = checkpointSize;
+    }
+
+    @SuppressWarnings("unchecked")
+    int compare(K key1, K key2) {
+        return kComparator == null ? ((Comparable<K>)key1).compareTo(key2) : kComparator.compare(key1, key2);
+    }
+
+    private int childOffset(int index) {
+        return NODE_HEADER_SIZE + 4 * index;
+    }
+
+    private int entryOffset(int index) {
+        return NODE_HEADER_SIZE + 8 * t + index * entrySize;
+    }
+
+    /**
+     *@Desc 最后修改该页的日志记录的lsn
+     */
+    static long pageLsn(ByteBuffer page) {
+        return page.getLong(8);
+    }
+
+    static void setPageLsn(ByteBuffer page, long lsn) {
+        page.putLong(8, lsn);
+    }
+
+    /**
+     *@Desc 项的个数
+     */
+    public long size() {
+        return pageFile.getEntryCount();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     *@Desc 搜索给定的键，不存在时返回null
+     */
+    public V search(K key) throws IOException {
+        checkUsable();
+        try {
+            PageNode node = node(pageFile.getRootPage());
+            while(true) {
+                int index = node.searchKey(key);
+                if(index >= 0)
+                    return node.valueAt(index);
+                if(node.isLeaf())
+                    return null;
+                node = node(node.childAt(-index - 1));
+            }
+        } catch(Throwable e) {
+            abort();
+            throw e;
+        } finally {
+            finish();
+        }
+    }
+
+    /**
+     *@Desc 在B树中插入给定的键值对，键已存在时返回false。
+     */
+    public boolean insert(K key, V value) throws IOException {
+        checkUsable();
+        encode(key, value);
+        try {
+            PageNode node = splitRootIfFull();
+            while(true) {
+                int index = node.searchKey(key);
+                if(index >= 0)
+                    return false;
+                index = -index - 1;
+                if(node.isLeaf()) {
+                    node.insertEntry(index, entryBuffer);
+                    pageFile.setEntryCount(pageFile.getEntryCount() + 1);
+                    return true;
+                }
+                PageNode childNode = node(node.childAt(index));
+                if(childNode.size() == maxKeySize) {
+                    // 如果子节点是满节点, 则先分裂，再决定走上升项的左边还是右边
+                    splitNode(node, childNode, index);
+                    int cmp = compare(key, node.keyAt(index));
+                    if(cmp == 0)
+                        return false;
+                    if(cmp > 0)
+                        childNode = node(node.childAt(index + 1));
+                }
+                node = childNode;
+            }
+        } catch(Throwable e) {
+            abort();
+            throw e;
+        } finally {
+            finish();
+        }
+    }
+
+    /**
+     *@Desc 如果B树中存在给定的键，则更新值并返回旧值，否则插入并返回null。
+     */
+    public V put(K key, V value) throws IOException {
+        checkUsable();
+        encode(key, value);
+        try {
+            PageNode node = splitRootIfFull();
+            while(true) {
+                int index = node.searchKey(key);
+                if(index >= 0) {
+                    V oldValue = node.valueAt(index);
+                    node.setEntry(index, entryBuffer);
+                    return oldValue;
+                }
+                index = -index - 1;
+                if(node.isLeaf()) {
+                    node.insertEntry(index, entryBuffer);
+                    pageFile.setEntryCount(pageFile.getEntryCount() + 1);
+                    return null;
+                }
+                PageNode childNode = node(node.childAt(index));
+                if(childNode.size() == maxKeySize) {
+                    splitNode(node, childNode, index);
+                    int cmp = compare(key, node.keyAt(index));
+                    if(cmp == 0) {
+                        V oldValue = node.valueAt(index);
+                        node.setEntry(index, entryBuffer);
+                        return oldValue;
+                    }
+                    if(cmp > 0)
+                        childNode = node(node.childAt(index + 1));
+                }
+                node = childNode;
+            }
+        } catch(Throwable e) {
+            abort();
+            throw e;
+        } finally {
+            finish();
+        }
+    }
+
+    /**
+     *@Desc 从B树中删除给定的键，返回被删除的值，不存在时返回null
+     */
+    public V delete(K key) throws IOException {
+        checkUsable();
+        try {
+            V deletedValue = delete(node(pageFile.getRootPage()), key);
+            if(deletedValue != null)
+                pageFile.setEntryCount(pageFile.getEntryCount() - 1);
+            return deletedValue;
+        } catch(Throwable e) {
+            abort();
+            throw e;
+        } finally {
+            finish();
+        }
+    }
+
+    /**
+     *@Desc 把已经提交的操作在日志中持久化（fsync），返回之后这些操作在崩溃后都能恢复
+     */
+    public void sync() throws IOException {
+        checkUsable();
+        wal.sync();
+    }
+
+    /**
+     *@Desc 检查点：把修改过的页和文件头写回数据文件并fsync，然后清空日志
+     */
+    public void flush() throws IOException {
+        checkUsable();
+        wal.sync();
+        bufferPool.flush();
+        pageFile.setLsn(wal.nextLsn());
+        pageFile.flush();
+        wal.truncate();
+        fullPageLogged.clear();
+    }
+
+    /**
+     *@Desc 做一次检查点后关闭。B树已经不可用时只把日志中已提交的操作写完，数据文件留给下次打开时恢复
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if(!broken)
+                flush();
+        } finally {
+            try {
+                wal.close();
+            } finally {
+                if(broken)
+                    pageFile.abort();
+                else
+                    pageFile.close();
+            }
+        }
+    }
+
+    /**
+     *@Desc 遍历整棵树，检查B树的定义（见{@link BTree}的类注释）：节点中的键升序，并且落在父节点的分隔键给出的范围内；
+     *	所有叶节点的深度相同；内节点有size + 1个子节点；非根节点有t-1到2t-1个项，根节点是内节点时至少有2个子节点。
+     *	同时检查每页只被引用一次、页号在文件范围内、项数与文件头一致、空闲页链表不与树中的页重叠。
+     *	不满足时抛出IllegalStateException。逐页pin、读出、unpin，同一时刻只pin一页，时间为O(页数)
+     */
+    public void checkInvariants() throws IOException {
+        checkUsable();
+        BitSet pages = new BitSet();
+        // entries[0]是项数，entries[1]是叶节点的深度（-1表示还没有遇到叶节点）
+        long[] entries = {0, -1};
+        checkNode(pageFile.getRootPage(), null, null, 0, pages, entries);
+        if(entries[0] != pageFile.getEntryCount())
+            throw new IllegalStateException("The tree has " + entries[0] + " entries, but the file header says " + pageFile.getEntryCount());
+        for(int pageId = pageFile.getFreeHead(); pageId != 0; ) {
+            if(pageId < 0 || pageId >= pageFile.pageCount() || pages.get(pageId))
+                throw new IllegalStateException("Free page " + pageId + " is out of range, in the tree or on the free list twice");
+            pages.set(pageId);
+            ByteBuffer page = bufferPool.pin(pageId);
+            int next = page.getInt(0);
+            bufferPool.unpin(pageId, false);
+            pageId = next;
+        }
+    }
+
+    /**
+     *@Desc 检查以pageId为根的子树，其中的键都在(low, high)中（null表示不设界）
+     */
+    private void checkNode(int pageId, K low, K high, int depth, BitSet pages, long[] entries) throws IOException {
+        if(pageId <= 0 || pageId >= pageFile.pageCount() || pages.get(pageId))
+            throw new IllegalStateException("Page " + pageId + " is out of range or referenced twice");
+        pages.set(pageId);
+        PageNode node = new PageNode(pageId, bufferPool.pin(pageId));
+        int size;
+        boolean leaf;
+        List<K> keys = new ArrayList<K>();
+        int[] children;
+        try {
+            size = node.size();
+            leaf = node.isLeaf();
+            if(size < 0 || size > maxKeySize)
+                throw new IllegalStateException("Page " + pageId + " has " + size + " entries, the maximum is " + maxKeySize);
+            for(int i = 0; i < size; ++ i)
+                keys.add(node.keyAt(i));
+            children = new int[leaf ? 0 : size + 1];
+            for(int i = 0; i < children.length; ++ i)
+                children[i] = node.childAt(i);
+        } finally {
+            bufferPool.unpin(pageId, false);
+        }
+        boolean root = depth == 0;
+        if(!root && size < minKeySize)
+            throw new IllegalStateException("Page " + pageId + " has " + size + " entries, the minimum is " + minKeySize);
+        if(root && !leaf && size < 1)
+            throw new IllegalStateException("The internal root page " + pageId + " has fewer than 2 children");
+        for(int i = 0; i < size; ++ i) {
+            K key = keys.get(i);
+            K previous = i == 0 ? low : keys.get(i - 1);
+            if(previous != null && compare(previous, key) >= 0)
+                throw new IllegalStateException("Keys out of order in page " + pageId + " at index " + i + ": " + previous + " >= " + key);
+            if(high != null && compare(key, high) >= 0)
+                throw new IllegalStateException("Key " + key + " in page " + pageId + " is not below the separator " + high);
+        }
+        entries[0] += size;
+        if(leaf) {
+            if(entries[1] < 0)
+                entries[1] = depth;
+            else if(entries[1] != depth)
+                throw new IllegalStateException("Leaf page " + pageId + " is at depth " + depth + ", other leaves are at depth " + entries[1]);
+            return;
+        }
+        for(int i = 0; i < children.length; ++ i)
+            checkNode(children[i], i == 0 ? low : keys.get(i - 1), i == size ? high : keys.get(i), depth + 1, pages, entries);
+    }
+
+    private void checkUsable() {
+        if(broken)
+            throw new IllegalStateException("A previous operation failed; close and reopen the PagedBTree to recover from the log.");
+    }
+
+    /**
+     *@Desc 把键值对编码到entryBuffer中
+     */
+    private void encode(K key, V value) {
+        entryBuffer.clear();
+        keySerializer.write(entryBuffer, key);
+        entryBuffer.position(keySize);
+        valueSerializer.write(entryBuffer, value);
+    }
+
+    /**
+     *@Desc 根节点满了，则B树长高；返回（新的）根节点
+     */
+    private PageNode splitRootIfFull() throws IOException {
+        PageNode root = node(pageFile.getRootPage());
+        if(root.size() < maxKeySize)
+            return root;
+        PageNode newRoot = newNode(false);
+        newRoot.setChild(0, root.pageId);
+        splitNode(newRoot, root, 0);
+        pageFile.setRootPage(newRoot.pageId);
+        return newRoot;
+    }
+
+    /**
+     *@Desc 分裂一个满子节点<code>childNode</code>，同BTree.splitNode。
+     */
+    private void splitNode(PageNode parentNode, PageNode childNode, int index) throws IOException {
+        assert childNode.size() == maxKeySize;
+
+        PageNode siblingNode = newNode(childNode.isLeaf());
+        // 将满子节点中索引为[t, 2t - 2]的(t - 1)个项整体复制到新的节点中
+        siblingNode.addEntries(childNode, t, minKeySize);
+        if(!childNode.isLeaf()) {
+            // 将满子节点中索引为[t, 2t - 1]的t个子节点整体复制到新的节点中
+            siblingNode.copyChildren(childNode, t, 0, t);
+        }
+        // 父节点插入前有parentNode.size() + 1个子节点
+        parentNode.insertChild(index + 1, siblingNode.pageId, parentNode.size() + 1);
+        // 中间项(t - 1)上升到父节点，再截掉满子节点中索引为[t - 1, 2t - 2]的t个项
+        parentNode.insertEntry(index, childNode, t - 1);
+        childNode.truncateEntries(t - 1);
+    }
+
+    /**
+     *@Desc 从以给定<code>node</code>为根的子树中删除给定的键，各个case与BTree.delete相同。
+     */
+    private V delete(PageNode node, K key) throws IOException {
+        // 该过程需要保证，对非根节点执行删除操作时，其关键字个数至少为t。
+        assert node.size() >= t || node.pageId == pageFile.getRootPage();
+
+        int index = node.searchKey(key);
+        if(index >= 0) {
+            // 1.如果关键字在节点node中，并且是叶节点，则直接删除。
+            if(node.isLeaf()) {
+                V deletedValue = node.valueAt(index);
+                node.removeEntry(index);
+                return deletedValue;
+            }
+            PageNode leftChildNode = node(node.childAt(index));
+            if(leftChildNode.size() >= t) {
+                // 2.a 用左子树中最大的项(前驱)代替，递归删除前驱
+                PageNode last = leftChildNode;
+                while(!last.isLeaf())
+                    last = node(last.childAt(last.size()));
+                K predecessorKey = last.keyAt(last.size() - 1);
+                V deletedValue = node.valueAt(index);
+                node.setEntry(index, last, last.size() - 1);
+                delete(leftChildNode, predecessorKey);
+                return deletedValue;
+            }
+            PageNode rightChildNode = node(node.childAt(index + 1));
+            if(rightChildNode.size() >= t) {
+                // 2.b 用右子树中最小的项(后继)代替，递归删除后继
+                PageNode first = rightChildNode;
+                while(!first.isLeaf())
+                    first = node(first.childAt(0));
+                K successorKey = first.keyAt(0);
+                V deletedValue = node.valueAt(index);
+                node.setEntry(index, first, 0);
+                delete(rightChildNode, successorKey);
+                return deletedValue;
+            }
+            // 2.c 左右孩子都是t-1个，将node.key和右孩子一起并入左孩子，递归删除
+            mergeChildren(node, index, leftChildNode, rightChildNode);
+            shrinkRootIfEmpty(node, leftChildNode);
+            return delete(leftChildNode, key);
+        }
+
+        // 查找过程中，node.index是包含key的子树
+        if(node.isLeaf())
+            return null;
+        index = -index - 1;
+        PageNode childNode = node(node.childAt(index));
+        if(childNode.size() >= t)
+            return delete(childNode, key);
+
+        // 该子树只包含t-1个关键字，先试着从兄弟节点借一个
+        PageNode rightSiblingNode = index < node.size() ? node(node.childAt(index + 1)) : null;
+        if(rightSiblingNode != null && rightSiblingNode.size() >= t) {
+            // 3.a 右兄弟节点满足条件
+            childNode.addEntries(node, index, 1);
+            node.setEntry(index, rightSiblingNode, 0);
+            if(!rightSiblingNode.isLeaf()) {
+                childNode.setChild(childNode.size(), rightSiblingNode.childAt(0));
+                rightSiblingNode.removeChild(0, rightSiblingNode.size() + 1);
+            }
+            rightSiblingNode.removeEntry(0);
+            return delete(childNode, key);
+        }
+        PageNode leftSiblingNode = index > 0 ? node(node.childAt(index - 1)) : null;
+        if(leftSiblingNode != null && leftSiblingNode.size() >= t) {
+            // 3.a 左兄弟节点满足条件
+            int last = leftSiblingNode.size() - 1;
+            if(!childNode.isLeaf())
+                childNode.insertChild(0, leftSiblingNode.childAt(last + 1), childNode.size() + 1);
+            childNode.insertEntry(0, node, index - 1);
+            node.setEntry(index - 1, leftSiblingNode, last);
+            leftSiblingNode.truncateEntries(last);
+            return delete(childNode, key);
+        }
+        // 3.b 相邻兄弟都只有t-1个项：与其中一个兄弟合并，node中的一个键下降为中间项
+        if(rightSiblingNode != null) {
+            mergeChildren(node, index, childNode, rightSiblingNode);
+        } else {
+            mergeChildren(node, index - 1, leftSiblingNode, childNode);
+            childNode = leftSiblingNode;
+        }
+        shrinkRootIfEmpty(node, childNode);
+        return delete(childNode, key);
+    }
+
+    /**
+     *@Desc 把node的第index个项和右孩子rightNode并入左孩子leftNode，释放rightNode所在的页
+     */
+    private void mergeChildren(PageNode node, int index, PageNode leftNode, PageNode rightNode) throws IOException {
+        leftNode.addEntries(node, index, 1);
+        if(!leftNode.isLeaf())
+            leftNode.copyChildren(rightNode, 0, leftNode.size(), rightNode.size() + 1);
+        leftNode.addEntries(rightNode, 0, rightNode.size());
+        node.removeChild(index + 1, node.size() + 1);
+        node.removeEntry(index);
+        freeNode(rightNode);
+    }
+
+    /**
+     *@Desc 如果node是根节点并且不包含任何项了，则B树变矮，childNode成为新的根节点
+     */
+    private void shrinkRootIfEmpty(PageNode node, PageNode childNode) throws IOException {
+        if(node.pageId == pageFile.getRootPage() && node.size() == 0) {
+            pageFile.setRootPage(childNode.pageId);
+            freeNode(node);
+        }
+    }
+
+    /**
+     *@Desc 当前操作中给定页的节点，同一页只pin一次
+     */
+    private PageNode node(int pageId) throws IOException {
+        for(int i = 0; i < touched.size(); ++ i) {
+            if(touched.get(i).pageId == pageId)
+                return touched.get(i);
+        }
+        PageNode node = new PageNode(pageId, bufferPool.pin(pageId));
+        touched.add(node);
+        return node;
+    }
+
+    /**
+     *@Desc 分配一页作为新的空节点：优先取空闲页链表的第一页，否则在文件末尾追加
+     */
+    private PageNode newNode(boolean leaf) throws IOException {
+        PageNode node;
+        int pageId = pageFile.getFreeHead();
+        if(pageId != 0) {
+            node = node(pageId);
+            pageFile.setFreeHead(node.page.getInt(0));
+            BufferPool.zero(node.page);
+        } else {
+            pageId = pageFile.appendPage();
+            node = new PageNode(pageId, bufferPool.pinNew(pageId));
+            touched.add(node);
+        }
+        // 整页都被覆盖，不需要记下之前的内容
+        wal.logZero(pageId);
+        fullPageLogged.set(pageId);
+        node.modified = true;
+        node.page.put(4, (byte) (leaf ? 1 : 0));
+        wal.logWrite(pageId, node.page, 4, 1);
+        return node;
+    }
+
+    /**
+     *@Desc 释放节点所在的页，放到空闲页链表的头部：页的前4个字节记录链表中的下一页
+     */
+    private void freeNode(PageNode node) {
+        node.putInt(0, pageFile.getFreeHead());
+        pageFile.setFreeHead(node.pageId);
+    }
+
+    /**
+     *@Desc 操作成功结束：提交本次操作的日志记录，把改过的页的pageLsn设为它的lsn，然后unpin用到的页；日志太大时做检查点
+     */
+    private void finish() throws IOException {
+        if(touched.isEmpty())
+            return;
+        boolean modified = false;
+        for(PageNode node : touched)
+            modified |= node.modified;
+        if(modified) {
+            try {
+                long lsn = wal.currentLsn();
+                for(PageNode node : touched) {
+                    if(node.modified)
+                        setPageLsn(node.page, lsn);
+                }
+                wal.commit(pageFile.getRootPage(), pageFile.pageCount(), pageFile.getFreeHead(), pageFile.getEntryCount());
+            } catch(IOException | RuntimeException e) {
+                abort();
+                throw e;
+            }
+        }
+        for(PageNode node : touched)
+            bufferPool.unpin(node.pageId, node.modified);
+        touched.clear();
+        if(modified && wal.size() >= checkpointSize)
+            flush();
+    }
+
+    /**
+     *@Desc 操作中途失败：丢弃本次操作改过的页，此后B树不能再使用
+     */
+    private void abort() {
+        wal.rollback();
+        for(PageNode node : touched) {
+            if(node.modified) {
+                bufferPool.discard(node.pageId);
+                broken = true;
+            } else {
+                bufferPool.unpin(node.pageId, false);
+            }
+        }
+        touched.clear();
+    }
+
+    /**
+     *@Desc 复制字节，src和dst可以是同一页中重叠的区域
+     */
+    private static void copyBytes(ByteBuffer src, int srcOffset, ByteBuffer dst, int dstOffset, int length) {
+        if(length == 0)
+            return;
+        if(src.hasArray() && dst.hasArray()) {
+            System.arraycopy(src.array(), src.arrayOffset() + srcOffset, dst.array(), dst.arrayOffset() + dstOffset, length);
+        } else {
+            byte[] bytes = new byte[length];
+            ByteBuffer from = src.duplicate();
+            from.position(srcOffset);
+            from.get(bytes);
+            ByteBuffer to = dst.duplicate();
+            to.position(dstOffset);
+            to.put(bytes);
+        }
+    }
+}
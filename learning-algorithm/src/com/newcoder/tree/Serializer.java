@@ -0,0 +1,64 @@
+package com.newcoder.tree;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 把键或值写入页面、从页面读出的序列化器，供{@link PagedBTree}使用。
+ *
+ * 页面中为每个键、值预留maxSize()个字节，write从buffer的当前位置开始写，不能超过maxSize()个字节；
+ * read从同一位置读回。变长的类型在maxSize()之内自己记录长度。
+ */
+public interface Serializer<T> {
+    /**
+     *@Desc 序列化之后最多占用的字节数
+     */
+    int maxSize();
+
+    /**
+     *@Desc 从buffer的当前位置开始写入value
+     */
+    void write(ByteBuffer buffer, T value);
+
+    /**
+     *@Desc 从buffer的当前位置开始读出一个值
+     */
+    T read(ByteBuffer buffer);
+
+    Serializer<Long> LONG = new Serializer<Long>() {
+        public int maxSize() { return 8; }
+        public void write(ByteBuffer buffer, Long value) { buffer.putLong(value); }
+        public Long read(ByteBuffer buffer) { return buffer.getLong(); }
+    };
+
+    Serializer<Integer> INTEGER = new Serializer<Integer>() {
+        public int maxSize() { return 4; }
+        public void write(ByteBuffer buffer, Integer value) { buffer.putInt(value); }
+        public Integer read(ByteBuffer buffer) { return buffer.getInt(); }
+    };
+
+    /**
+     *@Desc UTF-8编码、最多maxBytes个字节的字符串：先写2个字节的长度，再写编码后的字节
+     */
+    static Serializer<String> string(final int maxBytes) {
+        if(maxBytes < 0 || maxBytes > 0xFFFF)
+            throw new IllegalArgumentException("maxBytes must be in [0, 65535]: " + maxBytes);
+        return new Serializer<String>() {
+            public int maxSize() { return 2 + maxBytes; }
+
+            public void write(ByteBuffer buffer, String value) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                if(bytes.length > maxBytes)
+                    throw new IllegalArgumentException("String is longer than " + maxBytes + " bytes in UTF-8: " + value);
+                buffer.putChar((char) bytes.length);
+                buffer.put(bytes);
+            }
+
+            public String read(ByteBuffer buffer) {
+                byte[] bytes = new byte[buffer.getChar()];
+                buffer.get(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+}
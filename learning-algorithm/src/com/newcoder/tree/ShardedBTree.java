@@ -0,0 +1,632 @@
+package com.newcoder.tree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+/**
+ * 按键的范围分片的B树：键空间由边界键切成若干段，每一段是一棵独立的{@link BTree}（分片），由自己的读写锁保护。
+ * 不同分片上的操作互不干扰，键均匀分布时吞吐量随核数增长，而不需要让一棵树支持并发（对比{@link ConcurrentBTree}）。
+ *
+ * 	1.  路由：第i个分片的键k满足 boundaries[i-1] <= k < boundaries[i]，二分查找边界键即可找到分片
+ * 	2.  分片的划分（边界键和分片）放在一个不可变的Layout中，整体替换volatile引用。
+ * 	    操作先按当前的Layout找到分片并加锁，再确认Layout没有被替换，否则重新路由
+ * 	3.  重新划分（rebalance）先取得所有分片的一致快照，在锁外按键的顺序取出所有项，均分后用BTree.bulkLoad并行地重建各个分片；
+ * 	    然后才持有所有分片的写锁，确认这期间没有写入之后发布新的Layout，有写入时重来。
+ * 	    持有分片的锁时从不等待线程池中的任务：putAll的任务可能正阻塞在分片的锁上，占满线程池的工作线程
+ * 	    每个分片每写CHECK_INTERVAL次检查一次是否倾斜：分片数还没有达到shardCount而项数已经足够，
+ * 	    或者某个分片的项数超过平均数的SKEW倍时自动重新划分；均分之后至少还要再写入约n / shardCount项才会再次倾斜，
+ * 	    重建的O(n)代价分摊到每次写入上是O(shardCount)
+ * 	4.  putAll、bulkLoad、parallelForEach把每个分片的工作作为一个任务交给ForkJoinPool并行执行
+ * 	5.  range先在所有涉及的分片的读锁下各取一个快照（BTree.snapshot，O(1)），得到这些分片同一时刻的一致视图，
+ * 	    然后在锁外按分片的顺序依次遍历快照：分片的范围互不重叠且有序，依次连接就是有序的归并结果。
+ * 	    快照缓存在分片中直到下一次写入，其间的遍历共用同一个快照，不会让之后的写入再次复制节点
+ *
+ * 开始时只有一个分片，项数达到shardCount * MIN_SHARD_SIZE后第一次划分成shardCount个。
+ * size()在并发修改时是一个近似值。
+ */
+public class ShardedBTree<K, V> {
+    /**
+     *@Desc 一个分片：一棵B树和保护它的读写锁
+     */
+    private static final class Shard<K, V> {
+        final BTree<K, V> tree;
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        /** 写入的次数，在写锁下修改，用于定期检查倾斜 */
+        long writes;
+        /** 上一次写入之后取得的快照，没有时为null。写入时在写锁下清空，在读锁下由snapshot()设置 */
+        BTree<K, V> snapshot;
+
+        Shard(BTree<K, V> tree) {
+            this.tree = tree;
+        }
+
+        /**
+         *@Desc 在读锁或写锁下调用，返回当前内容的快照。
+         *	BTree.snapshot()会修改B树的写版本：读锁排除了写入，持有读锁的线程之间再用分片自身的监视器互斥
+         */
+        synchronized BTree<K, V> snapshot() {
+            if(snapshot == null)
+                snapshot = tree.snapshot();
+            return snapshot;
+        }
+
+        /**
+         *@Desc 在写锁下、修改B树之前调用。写锁排除了snapshot()，不需要监视器
+         */
+        void modified() {
+            snapshot = null;
+        }
+    }
+
+    /**
+     *@Desc 分片的划分，创建之后不再修改
+     */
+    private static final class Layout<K, V> {
+        /** 第i个分片的下界是boundaries[i - 1]，比shards少一个 */
+        final Object[] boundaries;
+        final Shard<K, V>[] shards;
+
+        Layout(Object[] boundaries, Shard<K, V>[] shards) {
+            this.boundaries = boundaries;
+            this.shards = shards;
+        }
+    }
+
+    private static final int DEFAULT_T = 32;
+    /** 每个分片每写入这么多次检查一次倾斜 */
+    private static final int CHECK_INTERVAL = 1024;
+    /** 分片的项数超过平均数的这个倍数时重新划分 */
+    private static final double SKEW = 2.0;
+    /** 划分时每个分片至少的项数，项数太少时分片数也相应减少 */
+    private static final int MIN_SHARD_SIZE = 1024;
+    /** 重新划分时节点的填充率，留出后续插入的空间 */
+    private static final double REBALANCE_FILL_FACTOR = 0.75;
+    /** 重新划分期间有写入时最多重来的次数 */
+    private static final int REBALANCE_ATTEMPTS = 3;
+
+    private volatile Layout<K, V> layout;
+    /** 同一时刻只有一个重新划分 */
+    private final ReentrantLock rebalanceLock = new ReentrantLock();
+    /** 分片数的目标值 */
+    private final int shardCount;
+    /** 各分片B树的最小度数 */
+    private final int t;
+    /** 键的比较函数对象 */
+    private final Comparator<K> kComparator;
+    /** 执行并行任务的线程池 */
+    private final ForkJoinPool pool;
+    private final LongAdder size = new LongAdder();
+
+    /**
+     *@Desc 分片数默认为处理器的个数
+     */
+    public ShardedBTree() {
+        this(null, Runtime.getRuntime().availableProcessors(), DEFAULT_T, ForkJoinPool.commonPool());
+    }
+
+    public ShardedBTree(int shardCount) {
+        this(null, shardCount, DEFAULT_T, ForkJoinPool.commonPool());
+    }
+
+    public ShardedBTree(Comparator<K> kComparator, int shardCount, int t, ForkJoinPool pool) {
+        if(shardCount < 1)
+            throw new IllegalArgumentException("The shard count must be at least 1: " + shardCount);
+        if(t < 2)
+            throw new IllegalArgumentException("The minimum degree t must be at least 2: " + t);
+        this.kComparator = kComparator;
+        this.shardCount = shardCount;
+        this.t = t;
+        this.pool = pool;
+        layout = build(new ArrayList<Map.Entry<K, V>>(), 1, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    int compare(K key1, K key2) {
+        return kComparator == null ? ((Comparable<K>)key1).compareTo(key2) : kComparator.compare(key1, key2);
+    }
+
+    /**
+     *@Desc key所在分片的索引：等于边界键时属于右边的分片
+     */
+    @SuppressWarnings("unchecked")
+    private int shardIndex(Layout<K, V> layout, K key) {
+        Object[] boundaries = layout.boundaries;
+        int low = 0;
+        int high = boundaries.length - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare((K) boundaries[mid], key);
+            if(cmp < 0)
+                low = mid + 1;
+            else if(cmp > 0)
+                high = mid - 1;
+            else
+                return mid + 1;
+        }
+        return low;
+    }
+
+    /**
+     *@Desc 找到key所在的分片并加锁（write为true时加写锁并作废分片的快照），确认加锁之后划分没有改变
+     */
+    private Shard<K, V> lockShard(K key, boolean write) {
+        while(true) {
+            Layout<K, V> layout = this.layout;
+            Shard<K, V> shard = layout.shards[shardIndex(layout, key)];
+            Lock lock = write ? shard.lock.writeLock() : shard.lock.readLock();
+            lock.lock();
+            if(layout == this.layout) {
+                if(write)
+                    shard.modified();
+                return shard;
+            }
+            lock.unlock();
+        }
+    }
+
+    /**
+     *@Desc 搜索给定的键，不存在时返回null
+     */
+    public V search(K key) {
+        Shard<K, V> shard = lockShard(key, false);
+        try {
+            return shard.tree.search(key);
+        } finally {
+            shard.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     *@Desc 是否存在给定的键
+     */
+    public boolean containsKey(K key) {
+        Shard<K, V> shard = lockShard(key, false);
+        try {
+            return shard.tree.containsKey(key);
+        } finally {
+            shard.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     *@Desc 插入给定的键值对，键已存在时返回false
+     */
+    public boolean insert(K key, V value) {
+        Shard<K, V> shard = lockShard(key, true);
+        boolean inserted;
+        boolean skewed;
+        try {
+            inserted = shard.tree.insert(key, value);
+            skewed = written(shard, 1, inserted ? 1 : 0);
+        } finally {
+            shard.lock.writeLock().unlock();
+        }
+        if(skewed)
+            rebalance(false);
+        return inserted;
+    }
+
+    /**
+     *@Desc 如果存在给定的键，则更新值并返回旧值，否则插入并返回null
+     */
+    public V put(K key, V value) {
+        Shard<K, V> shard = lockShard(key, true);
+        V oldValue;
+        boolean skewed;
+        try {
+            int before = shard.tree.size();
+            oldValue = shard.tree.put(key, value);
+            skewed = written(shard, 1, shard.tree.size() - before);
+        } finally {
+            shard.lock.writeLock().unlock();
+        }
+        if(skewed)
+            rebalance(false);
+        return oldValue;
+    }
+
+    /**
+     *@Desc 删除给定的键，返回被删除的值，不存在时返回null
+     */
+    public V delete(K key) {
+        Shard<K, V> shard = lockShard(key, true);
+        try {
+            int before = shard.tree.size();
+            V value = shard.tree.delete(key);
+            size.add(shard.tree.size() - before);
+            return value;
+        } finally {
+            shard.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     *@Desc 项数的近似值
+     */
+    public long size() {
+        return size.sum();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     *@Desc 当前各分片的项数，用于观察分片是否均衡
+     */
+    public int[] shardSizes() {
+        Layout<K, V> layout = lockAll(false);
+        try {
+            int[] sizes = new int[layout.shards.length];
+            for(int i = 0; i < sizes.length; ++ i)
+                sizes[i] = layout.shards[i].tree.size();
+            return sizes;
+        } finally {
+            unlockAll(layout, 0, layout.shards.length, false);
+        }
+    }
+
+    /**
+     *@Desc 在分片的写锁下记录一次写入：更新项数，每CHECK_INTERVAL次写入检查一次是否倾斜，返回是否需要重新划分
+     */
+    private boolean written(Shard<K, V> shard, int writes, int delta) {
+        size.add(delta);
+        long before = shard.writes;
+        shard.writes += writes;
+        if(before / CHECK_INTERVAL == shard.writes / CHECK_INTERVAL)
+            return false;
+        // 持有分片的锁时划分不会改变
+        return skewed(layout, shard.tree.size(), size.sum());
+    }
+
+    /**
+     *@Desc 分片数还没有达到目标而项数已经足够，或者有一个分片的项数是shardSize，超过平均数的SKEW倍
+     */
+    private boolean skewed(Layout<K, V> layout, long shardSize, long total) {
+        int count = layout.shards.length;
+        if(count < shardCount)
+            return total >= (long) (count + 1) * MIN_SHARD_SIZE;
+        return total >= (long) count * MIN_SHARD_SIZE && shardSize > SKEW * total / count;
+    }
+
+    /**
+     *@Desc 重新划分分片：按键的顺序取出所有项，均分后并行地重建各个分片
+     */
+    public void rebalance() {
+        rebalance(true);
+    }
+
+    /**
+     *@Desc force为false时由写入触发：已经有别的线程在重新划分时直接返回，取得锁之后再确认一次确实倾斜。
+     *	在各分片的快照上于锁外重建，再在所有分片的写锁下确认快照之后没有写入、发布新的划分；
+     *	有写入时重来，REBALANCE_ATTEMPTS次之后由写入触发的直接放弃（之后的写入会再次触发），
+     *	force为true的在写锁下由当前线程依次重建，不使用线程池
+     */
+    private void rebalance(boolean force) {
+        if(force)
+            rebalanceLock.lock();
+        else if(!rebalanceLock.tryLock())
+            return;
+        try {
+            for(int attempt = 0; attempt < REBALANCE_ATTEMPTS; ++ attempt) {
+                Layout<K, V> layout = this.layout;
+                List<BTree<K, V>> snapshots = snapshots(layout, 0, layout.shards.length - 1);
+                if(snapshots == null)
+                    continue;
+                List<Map.Entry<K, V>> entries = new ArrayList<Map.Entry<K, V>>();
+                long largest = collect(snapshots, entries);
+                if(!force && !skewed(layout, largest, entries.size()))
+                    return;
+                Layout<K, V> rebuilt = build(entries, REBALANCE_FILL_FACTOR, true);
+                lock(layout, 0, layout.shards.length, true);
+                try {
+                    if(unchangedSince(layout, snapshots)) {
+                        this.layout = rebuilt;
+                        return;
+                    }
+                } finally {
+                    unlockAll(layout, 0, layout.shards.length, true);
+                }
+            }
+            if(!force)
+                return;
+            Layout<K, V> layout = lockAll(true);
+            try {
+                List<BTree<K, V>> trees = new ArrayList<BTree<K, V>>();
+                for(Shard<K, V> shard : layout.shards)
+                    trees.add(shard.tree);
+                List<Map.Entry<K, V>> entries = new ArrayList<Map.Entry<K, V>>();
+                collect(trees, entries);
+                this.layout = build(entries, REBALANCE_FILL_FACTOR, false);
+            } finally {
+                unlockAll(layout, 0, layout.shards.length, true);
+            }
+        } finally {
+            rebalanceLock.unlock();
+        }
+    }
+
+    /**
+     *@Desc 按顺序把trees中的所有项追加到entries，返回最大的一棵树的项数
+     */
+    private long collect(List<BTree<K, V>> trees, List<Map.Entry<K, V>> entries) {
+        long largest = 0;
+        for(BTree<K, V> tree : trees) {
+            largest = Math.max(largest, tree.size());
+            Iterator<Map.Entry<K, V>> iterator = tree.range(null, true, null, true);
+            while(iterator.hasNext())
+                entries.add(iterator.next());
+        }
+        return largest;
+    }
+
+    /**
+     *@Desc 在layout所有分片的写锁下调用：layout仍是当前的划分，并且取得snapshots之后各分片都没有写入
+     */
+    private boolean unchangedSince(Layout<K, V> layout, List<BTree<K, V>> snapshots) {
+        if(layout != this.layout)
+            return false;
+        for(int i = 0; i < layout.shards.length; ++ i) {
+            if(layout.shards[i].snapshot != snapshots.get(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     *@Desc 按顺序锁住当前划分的所有分片，确认加锁之后划分没有改变，返回这个划分
+     */
+    private Layout<K, V> lockAll(boolean write) {
+        while(true) {
+            Layout<K, V> layout = this.layout;
+            lock(layout, 0, layout.shards.length, write);
+            if(layout == this.layout)
+                return layout;
+            unlockAll(layout, 0, layout.shards.length, write);
+        }
+    }
+
+    /**
+     *@Desc 按索引顺序锁住[from, to)的分片，所有多分片的加锁都按这个顺序，不会死锁
+     */
+    private void lock(Layout<K, V> layout, int from, int to, boolean write) {
+        for(int i = from; i < to; ++ i) {
+            ReentrantReadWriteLock lock = layout.shards[i].lock;
+            (write ? lock.writeLock() : lock.readLock()).lock();
+        }
+    }
+
+    private void unlockAll(Layout<K, V> layout, int from, int to, boolean write) {
+        for(int i = to - 1; i >= from; -- i) {
+            ReentrantReadWriteLock lock = layout.shards[i].lock;
+            (write ? lock.writeLock() : lock.readLock()).unlock();
+        }
+    }
+
+    /**
+     *@Desc 把有序的entries均分成不超过shardCount个分片（每个分片至少MIN_SHARD_SIZE项，至少一个分片），
+     *	parallel为true时在线程池中并行地bulkLoad各个分片，否则在当前线程中依次bulkLoad。
+     *	等待线程池时不能持有分片的锁
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Layout<K, V> build(final List<Map.Entry<K, V>> entries, final double fillFactor, boolean parallel) {
+        int n = entries.size();
+        int count = Math.max(1, Math.min(shardCount, n / MIN_SHARD_SIZE));
+        final Shard<K, V>[] shards = (Shard<K, V>[]) new Shard[count];
+        Object[] boundaries = new Object[count - 1];
+        List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+        for(int i = 0; i < count; ++ i) {
+            final List<Map.Entry<K, V>> part = entries.subList((int) ((long) n * i / count), (int) ((long) n * (i + 1) / count));
+            if(i > 0)
+                boundaries[i - 1] = part.get(0).getKey();
+            final BTree<K, V> tree = new BTree<K, V>(kComparator, t);
+            shards[i] = new Shard<K, V>(tree);
+            if(!parallel)
+                tree.bulkLoad(part.iterator(), fillFactor);
+            else if(!part.isEmpty()) {
+                tasks.add(pool.submit(new Runnable() {
+                    public void run() {
+                        tree.bulkLoad(part.iterator(), fillFactor);
+                    }
+                }));
+            }
+        }
+        for(ForkJoinTask<?> task : tasks)
+            task.join();
+        return new Layout<K, V>(boundaries, shards);
+    }
+
+    /**
+     *@Desc 用按键严格升序排列的键值对并行地构建各个分片，要求当前为空，fillFactor同BTree.bulkLoad。
+     *	输入不是严格升序时抛出IllegalArgumentException，此时保持为空。
+     *	分片在锁外构建，最后在所有分片的写锁下确认仍然为空再发布，这期间有写入时抛出IllegalStateException
+     */
+    @SuppressWarnings("unchecked")
+    public void bulkLoad(Iterator<? extends Map.Entry<? extends K, ? extends V>> sorted, double fillFactor) {
+        if(!(fillFactor > 0 && fillFactor <= 1))
+            throw new IllegalArgumentException("fillFactor must be in (0, 1]: " + fillFactor);
+        rebalanceLock.lock();
+        try {
+            Layout<K, V> current = lockAll(false);
+            try {
+                checkEmpty(current);
+            } finally {
+                unlockAll(current, 0, current.shards.length, false);
+            }
+            List<Map.Entry<K, V>> entries = new ArrayList<Map.Entry<K, V>>();
+            K lastKey = null;
+            while(sorted.hasNext()) {
+                Map.Entry<K, V> entry = (Map.Entry<K, V>) sorted.next();
+                if(!entries.isEmpty() && compare(lastKey, entry.getKey()) >= 0)
+                    throw new IllegalArgumentException("Input is not strictly ascending: " + lastKey + " then " + entry.getKey());
+                lastKey = entry.getKey();
+                entries.add(entry);
+            }
+            Layout<K, V> rebuilt = build(entries, fillFactor, true);
+            Layout<K, V> layout = lockAll(true);
+            try {
+                checkEmpty(layout);
+                this.layout = rebuilt;
+                size.add(entries.size());
+            } finally {
+                unlockAll(layout, 0, layout.shards.length, true);
+            }
+        } finally {
+            rebalanceLock.unlock();
+        }
+    }
+
+    /**
+     *@Desc 在layout所有分片的锁下调用，有分片不为空时抛出IllegalStateException
+     */
+    private void checkEmpty(Layout<K, V> layout) {
+        for(Shard<K, V> shard : layout.shards) {
+            if(shard.tree.size() != 0)
+                throw new IllegalStateException("bulkLoad requires an empty ShardedBTree.");
+        }
+    }
+
+    /**
+     *@Desc 写入一批键值对（同BTree.putAll，同键时后面的覆盖前面的）：按分片分组，每个分片在线程池中用一次BTree.putAll写入
+     */
+    public void putAll(Collection<? extends Map.Entry<? extends K, ? extends V>> entries) {
+        final Layout<K, V> layout = this.layout;
+        List<List<Map.Entry<? extends K, ? extends V>>> parts = new ArrayList<List<Map.Entry<? extends K, ? extends V>>>();
+        for(int i = 0; i < layout.shards.length; ++ i)
+            parts.add(new ArrayList<Map.Entry<? extends K, ? extends V>>());
+        for(Map.Entry<? extends K, ? extends V> entry : entries)
+            parts.get(shardIndex(layout, entry.getKey())).add(entry);
+
+        List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+        for(int i = 0; i < parts.size(); ++ i) {
+            final int index = i;
+            final List<Map.Entry<? extends K, ? extends V>> part = parts.get(i);
+            if(part.isEmpty())
+                continue;
+            tasks.add(pool.submit(new Runnable() {
+                public void run() {
+                    putAll(layout, index, part);
+                }
+            }));
+        }
+        for(ForkJoinTask<?> task : tasks)
+            task.join();
+    }
+
+    /**
+     *@Desc 把按layout分到第index个分片的一组键值对写入该分片；划分已经改变时逐个重新路由
+     */
+    private void putAll(Layout<K, V> layout, int index, List<Map.Entry<? extends K, ? extends V>> part) {
+        Shard<K, V> shard = layout.shards[index];
+        boolean moved;
+        boolean skewed = false;
+        shard.lock.writeLock().lock();
+        try {
+            moved = layout != this.layout;
+            if(!moved) {
+                shard.modified();
+                int before = shard.tree.size();
+                shard.tree.putAll(part);
+                skewed = written(shard, part.size(), shard.tree.size() - before);
+            }
+        } finally {
+            shard.lock.writeLock().unlock();
+        }
+        if(moved) {
+            for(Map.Entry<? extends K, ? extends V> entry : part)
+                put(entry.getKey(), entry.getValue());
+        }
+        if(skewed)
+            rebalance(false);
+    }
+
+    /**
+     *@Desc 按分片取得[from, to]涉及的所有分片在同一时刻的快照（端点为null表示不设界）
+     */
+    private List<BTree<K, V>> snapshots(K from, K to) {
+        while(true) {
+            Layout<K, V> layout = this.layout;
+            int first = from == null ? 0 : shardIndex(layout, from);
+            int last = to == null ? layout.shards.length - 1 : Math.max(first, shardIndex(layout, to));
+            List<BTree<K, V>> snapshots = snapshots(layout, first, last);
+            if(snapshots != null)
+                return snapshots;
+        }
+    }
+
+    /**
+     *@Desc 在layout的第first到第last个分片的读锁下各取一个快照，加锁之后划分已经改变时返回null
+     */
+    private List<BTree<K, V>> snapshots(Layout<K, V> layout, int first, int last) {
+        lock(layout, first, last + 1, false);
+        try {
+            if(layout != this.layout)
+                return null;
+            List<BTree<K, V>> snapshots = new ArrayList<BTree<K, V>>();
+            for(int i = first; i <= last; ++ i)
+                snapshots.add(layout.shards[i].snapshot());
+            return snapshots;
+        } finally {
+            unlockAll(layout, first, last + 1, false);
+        }
+    }
+
+    /**
+     *@Desc 按键升序遍历[from, to]范围内的项（是否包含端点由fromInclusive/toInclusive决定，端点为null表示不设界）。
+     *	遍历的是调用时各分片的一致快照，之后的修改不影响遍历，遍历也不阻塞写入
+     */
+    public Iterator<Map.Entry<K, V>> range(final K from, final boolean fromInclusive, final K to, final boolean toInclusive) {
+        final Iterator<BTree<K, V>> shards = snapshots(from, to).iterator();
+        return new Iterator<Map.Entry<K, V>>() {
+            private Iterator<Map.Entry<K, V>> current;
+
+            public boolean hasNext() {
+                while(current == null || !current.hasNext()) {
+                    if(!shards.hasNext())
+                        return false;
+                    current = shards.next().range(from, fromInclusive, to, toInclusive);
+                }
+                return true;
+            }
+
+            public Map.Entry<K, V> next() {
+                if(!hasNext())
+                    throw new NoSuchElementException();
+                return current.next();
+            }
+        };
+    }
+
+    /**
+     *@Desc 在线程池中对所有分片的一致快照并行地执行action，每个分片一个任务，分片内按键升序，
+     *	不同分片之间没有顺序，action需要是线程安全的
+     */
+    public void parallelForEach(final BiConsumer<? super K, ? super V> action) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+        for(final BTree<K, V> snapshot : snapshots(null, null)) {
+            tasks.add(pool.submit(new Runnable() {
+                public void run() {
+                    Iterator<Map.Entry<K, V>> iterator = snapshot.range(null, true, null, true);
+                    while(iterator.hasNext()) {
+                        Map.Entry<K, V> entry = iterator.next();
+                        action.accept(entry.getKey(), entry.getValue());
+                    }
+                }
+            }));
+        }
+        for(ForkJoinTask<?> task : tasks)
+            task.join();
+    }
+}
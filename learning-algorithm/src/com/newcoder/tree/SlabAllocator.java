@@ -0,0 +1,111 @@
+package com.newcoder.tree;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 堆外内存中固定大小的块的分配器，供{@link OffHeapBTree}存放节点。
+ *
+ * 块按slab分配：每次用完时分配一整块直接内存（约1MiB），切成blocksPerSlab个块。
+ * 块用int编号，编号的高位是slab的序号，低位是块在slab中的序号，由编号直接算出所在的slab和偏移，
+ * 堆上只有slabs数组和每个slab一个ByteBuffer对象，与块的个数无关。
+ * 释放的块放进空闲链表，块的前4个字节记录链表中的下一块，分配时优先复用。
+ * 编号0不分配，用来表示“没有”。
+ *
+ * 直接内存由GC在ByteBuffer对象不可达时释放，clear()之后旧的slab要等到下一次GC才真正归还。
+ * 不是线程安全的。
+ */
+class SlabAllocator {
+    /** 每个slab的目标大小：1MiB */
+    private static final int SLAB_SIZE = 1 << 20;
+
+    private final int blockSize;
+    /** slab中块的个数是2的幂：编号右移blockShift位是slab的序号，与blockMask是slab中的序号 */
+    private final int blockShift;
+    private final int blockMask;
+    private ByteBuffer[] slabs = new ByteBuffer[16];
+    private int slabCount;
+    /** 下一个从未用过的块 */
+    private int nextBlock;
+    /** 空闲链表的第一块，0表示没有 */
+    private int freeHead;
+    private int usedBlocks;
+
+    SlabAllocator(int blockSize) {
+        if(blockSize < 4 || blockSize > SLAB_SIZE)
+            throw new IllegalArgumentException("blockSize must be in [4, " + SLAB_SIZE + "]: " + blockSize);
+        this.blockSize = blockSize;
+        blockShift = 31 - Integer.numberOfLeadingZeros(SLAB_SIZE / blockSize);
+        blockMask = (1 << blockShift) - 1;
+        // 跳过编号0
+        nextBlock = 1;
+    }
+
+    int blockSize() { return blockSize; }
+
+    /**
+     *@Desc 块所在的slab
+     */
+    ByteBuffer slab(int block) {
+        return slabs[block >>> blockShift];
+    }
+
+    /**
+     *@Desc 块在slab中的起始偏移
+     */
+    int offset(int block) {
+        return (block & blockMask) * blockSize;
+    }
+
+    /**
+     *@Desc 分配一块，内容未定义
+     */
+    int allocate() {
+        ++ usedBlocks;
+        if(freeHead != 0) {
+            int block = freeHead;
+            freeHead = slab(block).getInt(offset(block));
+            return block;
+        }
+        if(nextBlock >>> blockShift == slabCount) {
+            if(slabCount == slabs.length)
+                slabs = Arrays.copyOf(slabs, slabCount * 2);
+            if(((long) slabCount + 1) << blockShift > Integer.MAX_VALUE)
+                throw new IllegalStateException("Too many blocks: " + nextBlock);
+            slabs[slabCount++] = ByteBuffer.allocateDirect(blockSize << blockShift);
+        }
+        return nextBlock++;
+    }
+
+    /**
+     *@Desc 释放一块，放到空闲链表的头部
+     */
+    void free(int block) {
+        slab(block).putInt(offset(block), freeHead);
+        freeHead = block;
+        -- usedBlocks;
+    }
+
+    /**
+     *@Desc 丢弃所有的slab
+     */
+    void clear() {
+        slabs = new ByteBuffer[16];
+        slabCount = 0;
+        nextBlock = 1;
+        freeHead = 0;
+        usedBlocks = 0;
+    }
+
+    /**
+     *@Desc 正在使用的块数
+     */
+    int usedBlocks() { return usedBlocks; }
+
+    /**
+     *@Desc 已经分配的直接内存的字节数
+     */
+    long allocatedBytes() {
+        return (long) slabCount * (blockSize << blockShift);
+    }
+}
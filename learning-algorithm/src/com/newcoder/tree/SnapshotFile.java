@@ -0,0 +1,258 @@
+package com.newcoder.tree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * {@link BTree#writeSnapshot}写出的二进制快照文件，按层序记录B树的所有节点，读入时直接重建节点，不需要逐个插入。
+ *
+ * 文件的格式（大端序）：
+ * 	文件头（32字节）：int magic, int version, int t, int height, long size（项数），int crc（前24个字节的CRC32C），4字节填充
+ * 	块：从根节点所在的层开始逐层写出节点，每层的节点按从左到右的顺序，连续的节点装成一个块，
+ * 	    一个块只包含同一层的节点，块写满BLOCK_SIZE个字节后在节点的边界处结束。
+ * 	    节点是int entryCount，然后是entryCount个项，每个项是键、值的序列化结果（见Serializer）
+ * 	块表：每个块24字节：int level, int nodeCount, long offset, int length, int crc（块内容的CRC32C）
+ * 	文件尾（24字节）：long tableOffset, int blockCount, int tableCrc（块表的CRC32C），int magic, int version
+ * 子节点不需要记录：第level + 1层的节点依次是第level层每个节点的size + 1个子节点，读入时按顺序分配即可。
+ * 各块有自己的位置和校验和，读入时可以分别映射、并行解码，最后再按层把节点连接起来。
+ */
+class SnapshotFile {
+    static final int MAGIC = 0x4254534E; // "BTSN"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int BLOCK_ENTRY_SIZE = 24;
+    static final int FOOTER_SIZE = 24;
+    /** 块的目标大小，块在节点的边界处结束，因此可能略大一些 */
+    static final int BLOCK_SIZE = 1 << 22;
+    /** 写缓冲区的大小 */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     *@Desc 流式写出快照：依次调用node、entry，最后finish；写出的字节先放在直接缓冲区中，满了再写入文件
+     */
+    static class Writer<K, V> implements Closeable {
+        private final FileChannel channel;
+        private final Serializer<K> keySerializer;
+        private final Serializer<V> valueSerializer;
+        private final CRC32C crc = new CRC32C();
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        /** buffer中[crcFrom, position)的字节还没有累加到crc中 */
+        private int crcFrom;
+        /** 已经写入文件的字节数 */
+        private long written;
+        /** 块表，写完所有的块之后追加到文件中 */
+        private ByteBuffer table = ByteBuffer.allocate(64 * BLOCK_ENTRY_SIZE);
+        private int blockCount;
+        /** 当前块的层、起始位置和节点数，blockNodes为0表示还没有开始 */
+        private int blockLevel;
+        private long blockStart;
+        private int blockNodes;
+
+        Writer(Path path, int t, int height, long size, Serializer<K> keySerializer, Serializer<V> valueSerializer) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.keySerializer = keySerializer;
+            this.valueSerializer = valueSerializer;
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(t).putInt(height).putLong(size);
+            crc.update(buffer.duplicate().flip());
+            buffer.putInt((int) crc.getValue()).putInt(0);
+            crc.reset();
+            crcFrom = buffer.position();
+        }
+
+        /**
+         *@Desc 开始写第level层的一个节点，之后调用entryCount次entry
+         */
+        void node(int level, int entryCount) throws IOException {
+            if(blockNodes > 0 && (level != blockLevel || position() - blockStart >= BLOCK_SIZE))
+                endBlock();
+            if(blockNodes == 0) {
+                blockLevel = level;
+                blockStart = position();
+            }
+            ++ blockNodes;
+            ensure(4);
+            buffer.putInt(entryCount);
+        }
+
+        void entry(K key, V value) throws IOException {
+            ensure(keySerializer.maxSize() + valueSerializer.maxSize());
+            keySerializer.write(buffer, key);
+            valueSerializer.write(buffer, value);
+        }
+
+        /**
+         *@Desc 结束最后一个块，写出块表和文件尾，并把文件写入磁盘
+         */
+        void finish() throws IOException {
+            if(blockNodes > 0)
+                endBlock();
+            long tableOffset = position();
+            flush();
+            table.flip();
+            crc.reset();
+            crc.update(table.duplicate());
+            writeFully(table);
+            buffer.clear();
+            buffer.putLong(tableOffset).putInt(blockCount).putInt((int) crc.getValue()).putInt(MAGIC).putInt(VERSION);
+            buffer.flip();
+            writeFully(buffer);
+            channel.force(true);
+        }
+
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private long position() {
+            return written + buffer.position();
+        }
+
+        private void endBlock() {
+            crc.update(buffer.duplicate().position(crcFrom).limit(buffer.position()));
+            crcFrom = buffer.position();
+            if(table.remaining() < BLOCK_ENTRY_SIZE) {
+                ByteBuffer bigger = ByteBuffer.allocate(table.capacity() * 2);
+                table.flip();
+                table = bigger.put(table);
+            }
+            long length = position() - blockStart;
+            table.putInt(blockLevel).putInt(blockNodes).putLong(blockStart).putInt((int) length).putInt((int) crc.getValue());
+            crc.reset();
+            blockNodes = 0;
+            ++ blockCount;
+        }
+
+        /**
+         *@Desc 缓冲区的剩余空间不足bytes个字节时先写入文件；一个项比缓冲区还大时换一个更大的缓冲区
+         */
+        private void ensure(int bytes) throws IOException {
+            if(buffer.remaining() >= bytes)
+                return;
+            flush();
+            if(buffer.capacity() < bytes)
+                buffer = ByteBuffer.allocateDirect(bytes);
+        }
+
+        private void flush() throws IOException {
+            crc.update(buffer.duplicate().position(crcFrom).limit(buffer.position()));
+            buffer.flip();
+            written += buffer.remaining();
+            writeFully(buffer);
+            buffer.clear();
+            crcFrom = 0;
+        }
+
+        private void writeFully(ByteBuffer src) throws IOException {
+            while(src.hasRemaining())
+                channel.write(src);
+        }
+    }
+
+    /**
+     *@Desc 读快照：打开时读入并校验文件头、块表和文件尾，块的内容由block(i)按需映射并校验
+     */
+    static class Reader implements Closeable {
+        private final Path path;
+        private final FileChannel channel;
+        private final int t;
+        private final int height;
+        private final long size;
+        private final int[] levels;
+        private final int[] nodeCounts;
+        private final long[] offsets;
+        private final int[] lengths;
+        private final int[] crcs;
+
+        Reader(Path path) throws IOException {
+            this.path = path;
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                long fileSize = channel.size();
+                if(fileSize < HEADER_SIZE + FOOTER_SIZE)
+                    throw new IOException("Not a BTree snapshot: " + path);
+                ByteBuffer header = read(0, HEADER_SIZE);
+                if(header.getInt(0) != MAGIC)
+                    throw new IOException("Not a BTree snapshot: " + path);
+                if(header.getInt(4) != VERSION)
+                    throw new IOException("Unsupported BTree snapshot version " + header.getInt(4) + ": " + path);
+                CRC32C crc = new CRC32C();
+                crc.update(header.duplicate().limit(24));
+                if((int) crc.getValue() != header.getInt(24))
+                    throw new IOException("Corrupted BTree snapshot header: " + path);
+                t = header.getInt(8);
+                height = header.getInt(12);
+                size = header.getLong(16);
+
+                ByteBuffer footer = read(fileSize - FOOTER_SIZE, FOOTER_SIZE);
+                long tableOffset = footer.getLong(0);
+                int blockCount = footer.getInt(8);
+                if(footer.getInt(16) != MAGIC || footer.getInt(20) != VERSION || blockCount < 0
+                        || tableOffset < HEADER_SIZE || tableOffset + (long) blockCount * BLOCK_ENTRY_SIZE != fileSize - FOOTER_SIZE)
+                    throw new IOException("Truncated or corrupted BTree snapshot: " + path);
+                ByteBuffer table = read(tableOffset, blockCount * BLOCK_ENTRY_SIZE);
+                crc.reset();
+                crc.update(table.duplicate());
+                if((int) crc.getValue() != footer.getInt(12))
+                    throw new IOException("Corrupted BTree snapshot block table: " + path);
+
+                levels = new int[blockCount];
+                nodeCounts = new int[blockCount];
+                offsets = new long[blockCount];
+                lengths = new int[blockCount];
+                crcs = new int[blockCount];
+                for(int i = 0; i < blockCount; ++ i) {
+                    levels[i] = table.getInt();
+                    nodeCounts[i] = table.getInt();
+                    offsets[i] = table.getLong();
+                    lengths[i] = table.getInt();
+                    crcs[i] = table.getInt();
+                    if(offsets[i] < HEADER_SIZE || lengths[i] < 0 || offsets[i] + lengths[i] > tableOffset
+                            || levels[i] < 0 || levels[i] >= height || (i > 0 && levels[i] < levels[i - 1]))
+                        throw new IOException("Corrupted BTree snapshot block table: " + path);
+                }
+            } catch(IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        int t() { return t; }
+        int height() { return height; }
+        long size() { return size; }
+        int blockCount() { return levels.length; }
+        int level(int block) { return levels[block]; }
+        int nodeCount(int block) { return nodeCounts[block]; }
+
+        /**
+         *@Desc 把第block个块映射到内存中并校验，可以在多个线程中同时调用
+         */
+        ByteBuffer block(int block) throws IOException {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offsets[block], lengths[block]);
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.duplicate());
+            if((int) crc.getValue() != crcs[block])
+                throw new IOException("Corrupted block " + block + " in BTree snapshot: " + path);
+            return buffer;
+        }
+
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private ByteBuffer read(long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while(buffer.hasRemaining()) {
+                if(channel.read(buffer, position + buffer.position()) < 0)
+                    throw new IOException("Truncated BTree snapshot: " + path);
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+}
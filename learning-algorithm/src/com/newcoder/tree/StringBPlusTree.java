@@ -0,0 +1,616 @@
+package com.newcoder.tree;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * 键为String的B+树，接口和结构同{@link BPlusTree}，节点中的键做了前缀压缩，适合URL、路径这样共享长前缀的键。
+ *
+ * 与BPlusTree<String, V>的区别：
+ * 	1.  键编码为字节序列：每个UTF-16字符按UTF-8的规则编码为1~3个字节（即CESU-8），
+ * 	    按无符号字节比较的顺序与String.compareTo相同，ASCII字符只占1个字节
+ * 	2.  每个节点保存一个所有键共有的前缀，每个键只保存去掉前缀之后的后缀（一个byte[]），
+ * 	    前缀在节点中只存一次，一个后缀也比一个String对象小得多
+ * 	3.  节点内查找时，查找键先与节点的前缀比较一次：不以前缀开头时直接落在所有键之前或之后，
+ * 	    否则二分查找的每一步只比较后缀部分（Arrays.compareUnsigned，由JIT向量化）
+ * 	4.  叶节点分裂和借项时，放进父节点的是最短分隔键：右边第一个键中比左边最后一个键多一个字节的前缀，
+ * 	    内节点中的键因此更短，前缀也更长
+ *
+ * 节点的前缀在分裂、合并时重新计算为最长公共前缀；插入不以前缀开头的键时缩短前缀；删除时不变（仍然是公共前缀，只是可能不是最长的）。
+ * 字节数组创建之后不再修改，节点之间可以共享同一个数组。
+ */
+public class StringBPlusTree<V> {
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     *@Desc B+树中的节点，键以prefix + suffixes[i]的形式存放
+     */
+    private static class PrefixNode<V> {
+        /** 节点中所有键共有的前缀 */
+        private byte[] prefix = EMPTY;
+        /** 键去掉prefix之后的后缀，升序存放在[0, size)中；内节点中是分隔键 */
+        private byte[][] suffixes;
+        /** 叶节点中与键一一对应的值 */
+        private V[] values;
+        /** 内节点的子节点，存放在[0, size + 1)中 */
+        private PrefixNode<V>[] children;
+        /** 键的个数 */
+        private int size;
+        /** 是否为叶子节点 */
+        private final boolean leaf;
+        /** 叶节点链表中的后一个、前一个叶节点 */
+        private PrefixNode<V> next;
+        private PrefixNode<V> prev;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public PrefixNode(int t, boolean leaf) {
+            this.leaf = leaf;
+            suffixes = new byte[2*t - 1][];
+            if(leaf)
+                values = (V[]) new Object[2*t - 1];
+            else
+                children = (PrefixNode<V>[]) new PrefixNode[2*t];
+        }
+
+        public boolean isLeaf() { return leaf; }
+        public int size() { return size; }
+        public V valueAt(int index) { return values[index]; }
+        public PrefixNode<V> childAt(int index) { return children[index]; }
+
+        /**
+         *@Desc 第index个键的完整字节序列
+         */
+        public byte[] keyAt(int index) {
+            return concat(prefix, 0, prefix.length, suffixes[index]);
+        }
+
+        /**
+         *@Desc 二分查找完整的键key，返回值的约定同Arrays.binarySearch
+         */
+        public int search(byte[] key) {
+            int p = prefix.length;
+            int mismatch = Arrays.mismatch(prefix, 0, p, key, 0, key.length);
+            if(mismatch >= 0 && mismatch < p) {
+                // key不以前缀开头：比前缀小时在所有键之前，否则在所有键之后
+                if(mismatch == key.length || (key[mismatch] & 0xFF) < (prefix[mismatch] & 0xFF))
+                    return -1;
+                return -(size + 1);
+            }
+            int low = 0;
+            int high = size - 1;
+            while(low <= high) {
+                int mid = (low + high) >>> 1;
+                byte[] suffix = suffixes[mid];
+                int cmp = Arrays.compareUnsigned(suffix, 0, suffix.length, key, p, key.length);
+                if(cmp < 0)
+                    low = mid + 1;
+                else if(cmp > 0)
+                    high = mid - 1;
+                else
+                    return mid;
+            }
+            return -(low + 1);
+        }
+
+        /**
+         *@Desc 完整的键key与第index个键比较
+         */
+        public int compare(byte[] key, int index) {
+            int p = prefix.length;
+            int n = Math.min(p, key.length);
+            int cmp = Arrays.compareUnsigned(key, 0, n, prefix, 0, n);
+            if(cmp != 0)
+                return cmp;
+            if(key.length < p)
+                return -1;
+            byte[] suffix = suffixes[index];
+            return Arrays.compareUnsigned(key, p, key.length, suffix, 0, suffix.length);
+        }
+
+        /**
+         *@Desc 在index处插入完整的键key（叶节点同时插入值），[index, size)整体右移
+         */
+        public void insertKey(int index, byte[] key, V value) {
+            if(size == 0)
+                prefix = key;
+            else
+                keepPrefixOf(key);
+            System.arraycopy(suffixes, index, suffixes, index + 1, size - index);
+            suffixes[index] = Arrays.copyOfRange(key, prefix.length, key.length);
+            if(leaf) {
+                System.arraycopy(values, index, values, index + 1, size - index);
+                values[index] = value;
+            }
+            ++ size;
+        }
+
+        /**
+         *@Desc 把第index个键替换为完整的键key
+         */
+        public void setKey(int index, byte[] key) {
+            keepPrefixOf(key);
+            suffixes[index] = Arrays.copyOfRange(key, prefix.length, key.length);
+        }
+
+        /**
+         *@Desc 删除index处的键（叶节点同时删除值）
+         */
+        public void removeKey(int index) {
+            System.arraycopy(suffixes, index + 1, suffixes, index, size - index - 1);
+            suffixes[size - 1] = null;
+            if(leaf) {
+                System.arraycopy(values, index + 1, values, index, size - index - 1);
+                values[size - 1] = null;
+            }
+            -- size;
+        }
+
+        /**
+         *@Desc 在index处插入子节点，childCount为插入前的子节点个数
+         */
+        public void insertChild(int index, PrefixNode<V> child, int childCount) {
+            System.arraycopy(children, index, children, index + 1, childCount - index);
+            children[index] = child;
+        }
+
+        /**
+         *@Desc 删除index处的子节点，childCount为删除前的子节点个数
+         */
+        public void removeChild(int index, int childCount) {
+            System.arraycopy(children, index + 1, children, index, childCount - index - 1);
+            children[childCount - 1] = null;
+        }
+
+        /**
+         *@Desc 把src中从from开始的count个键（以及值或子节点）追加到末尾；内节点追加count + 1个子节点。
+         *	两个节点的前缀不同时，先把本节点的前缀缩短为两者的公共部分，src的后缀再补上多出的前缀字节
+         */
+        public void append(PrefixNode<V> src, int from, int count) {
+            if(size == 0)
+                prefix = src.prefix;
+            else
+                keepPrefixOf(src.prefix);
+            int p = prefix.length;
+            for(int i = 0; i < count; ++ i) {
+                byte[] suffix = src.suffixes[from + i];
+                suffixes[size + i] = p == src.prefix.length ? suffix : concat(src.prefix, p, src.prefix.length, suffix);
+            }
+            if(leaf)
+                System.arraycopy(src.values, from, values, size, count);
+            else
+                System.arraycopy(src.children, from, children, size, count + 1);
+            size += count;
+        }
+
+        /**
+         *@Desc 只保留前newSize个键（内节点保留newSize + 1个子节点）
+         */
+        public void truncate(int newSize) {
+            Arrays.fill(suffixes, newSize, size, null);
+            if(leaf)
+                Arrays.fill(values, newSize, size, null);
+            else
+                Arrays.fill(children, newSize + 1, size + 1, null);
+            size = newSize;
+        }
+
+        /**
+         *@Desc 把前缀延长为所有键的最长公共前缀：键是有序的，它就是第一个和最后一个键的公共前缀
+         */
+        public void growPrefix() {
+            if(size == 0)
+                return;
+            byte[] first = suffixes[0];
+            int extra = Arrays.mismatch(first, suffixes[size - 1]);
+            if(extra < 0)
+                extra = first.length;
+            if(extra == 0)
+                return;
+            prefix = concat(prefix, 0, prefix.length, Arrays.copyOf(first, extra));
+            for(int i = 0; i < size; ++ i)
+                suffixes[i] = Arrays.copyOfRange(suffixes[i], extra, suffixes[i].length);
+        }
+
+        /**
+         *@Desc 必要时缩短前缀，使key也以它开头，被去掉的前缀字节补到每个后缀的前面
+         */
+        private void keepPrefixOf(byte[] key) {
+            int p = prefix.length;
+            int mismatch = Arrays.mismatch(prefix, 0, p, key, 0, Math.min(p, key.length));
+            if(mismatch < 0)
+                return;
+            for(int i = 0; i < size; ++ i)
+                suffixes[i] = concat(prefix, mismatch, p, suffixes[i]);
+            prefix = Arrays.copyOf(prefix, mismatch);
+        }
+    }
+
+    private static final int DEFAULT_T = 32;
+
+    /** B+树的根节点 */
+    private PrefixNode<V> root;
+    /** 每个非根节点的键数n满足(t - 1) <= n <= (2t - 1) */
+    private final int t;
+    /** 非根节点中最大的键数 */
+    private final int maxKeySize;
+    /** 键值对的个数 */
+    private int size;
+    /** 结构性修改的次数，用于让迭代器快速失败 */
+    private int modCount;
+
+    /**
+     *@Desc 前缀压缩在大节点中才有效果，默认的t比BPlusTree大
+     */
+    public StringBPlusTree() {
+        this(DEFAULT_T);
+    }
+
+    public StringBPlusTree(int t) {
+        if(t < 2)
+            throw new IllegalArgumentException("The minimum degree t must be at least 2: " + t);
+        this.t = t;
+        maxKeySize = 2*t - 1;
+        root = new PrefixNode<V>(t, true);
+    }
+
+    /**
+     *@Desc a[from, to)与b拼接成一个新数组
+     */
+    private static byte[] concat(byte[] a, int from, int to, byte[] b) {
+        byte[] result = new byte[to - from + b.length];
+        System.arraycopy(a, from, result, 0, to - from);
+        System.arraycopy(b, 0, result, to - from, b.length);
+        return result;
+    }
+
+    /**
+     *@Desc 把键编码为字节序列：每个char按UTF-8的规则编码为1~3个字节，代理对的两半分别编码，
+     *	因此无符号字节序与String.compareTo的字符序相同
+     */
+    static byte[] encode(String key) {
+        int length = key.length();
+        int encodedLength = length;
+        for(int i = 0; i < length; ++ i) {
+            char c = key.charAt(i);
+            if(c >= 0x80)
+                encodedLength += c < 0x800 ? 1 : 2;
+        }
+        byte[] bytes = new byte[encodedLength];
+        int position = 0;
+        for(int i = 0; i < length; ++ i) {
+            char c = key.charAt(i);
+            if(c < 0x80) {
+                bytes[position++] = (byte) c;
+            } else if(c < 0x800) {
+                bytes[position++] = (byte) (0xC0 | (c >> 6));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                bytes[position++] = (byte) (0xE0 | (c >> 12));
+                bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     *@Desc encode的逆过程
+     */
+    static String decode(byte[] bytes) {
+        char[] chars = new char[bytes.length];
+        int length = 0;
+        for(int i = 0; i < bytes.length; ) {
+            int b = bytes[i++] & 0xFF;
+            if(b < 0x80)
+                chars[length++] = (char) b;
+            else if(b < 0xE0)
+                chars[length++] = (char) (((b & 0x1F) << 6) | (bytes[i++] & 0x3F));
+            else
+                chars[length++] = (char) (((b & 0x0F) << 12) | ((bytes[i++] & 0x3F) << 6) | (bytes[i++] & 0x3F));
+        }
+        return new String(chars, 0, length);
+    }
+
+    /**
+     *@Desc 最短分隔键s：left < s <= right。即right中比left与right的公共前缀多一个字节的前缀
+     */
+    private static byte[] shortestSeparator(byte[] left, byte[] right) {
+        int mismatch = Arrays.mismatch(left, right);
+        assert mismatch >= 0 && mismatch < right.length;
+        return Arrays.copyOf(right, mismatch + 1);
+    }
+
+    /**
+     *@Desc 内节点中key所在子树的索引：等于分隔键时属于右边的子树
+     */
+    private int childIndex(PrefixNode<V> node, byte[] key) {
+        int index = node.search(key);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     *@Desc 从根节点下降到key所在的叶节点
+     */
+    private PrefixNode<V> findLeaf(byte[] key) {
+        PrefixNode<V> node = root;
+        while(!node.isLeaf())
+            node = node.childAt(childIndex(node, key));
+        return node;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     *@Desc 搜索给定的键，不存在时返回null
+     */
+    public V search(String key) {
+        byte[] bytes = encode(key);
+        PrefixNode<V> leaf = findLeaf(bytes);
+        int index = leaf.search(bytes);
+        return index >= 0 ? leaf.valueAt(index) : null;
+    }
+
+    /**
+     *@Desc 在B+树中插入给定的键值对，键已存在时返回false
+     */
+    public boolean insert(String key, V value) {
+        byte[] bytes = encode(key);
+        PrefixNode<V> leaf = descendForInsert(bytes);
+        int index = leaf.search(bytes);
+        if(index >= 0)
+            return false;
+        leaf.insertKey(-index - 1, bytes, value);
+        ++ size;
+        ++ modCount;
+        return true;
+    }
+
+    /**
+     *@Desc 如果B+树中存在给定的键，则更新值并返回旧值，否则插入并返回null
+     */
+    public V put(String key, V value) {
+        byte[] bytes = encode(key);
+        PrefixNode<V> leaf = descendForInsert(bytes);
+        int index = leaf.search(bytes);
+        if(index >= 0) {
+            V oldValue = leaf.valueAt(index);
+            leaf.values[index] = value;
+            return oldValue;
+        }
+        leaf.insertKey(-index - 1, bytes, value);
+        ++ size;
+        ++ modCount;
+        return null;
+    }
+
+    /**
+     *@Desc 从根节点下降到key应在的叶节点，沿途先分裂满节点，保证返回的叶节点未满
+     */
+    private PrefixNode<V> descendForInsert(byte[] key) {
+        if(root.size() == maxKeySize) { // 如果根节点满了，则B+树长高
+            PrefixNode<V> newRoot = new PrefixNode<V>(t, false);
+            newRoot.children[0] = root;
+            splitNode(newRoot, root, 0);
+            root = newRoot;
+        }
+        PrefixNode<V> node = root;
+        while(!node.isLeaf()) {
+            int index = childIndex(node, key);
+            PrefixNode<V> childNode = node.childAt(index);
+            if(childNode.size() == maxKeySize) {
+                splitNode(node, childNode, index);
+                // 分裂后的分隔键是右半部分的下界
+                if(node.compare(key, index) >= 0)
+                    childNode = node.childAt(index + 1);
+            }
+            node = childNode;
+        }
+        return node;
+    }
+
+    /**
+     *@Desc 分裂一个满子节点<code>childNode</code>，新节点作为第index + 1个子节点插入父节点。
+     *	叶节点：[0, t-1)留在原节点，[t-1, 2t-1)移到新节点，两半之间的最短分隔键放进父节点，并把新节点接入叶节点链表
+     *	内节点：同BPlusTree，中间键(t-1)上升到父节点，它右边的键和子节点移到新节点
+     *	分裂后两个节点的键更集中，分别重新计算前缀
+     */
+    private void splitNode(PrefixNode<V> parentNode, PrefixNode<V> childNode, int index) {
+        assert childNode.size() == maxKeySize;
+        ++ modCount;
+
+        PrefixNode<V> siblingNode = new PrefixNode<V>(t, childNode.isLeaf());
+        byte[] separator;
+        if(childNode.isLeaf()) {
+            siblingNode.append(childNode, t - 1, t);
+            childNode.truncate(t - 1);
+            separator = shortestSeparator(childNode.keyAt(t - 2), siblingNode.keyAt(0));
+            siblingNode.next = childNode.next;
+            siblingNode.prev = childNode;
+            if(childNode.next != null)
+                childNode.next.prev = siblingNode;
+            childNode.next = siblingNode;
+        } else {
+            separator = childNode.keyAt(t - 1);
+            siblingNode.append(childNode, t, t - 1);
+            childNode.truncate(t - 1);
+        }
+        childNode.growPrefix();
+        siblingNode.growPrefix();
+        parentNode.insertChild(index + 1, siblingNode, parentNode.size() + 1);
+        parentNode.insertKey(index, separator, null);
+    }
+
+    /**
+     *@Desc 从B+树中删除给定的键，返回被删除的值，不存在时返回null
+     */
+    public V delete(String key) {
+        ++ modCount;
+        byte[] bytes = encode(key);
+        PrefixNode<V> node = root;
+        while(!node.isLeaf()) {
+            int index = childIndex(node, bytes);
+            PrefixNode<V> childNode = node.childAt(index);
+            if(childNode.size() < t)
+                childNode = fillChild(node, index);
+            // 如果node是root并且在合并后不包含任何键了，则B+树变矮
+            if(node == root && node.size() == 0)
+                root = childNode;
+            node = childNode;
+        }
+        int index = node.search(bytes);
+        if(index < 0)
+            return null;
+        V value = node.valueAt(index);
+        node.removeKey(index);
+        -- size;
+        return value;
+    }
+
+    /**
+     *@Desc 第index个子节点只有t-1个键：从兄弟借一个，或者与兄弟合并，返回key所在的子节点。
+     *	叶节点借项后父节点中的分隔键重新取最短分隔键
+     */
+    private PrefixNode<V> fillChild(PrefixNode<V> node, int index) {
+        PrefixNode<V> childNode = node.childAt(index);
+        if(index > 0 && node.childAt(index - 1).size() >= t) {
+            // 从左兄弟借最后一个
+            PrefixNode<V> siblingNode = node.childAt(index - 1);
+            int last = siblingNode.size() - 1;
+            if(childNode.isLeaf()) {
+                childNode.insertKey(0, siblingNode.keyAt(last), siblingNode.valueAt(last));
+                siblingNode.removeKey(last);
+                node.setKey(index - 1, shortestSeparator(siblingNode.keyAt(last - 1), childNode.keyAt(0)));
+            } else {
+                childNode.insertChild(0, siblingNode.childAt(last + 1), childNode.size() + 1);
+                childNode.insertKey(0, node.keyAt(index - 1), null);
+                node.setKey(index - 1, siblingNode.keyAt(last));
+                siblingNode.children[last + 1] = null;
+                siblingNode.removeKey(last);
+            }
+            return childNode;
+        }
+        if(index < node.size() && node.childAt(index + 1).size() >= t) {
+            // 从右兄弟借第一个
+            PrefixNode<V> siblingNode = node.childAt(index + 1);
+            if(childNode.isLeaf()) {
+                childNode.insertKey(childNode.size(), siblingNode.keyAt(0), siblingNode.valueAt(0));
+                siblingNode.removeKey(0);
+                node.setKey(index, shortestSeparator(childNode.keyAt(childNode.size() - 1), siblingNode.keyAt(0)));
+            } else {
+                childNode.insertKey(childNode.size(), node.keyAt(index), null);
+                childNode.children[childNode.size()] = siblingNode.childAt(0);
+                node.setKey(index, siblingNode.keyAt(0));
+                siblingNode.removeChild(0, siblingNode.size() + 1);
+                siblingNode.removeKey(0);
+            }
+            return childNode;
+        }
+        // 左右兄弟都只有t-1个键，与其中一个合并
+        if(index < node.size()) {
+            mergeChildren(node, index);
+            return childNode;
+        }
+        mergeChildren(node, index - 1);
+        return node.childAt(index - 1);
+    }
+
+    /**
+     *@Desc 把第index + 1个子节点并入第index个子节点，删除两者之间的分隔键
+     */
+    private void mergeChildren(PrefixNode<V> node, int index) {
+        PrefixNode<V> leftNode = node.childAt(index);
+        PrefixNode<V> rightNode = node.childAt(index + 1);
+        if(leftNode.isLeaf()) {
+            leftNode.append(rightNode, 0, rightNode.size());
+            leftNode.next = rightNode.next;
+            if(rightNode.next != null)
+                rightNode.next.prev = leftNode;
+        } else {
+            // 内节点合并时分隔键下降为中间的键，右节点的子节点接在其后
+            leftNode.insertKey(leftNode.size(), node.keyAt(index), null);
+            leftNode.append(rightNode, 0, rightNode.size());
+        }
+        leftNode.growPrefix();
+        node.removeChild(index + 1, node.size() + 1);
+        node.removeKey(index);
+    }
+
+    /**
+     *@Desc 按键升序遍历[from, to]范围内的键值对（端点为null表示不设界）。
+     *	只下降一次找到起始的叶节点，之后沿叶节点链表顺序前进。
+     */
+    public Iterator<Map.Entry<String, V>> range(String from, boolean fromInclusive, String to, boolean toInclusive) {
+        return new RangeIterator(from, fromInclusive, to, toInclusive);
+    }
+
+    /**
+     *@Desc range()返回的迭代器
+     */
+    private class RangeIterator implements Iterator<Map.Entry<String, V>> {
+        private PrefixNode<V> leaf;
+        private int index;
+        private final byte[] to;
+        private final boolean toInclusive;
+        private final int expectedModCount = modCount;
+
+        RangeIterator(String from, boolean fromInclusive, String to, boolean toInclusive) {
+            this.to = to == null ? null : encode(to);
+            this.toInclusive = toInclusive;
+            if(from == null) {
+                leaf = root;
+                while(!leaf.isLeaf())
+                    leaf = leaf.childAt(0);
+                index = 0;
+            } else {
+                byte[] bytes = encode(from);
+                leaf = findLeaf(bytes);
+                index = leaf.search(bytes);
+                if(index < 0)
+                    index = -index - 1;
+                else if(!fromInclusive)
+                    ++ index;
+            }
+            skipExhaustedLeaves();
+        }
+
+        /**
+         *@Desc 当前叶节点走完之后，沿链表跳到下一个非空的叶节点
+         */
+        private void skipExhaustedLeaves() {
+            while(leaf != null && index >= leaf.size()) {
+                leaf = leaf.next;
+                index = 0;
+            }
+        }
+
+        public boolean hasNext() {
+            if(modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if(leaf == null)
+                return false;
+            if(to == null)
+                return true;
+            int cmp = leaf.compare(to, index);
+            return cmp > 0 || (cmp == 0 && toInclusive);
+        }
+
+        public Map.Entry<String, V> next() {
+            if(!hasNext())
+                throw new NoSuchElementException();
+            Map.Entry<String, V> entry = new AbstractMap.SimpleImmutableEntry<String, V>(decode(leaf.keyAt(index)), leaf.valueAt(index));
+            ++ index;
+            skipExhaustedLeaves();
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.newcoder.tree;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * W-TinyLFU策略的定容缓存，供{@link CachedBTree}缓存热点键的值。
+ *
+ * 	1.  缓存分成窗口（约1%的容量，LRU）和主区（SLRU：试用段和保护段，保护段占主区的80%）。
+ * 	    新的项先进入窗口；从窗口挤出的项想进入已满的主区时，与试用段中最久没有访问的项比较访问频率，
+ * 	    频率更高的留下。只访问一次的键（顺序扫描、冷门的键）因此很难把热点键挤出去，窗口又让刚出现的热点有机会积累频率
+ * 	2.  访问频率由Count-Min Sketch估计：4行4位的计数器，每个键取4个计数器中的最小值。
+ * 	    计数器的总增加次数达到容量的10倍时全部减半，旧的热点随时间衰减
+ * 	3.  查找直接读ConcurrentHashMap，不加锁；调整LRU顺序和频率计数需要锁，拿不到锁时就放弃这一次调整（近似的LRU，
+ * 	    与Caffeine丢弃读缓冲区的做法相同），查找不会因为锁而阻塞。加入（offer）也只尝试获取锁，拿不到时放弃加入，
+ * 	    下一次未命中时再加入；失效必须生效，在锁下进行
+ *
+ * 项的值创建之后不再修改，更新值要先invalidate再put。值不能是null。
+ */
+final class TinyLfuCache<K, V> {
+    /**
+     *@Desc 缓存的项，同时是所在队列的双向链表节点
+     */
+    private static final class Node<K, V> {
+        final K key;
+        final V value;
+        /** 所在的队列，REMOVED表示已经移出缓存；在锁下读写 */
+        int queue;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     *@Desc 4位计数器的Count-Min Sketch，一个long装16个计数器，4行共用一个数组
+     */
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {0x97cb3127L, 0xc2b2ae3d27d4eb4fL, 0x165667b19e3779f9L, 0x9e3779b97f4a7c15L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int capacity) {
+            int length = 16;
+            while(length < capacity)
+                length <<= 1;
+            table = new long[length];
+            mask = length - 1;
+            sampleSize = 10 * length;
+        }
+
+        int frequency(Object key) {
+            long h = key.hashCode();
+            int frequency = 15;
+            for(int i = 0; i < SEEDS.length; ++ i) {
+                long x = BloomFilter.mix(h + SEEDS[i]);
+                int shift = ((int) x & 15) << 2;
+                frequency = Math.min(frequency, (int) (table[(int) (x >>> 32) & mask] >>> shift) & 15);
+            }
+            return frequency;
+        }
+
+        void increment(Object key) {
+            long h = key.hashCode();
+            boolean added = false;
+            for(int i = 0; i < SEEDS.length; ++ i) {
+                long x = BloomFilter.mix(h + SEEDS[i]);
+                int shift = ((int) x & 15) << 2;
+                int index = (int) (x >>> 32) & mask;
+                if(((table[index] >>> shift) & 15) != 15) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if(added && ++ additions >= sampleSize) {
+                for(int i = 0; i < table.length; ++ i)
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                additions >>>= 1;
+            }
+        }
+    }
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    private static final int REMOVED = -1;
+    /** 保护段占主区的比例 */
+    private static final double PROTECTED_RATIO = 0.8;
+
+    private final ConcurrentHashMap<K, Node<K, V>> data;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    /** 各个队列的哨兵节点，head.next是最久没有访问的项，head.prev是最近访问的项 */
+    private final Node<K, V>[] heads;
+    private final int[] sizes = new int[3];
+    private final int windowCapacity;
+    private final int mainCapacity;
+    private final int protectedCapacity;
+    private long evictions;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    TinyLfuCache(int capacity) {
+        if(capacity < 1)
+            throw new IllegalArgumentException("The cache capacity must be at least 1: " + capacity);
+        data = new ConcurrentHashMap<K, Node<K, V>>(capacity * 4 / 3 + 1);
+        sketch = new FrequencySketch(capacity);
+        heads = new Node[3];
+        for(int i = 0; i < heads.length; ++ i) {
+            heads[i] = new Node<K, V>(null, null);
+            heads[i].prev = heads[i].next = heads[i];
+        }
+        windowCapacity = Math.max(1, capacity / 100);
+        mainCapacity = capacity - windowCapacity;
+        protectedCapacity = (int) (mainCapacity * PROTECTED_RATIO);
+    }
+
+    /**
+     *@Desc 缓存的值，没有时返回null；每次查找都计入key的访问频率
+     */
+    V get(K key) {
+        Node<K, V> node = data.get(key);
+        if(lock.tryLock()) {
+            try {
+                sketch.increment(key);
+                if(node != null && node.queue != REMOVED)
+                    onHit(node);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return node == null ? null : node.value;
+    }
+
+    /**
+     *@Desc 尝试加入缓存，不阻塞：锁被其他线程占用时放弃，返回false。
+     *	key已经在缓存中时不做任何事；加入之后可能挤出其他的项，也可能不被接纳
+     */
+    boolean offer(K key, V value) {
+        if(!lock.tryLock())
+            return false;
+        try {
+            if(data.containsKey(key))
+                return true;
+            Node<K, V> node = new Node<K, V>(key, value);
+            data.put(key, node);
+            link(WINDOW, node);
+            evict();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void invalidate(K key) {
+        lock.lock();
+        try {
+            Node<K, V> node = data.remove(key);
+            if(node != null)
+                unlink(node);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void clear() {
+        lock.lock();
+        try {
+            for(int i = 0; i < heads.length; ++ i) {
+                Node<K, V> head = heads[i];
+                for(Node<K, V> node = head.next; node != head; node = node.next)
+                    node.queue = REMOVED;
+                head.prev = head.next = head;
+                sizes[i] = 0;
+            }
+            data.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        return data.size();
+    }
+
+    /**
+     *@Desc 被挤出或没有被接纳的项数
+     */
+    long evictions() {
+        lock.lock();
+        try {
+            return evictions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *@Desc 命中：窗口和保护段中的项移到队尾，试用段中的项升入保护段，保护段满了就把最久没有访问的项降回试用段
+     */
+    private void onHit(Node<K, V> node) {
+        if(node.queue != PROBATION) {
+            int queue = node.queue;
+            unlink(node);
+            link(queue, node);
+            return;
+        }
+        unlink(node);
+        link(PROTECTED, node);
+        if(sizes[PROTECTED] > protectedCapacity) {
+            Node<K, V> demoted = heads[PROTECTED].next;
+            unlink(demoted);
+            link(PROBATION, demoted);
+        }
+    }
+
+    /**
+     *@Desc 窗口超出容量时把最久没有访问的项移向主区：主区没满就直接进入试用段，
+     *	否则与主区中最久没有访问的项比较频率，只有频率更高时才替换它
+     */
+    private void evict() {
+        while(sizes[WINDOW] > windowCapacity) {
+            Node<K, V> candidate = heads[WINDOW].next;
+            unlink(candidate);
+            if(sizes[PROBATION] + sizes[PROTECTED] < mainCapacity) {
+                link(PROBATION, candidate);
+                continue;
+            }
+            ++ evictions;
+            if(mainCapacity == 0) {
+                remove(candidate);
+                continue;
+            }
+            Node<K, V> victim = sizes[PROBATION] > 0 ? heads[PROBATION].next : heads[PROTECTED].next;
+            if(sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                unlink(victim);
+                remove(victim);
+                link(PROBATION, candidate);
+            } else {
+                remove(candidate);
+            }
+        }
+    }
+
+    /**
+     *@Desc 已经从队列中摘下的项移出缓存
+     */
+    private void remove(Node<K, V> node) {
+        data.remove(node.key, node);
+        node.queue = REMOVED;
+    }
+
+    private void link(int queue, Node<K, V> node) {
+        Node<K, V> head = heads[queue];
+        node.queue = queue;
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+        ++ sizes[queue];
+    }
+
+    private void unlink(Node<K, V> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = node.next = null;
+        -- sizes[node.queue];
+        node.queue = REMOVED;
+    }
+}
@@ -0,0 +1,364 @@
+package com.newcoder.tree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * {@link PagedBTree}的预写日志（redo日志）。
+ *
+ * 每次修改操作（insert/put/delete）写一条记录，一条记录就是一个原子的操作：
+ * 分裂、借项、合并涉及的多个页要么全部重做，要么全部没有发生。记录的格式：
+ * 	int length, int crc, 然后是length个字节的内容：
+ * 	long lsn, int rootPage, int pageCount, int freeHead, long entryCount（操作之后的文件头），
+ * 	然后按执行的顺序依次是对页的修改，每个修改以byte type, int pageId开头：
+ * 	FULL   整页的内容（本次检查点之后第一次修改该页之前的内容）
+ * 	ZERO   页被清零（新分配的页）
+ * 	WRITE  int offset, int length, length个字节
+ * 	MOVE   int srcOffset, int dstOffset, int length（页内移动字节，插入、删除项时的整体移动只记这12个字节）
+ *
+ * 每页的第8个字节起记录最后修改它的记录的lsn（pageLsn）。重做一条记录时，页的pageLsn不小于该记录的lsn，
+ * 说明这些修改已经在页中了，跳过；否则按顺序执行。FULL和ZERO不看pageLsn，直接覆盖。
+ * 每页在一个检查点之后第一次被修改时先记下整页，因此即使页在写回数据文件时只写了一半，
+ * 从检查点开始重做也能得到正确的页。这要求页写回数据文件之前，改动它的记录已经落盘：
+ * {@link BufferPool}写回页之前先调用sync()。
+ *
+ * 组提交：记录先放在内存中，每opsPerSync条记录或者距离上次fsync超过maxDelayMillis时才写入文件并fsync，
+ * 多个操作分摊一次fsync。崩溃时会丢失最后一次fsync之后的操作，但不会丢掉一个操作的一部分。
+ * 时间只在提交时检查，需要确定的持久化点时调用PagedBTree.sync()。
+ * 检查点（PagedBTree.flush）把所有的页和文件头写回数据文件之后清空日志，lsn继续递增。
+ * 打开时recover()按顺序重做日志，遇到不完整或校验和不对的记录（崩溃时写了一半的尾部）就停止。
+ */
+class WriteAheadLog implements Closeable {
+    static final byte FULL = 1;
+    static final byte ZERO = 2;
+    static final byte WRITE = 3;
+    static final byte MOVE = 4;
+
+    /** 记录头：length和crc */
+    private static final int RECORD_HEADER_SIZE = 8;
+    /** lsn和文件头字段 */
+    private static final int STATE_SIZE = 28;
+    /** 缓冲的记录超过这个大小时先写入文件（不fsync） */
+    private static final int WRITE_THRESHOLD = 1 << 20;
+
+    private final FileChannel channel;
+    private final CRC32 crc = new CRC32();
+    /** 还没有写入文件的记录 */
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    /** 正在写的记录在buffer中的起始位置，-1表示没有 */
+    private int recordStart = -1;
+    /** 下一条记录的lsn */
+    private long nextLsn = 1;
+    /** 已经写入文件的字节数 */
+    private long fileSize;
+
+    private int opsPerSync = 256;
+    private long maxDelayNanos = 10_000_000L;
+    /** 上次fsync之后提交的记录数，以及上次fsync的时间 */
+    private int unsyncedOps;
+    private long lastSync = System.nanoTime();
+
+    WriteAheadLog(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        fileSize = channel.size();
+    }
+
+    /**
+     *@Desc 设置组提交的策略：每opsPerSync个操作或者每maxDelayMillis毫秒至少fsync一次。opsPerSync为1时每个操作都fsync
+     */
+    void setSyncPolicy(int opsPerSync, long maxDelayMillis) {
+        if(opsPerSync < 1 || maxDelayMillis < 0)
+            throw new IllegalArgumentException("opsPerSync must be positive and maxDelayMillis non-negative: " + opsPerSync + ", " + maxDelayMillis);
+        this.opsPerSync = opsPerSync;
+        this.maxDelayNanos = maxDelayMillis * 1_000_000L;
+    }
+
+    /**
+     *@Desc 日志的大小（包括还在内存中的记录）
+     */
+    long size() {
+        return fileSize + buffer.position();
+    }
+
+    long nextLsn() {
+        return nextLsn;
+    }
+
+    void setNextLsn(long nextLsn) {
+        this.nextLsn = nextLsn;
+    }
+
+    /**
+     *@Desc 当前记录的lsn，还没有开始记录时开始一条新记录
+     */
+    long currentLsn() {
+        if(recordStart < 0) {
+            ensureCapacity(RECORD_HEADER_SIZE + STATE_SIZE);
+            recordStart = buffer.position();
+            buffer.position(recordStart + RECORD_HEADER_SIZE);
+            buffer.putLong(nextLsn);
+            buffer.position(buffer.position() + STATE_SIZE - 8);
+        }
+        return nextLsn;
+    }
+
+    /**
+     *@Desc 记录整页的内容
+     */
+    void logFull(int pageId, ByteBuffer page) {
+        startOp(FULL, pageId, page.capacity());
+        ByteBuffer bytes = page.duplicate();
+        bytes.clear();
+        buffer.put(bytes);
+    }
+
+    /**
+     *@Desc 记录页被清零
+     */
+    void logZero(int pageId) {
+        startOp(ZERO, pageId, 0);
+    }
+
+    /**
+     *@Desc 记录page中[offset, offset + length)的字节（修改之后的内容）
+     */
+    void logWrite(int pageId, ByteBuffer page, int offset, int length) {
+        startOp(WRITE, pageId, 8 + length);
+        buffer.putInt(offset).putInt(length);
+        ByteBuffer bytes = page.duplicate();
+        bytes.limit(offset + length).position(offset);
+        buffer.put(bytes);
+    }
+
+    /**
+     *@Desc 记录页内[srcOffset, srcOffset + length)的字节被移动到dstOffset处
+     */
+    void logMove(int pageId, int srcOffset, int dstOffset, int length) {
+        startOp(MOVE, pageId, 12);
+        buffer.putInt(srcOffset).putInt(dstOffset).putInt(length);
+    }
+
+    /**
+     *@Desc 结束当前的记录，参数是操作之后的文件头；按组提交的策略决定是否fsync
+     */
+    void commit(int rootPage, int pageCount, int freeHead, long entryCount) throws IOException {
+        int payloadStart = recordStart + RECORD_HEADER_SIZE;
+        int length = buffer.position() - payloadStart;
+        buffer.putInt(payloadStart + 8, rootPage);
+        buffer.putInt(payloadStart + 12, pageCount);
+        buffer.putInt(payloadStart + 16, freeHead);
+        buffer.putLong(payloadStart + 20, entryCount);
+        crc.reset();
+        crc.update(buffer.array(), buffer.arrayOffset() + payloadStart, length);
+        buffer.putInt(recordStart, length);
+        buffer.putInt(recordStart + 4, (int) crc.getValue());
+        recordStart = -1;
+        ++ nextLsn;
+
+        ++ unsyncedOps;
+        if(unsyncedOps >= opsPerSync || System.nanoTime() - lastSync >= maxDelayNanos)
+            sync();
+        else if(buffer.position() >= WRITE_THRESHOLD)
+            write();
+    }
+
+    /**
+     *@Desc 放弃正在写的记录
+     */
+    void rollback() {
+        if(recordStart >= 0) {
+            buffer.position(recordStart);
+            recordStart = -1;
+        }
+    }
+
+    /**
+     *@Desc 把已提交的记录写入文件并fsync；正在写的记录留在内存中
+     */
+    void sync() throws IOException {
+        if(unsyncedOps == 0 && committedBytes() == 0)
+            return;
+        write();
+        channel.force(false);
+        unsyncedOps = 0;
+        lastSync = System.nanoTime();
+    }
+
+    /**
+     *@Desc 检查点之后清空日志：所有的修改都已经在数据文件中了
+     */
+    void truncate() throws IOException {
+        assert recordStart < 0;
+        buffer.clear();
+        channel.truncate(0);
+        channel.force(false);
+        fileSize = 0;
+        unsyncedOps = 0;
+    }
+
+    /**
+     *@Desc 按顺序把日志中完整的记录重做到pageFile中，返回重做的记录数；之后的lsn接着最后一条记录递增
+     */
+    int recover(PageFile pageFile) throws IOException {
+        int pageSize = pageFile.pageSize();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        long position = 0;
+        int records = 0;
+        while(true) {
+            header.clear();
+            if(!readFully(header, position))
+                break;
+            int length = header.getInt(0);
+            if(length < STATE_SIZE || position + RECORD_HEADER_SIZE + length > fileSize)
+                break;
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            if(!readFully(payload, position + RECORD_HEADER_SIZE))
+                break;
+            crc.reset();
+            crc.update(payload.array(), 0, length);
+            if((int) crc.getValue() != header.getInt(4))
+                break;
+
+            payload.flip();
+            long lsn = payload.getLong();
+            pageFile.setRootPage(payload.getInt());
+            pageFile.setPageCount(payload.getInt());
+            pageFile.setFreeHead(payload.getInt());
+            pageFile.setEntryCount(payload.getLong());
+            redo(pageFile, payload, lsn, pageSize);
+            nextLsn = Math.max(nextLsn, lsn + 1);
+            position += RECORD_HEADER_SIZE + length;
+            ++ records;
+        }
+        return records;
+    }
+
+    /**
+     *@Desc 重做一条记录中对页的修改：每页第一次出现时决定是否需要重做，最后写回并把pageLsn设为lsn
+     */
+    private void redo(PageFile pageFile, ByteBuffer payload, long lsn, int pageSize) throws IOException {
+        Map<Integer, ByteBuffer> pages = new HashMap<Integer, ByteBuffer>();
+        Set<Integer> skipped = new HashSet<Integer>();
+        while(payload.hasRemaining()) {
+            byte type = payload.get();
+            int pageId = payload.getInt();
+            ByteBuffer page = pages.get(pageId);
+            if(page == null && !skipped.contains(pageId)) {
+                page = ByteBuffer.allocate(pageSize);
+                if(type != FULL && type != ZERO) {
+                    pageFile.readPage(pageId, page);
+                    if(PagedBTree.pageLsn(page) >= lsn) {
+                        skipped.add(pageId);
+                        page = null;
+                    }
+                }
+                if(page != null)
+                    pages.put(pageId, page);
+            }
+            switch(type) {
+            case FULL:
+                if(page != null)
+                    payload.get(page.array(), page.arrayOffset(), pageSize);
+                else
+                    payload.position(payload.position() + pageSize);
+                break;
+            case ZERO:
+                if(page != null)
+                    BufferPool.zero(page);
+                break;
+            case WRITE: {
+                int offset = payload.getInt();
+                int length = payload.getInt();
+                if(page != null)
+                    payload.get(page.array(), page.arrayOffset() + offset, length);
+                else
+                    payload.position(payload.position() + length);
+                break;
+            }
+            case MOVE: {
+                int srcOffset = payload.getInt();
+                int dstOffset = payload.getInt();
+                int length = payload.getInt();
+                if(page != null)
+                    System.arraycopy(page.array(), page.arrayOffset() + srcOffset, page.array(), page.arrayOffset() + dstOffset, length);
+                break;
+            }
+            default:
+                throw new IOException("Corrupted log record " + lsn + ": unknown type " + type);
+            }
+        }
+        for(Map.Entry<Integer, ByteBuffer> entry : pages.entrySet()) {
+            PagedBTree.setPageLsn(entry.getValue(), lsn);
+            pageFile.writePage(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(!channel.isOpen())
+            return;
+        try {
+            rollback();
+            sync();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void startOp(byte type, int pageId, int bytes) {
+        currentLsn();
+        ensureCapacity(5 + bytes);
+        buffer.put(type).putInt(pageId);
+    }
+
+    /**
+     *@Desc buffer中已经提交的记录的字节数
+     */
+    private int committedBytes() {
+        return recordStart < 0 ? buffer.position() : recordStart;
+    }
+
+    /**
+     *@Desc 把已经提交的记录写入文件，正在写的记录（如果有）移到buffer的开头
+     */
+    private void write() throws IOException {
+        int committed = committedBytes();
+        ByteBuffer out = buffer.duplicate();
+        out.position(0).limit(committed);
+        while(out.hasRemaining())
+            fileSize += channel.write(out, fileSize);
+        int pending = buffer.position() - committed;
+        System.arraycopy(buffer.array(), buffer.arrayOffset() + committed, buffer.array(), buffer.arrayOffset(), pending);
+        buffer.position(pending);
+        if(recordStart >= 0)
+            recordStart = 0;
+    }
+
+    private void ensureCapacity(int bytes) {
+        if(buffer.remaining() >= bytes)
+            return;
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+    }
+
+    private boolean readFully(ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if(n < 0)
+                return false;
+            position += n;
+        }
+        return true;
+    }
+}
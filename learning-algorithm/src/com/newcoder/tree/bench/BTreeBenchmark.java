@@ -0,0 +1,254 @@
+package com.newcoder.tree.bench;
+
+import com.newcoder.tree.BPlusTree;
+import com.newcoder.tree.BTree;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * {@link BTree}、{@link BPlusTree}的insert/put/search/delete/scan的基准测试，以TreeMap和ConcurrentSkipListMap作为对照。
+ *
+ * 参数都是name=v1,v2,...的形式，每个参数的所有取值做笛卡尔积，默认值见DEFAULTS：
+ * 	impl      BTree, RelaxedBTree（开启宽松删除的BTree）, BPlusTree, TreeMap, ConcurrentSkipListMap（对照组与t无关，只跑一次）
+ * 	t         BTree、BPlusTree的最小度数
+ * 	keys      Integer, Long, String（12位补零的十进制数，字典序与数值序相同）
+ * 	sizes     树中键的个数；10^7以上需要相应地加大-Xmx
+ * 	patterns  sequential, uniform, zipfian，见{@link KeySequence}
+ * 	ops       insert：从空树开始按访问顺序插入size个键；delete：从装有size个键的树中按访问顺序删除size次。
+ * 	          这两种操作的uniform顺序是所有键的随机排列，zipfian顺序中有重复的键（重复插入、删除不存在的键）；
+ * 	          put、search：在装有size个键的树上按访问顺序更新或查找；
+ * 	          churn：在装有size个键的树上按访问顺序删除一个键再把它插入回去，一次删除加一次插入算一个操作；
+ * 	          scan：在装有size个键的树上从访问顺序中的键开始升序遍历scanLength项（不足时到最后一项为止），
+ * 	          吞吐量按扫描的次数计算，每次扫描的项数相同，各实现之间可以直接比较
+ * 	scanLength  scan每次遍历的项数
+ * 	warmup, iterations, millis  预热、测量的迭代次数和每次迭代的最短时间
+ * 例如：java -Xmx8g com.newcoder.tree.bench.BTreeBenchmark t=32,128 keys=Long sizes=10000000 ops=search
+ * 每一行输出吞吐量、延迟的百分位数和每个操作分配的字节数，见{@link BenchmarkHarness}。
+ */
+public class BTreeBenchmark {
+    private static final String[][] DEFAULTS = {
+        {"impl", "BTree,BPlusTree,TreeMap,ConcurrentSkipListMap"},
+        {"t", "2,8,32,128"},
+        {"keys", "Integer,Long,String"},
+        {"sizes", "1000,100000,1000000"},
+        {"patterns", "sequential,uniform,zipfian"},
+        {"ops", "insert,put,search,delete,scan"},
+        {"scanLength", "100"},
+        {"warmup", "2"},
+        {"iterations", "3"},
+        {"millis", "500"},
+    };
+    /** put/search每一轮最多执行的操作数 */
+    private static final int MAX_OPS_PER_ROUND = 1 << 20;
+    private static final Object VALUE = new Object();
+
+    /**
+     *@Desc 键的类型，把[0, n)中的下标变成键，下标的大小顺序就是键的顺序
+     */
+    enum KeyType {
+        INTEGER, LONG, STRING;
+
+        Object key(long index) {
+            switch(this) {
+            case INTEGER: return (int) index;
+            case LONG: return index;
+            default: return String.format("%012d", index);
+            }
+        }
+    }
+
+    /**
+     *@Desc 被测的有序映射，统一成BTree的接口
+     */
+    interface Subject {
+        boolean insert(Object key, Object value);
+        Object put(Object key, Object value);
+        Object search(Object key);
+        Object delete(Object key);
+        /**
+         *@Desc 从from开始升序遍历最多length项，返回遍历的项数
+         */
+        int scan(Object from, int length);
+    }
+
+    static Subject newSubject(String impl, int t) {
+        if(impl.equalsIgnoreCase("BTree") || impl.equalsIgnoreCase("RelaxedBTree")) {
+            final BTree<Object, Object> tree = new BTree<Object, Object>(t);
+            if(impl.equalsIgnoreCase("RelaxedBTree"))
+                tree.setRelaxedDeleteEnabled(true);
+            return new Subject() {
+                public boolean insert(Object key, Object value) { return tree.insert(key, value); }
+                public Object put(Object key, Object value) { return tree.put(key, value); }
+                public Object search(Object key) { return tree.search(key); }
+                public Object delete(Object key) { return tree.delete(key); }
+                public int scan(Object from, int length) { return scanEntries(tree.range(from, true, null, true), length); }
+            };
+        }
+        if(impl.equalsIgnoreCase("BPlusTree")) {
+            final BPlusTree<Object, Object> tree = new BPlusTree<Object, Object>(t);
+            return new Subject() {
+                public boolean insert(Object key, Object value) { return tree.insert(key, value); }
+                public Object put(Object key, Object value) { return tree.put(key, value); }
+                public Object search(Object key) { return tree.search(key); }
+                public Object delete(Object key) { return tree.delete(key); }
+                public int scan(Object from, int length) { return scanEntries(tree.range(from, true, null, true), length); }
+            };
+        }
+        final NavigableMap<Object, Object> map;
+        if(impl.equalsIgnoreCase("TreeMap"))
+            map = new TreeMap<Object, Object>();
+        else if(impl.equalsIgnoreCase("ConcurrentSkipListMap"))
+            map = new ConcurrentSkipListMap<Object, Object>();
+        else
+            throw new IllegalArgumentException("Unknown impl: " + impl);
+        return new Subject() {
+            public boolean insert(Object key, Object value) { return map.putIfAbsent(key, value) == null; }
+            public Object put(Object key, Object value) { return map.put(key, value); }
+            public Object search(Object key) { return map.get(key); }
+            public Object delete(Object key) { return map.remove(key); }
+            public int scan(Object from, int length) { return scanEntries(map.tailMap(from, true).entrySet().iterator(), length); }
+        };
+    }
+
+    /**
+     *@Desc 从迭代器中取最多length项
+     */
+    private static int scanEntries(Iterator<? extends Map.Entry<Object, Object>> entries, int length) {
+        int count = 0;
+        while(count < length && entries.hasNext()) {
+            BenchmarkHarness.consume(entries.next());
+            ++ count;
+        }
+        return count;
+    }
+
+    /**
+     *@Desc 使用最小度数t的实现
+     */
+    private static boolean usesDegree(String impl) {
+        return impl.toUpperCase(Locale.ROOT).endsWith("BTREE") || impl.equalsIgnoreCase("BPlusTree");
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> params = BenchmarkHarness.parseArgs(args, DEFAULTS);
+        BenchmarkHarness harness = new BenchmarkHarness(Integer.parseInt(params.get("warmup")),
+                Integer.parseInt(params.get("iterations")), Long.parseLong(params.get("millis")));
+        int scanLength = Integer.parseInt(params.get("scanLength"));
+        System.out.printf("%-22s %4s %-8s %10s %-11s %-7s %s%n", "impl", "t", "key", "size", "pattern", "op", "result");
+        for(String keys : BenchmarkHarness.list(params, "keys")) {
+            KeyType keyType = KeyType.valueOf(keys.toUpperCase(Locale.ROOT));
+            for(String sizes : BenchmarkHarness.list(params, "sizes")) {
+                int size = Integer.parseInt(sizes);
+                for(String patterns : BenchmarkHarness.list(params, "patterns")) {
+                    KeySequence pattern = KeySequence.valueOf(patterns.toUpperCase(Locale.ROOT));
+                    for(String op : BenchmarkHarness.list(params, "ops")) {
+                        Object[] order = order(op, keyType, size, pattern);
+                        for(String impl : BenchmarkHarness.list(params, "impl")) {
+                            List<String> ts = usesDegree(impl) ? BenchmarkHarness.list(params, "t") : Arrays.asList("-");
+                            for(String t : ts) {
+                                BenchmarkHarness.Result result = harness.measure(workload(op, impl, t.equals("-") ? 0 : Integer.parseInt(t), keyType, size, order, scanLength));
+                                System.out.printf("%-22s %4s %-8s %10d %-11s %-7s %s%n", impl, t, keys, size, patterns, op, result);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     *@Desc 操作访问键的顺序：insert和delete访问size个键，put、search、churn和scan访问MAX_OPS_PER_ROUND个以内
+     */
+    private static Object[] order(String op, KeyType keyType, int size, KeySequence pattern) {
+        boolean population = op.equals("insert") || op.equals("delete");
+        int length = population ? size : Math.min(MAX_OPS_PER_ROUND, Math.max(size, 1000));
+        Object[] order = new Object[length];
+        if(population && pattern == KeySequence.UNIFORM) {
+            int[] permutation = permutation(size, 1);
+            for(int i = 0; i < length; ++ i)
+                order[i] = keyType.key(permutation[i]);
+        } else {
+            KeySequence.Generator generator = pattern.generator(size, 1);
+            for(int i = 0; i < length; ++ i)
+                order[i] = keyType.key(generator.next());
+        }
+        return order;
+    }
+
+    private static BenchmarkHarness.Workload workload(final String op, final String impl, final int t,
+            final KeyType keyType, final int size, final Object[] order, final int scanLength) {
+        return new BenchmarkHarness.Workload() {
+            private Subject subject;
+
+            public int setUp() {
+                // insert每一轮从空树开始，delete每一轮重新装满；put、search、churn和scan只在第一次装满
+                if(op.equals("insert")) {
+                    subject = newSubject(impl, t);
+                } else if(subject == null || op.equals("delete")) {
+                    subject = newSubject(impl, t);
+                    for(int index : permutation(size, 2))
+                        subject.put(keyType.key(index), VALUE);
+                }
+                return order.length;
+            }
+
+            public void run(int from, int to) {
+                switch(op) {
+                case "insert":
+                    for(int i = from; i < to; ++ i)
+                        BenchmarkHarness.consume(subject.insert(order[i], VALUE));
+                    break;
+                case "put":
+                    for(int i = from; i < to; ++ i)
+                        BenchmarkHarness.consume(subject.put(order[i], VALUE));
+                    break;
+                case "search":
+                    for(int i = from; i < to; ++ i)
+                        BenchmarkHarness.consume(subject.search(order[i]));
+                    break;
+                case "delete":
+                    for(int i = from; i < to; ++ i)
+                        BenchmarkHarness.consume(subject.delete(order[i]));
+                    break;
+                case "churn":
+                    for(int i = from; i < to; ++ i) {
+                        BenchmarkHarness.consume(subject.delete(order[i]));
+                        BenchmarkHarness.consume(subject.insert(order[i], VALUE));
+                    }
+                    break;
+                case "scan":
+                    for(int i = from; i < to; ++ i)
+                        BenchmarkHarness.consume(subject.scan(order[i], scanLength) > 0);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown op: " + op);
+                }
+            }
+        };
+    }
+
+    /**
+     *@Desc [0, n)的随机排列
+     */
+    static int[] permutation(int n, long seed) {
+        int[] permutation = new int[n];
+        for(int i = 0; i < n; ++ i)
+            permutation[i] = i;
+        Random random = new Random(seed);
+        for(int i = n - 1; i > 0; -- i) {
+            int j = random.nextInt(i + 1);
+            int swap = permutation[i];
+            permutation[i] = permutation[j];
+            permutation[j] = swap;
+        }
+        return permutation;
+    }
+}
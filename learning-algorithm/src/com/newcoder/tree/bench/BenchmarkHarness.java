@@ -0,0 +1,177 @@
+package com.newcoder.tree.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一个不依赖外部库的小型基准测试框架，按JMH的做法组织一次测量：
+ * 	预热warmupIterations次，再测量measureIterations次，每次迭代至少运行iterationMillis毫秒，
+ * 	每次迭代由若干轮组成：setUp()准备数据（不计时），run()执行操作（计时）；
+ * 	吞吐量是所有测量迭代的操作数除以计时部分的总时间；
+ * 	延迟在测量之后单独跑一轮，逐个操作计时（包含约20ns的计时开销），取百分位数；
+ * 	分配量由ThreadMXBean按线程统计计时部分分配的字节数，相当于JMH -prof gc的gc.alloc.rate.norm。
+ * 操作的结果交给consume()，防止JIT把没有使用结果的操作消除掉。
+ */
+public final class BenchmarkHarness {
+    /**
+     *@Desc 一个被测量的负载
+     */
+    public interface Workload {
+        /**
+         *@Desc 准备一轮操作（不计时），返回这一轮的操作数
+         */
+        int setUp();
+
+        /**
+         *@Desc 执行这一轮中的第[from, to)个操作
+         */
+        void run(int from, int to);
+    }
+
+    /**
+     *@Desc 一次测量的结果
+     */
+    public static final class Result {
+        public final double opsPerSecond;
+        /** 延迟的百分位数，单位纳秒：p50、p90、p99、p99.9、最大值 */
+        public final long p50, p90, p99, p999, max;
+        /** 每个操作分配的字节数，不支持按线程统计分配时为-1 */
+        public final double bytesPerOp;
+
+        Result(double opsPerSecond, long[] latencies, int count, double bytesPerOp) {
+            this.opsPerSecond = opsPerSecond;
+            Arrays.sort(latencies, 0, count);
+            p50 = percentile(latencies, count, 0.5);
+            p90 = percentile(latencies, count, 0.9);
+            p99 = percentile(latencies, count, 0.99);
+            p999 = percentile(latencies, count, 0.999);
+            max = count == 0 ? 0 : latencies[count - 1];
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        private static long percentile(long[] sorted, int count, double p) {
+            return count == 0 ? 0 : sorted[Math.min(count - 1, (int) (count * p))];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%12.0f ops/s  p50 %6d  p90 %6d  p99 %7d  p99.9 %8d  max %9d ns  %8.1f B/op",
+                    opsPerSecond, p50, p90, p99, p999, max, bytesPerOp);
+        }
+    }
+
+    /** 延迟最多采样的操作数 */
+    private static final int MAX_LATENCY_SAMPLES = 1 << 20;
+
+    private static volatile Object blackhole = new Object();
+    private static long consumed;
+
+    private final int warmupIterations;
+    private final int measureIterations;
+    private final long iterationNanos;
+
+    public BenchmarkHarness(int warmupIterations, int measureIterations, long iterationMillis) {
+        this.warmupIterations = warmupIterations;
+        this.measureIterations = measureIterations;
+        this.iterationNanos = iterationMillis * 1_000_000L;
+    }
+
+    /**
+     *@Desc 使用一个操作的结果
+     */
+    public static void consume(Object result) {
+        if(result == blackhole)
+            ++ consumed;
+    }
+
+    public static void consume(boolean result) {
+        if(result && blackhole == null)
+            ++ consumed;
+    }
+
+    public Result measure(Workload workload) {
+        for(int i = 0; i < warmupIterations; ++ i)
+            iteration(workload);
+        long ops = 0;
+        long nanos = 0;
+        long bytes = 0;
+        for(int i = 0; i < measureIterations; ++ i) {
+            long[] iteration = iteration(workload);
+            ops += iteration[0];
+            nanos += iteration[1];
+            bytes += iteration[2];
+        }
+
+        long[] latencies = new long[MAX_LATENCY_SAMPLES];
+        int samples = 0;
+        long deadline = System.nanoTime() + iterationNanos;
+        while(samples < latencies.length && System.nanoTime() < deadline) {
+            int count = workload.setUp();
+            for(int i = 0; i < count && samples < latencies.length; ++ i) {
+                long start = System.nanoTime();
+                workload.run(i, i + 1);
+                latencies[samples++] = System.nanoTime() - start;
+            }
+        }
+        return new Result(ops * 1e9 / nanos, latencies, samples, bytes < 0 ? -1 : (double) bytes / ops);
+    }
+
+    /**
+     *@Desc 一次迭代，返回{操作数, 计时部分的纳秒数, 计时部分分配的字节数（不支持时为负）}
+     */
+    private long[] iteration(Workload workload) {
+        long ops = 0;
+        long nanos = 0;
+        long bytes = 0;
+        while(nanos < iterationNanos) {
+            int count = workload.setUp();
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            workload.run(0, count);
+            nanos += System.nanoTime() - start;
+            bytes += allocatedBytes() - allocated;
+            ops += count;
+        }
+        return new long[] {ops, nanos, allocatedBytes() < 0 ? -1 : bytes};
+    }
+
+    /**
+     *@Desc 当前线程累计分配的字节数，JVM不支持时返回-1
+     */
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if(bean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return -1;
+    }
+
+    /**
+     *@Desc 解析name=v1,v2形式的参数，没有给出的参数取defaults中的默认值
+     */
+    public static Map<String, String> parseArgs(String[] args, String[][] defaults) {
+        Map<String, String> params = new HashMap<String, String>();
+        for(String[] entry : defaults)
+            params.put(entry[0], entry[1]);
+        for(String arg : args) {
+            int eq = arg.indexOf('=');
+            if(eq <= 0 || !params.containsKey(arg.substring(0, eq)))
+                throw new IllegalArgumentException("Expected one of " + params.keySet() + " as name=value: " + arg);
+            params.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        return params;
+    }
+
+    /**
+     *@Desc 逗号分隔的参数值
+     */
+    public static List<String> list(Map<String, String> params, String name) {
+        List<String> values = new ArrayList<String>();
+        for(String value : params.get(name).split(","))
+            values.add(value.trim());
+        return values;
+    }
+}
@@ -0,0 +1,144 @@
+package com.newcoder.tree.bench;
+
+import com.newcoder.tree.BPlusTree;
+import com.newcoder.tree.BufferedBTree;
+
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 写优化的{@link BufferedBTree}与BPlusTree的对比：随机插入的吞吐量和之后查找的代价。
+ *
+ * 每种配置从空树开始插入size个随机的Long键（rounds轮，取最好的一轮），然后用BenchmarkHarness测量随机查找已有键的吞吐量。
+ * BufferedBTree的配置写成fanout:bufferSize，bufferSize为0时就是没有缓冲区的B+树。
+ *
+ * 之后每种BufferedBTree的配置再跑一遍滑动窗口：按升序插入windowOps个键，每插入一个就删除window个之前插入的键，
+ * 输出每秒的写入数（插入加删除）和节点数。节点数在后一半的写入中超过前一半结束时的两倍时，说明删空的节点没有被摘掉，以状态1退出。
+ * 参数（name=value）：buffered（默认16:496,8:504,64:448,64:0），t（BPlusTree的t，默认32，为0时不测），
+ * 	size（默认2000000），rounds（默认3），warmup（默认3），iterations（默认5），millis（默认1000），
+ * 	window（默认100000，为0时不测），windowOps（默认4000000）
+ */
+public class BufferedBTreeBenchmark {
+    private static final String[][] DEFAULTS = {
+        {"buffered", "16:496,8:504,64:448,64:0"},
+        {"t", "32"},
+        {"size", "2000000"},
+        {"rounds", "3"},
+        {"warmup", "3"},
+        {"iterations", "5"},
+        {"millis", "1000"},
+        {"window", "100000"},
+        {"windowOps", "4000000"},
+    };
+
+    /**
+     *@Desc 被测的有序映射
+     */
+    interface Subject {
+        void put(Long key, Long value);
+        Object search(Long key);
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> params = BenchmarkHarness.parseArgs(args, DEFAULTS);
+        int size = Integer.parseInt(params.get("size"));
+        int rounds = Integer.parseInt(params.get("rounds"));
+        BenchmarkHarness harness = new BenchmarkHarness(Integer.parseInt(params.get("warmup")),
+                Integer.parseInt(params.get("iterations")), Long.parseLong(params.get("millis")));
+
+        final Long[] keys = new Long[size];
+        Random random = new Random(1);
+        for(int i = 0; i < size; ++ i)
+            keys[i] = random.nextLong();
+
+        System.out.printf("%-24s %14s   %s%n", "impl", "inserts/s", "search");
+        int t = Integer.parseInt(params.get("t"));
+        if(t > 0)
+            run(harness, "BPlusTree t=" + t, keys, rounds, "BPlusTree", t, 0);
+        for(String config : BenchmarkHarness.list(params, "buffered")) {
+            String[] parts = config.split(":");
+            run(harness, "BufferedBTree " + config, keys, rounds, "BufferedBTree", Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+        }
+
+        int window = Integer.parseInt(params.get("window"));
+        int windowOps = Integer.parseInt(params.get("windowOps"));
+        if(window > 0) {
+            System.out.printf("%n%-24s %14s %10s %10s%n", "sliding window " + window, "writes/s", "half nodes", "nodes");
+            for(String config : BenchmarkHarness.list(params, "buffered")) {
+                String[] parts = config.split(":");
+                slide("BufferedBTree " + config, new BufferedBTree<Long, Long>(Integer.parseInt(parts[0]), Integer.parseInt(parts[1])),
+                        window, windowOps);
+            }
+        }
+    }
+
+    /**
+     *@Desc 滑动窗口：按升序插入ops个键，同时删除window个之前的键；后一半中节点数的最大值超过前一半结束时的两倍时以状态1退出
+     */
+    private static void slide(String name, BufferedBTree<Long, Long> tree, int window, int ops) {
+        int halfCount = 0;
+        int maxCount = 0;
+        long start = System.nanoTime();
+        for(int i = 0; i < ops; ++ i) {
+            Long key = (long) i;
+            tree.put(key, key);
+            if(i >= window)
+                tree.delete((long) (i - window));
+            if(i == ops / 2)
+                halfCount = tree.nodeCount();
+            else if(i > ops / 2 && i % window == 0)
+                maxCount = Math.max(maxCount, tree.nodeCount());
+        }
+        long nanos = System.nanoTime() - start;
+        maxCount = Math.max(maxCount, tree.nodeCount());
+        System.out.printf("%-24s %14.0f %10d %10d%n", name, (2L * ops - window) * 1e9 / nanos, halfCount, maxCount);
+        if(maxCount > 2 * halfCount) {
+            System.out.println("FAILED: " + name + " grew from " + halfCount + " to " + maxCount + " nodes with a fixed window");
+            System.exit(1);
+        }
+    }
+
+    private static void run(BenchmarkHarness harness, String name, final Long[] keys, int rounds, String impl, int a, int b) {
+        Subject subject = null;
+        long best = Long.MAX_VALUE;
+        for(int round = 0; round < rounds; ++ round) {
+            subject = newSubject(impl, a, b);
+            long start = System.nanoTime();
+            for(Long key : keys)
+                subject.put(key, key);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        final Subject tree = subject;
+        BenchmarkHarness.Result result = harness.measure(new BenchmarkHarness.Workload() {
+            private final KeySequence.Generator generator = KeySequence.UNIFORM.generator(keys.length, 2);
+            private final Long[] lookups = new Long[1024];
+
+            public int setUp() {
+                for(int i = 0; i < lookups.length; ++ i)
+                    lookups[i] = keys[(int) generator.next()];
+                return lookups.length;
+            }
+
+            public void run(int from, int to) {
+                for(int i = from; i < to; ++ i)
+                    BenchmarkHarness.consume(tree.search(lookups[i]));
+            }
+        });
+        System.out.printf("%-24s %14.0f   %s%n", name, keys.length * 1e9 / best, result);
+    }
+
+    private static Subject newSubject(String impl, int a, int b) {
+        if(impl.equals("BPlusTree")) {
+            final BPlusTree<Long, Long> tree = new BPlusTree<Long, Long>(a);
+            return new Subject() {
+                public void put(Long key, Long value) { tree.put(key, value); }
+                public Object search(Long key) { return tree.search(key); }
+            };
+        }
+        final BufferedBTree<Long, Long> tree = new BufferedBTree<Long, Long>(a, b);
+        return new Subject() {
+            public void put(Long key, Long value) { tree.put(key, value); }
+            public Object search(Long key) { return tree.search(key); }
+        };
+    }
+}
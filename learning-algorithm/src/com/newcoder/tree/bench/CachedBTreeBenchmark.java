@@ -0,0 +1,115 @@
+package com.newcoder.tree.bench;
+
+import com.newcoder.tree.BTree;
+import com.newcoder.tree.CachedBTree;
+
+import java.util.Map;
+
+/**
+ * {@link CachedBTree}（Bloom过滤器 + W-TinyLFU热点缓存）与直接查找{@link BTree}的search对比。
+ *
+ * 先装入size个Long键（[0, 2 * size)中的偶数），然后按访问顺序search：
+ * 	missHeavy  missPercent%的查找是不存在的键（奇数，均匀随机），其余是存在的键（Zipf分布）
+ * 	zipfian    都是存在的键，Zipf分布
+ * 	uniform    都是存在的键，均匀随机（缓存几乎没有帮助，看过滤器和缓存本身的开销）
+ * impl：BTree（直接查找）, Filtered（只有过滤器，cache=0）, Cached（过滤器和缓存）。
+ * 每一行输出吞吐量、延迟的百分位数（见{@link BenchmarkHarness}），Filtered、Cached还输出缓存命中率和过滤器的实际误判率。
+ * 参数（name=value）：impl, workloads, sizes（默认1000000）, t（默认32）, cache（缓存容量，默认10000）,
+ * 	missPercent（默认60）, warmup, iterations, millis
+ */
+public class CachedBTreeBenchmark {
+    private static final String[][] DEFAULTS = {
+        {"impl", "BTree,Filtered,Cached"},
+        {"workloads", "missHeavy,zipfian,uniform"},
+        {"sizes", "1000000"},
+        {"t", "32"},
+        {"cache", "10000"},
+        {"missPercent", "60"},
+        {"warmup", "2"},
+        {"iterations", "3"},
+        {"millis", "500"},
+    };
+    /** 每一轮的查找次数 */
+    private static final int OPS_PER_ROUND = 1 << 20;
+
+    /**
+     *@Desc 被测的查找
+     */
+    interface Subject {
+        Object search(Long key);
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> params = BenchmarkHarness.parseArgs(args, DEFAULTS);
+        BenchmarkHarness harness = new BenchmarkHarness(Integer.parseInt(params.get("warmup")),
+                Integer.parseInt(params.get("iterations")), Long.parseLong(params.get("millis")));
+        int t = Integer.parseInt(params.get("t"));
+        int cacheCapacity = Integer.parseInt(params.get("cache"));
+        int missPercent = Integer.parseInt(params.get("missPercent"));
+        System.out.printf("%-9s %10s %-10s %s%n", "impl", "size", "workload", "result");
+        for(String sizes : BenchmarkHarness.list(params, "sizes")) {
+            int size = Integer.parseInt(sizes);
+            BTree<Long, Long> tree = new BTree<Long, Long>(t);
+            for(int index : BTreeBenchmark.permutation(size, 1))
+                tree.put(2L * index, (long) index);
+            for(String workload : BenchmarkHarness.list(params, "workloads")) {
+                Long[] order = order(workload, size, missPercent);
+                for(String impl : BenchmarkHarness.list(params, "impl")) {
+                    final CachedBTree<Long, Long> cached;
+                    Subject subject;
+                    if(impl.equalsIgnoreCase("BTree")) {
+                        cached = null;
+                        final BTree<Long, Long> plain = tree;
+                        subject = new Subject() {
+                            public Object search(Long key) { return plain.search(key); }
+                        };
+                    } else if(impl.equalsIgnoreCase("Filtered") || impl.equalsIgnoreCase("Cached")) {
+                        cached = new CachedBTree<Long, Long>(tree, impl.equalsIgnoreCase("Cached") ? cacheCapacity : 0);
+                        subject = new Subject() {
+                            public Object search(Long key) { return cached.search(key); }
+                        };
+                    } else {
+                        throw new IllegalArgumentException("Unknown impl: " + impl);
+                    }
+                    BenchmarkHarness.Result result = harness.measure(workload(subject, order));
+                    String metrics = cached == null ? "" : String.format("  hit=%.3f fp=%.4f", cached.hitRatio(), cached.falsePositiveRatio());
+                    System.out.printf("%-9s %10d %-10s %s%s%n", impl, size, workload, result, metrics);
+                }
+            }
+        }
+    }
+
+    /**
+     *@Desc 查找的键：偶数是树中的键，奇数不在树中
+     */
+    private static Long[] order(String workload, int size, int missPercent) {
+        Long[] order = new Long[OPS_PER_ROUND];
+        KeySequence.Generator uniform = KeySequence.UNIFORM.generator(size, 3);
+        KeySequence.Generator zipfian = KeySequence.ZIPFIAN.generator(size, 4);
+        KeySequence.Generator dice = KeySequence.UNIFORM.generator(100, 5);
+        for(int i = 0; i < order.length; ++ i) {
+            if(workload.equalsIgnoreCase("missHeavy"))
+                order[i] = dice.next() < missPercent ? 2 * uniform.next() + 1 : 2 * zipfian.next();
+            else if(workload.equalsIgnoreCase("zipfian"))
+                order[i] = 2 * zipfian.next();
+            else if(workload.equalsIgnoreCase("uniform"))
+                order[i] = 2 * uniform.next();
+            else
+                throw new IllegalArgumentException("Unknown workload: " + workload);
+        }
+        return order;
+    }
+
+    private static BenchmarkHarness.Workload workload(final Subject subject, final Long[] order) {
+        return new BenchmarkHarness.Workload() {
+            public int setUp() {
+                return order.length;
+            }
+
+            public void run(int from, int to) {
+                for(int i = from; i < to; ++ i)
+                    BenchmarkHarness.consume(subject.search(order[i]));
+            }
+        };
+    }
+}
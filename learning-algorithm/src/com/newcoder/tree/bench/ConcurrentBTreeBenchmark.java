@@ -0,0 +1,134 @@
+package com.newcoder.tree.bench;
+
+import com.newcoder.tree.ConcurrentBTree;
+import com.newcoder.tree.ShardedBTree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link ConcurrentBTree}和按范围分片的{@link ShardedBTree}随线程数的扩展性，以ConcurrentSkipListMap作为对照。
+ *
+ * 先装入size个Long键（[0, 2 * size)中的偶数），然后每个线程按给定的读比例混合search和put，
+ * 键在[0, 2 * size)中均匀随机（put大约一半是更新、一半是插入），每种配置运行millis毫秒，
+ * 输出总吞吐量和每个操作在工作线程中分配的字节数（包括生成Long键的16字节，readPercent=0时主要是put的分配）。
+ * 参数（name=value）：impl（默认ConcurrentBTree,ShardedBTree,ConcurrentSkipListMap），threads（默认1,2,4,8,16），
+ * 	readPercent（默认90），size（默认1000000），t（默认32），shards（ShardedBTree的分片数，默认16），millis（默认2000）
+ */
+public class ConcurrentBTreeBenchmark {
+    private static final String[][] DEFAULTS = {
+        {"impl", "ConcurrentBTree,ShardedBTree,ConcurrentSkipListMap"},
+        {"threads", "1,2,4,8,16"},
+        {"readPercent", "90"},
+        {"size", "1000000"},
+        {"t", "32"},
+        {"shards", "16"},
+        {"millis", "2000"},
+    };
+
+    /**
+     *@Desc 被测的并发有序映射
+     */
+    interface Subject {
+        Object search(Long key);
+        Object put(Long key, Long value);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> params = BenchmarkHarness.parseArgs(args, DEFAULTS);
+        int readPercent = Integer.parseInt(params.get("readPercent"));
+        int size = Integer.parseInt(params.get("size"));
+        int t = Integer.parseInt(params.get("t"));
+        int shards = Integer.parseInt(params.get("shards"));
+        long millis = Long.parseLong(params.get("millis"));
+        System.out.printf("%-22s %7s %14s %8s%n", "impl", "threads", "ops/s", "B/op");
+        for(String impl : BenchmarkHarness.list(params, "impl")) {
+            for(String threads : BenchmarkHarness.list(params, "threads")) {
+                Subject subject = newSubject(impl, t, shards);
+                for(int index : BTreeBenchmark.permutation(size, 1))
+                    subject.put(2L * index, (long) index);
+                // 第一次运行兼作预热
+                double[] result = run(subject, Integer.parseInt(threads), readPercent, size, millis);
+                result = run(subject, Integer.parseInt(threads), readPercent, size, millis);
+                System.out.printf("%-22s %7s %14.0f %8.1f%n", impl, threads, result[0], result[1]);
+            }
+        }
+    }
+
+    private static Subject newSubject(String impl, int t, int shards) {
+        if(impl.equalsIgnoreCase("ConcurrentBTree")) {
+            final ConcurrentBTree<Long, Long> tree = new ConcurrentBTree<Long, Long>(t);
+            return new Subject() {
+                public Object search(Long key) { return tree.search(key); }
+                public Object put(Long key, Long value) { return tree.put(key, value); }
+            };
+        }
+        if(impl.equalsIgnoreCase("ShardedBTree")) {
+            final ShardedBTree<Long, Long> tree = new ShardedBTree<Long, Long>(null, shards, t, ForkJoinPool.commonPool());
+            return new Subject() {
+                public Object search(Long key) { return tree.search(key); }
+                public Object put(Long key, Long value) { return tree.put(key, value); }
+            };
+        }
+        if(impl.equalsIgnoreCase("ConcurrentSkipListMap")) {
+            final ConcurrentSkipListMap<Long, Long> map = new ConcurrentSkipListMap<Long, Long>();
+            return new Subject() {
+                public Object search(Long key) { return map.get(key); }
+                public Object put(Long key, Long value) { return map.put(key, value); }
+            };
+        }
+        throw new IllegalArgumentException("Unknown impl: " + impl);
+    }
+
+    /**
+     *@Desc 返回{每秒的操作数, 每个操作分配的字节数}
+     */
+    private static double[] run(final Subject subject, int threads, final int readPercent, final int size, long millis)
+            throws InterruptedException {
+        final AtomicLong totalOps = new AtomicLong();
+        final AtomicLong totalBytes = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] deadline = new long[1];
+        List<Thread> workers = new ArrayList<Thread>();
+        for(int i = 0; i < threads; ++ i) {
+            final long seed = i + 1;
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    KeySequence.Generator keys = KeySequence.UNIFORM.generator(2L * size, seed);
+                    KeySequence.Generator dice = KeySequence.UNIFORM.generator(100, seed + 1000);
+                    try {
+                        start.await();
+                    } catch(InterruptedException e) {
+                        return;
+                    }
+                    long ops = 0;
+                    long allocated = BenchmarkHarness.allocatedBytes();
+                    while((ops & 1023) != 0 || System.nanoTime() < deadline[0]) {
+                        Long key = keys.next();
+                        if(dice.next() < readPercent)
+                            BenchmarkHarness.consume(subject.search(key));
+                        else
+                            BenchmarkHarness.consume(subject.put(key, key));
+                        ++ ops;
+                    }
+                    totalBytes.addAndGet(BenchmarkHarness.allocatedBytes() - allocated);
+                    totalOps.addAndGet(ops);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        long begin = System.nanoTime();
+        deadline[0] = begin + millis * 1_000_000L;
+        start.countDown();
+        for(Thread worker : workers)
+            worker.join();
+        long nanos = System.nanoTime() - begin;
+        return new double[] {totalOps.get() * 1e9 / nanos, (double) totalBytes.get() / totalOps.get()};
+    }
+}
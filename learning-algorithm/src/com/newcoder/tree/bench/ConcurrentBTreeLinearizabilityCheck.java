@@ -0,0 +1,404 @@
+package com.newcoder.tree.bench;
+
+import com.newcoder.tree.ConcurrentBTree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * {@link ConcurrentBTree}的线性一致性压力测试：多个线程在重叠的键上并发地search/insert/put/delete，
+ * 记录每个操作的开始、结束时间和结果，然后检查这段历史能否由顺序执行的映射解释。
+ *
+ * 每一轮从一棵空树（t默认为2，节点很小，分裂频繁）开始，threads个线程各执行ops个操作：
+ * 一半的操作落在hotKeys个热点键上（同一个键上的并发操作最多），另一半在[0, keys)中均匀随机（不断分裂出新的节点）。
+ * 写入的值各不相同，读到的值可以对应到唯一的一次写入。
+ *
+ * 检查：映射的每个键是独立的对象，线性一致性满足局部性，整段历史线性一致当且仅当每个键上的子历史线性一致，
+ * 因此按键分开检查。每个键上用Wing & Gong的搜索（Lowe的实现）：按开始时间依次尝试把一个还没有结束的操作
+ * 线性化到当前位置，与顺序模型（键不存在，或者有一个值）的结果不一致就回溯；
+ * 已经试过的(已线性化的操作集合, 模型状态)记下来，不重复搜索。
+ * 发现不能线性化的键时打印它的历史并以状态1退出。
+ *
+ * 之后是有界内存的滑动窗口：threads个线程各自插入一列递增的键（线程i的第n个键是n * threads + i，
+ * 各线程的键交错落在相同的叶节点中），同时删除window个之前插入的键，树中始终约有threads * window个键，
+ * 而插入、删除过的键的总数不断增长。每个线程检查自己的insert都返回true、delete都返回它写入的值；
+ * 每churnOps个操作之后数一次节点，节点被回收时节点数不随总操作数增长，
+ * 最后一轮的节点数超过第一轮的两倍时以状态1退出。
+ * 参数（name=value）：threads（默认8）, rounds（默认10）, ops（每个线程每轮的操作数，默认20000）,
+ * 	keys（默认1024）, hotKeys（默认4）, t（默认2）, seed（默认1）,
+ * 	window（默认1024）, churnRounds（默认10）, churnOps（每个线程每轮滑动的键数，默认100000）
+ */
+public class ConcurrentBTreeLinearizabilityCheck {
+    private static final String[][] DEFAULTS = {
+        {"threads", "8"},
+        {"rounds", "10"},
+        {"ops", "20000"},
+        {"keys", "1024"},
+        {"hotKeys", "4"},
+        {"t", "2"},
+        {"seed", "1"},
+        {"window", "1024"},
+        {"churnRounds", "10"},
+        {"churnOps", "100000"},
+    };
+
+    private static final int SEARCH = 0;
+    private static final int INSERT = 1;
+    private static final int PUT = 2;
+    private static final int DELETE = 3;
+    private static final String[] NAMES = {"search", "insert", "put", "delete"};
+    /** 操作的结果与模型不一致 */
+    private static final Object FAIL = new Object();
+
+    /**
+     *@Desc 历史中的一个操作
+     */
+    static final class Operation {
+        final int type;
+        final Long key;
+        /** insert、put写入的值 */
+        final Long value;
+        /** search、put、delete返回的值，insert返回的Boolean */
+        Object result;
+        final long start;
+        long end;
+        /** 在所属键的子历史中的编号 */
+        int id;
+
+        Operation(int type, Long key, Long value, long start) {
+            this.type = type;
+            this.key = key;
+            this.value = value;
+            this.start = start;
+        }
+
+        public String toString() {
+            return NAMES[type] + "(" + key + (value == null ? "" : ", " + value) + ") = " + result + "  [" + start + ", " + end + "]";
+        }
+    }
+
+    /**
+     *@Desc 操作的开始或结束事件，按时间排成双向链表
+     */
+    private static final class Event {
+        final Operation operation;
+        final boolean call;
+        Event match;
+        Event prev;
+        Event next;
+
+        Event(Operation operation, boolean call) {
+            this.operation = operation;
+            this.call = call;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> params = BenchmarkHarness.parseArgs(args, DEFAULTS);
+        int threads = Integer.parseInt(params.get("threads"));
+        int rounds = Integer.parseInt(params.get("rounds"));
+        int ops = Integer.parseInt(params.get("ops"));
+        int keys = Integer.parseInt(params.get("keys"));
+        int hotKeys = Integer.parseInt(params.get("hotKeys"));
+        int t = Integer.parseInt(params.get("t"));
+        long seed = Long.parseLong(params.get("seed"));
+        long checked = 0;
+        long concurrent = 0;
+        for(int round = 0; round < rounds; ++ round) {
+            List<Operation> history = run(new ConcurrentBTree<Long, Long>(t), threads, ops, keys, hotKeys, seed + round * 1000L);
+            Map<Long, List<Operation>> byKey = new HashMap<Long, List<Operation>>();
+            for(Operation operation : history) {
+                List<Operation> operations = byKey.get(operation.key);
+                if(operations == null) {
+                    operations = new ArrayList<Operation>();
+                    byKey.put(operation.key, operations);
+                }
+                operations.add(operation);
+            }
+            for(List<Operation> operations : byKey.values()) {
+                if(!linearizable(operations)) {
+                    System.out.println("round " + round + ": history of key " + operations.get(0).key + " is not linearizable");
+                    sortByStart(operations);
+                    for(Operation operation : operations)
+                        System.out.println("  " + operation);
+                    System.exit(1);
+                }
+            }
+            int overlapped = 0;
+            for(List<Operation> operations : byKey.values())
+                overlapped += overlapped(operations);
+            checked += history.size();
+            concurrent += overlapped;
+            System.out.printf("round %d: %d operations on %d keys linearizable, %d overlapped another operation on the same key%n",
+                    round, history.size(), byKey.size(), overlapped);
+        }
+        System.out.println(checked + " operations checked, all linearizable; " + concurrent + " of them overlapped another operation on the same key");
+
+        churn(new ConcurrentBTree<Long, Long>(t), threads, Integer.parseInt(params.get("window")),
+                Integer.parseInt(params.get("churnRounds")), Integer.parseInt(params.get("churnOps")));
+    }
+
+    /**
+     *@Desc 滑动窗口：每一轮每个线程插入churnOps个新键、删除churnOps个旧键，每轮之后数一次节点
+     */
+    private static void churn(final ConcurrentBTree<Long, Long> tree, final int threads, final int window,
+            int rounds, final int churnOps) throws InterruptedException {
+        final long[] next = new long[threads];
+        int firstCount = 0;
+        int nodeCount = 0;
+        for(int round = 0; round < rounds; ++ round) {
+            final CountDownLatch start = new CountDownLatch(1);
+            final String[] failure = new String[1];
+            List<Thread> workers = new ArrayList<Thread>();
+            for(int i = 0; i < threads; ++ i) {
+                final int thread = i;
+                Thread worker = new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch(InterruptedException e) {
+                            return;
+                        }
+                        long n = next[thread];
+                        for(long end = n + churnOps; n < end; ++ n) {
+                            Long key = n * threads + thread;
+                            if(!tree.insert(key, key)) {
+                                failure[0] = "insert(" + key + ") returned false";
+                                break;
+                            }
+                            if(n >= window) {
+                                Long old = (n - window) * threads + thread;
+                                Long value = tree.delete(old);
+                                if(!old.equals(value)) {
+                                    failure[0] = "delete(" + old + ") returned " + value;
+                                    break;
+                                }
+                            }
+                        }
+                        next[thread] = n;
+                    }
+                });
+                worker.start();
+                workers.add(worker);
+            }
+            start.countDown();
+            for(Thread worker : workers)
+                worker.join();
+            if(failure[0] != null) {
+                System.out.println("churn round " + round + ": " + failure[0]);
+                System.exit(1);
+            }
+            nodeCount = tree.nodeCount();
+            if(round == 0)
+                firstCount = nodeCount;
+            System.out.printf("churn round %d: %d keys inserted per thread, %d live, %d nodes%n",
+                    round, next[0], tree.size(), nodeCount);
+        }
+        if(nodeCount > 2 * firstCount) {
+            System.out.println("FAILED: the node count grew from " + firstCount + " to " + nodeCount + " with a fixed window");
+            System.exit(1);
+        }
+        System.out.println("churn: node count stayed bounded (" + firstCount + " after the first round, " + nodeCount + " after the last)");
+    }
+
+    /**
+     *@Desc 并发执行一轮，返回所有线程的操作
+     */
+    private static List<Operation> run(final ConcurrentBTree<Long, Long> tree, int threads, final int ops,
+            final int keys, final int hotKeys, long seed) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<List<Operation>> logs = new ArrayList<List<Operation>>();
+        List<Thread> workers = new ArrayList<Thread>();
+        for(int i = 0; i < threads; ++ i) {
+            final List<Operation> log = new ArrayList<Operation>(ops);
+            logs.add(log);
+            final Random random = new Random(seed + i);
+            final long valueBase = (long) i << 32;
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch(InterruptedException e) {
+                        return;
+                    }
+                    for(int n = 0; n < ops; ++ n) {
+                        Long key = (long) (random.nextBoolean() ? random.nextInt(hotKeys) : random.nextInt(keys));
+                        int dice = random.nextInt(10);
+                        int type = dice < 4 ? SEARCH : dice < 6 ? INSERT : dice < 8 ? PUT : DELETE;
+                        Long value = type == INSERT || type == PUT ? valueBase + n : null;
+                        Operation operation = new Operation(type, key, value, System.nanoTime());
+                        switch(type) {
+                        case SEARCH: operation.result = tree.search(key); break;
+                        case INSERT: operation.result = tree.insert(key, value); break;
+                        case PUT: operation.result = tree.put(key, value); break;
+                        default: operation.result = tree.delete(key); break;
+                        }
+                        operation.end = System.nanoTime();
+                        log.add(operation);
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for(Thread worker : workers)
+            worker.join();
+        List<Operation> history = new ArrayList<Operation>();
+        for(List<Operation> log : logs)
+            history.addAll(log);
+        return history;
+    }
+
+    /**
+     *@Desc 一个键上的子历史能否线性化：Wing & Gong的回溯搜索，记忆已经试过的(已线性化的集合, 状态)
+     */
+    static boolean linearizable(List<Operation> operations) {
+        int n = operations.size();
+        List<Event> events = new ArrayList<Event>(2 * n);
+        for(int i = 0; i < n; ++ i) {
+            Operation operation = operations.get(i);
+            operation.id = i;
+            Event call = new Event(operation, true);
+            Event ret = new Event(operation, false);
+            call.match = ret;
+            events.add(call);
+            events.add(ret);
+        }
+        // 时间相同时开始排在结束之前，按并发处理，不会误报
+        Collections.sort(events, new Comparator<Event>() {
+            public int compare(Event e1, Event e2) {
+                long t1 = e1.call ? e1.operation.start : e1.operation.end;
+                long t2 = e2.call ? e2.operation.start : e2.operation.end;
+                if(t1 != t2)
+                    return t1 < t2 ? -1 : 1;
+                return e1.call == e2.call ? 0 : e1.call ? -1 : 1;
+            }
+        });
+        Event head = new Event(null, false);
+        Event last = head;
+        for(Event event : events) {
+            last.next = event;
+            event.prev = last;
+            last = event;
+        }
+
+        BitSet linearized = new BitSet(n);
+        Set<List<Object>> tried = new HashSet<List<Object>>();
+        Deque<Object[]> stack = new ArrayDeque<Object[]>();
+        Object state = null;
+        Event entry = head.next;
+        while(head.next != null) {
+            if(entry.call) {
+                Object next = apply(entry.operation, state);
+                if(next != FAIL) {
+                    BitSet attempt = (BitSet) linearized.clone();
+                    attempt.set(entry.operation.id);
+                    if(tried.add(Arrays.asList((Object) attempt, next))) {
+                        stack.push(new Object[] {entry, state});
+                        state = next;
+                        linearized.set(entry.operation.id);
+                        lift(entry);
+                        entry = head.next;
+                        continue;
+                    }
+                }
+                entry = entry.next;
+            } else {
+                // 遇到了一个还没有线性化的操作的结束：它必须在此之前线性化，回溯
+                if(stack.isEmpty())
+                    return false;
+                Object[] top = stack.pop();
+                entry = (Event) top[0];
+                state = top[1];
+                linearized.clear(entry.operation.id);
+                unlift(entry);
+                entry = entry.next;
+            }
+        }
+        return true;
+    }
+
+    /**
+     *@Desc 在状态state（键的值，null表示不存在）上顺序执行operation，结果一致时返回新的状态，否则返回FAIL
+     */
+    private static Object apply(Operation operation, Object state) {
+        switch(operation.type) {
+        case SEARCH:
+            return equal(operation.result, state) ? state : FAIL;
+        case INSERT:
+            if(!operation.result.equals(state == null))
+                return FAIL;
+            return state == null ? operation.value : state;
+        case PUT:
+            return equal(operation.result, state) ? operation.value : FAIL;
+        default:
+            return equal(operation.result, state) ? null : FAIL;
+        }
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     *@Desc 把操作的开始和结束事件从链表中摘下
+     */
+    private static void lift(Event call) {
+        call.prev.next = call.next;
+        call.next.prev = call.prev;
+        Event ret = call.match;
+        ret.prev.next = ret.next;
+        if(ret.next != null)
+            ret.next.prev = ret.prev;
+    }
+
+    /**
+     *@Desc 按lift的相反顺序把事件放回原来的位置
+     */
+    private static void unlift(Event call) {
+        Event ret = call.match;
+        ret.prev.next = ret;
+        if(ret.next != null)
+            ret.next.prev = ret;
+        call.prev.next = call;
+        call.next.prev = call;
+    }
+
+    /**
+     *@Desc 与同一个键上的其他操作在时间上重叠的操作数，衡量这一轮的并发程度
+     */
+    private static int overlapped(List<Operation> operations) {
+        sortByStart(operations);
+        int count = 0;
+        long maxEnd = Long.MIN_VALUE;
+        for(int i = 0; i < operations.size(); ++ i) {
+            Operation operation = operations.get(i);
+            // 与更早开始的某个操作重叠，或者下一个开始的操作在它结束之前开始
+            if(operation.start <= maxEnd || (i + 1 < operations.size() && operations.get(i + 1).start <= operation.end))
+                ++ count;
+            maxEnd = Math.max(maxEnd, operation.end);
+        }
+        return count;
+    }
+
+    private static void sortByStart(List<Operation> operations) {
+        Collections.sort(operations, new Comparator<Operation>() {
+            public int compare(Operation o1, Operation o2) {
+                return Long.compare(o1.start, o2.start);
+            }
+        });
+    }
+}
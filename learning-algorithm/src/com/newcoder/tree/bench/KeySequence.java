@@ -0,0 +1,109 @@
+package com.newcoder.tree.bench;
+
+import java.util.Random;
+
+/**
+ * 基准测试中访问键的顺序：产生[0, n)中的下标，由KeyType把下标变成键。
+ *
+ * 	SEQUENTIAL  0, 1, 2, ...，到n之后从头开始
+ * 	UNIFORM     均匀随机
+ * 	ZIPFIAN     Zipf分布（theta = 0.99，同YCSB），排名靠前的少数键占大部分访问。
+ * 	            排名经过散列再映射到下标，热点键分散在整棵树中，而不是集中在最左边
+ */
+public enum KeySequence {
+    SEQUENTIAL, UNIFORM, ZIPFIAN;
+
+    /** YCSB默认的Zipf参数 */
+    static final double ZIPF_THETA = 0.99;
+
+    /**
+     *@Desc 产生下标的迭代器，seed相同时序列相同
+     */
+    public Generator generator(long n, long seed) {
+        switch(this) {
+        case SEQUENTIAL:
+            return new Generator() {
+                private long next;
+
+                public long next() {
+                    long index = next;
+                    next = next + 1 == n ? 0 : next + 1;
+                    return index;
+                }
+            };
+        case UNIFORM:
+            final Random random = new Random(seed);
+            return new Generator() {
+                public long next() {
+                    return (random.nextLong() >>> 1) % n;
+                }
+            };
+        default:
+            return new ZipfianGenerator(n, ZIPF_THETA, seed);
+        }
+    }
+
+    /**
+     *@Desc 下标的生成器
+     */
+    public interface Generator {
+        long next();
+    }
+
+    /**
+     *@Desc Gray等人"Quickly Generating Billion-Record Synthetic Databases"中的算法（YCSB的ZipfianGenerator），
+     *	初始化时O(n)计算zeta(n)，之后每个样本O(1)；返回的排名经过FNV散列打散
+     */
+    static final class ZipfianGenerator implements Generator {
+        private final long n;
+        private final double theta;
+        private final double alpha;
+        private final double zetan;
+        private final double eta;
+        private final Random random;
+
+        ZipfianGenerator(long n, double theta, long seed) {
+            this.n = n;
+            this.theta = theta;
+            random = new Random(seed);
+            double zeta2 = zeta(2, theta);
+            zetan = zeta(n, theta);
+            alpha = 1.0 / (1.0 - theta);
+            eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta2 / zetan);
+        }
+
+        private static double zeta(long n, double theta) {
+            double sum = 0;
+            for(long i = 1; i <= n; ++ i)
+                sum += 1 / Math.pow(i, theta);
+            return sum;
+        }
+
+        /**
+         *@Desc 排名，0最热
+         */
+        long nextRank() {
+            double u = random.nextDouble();
+            double uz = u * zetan;
+            if(uz < 1.0)
+                return 0;
+            if(uz < 1.0 + Math.pow(0.5, theta))
+                return 1;
+            return Math.min(n - 1, (long) (n * Math.pow(eta * u - eta + 1, alpha)));
+        }
+
+        public long next() {
+            return (fnv(nextRank()) >>> 1) % n;
+        }
+
+        private static long fnv(long value) {
+            long hash = 0xCBF29CE484222325L;
+            for(int i = 0; i < 8; ++ i) {
+                hash ^= value & 0xFF;
+                hash *= 0x100000001B3L;
+                value >>>= 8;
+            }
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.newcoder.tree.bench;
+
+import com.newcoder.tree.LongSearch;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 节点内查找的对比：{@link LongSearch}中的各个实现在满节点（2t - 1个键）上的吞吐量。
+ *
+ * 对每个t生成nodes个满节点，每次查找随机选一个节点和一个键（一半命中、一半落在两个键之间），
+ * 节点的总大小可以用nodes调整：默认的1024个节点在t较大时超出L1、L2，更接近树中的情况。
+ * 参数（name=value）：kernel（默认binarySearch,branchFree,linear,search），t（默认2,8,16,32,64,128,256），
+ * 	nodes（默认1024），warmup（默认3），iterations（默认5），millis（默认500）
+ */
+public class LongSearchBenchmark {
+    private static final String[][] DEFAULTS = {
+        {"kernel", "binarySearch,branchFree,linear,search"},
+        {"t", "2,8,16,32,64,128,256"},
+        {"nodes", "1024"},
+        {"warmup", "3"},
+        {"iterations", "5"},
+        {"millis", "500"},
+    };
+
+    public static void main(String[] args) {
+        Map<String, String> params = BenchmarkHarness.parseArgs(args, DEFAULTS);
+        int nodeCount = Integer.parseInt(params.get("nodes"));
+        BenchmarkHarness harness = new BenchmarkHarness(Integer.parseInt(params.get("warmup")),
+                Integer.parseInt(params.get("iterations")), Long.parseLong(params.get("millis")));
+
+        System.out.printf("%5s %-14s %s%n", "t", "kernel", "result");
+        for(String t : BenchmarkHarness.list(params, "t")) {
+            final int size = 2 * Integer.parseInt(t) - 1;
+            final long[][] nodes = new long[nodeCount][];
+            Random random = new Random(1);
+            for(int i = 0; i < nodeCount; ++ i) {
+                // 键是偶数，奇数的查找键不命中
+                nodes[i] = new long[size];
+                for(int j = 0; j < size; ++ j)
+                    nodes[i][j] = 2L * random.nextInt(1 << 30);
+                Arrays.sort(nodes[i]);
+            }
+            for(final String kernel : BenchmarkHarness.list(params, "kernel")) {
+                BenchmarkHarness.Result result = harness.measure(new BenchmarkHarness.Workload() {
+                    private final Random random = new Random(2);
+                    private final long[][] targets = new long[1024][];
+                    private final long[] keys = new long[1024];
+
+                    public int setUp() {
+                        for(int i = 0; i < keys.length; ++ i) {
+                            targets[i] = nodes[random.nextInt(nodes.length)];
+                            keys[i] = targets[i][random.nextInt(size)] + random.nextInt(2);
+                        }
+                        return keys.length;
+                    }
+
+                    public void run(int from, int to) {
+                        int sum = 0;
+                        for(int i = from; i < to; ++ i)
+                            sum += search(kernel, targets[i], size, keys[i]);
+                        BenchmarkHarness.consume(sum == 0);
+                    }
+                });
+                System.out.printf("%5s %-14s %s%n", t, kernel, result);
+            }
+        }
+    }
+
+    private static int search(String kernel, long[] keys, int size, long key) {
+        switch(kernel) {
+        case "binarySearch":
+            return LongSearch.binarySearch(keys, size, key);
+        case "branchFree":
+            return LongSearch.branchFree(keys, size, key);
+        case "linear":
+            return LongSearch.linear(keys, size, key);
+        case "search":
+            return LongSearch.search(keys, size, key);
+        default:
+            throw new IllegalArgumentException("Unknown kernel: " + kernel);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.newcoder.tree.bench;
+
+import com.newcoder.tree.LongSearch;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 检查{@link LongSearch}的各个实现（search、branchFree、linear、binarySearch）与Arrays.binarySearch的结果完全相同，
+ * 发现不同时打印出错的输入并以状态1退出，可以放在构建脚本中作为回归检查。
+ *
+ * 键都是严格升序的（B树节点中的键没有重复），数组的容量比size大，[size, length)中填上会误导越界读取的值
+ * （比所有键都小的Long.MIN_VALUE），只有[0, size)参与查找。
+ * 	1.  穷举：size从0到maxSize（默认远大于LINEAR_THRESHOLD），键是1, 3, 5, ...，查找每个键（命中）、
+ * 	    每两个键之间以及两端的值（不命中），还有Long.MIN_VALUE和Long.MAX_VALUE
+ * 	2.  随机：trials组随机的size和键（包括靠近Long.MIN_VALUE、Long.MAX_VALUE的键），一半查找已有的键，一半查找随机的值
+ * 随机部分调用各实现的次数足以让JIT编译它们，编译之后的代码（条件传送）也经过检查。
+ * 参数（name=value）：maxSize（默认100）, trials（默认200000）, seed（默认1）
+ */
+public class LongSearchCheck {
+    private static final String[][] DEFAULTS = {
+        {"maxSize", "100"},
+        {"trials", "200000"},
+        {"seed", "1"},
+    };
+
+    /** 数组的容量比size多出的部分 */
+    private static final int SLACK = 3;
+
+    public static void main(String[] args) {
+        Map<String, String> params = BenchmarkHarness.parseArgs(args, DEFAULTS);
+        int maxSize = Integer.parseInt(params.get("maxSize"));
+        int trials = Integer.parseInt(params.get("trials"));
+        long seed = Long.parseLong(params.get("seed"));
+
+        long cases = 0;
+        for(int size = 0; size <= maxSize; ++ size) {
+            long[] keys = keys(size);
+            for(int i = 0; i < size; ++ i)
+                keys[i] = 2 * i + 1;
+            for(long key = 0; key <= 2 * size + 1; ++ key)
+                cases += check(keys, size, key);
+            cases += check(keys, size, Long.MIN_VALUE);
+            cases += check(keys, size, Long.MAX_VALUE);
+        }
+        System.out.println("exhaustive: sizes 0.." + maxSize + ", " + cases + " cases agree with Arrays.binarySearch");
+
+        Random random = new Random(seed);
+        long randomCases = 0;
+        for(int trial = 0; trial < trials; ++ trial) {
+            int size = random.nextInt(maxSize + 1);
+            long[] keys = randomKeys(random, size);
+            long key = size > 0 && random.nextBoolean() ? keys[random.nextInt(size)] : randomKey(random);
+            randomCases += check(keys, size, key);
+        }
+        System.out.println("random: " + randomCases + " cases agree with Arrays.binarySearch");
+    }
+
+    /**
+     *@Desc 容量为size + SLACK的数组，多出的部分填上Long.MIN_VALUE
+     */
+    private static long[] keys(int size) {
+        long[] keys = new long[size + SLACK];
+        Arrays.fill(keys, size, keys.length, Long.MIN_VALUE);
+        return keys;
+    }
+
+    /**
+     *@Desc size个严格升序的随机键
+     */
+    private static long[] randomKeys(Random random, int size) {
+        long[] keys = keys(size);
+        for(int i = 0; i < size; ) {
+            long key = randomKey(random);
+            boolean duplicate = false;
+            for(int j = 0; j < i && !duplicate; ++ j)
+                duplicate = keys[j] == key;
+            if(!duplicate)
+                keys[i++] = key;
+        }
+        Arrays.sort(keys, 0, size);
+        return keys;
+    }
+
+    /**
+     *@Desc 多数取自一个小区间（命中、相邻的值较多），少数靠近两端，检查比较时没有溢出
+     */
+    private static long randomKey(Random random) {
+        switch(random.nextInt(8)) {
+        case 0: return Long.MIN_VALUE + random.nextInt(4);
+        case 1: return Long.MAX_VALUE - random.nextInt(4);
+        case 2: return random.nextLong();
+        default: return random.nextInt(256) - 128;
+        }
+    }
+
+    /**
+     *@Desc 比较四个实现与Arrays.binarySearch在[0, size)中查找key的结果，不同时打印并以状态1退出；返回检查的个数
+     */
+    private static int check(long[] keys, int size, long key) {
+        int expected = Arrays.binarySearch(keys, 0, size, key);
+        int[] actual = {
+            LongSearch.search(keys, size, key),
+            LongSearch.branchFree(keys, size, key),
+            LongSearch.linear(keys, size, key),
+            LongSearch.binarySearch(keys, size, key),
+        };
+        String[] names = {"search", "branchFree", "linear", "binarySearch"};
+        for(int i = 0; i < actual.length; ++ i) {
+            if(actual[i] != expected) {
+                System.out.println("FAILED: LongSearch." + names[i] + " returned " + actual[i] + ", Arrays.binarySearch returned " + expected
+                        + " for key " + key + " in " + Arrays.toString(Arrays.copyOf(keys, size)));
+                System.exit(1);
+            }
+        }
+        return actual.length;
+    }
+}
@@ -0,0 +1,105 @@
+package com.newcoder.tree.bench;
+
+import com.newcoder.tree.BufferPool;
+import com.newcoder.tree.PagedBTree;
+import com.newcoder.tree.Serializer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * {@link PagedBTree}的基准测试，在临时目录中建文件，结束后删除：
+ * 	1. 页缓存的Zipf回放：装入size个键后按Zipf分布查找，输出{@link BufferPool}的命中率；
+ * 	   然后顺序扫描一遍所有的键，再回放同样的Zipf序列，LRU-2下扫描不应该挤掉热点页，命中率应基本不变
+ * 	2. 组提交：不同的opsPerSync下随机插入的吞吐量（见PagedBTree.setSyncPolicy）
+ * 参数（name=value）：size（默认1000000），cacheMiB（默认8），lookups（默认2000000），inserts（默认100000），
+ * 	syncs（逗号分隔的opsPerSync，默认1,16,256,1073741824）
+ */
+public class PagedBTreeBenchmark {
+    private static final String[][] DEFAULTS = {
+        {"size", "1000000"},
+        {"cacheMiB", "8"},
+        {"lookups", "2000000"},
+        {"inserts", "100000"},
+        {"syncs", "1,16,256,1073741824"},
+    };
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> params = BenchmarkHarness.parseArgs(args, DEFAULTS);
+        int size = Integer.parseInt(params.get("size"));
+        long cacheSize = Long.parseLong(params.get("cacheMiB")) << 20;
+        int lookups = Integer.parseInt(params.get("lookups"));
+        int inserts = Integer.parseInt(params.get("inserts"));
+
+        Path dir = Files.createTempDirectory("paged-btree-bench");
+        Path path = dir.resolve("tree.db");
+        try {
+            replay(path, size, cacheSize, lookups);
+            for(String opsPerSync : BenchmarkHarness.list(params, "syncs"))
+                groupCommit(path, inserts, Integer.parseInt(opsPerSync));
+        } finally {
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(path.resolveSibling(path.getFileName() + ".wal"));
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private static void replay(Path path, int size, long cacheSize, int lookups) throws IOException {
+        PagedBTree<Long, Long> tree = new PagedBTree<Long, Long>(path, 8192, cacheSize, null, Serializer.LONG, Serializer.LONG);
+        try {
+            tree.setSyncPolicy(Integer.MAX_VALUE, Long.MAX_VALUE / 1_000_000L);
+            for(int index : BTreeBenchmark.permutation(size, 1))
+                tree.insert((long) index, (long) index);
+            tree.flush();
+            BufferPool pool = tree.bufferPool();
+            System.out.printf("PagedBTree: %d keys, %s%n", size, pool);
+
+            // 先回放一遍让缓存进入稳定状态，再测量
+            zipf(tree, size, lookups);
+            pool.resetStatistics();
+            long nanos = zipf(tree, size, lookups);
+            System.out.printf("zipf replay:        hit ratio %.3f  %.0f lookups/s%n", pool.hitRatio(), lookups * 1e9 / nanos);
+
+            pool.resetStatistics();
+            for(long key = 0; key < size; ++ key)
+                BenchmarkHarness.consume(tree.search(key));
+            System.out.printf("sequential scan:    hit ratio %.3f%n", pool.hitRatio());
+
+            pool.resetStatistics();
+            nanos = zipf(tree, size, lookups);
+            System.out.printf("zipf after scan:    hit ratio %.3f  %.0f lookups/s%n", pool.hitRatio(), lookups * 1e9 / nanos);
+        } finally {
+            tree.close();
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private static long zipf(PagedBTree<Long, Long> tree, int size, int lookups) throws IOException {
+        KeySequence.Generator generator = KeySequence.ZIPFIAN.generator(size, 2);
+        long start = System.nanoTime();
+        for(int i = 0; i < lookups; ++ i)
+            BenchmarkHarness.consume(tree.search(generator.next()));
+        return System.nanoTime() - start;
+    }
+
+    private static void groupCommit(Path path, int inserts, int opsPerSync) throws IOException {
+        Files.deleteIfExists(path);
+        PagedBTree<Long, Long> tree = new PagedBTree<Long, Long>(path, Serializer.LONG, Serializer.LONG);
+        try {
+            tree.setSyncPolicy(opsPerSync, 10);
+            KeySequence.Generator generator = KeySequence.UNIFORM.generator(Long.MAX_VALUE, 3);
+            long start = System.nanoTime();
+            for(int i = 0; i < inserts; ++ i)
+                tree.insert(generator.next(), (long) i);
+            tree.sync();
+            long nanos = System.nanoTime() - start;
+            System.out.printf("opsPerSync %10d: %10.0f inserts/s%n", opsPerSync, inserts * 1e9 / nanos);
+        } finally {
+            tree.close();
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(path.resolveSibling(path.getFileName() + ".wal"));
+        }
+    }
+}
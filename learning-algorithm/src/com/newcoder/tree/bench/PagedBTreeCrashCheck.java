@@ -0,0 +1,404 @@
+package com.newcoder.tree.bench;
+
+import com.newcoder.tree.PagedBTree;
+import com.newcoder.tree.Serializer;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * {@link PagedBTree}和预写日志的崩溃恢复检查，发现问题时打印原因并以状态1退出。
+ *
+ * 操作序列是确定的：第i个操作由(seed, i)决定，是[0, keys)中某个键上的put、insert或delete，写入的值就是i，
+ * 因此任意前缀执行之后的内容都可以由模型（一个long数组）重放出来。每次恢复之后：
+ * 	1.  PagedBTree.checkInvariants()遍历整棵树，检查BTree类注释中B树的定义、页的引用和空闲页链表
+ * 	2.  查找[0, keys)中的每个键，与模型重放的某个前缀逐项比较，项数也要与size()一致；
+ * 	    恢复出的必须恰好是某个前缀：不能丢掉已经持久化的操作，也不能出现只做了一半的操作
+ *
+ * 第一部分，kill -9：子进程（本类的main，第一个参数为child）从上次恢复到的前缀继续执行操作，每完成一个操作就向标准输出（重定向到文件）报告，
+ * 父进程在随机的时刻强行杀死它（Process.destroyForcibly，在Linux上是SIGKILL），然后在同一个文件上重新打开、恢复、检查。
+ * 子进程的页缓存只有最少的页数（不断换出、写回），检查点的阈值很小（频繁地清空日志），崩溃可能落在这些过程的任何位置。
+ * 日志每opsPerSync条记录至少fsync一次，所以恢复出的前缀k之后、已报告的操作之前最多有opsPerSync - 1个写了日志记录的操作；
+ * k也可能是已报告 + 1（最后一个操作已经提交但还没有报告）。
+ * 每种(pageSize, opsPerSync)在同一组文件上连续崩溃crashes次，恢复之后的文件就是下一次崩溃的起点。
+ *
+ * 第二部分，截断日志：在本进程中每个操作都fsync，不做检查点，记下每个操作之后日志的长度；
+ * 然后复制数据文件和日志，把日志截断在随机的字节位置上（模拟掉电时没有写完的日志尾部），打开副本恢复并检查。
+ * 恢复出的前缀应当恰好是日志中完整记录的个数。页缓存写回页之前会fsync之前的记录，那些记录不能再丢掉，
+ * 因此截断的位置不小于最后一次写回之前的日志长度。分别用最少的页缓存和足够大的页缓存各做一遍。
+ *
+ * 参数（name=value）：pageSizes（默认128,256,448）, opsPerSync（默认1,64）, crashes（每种配置的崩溃次数，默认6）,
+ * 	keys（默认2000）, maxOps（两次崩溃之间最多的操作数，默认3000）, walOps（截断日志部分的操作数，默认2000）,
+ * 	cuts（每种配置截断的次数，默认50）, seed（默认1）
+ */
+public class PagedBTreeCrashCheck {
+    private static final String[][] DEFAULTS = {
+        {"pageSizes", "128,256,448"},
+        {"opsPerSync", "1,64"},
+        {"crashes", "6"},
+        {"keys", "2000"},
+        {"maxOps", "3000"},
+        {"walOps", "2000"},
+        {"cuts", "50"},
+        {"seed", "1"},
+    };
+
+    private static final int PUT = 0;
+    private static final int INSERT = 1;
+    private static final int DELETE = 2;
+    /** 模型中不存在的键 */
+    private static final long ABSENT = -1;
+    /** 子进程的检查点阈值 */
+    private static final long CHILD_CHECKPOINT_SIZE = 64 * 1024;
+    /** 最少的页缓存（BufferPool.MIN_FRAMES页） */
+    private static final int MIN_CACHE_PAGES = 64;
+    /** 子进程最多执行的操作数，父进程意外退出时子进程也会结束 */
+    private static final long MAX_CHILD_OPS = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        if(args.length > 0 && args[0].equals("child")) {
+            child(args);
+            return;
+        }
+        Map<String, String> params = BenchmarkHarness.parseArgs(args, DEFAULTS);
+        int crashes = Integer.parseInt(params.get("crashes"));
+        int keys = Integer.parseInt(params.get("keys"));
+        int maxOps = Integer.parseInt(params.get("maxOps"));
+        int walOps = Integer.parseInt(params.get("walOps"));
+        int cuts = Integer.parseInt(params.get("cuts"));
+        long seed = Long.parseLong(params.get("seed"));
+        try {
+            int total = 0;
+            for(String pageSize : BenchmarkHarness.list(params, "pageSizes")) {
+                for(String opsPerSync : BenchmarkHarness.list(params, "opsPerSync")) {
+                    crashLoop(Integer.parseInt(pageSize), Integer.parseInt(opsPerSync), crashes, keys, maxOps, seed);
+                    total += crashes;
+                }
+            }
+            System.out.println(total + " crashes recovered");
+            int totalCuts = 0;
+            for(String pageSize : BenchmarkHarness.list(params, "pageSizes")) {
+                for(int large = 0; large < 2; ++ large) {
+                    walCuts(Integer.parseInt(pageSize), large == 1, keys, walOps, cuts, seed);
+                    totalCuts += cuts;
+                }
+            }
+            System.out.println(totalCuts + " WAL cuts recovered");
+        } catch(IllegalStateException e) {
+            System.out.println("FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     *@Desc 子进程：child path pageSize opsPerSync seed start keys，从第start个操作开始一直执行，每完成一个报告一次
+     */
+    private static void child(String[] args) throws IOException {
+        Path path = Paths.get(args[1]);
+        int pageSize = Integer.parseInt(args[2]);
+        int opsPerSync = Integer.parseInt(args[3]);
+        long seed = Long.parseLong(args[4]);
+        long start = Long.parseLong(args[5]);
+        int keys = Integer.parseInt(args[6]);
+        PrintStream out = System.out;
+        PagedBTree<Long, Long> tree = new PagedBTree<Long, Long>(path, pageSize, (long) pageSize * MIN_CACHE_PAGES,
+                null, Serializer.LONG, Serializer.LONG);
+        tree.setSyncPolicy(opsPerSync, 10);
+        tree.setCheckpointSize(CHILD_CHECKPOINT_SIZE);
+        for(long i = start; i < start + MAX_CHILD_OPS; ++ i) {
+            apply(tree, seed, keys, i);
+            out.println(i + 1);
+            out.flush();
+        }
+        tree.close();
+    }
+
+    /**
+     *@Desc 同一组文件上连续崩溃crashes次，每次恢复之后检查，再从恢复到的前缀继续
+     */
+    private static void crashLoop(int pageSize, int opsPerSync, int crashes, int keys, int maxOps, long seed) throws Exception {
+        Path dir = Files.createTempDirectory("paged-btree-crash");
+        Path path = dir.resolve("tree.db");
+        // 子进程的标准输出直接写到文件里：杀死子进程时管道中还没有读出的行可能丢失，文件中的不会
+        Path progress = dir.resolve("progress.txt");
+        Random random = new Random(seed * 31 + pageSize * 7 + opsPerSync);
+        long[] model = new long[keys];
+        Arrays.fill(model, ABSENT);
+        long start = 0;
+        try {
+            for(int crash = 0; crash < crashes; ++ crash) {
+                String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+                Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        PagedBTreeCrashCheck.class.getName(), "child", path.toString(), String.valueOf(pageSize),
+                        String.valueOf(opsPerSync), String.valueOf(seed), String.valueOf(start), String.valueOf(keys))
+                        .redirectOutput(progress.toFile()).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+                long target = start + 1 + random.nextInt(maxOps);
+                while(reported(progress, start) < target && process.isAlive())
+                    Thread.sleep(1);
+                boolean killed = process.isAlive();
+                process.destroyForcibly();
+                int exitCode = process.waitFor();
+                if(!killed && exitCode != 0)
+                    throw new IllegalStateException("The child process failed with exit code " + exitCode);
+
+                long reported = reported(progress, start);
+                // 正常结束时所有的操作都已持久化
+                long low = killed ? durablePrefix(model, keys, seed, start, reported, opsPerSync) : reported;
+                long high = killed ? reported + 1 : reported;
+                long recovered = recoverAndMatch(path, pageSize, keys, seed, model, start, low, high);
+                System.out.printf("pageSize=%d opsPerSync=%d crash %d: reported %d, recovered prefix %d (allowed [%d, %d])%n",
+                        pageSize, opsPerSync, crash, reported, recovered, low, high);
+                start = recovered;
+            }
+        } finally {
+            deleteAll(dir);
+        }
+    }
+
+    /**
+     *@Desc 子进程报告的最后一个数：进度文件中最后一个完整的行，还没有时返回start
+     */
+    private static long reported(Path progress, long start) throws IOException {
+        try(FileChannel channel = FileChannel.open(progress, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer tail = ByteBuffer.allocate((int) Math.min(size, 64));
+            long position = size - tail.capacity();
+            while(tail.hasRemaining())
+                position += channel.read(tail, position);
+            String text = new String(tail.array(), 0, tail.capacity(), "US-ASCII");
+            int end = text.lastIndexOf('\n');
+            if(end < 0)
+                return start;
+            return Long.parseLong(text.substring(text.lastIndexOf('\n', end - 1) + 1, end).trim());
+        }
+    }
+
+    /**
+     *@Desc 最早可能恢复到的前缀：丢失的操作中最多有opsPerSync - 1个写了日志记录。
+     *	改变了模型的操作（put，键不存在时的insert，键存在时的delete）一定写了记录；其他的操作可能写了（delete下降时借项、合并），
+     *	也可能没有，都按没有写计算，得到的下界偏保守
+     */
+    private static long durablePrefix(long[] model, int keys, long seed, long start, long reported, int opsPerSync) {
+        long[] state = model.clone();
+        boolean[] logged = new boolean[(int) (reported - start)];
+        for(long i = start; i < reported; ++ i) {
+            int key = operationKey(seed, keys, i);
+            long before = state[key];
+            apply(state, seed, keys, i);
+            // 写入的值是操作的序号，各不相同，put总是改变模型
+            logged[(int) (i - start)] = state[key] != before;
+        }
+        long low = reported;
+        int unsynced = 0;
+        while(low > start && unsynced + (logged[(int) (low - 1 - start)] ? 1 : 0) <= opsPerSync - 1) {
+            if(logged[(int) (low - 1 - start)])
+                ++ unsynced;
+            -- low;
+        }
+        return low;
+    }
+
+    /**
+     *@Desc 打开并恢复path，检查结构，然后在[low, high]中找出与内容一致的前缀；model是第start个操作之前的状态，返回时是找到的前缀的状态
+     */
+    private static long recoverAndMatch(Path path, int pageSize, int keys, long seed, long[] model,
+            long start, long low, long high) throws IOException {
+        PagedBTree<Long, Long> tree = new PagedBTree<Long, Long>(path, pageSize, (long) pageSize * MIN_CACHE_PAGES,
+                null, Serializer.LONG, Serializer.LONG);
+        try {
+            tree.checkInvariants();
+            long[] recovered = contents(tree, keys);
+            long i = start;
+            for(; i < low; ++ i)
+                apply(model, seed, keys, i);
+            while(true) {
+                if(Arrays.equals(model, recovered))
+                    return i;
+                if(i >= high)
+                    throw new IllegalStateException(path + ": the recovered tree (" + tree.size()
+                            + " entries) matches no prefix in [" + low + ", " + high + "]" + nearestPrefix(recovered, keys, seed, start, high));
+                apply(model, seed, keys, i);
+                ++ i;
+            }
+        } finally {
+            tree.close();
+        }
+    }
+
+    /**
+     *@Desc 出错时的诊断：[start, high]中与恢复出的内容相同的前缀，没有时给出差别最少的前缀和差别的个数
+     */
+    private static String nearestPrefix(long[] recovered, int keys, long seed, long start, long high) {
+        long[] model = new long[keys];
+        Arrays.fill(model, ABSENT);
+        for(long i = 0; i < start; ++ i)
+            apply(model, seed, keys, i);
+        long nearest = -1;
+        int fewest = Integer.MAX_VALUE;
+        StringBuilder detail = null;
+        for(long i = start; ; ++ i) {
+            int differences = 0;
+            for(int key = 0; key < keys; ++ key) {
+                if(model[key] != recovered[key])
+                    ++ differences;
+            }
+            if(differences < fewest) {
+                fewest = differences;
+                nearest = i;
+                detail = new StringBuilder();
+                for(int key = 0; key < keys && detail.length() < 200; ++ key) {
+                    if(model[key] != recovered[key])
+                        detail.append(detail.length() == 0 ? " (" : ", ").append(key).append(": ").append(recovered[key])
+                                .append(" instead of ").append(model[key]);
+                }
+                if(detail.length() > 0)
+                    detail.append(")");
+            }
+            if(i >= high)
+                break;
+            apply(model, seed, keys, i);
+        }
+        return "; the nearest prefix since " + start + " is " + nearest +  " with " + fewest + " different keys" + detail;
+    }
+
+    /**
+     *@Desc 每个操作都fsync、不做检查点地执行ops个操作，然后在随机的位置截断日志的副本，恢复并与模型比较
+     */
+    private static void walCuts(int pageSize, boolean largeCache, int keys, int ops, int cuts, long seed) throws IOException {
+        Path dir = Files.createTempDirectory("paged-btree-wal-cut");
+        Path path = dir.resolve("tree.db");
+        Path walPath = dir.resolve("tree.db.wal");
+        Path copy = dir.resolve("copy.db");
+        Path copyWal = dir.resolve("copy.db.wal");
+        long cacheSize = (long) pageSize * (largeCache ? 1 << 16 : MIN_CACHE_PAGES);
+        Random random = new Random(seed * 17 + pageSize);
+        try {
+            PagedBTree<Long, Long> tree = new PagedBTree<Long, Long>(path, pageSize, cacheSize, null, Serializer.LONG, Serializer.LONG);
+            try {
+                tree.setSyncPolicy(1, 0);
+                tree.setCheckpointSize(Long.MAX_VALUE);
+                // walSizes[i]是前i个操作之后日志的长度；floor是不能截掉的长度
+                long[] walSizes = new long[ops + 1];
+                walSizes[0] = Files.size(walPath);
+                long floor = walSizes[0];
+                long writeBacks = tree.bufferPool().getWriteBacks();
+                for(int i = 0; i < ops; ++ i) {
+                    apply(tree, seed, keys, i);
+                    walSizes[i + 1] = Files.size(walPath);
+                    if(walSizes[i + 1] < walSizes[i])
+                        throw new IllegalStateException("Unexpected checkpoint after operation " + i);
+                    if(tree.bufferPool().getWriteBacks() != writeBacks) {
+                        writeBacks = tree.bufferPool().getWriteBacks();
+                        floor = walSizes[i];
+                    }
+                }
+                long end = walSizes[ops];
+                for(int cut = 0; cut < cuts; ++ cut) {
+                    long offset = cut == 0 ? floor : cut == 1 ? end : floor + (long) (random.nextDouble() * (end - floor + 1));
+                    offset = Math.min(offset, end);
+                    int expected = 0;
+                    while(expected < ops && walSizes[expected + 1] <= offset)
+                        ++ expected;
+                    Files.copy(path, copy, StandardCopyOption.REPLACE_EXISTING);
+                    Files.copy(walPath, copyWal, StandardCopyOption.REPLACE_EXISTING);
+                    try(FileChannel channel = FileChannel.open(copyWal, StandardOpenOption.WRITE)) {
+                        channel.truncate(offset);
+                    }
+                    long[] model = new long[keys];
+                    Arrays.fill(model, ABSENT);
+                    for(int i = 0; i < expected; ++ i)
+                        apply(model, seed, keys, i);
+                    long matched = recoverAndMatch(copy, pageSize, keys, seed, model, expected, expected, expected);
+                    if(matched != expected)
+                        throw new IllegalStateException("WAL cut at " + offset + ": expected prefix " + expected + ", got " + matched);
+                    Files.delete(copy);
+                    Files.delete(copyWal);
+                }
+                System.out.printf("pageSize=%d cache=%s: %d WAL cuts in [%d, %d] recovered the expected prefix%n",
+                        pageSize, largeCache ? "large" : "minimal", cuts, floor, end);
+            } finally {
+                tree.close();
+            }
+        } finally {
+            deleteAll(dir);
+        }
+    }
+
+    /**
+     *@Desc 查找[0, keys)中的每个键，不存在的记为ABSENT；找到的项数要与size()一致
+     */
+    private static long[] contents(PagedBTree<Long, Long> tree, int keys) throws IOException {
+        long[] contents = new long[keys];
+        long count = 0;
+        for(int key = 0; key < keys; ++ key) {
+            Long value = tree.search((long) key);
+            contents[key] = value == null ? ABSENT : value;
+            if(value != null)
+                ++ count;
+        }
+        if(count != tree.size())
+            throw new IllegalStateException("size() is " + tree.size() + ", but " + count + " keys were found");
+        return contents;
+    }
+
+    /**
+     *@Desc 操作的类型：45% put，20% insert，35% delete
+     */
+    private static int type(Random random) {
+        int dice = random.nextInt(100);
+        return dice < 45 ? PUT : dice < 65 ? INSERT : DELETE;
+    }
+
+    /**
+     *@Desc 决定第i个操作的随机数：先取[0, keys)中的键，再取操作的类型
+     */
+    private static Random operation(long seed, long i) {
+        return new Random(seed * 0x9E3779B97F4A7C15L + i);
+    }
+
+    private static int operationKey(long seed, int keys, long i) {
+        return operation(seed, i).nextInt(keys);
+    }
+
+    private static void apply(PagedBTree<Long, Long> tree, long seed, int keys, long i) throws IOException {
+        Random random = operation(seed, i);
+        long key = random.nextInt(keys);
+        switch(type(random)) {
+        case PUT: tree.put(key, i); break;
+        case INSERT: tree.insert(key, i); break;
+        default: tree.delete(key); break;
+        }
+    }
+
+    private static void apply(long[] model, long seed, int keys, long i) {
+        Random random = operation(seed, i);
+        int key = random.nextInt(keys);
+        switch(type(random)) {
+        case PUT: model[key] = i; break;
+        case INSERT:
+            if(model[key] == ABSENT)
+                model[key] = i;
+            break;
+        default: model[key] = ABSENT; break;
+        }
+    }
+
+    private static void deleteAll(Path dir) throws IOException {
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for(Path file : files)
+                Files.delete(file);
+        }
+        Files.deleteIfExists(dir);
+    }
+}
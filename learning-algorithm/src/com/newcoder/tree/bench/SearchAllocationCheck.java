@@ -0,0 +1,87 @@
+package com.newcoder.tree.bench;
+
+import com.newcoder.tree.BTree;
+
+import java.util.Map;
+
+/**
+ * 检查{@link BTree#search}不分配对象：按ThreadMXBean统计的当前线程分配的字节数，计算每次search分配的字节数，
+ * 大于0时打印出错的配置并以状态1退出，可以放在构建脚本中作为回归检查。
+ *
+ * 对每个t和是否开启统计（BTree.setStatisticsEnabled）的组合，装入size个Long键（偶数），
+ * 先预热warmup轮让JIT编译完成，再search searches次，一半命中一半不命中。
+ * 键事先装箱好放在数组中，测量的只是search本身；两次读取分配量之间的固定开销事先测出来扣掉。
+ * 参数（name=value）：t（默认2,4,32）, size（默认100000）, searches（默认1000000）, warmup（默认5）
+ */
+public class SearchAllocationCheck {
+    private static final String[][] DEFAULTS = {
+        {"t", "2,4,32"},
+        {"size", "100000"},
+        {"searches", "1000000"},
+        {"warmup", "5"},
+    };
+
+    public static void main(String[] args) {
+        Map<String, String> params = BenchmarkHarness.parseArgs(args, DEFAULTS);
+        int size = Integer.parseInt(params.get("size"));
+        int searches = Integer.parseInt(params.get("searches"));
+        int warmup = Integer.parseInt(params.get("warmup"));
+        if(BenchmarkHarness.allocatedBytes() < 0) {
+            System.out.println("ThreadMXBean.getThreadAllocatedBytes is not supported by this JVM, skipped");
+            return;
+        }
+        Long[] keys = new Long[2 * size];
+        for(int i = 0; i < keys.length; ++ i)
+            keys[i] = (long) i;
+        long overhead = measurementOverhead();
+
+        boolean failed = false;
+        System.out.printf("%4s %-10s %10s %s%n", "t", "statistics", "size", "bytes/search");
+        for(String t : BenchmarkHarness.list(params, "t")) {
+            for(int statistics = 0; statistics < 2; ++ statistics) {
+                BTree<Long, Long> tree = new BTree<Long, Long>(Integer.parseInt(t));
+                tree.setStatisticsEnabled(statistics == 1);
+                for(int index : BTreeBenchmark.permutation(size, 1))
+                    tree.put(keys[2 * index], keys[index]);
+                for(int round = 0; round < warmup; ++ round)
+                    search(tree, keys, searches);
+                long start = BenchmarkHarness.allocatedBytes();
+                search(tree, keys, searches);
+                long bytes = BenchmarkHarness.allocatedBytes() - start - overhead;
+                double perSearch = Math.max(0, bytes) / (double) searches;
+                System.out.printf("%4s %-10s %10d %.4f%s%n", t, statistics == 1 ? "on" : "off", size, perSearch,
+                        perSearch > 0 ? "  FAILED" : "");
+                failed |= perSearch > 0;
+            }
+        }
+        if(failed) {
+            System.out.println("BTree.search allocated memory");
+            System.exit(1);
+        }
+    }
+
+    /**
+     *@Desc 以固定的步长遍历所有的键，奇数下标的键不在树中
+     */
+    private static void search(BTree<Long, Long> tree, Long[] keys, int searches) {
+        int index = 0;
+        for(int i = 0; i < searches; ++ i) {
+            BenchmarkHarness.consume(tree.search(keys[index]));
+            index += 7919;
+            if(index >= keys.length)
+                index -= keys.length;
+        }
+    }
+
+    /**
+     *@Desc 连续两次读取分配量之间的差，取多次中最小的一次
+     */
+    private static long measurementOverhead() {
+        long overhead = Long.MAX_VALUE;
+        for(int i = 0; i < 100; ++ i) {
+            long start = BenchmarkHarness.allocatedBytes();
+            overhead = Math.min(overhead, BenchmarkHarness.allocatedBytes() - start);
+        }
+        return overhead;
+    }
+}
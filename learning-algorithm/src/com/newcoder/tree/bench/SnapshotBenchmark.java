@@ -0,0 +1,85 @@
+package com.newcoder.tree.bench;
+
+import com.newcoder.tree.BTree;
+import com.newcoder.tree.Serializer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 二进制快照（{@link BTree#writeSnapshot}、{@link BTree#readSnapshot}）与逐个put重建B树的对比。
+ *
+ * 先按随机顺序put size个Long键值对（即现在启动时重建索引的方式），然后写出快照文件，再读入rounds次，取最好的一次。
+ * 文件在临时目录中，结束后删除。输出每种方式的耗时和吞吐量，以及按吞吐量折算的5000万项的时间；
+ * 读入的B树会与原来的B树逐项比较。size较大时需要相应地调大-Xmx（两棵树同时在堆中）。
+ * 参数（name=value）：size（默认10000000），t（默认32），rounds（默认3）
+ */
+public class SnapshotBenchmark {
+    private static final String[][] DEFAULTS = {
+        {"size", "10000000"},
+        {"t", "32"},
+        {"rounds", "3"},
+    };
+
+    /** 折算的目标项数 */
+    private static final long TARGET = 50_000_000L;
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> params = BenchmarkHarness.parseArgs(args, DEFAULTS);
+        int size = Integer.parseInt(params.get("size"));
+        int t = Integer.parseInt(params.get("t"));
+        int rounds = Integer.parseInt(params.get("rounds"));
+
+        Path dir = Files.createTempDirectory("btree-snapshot-bench");
+        Path path = dir.resolve("tree.snapshot");
+        try {
+            long start = System.nanoTime();
+            BTree<Long, Long> tree = new BTree<Long, Long>(t);
+            for(int index : BTreeBenchmark.permutation(size, 1))
+                tree.put((long) index, (long) index);
+            report("put loop", size, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            tree.writeSnapshot(path, Serializer.LONG, Serializer.LONG);
+            report("writeSnapshot", size, System.nanoTime() - start);
+            System.out.printf("snapshot file: %.1f MiB, %.1f bytes/entry%n", Files.size(path) / 1048576.0, (double) Files.size(path) / size);
+
+            long best = Long.MAX_VALUE;
+            BTree<Long, Long> loaded = null;
+            for(int round = 0; round < rounds; ++ round) {
+                loaded = null;
+                System.gc();
+                start = System.nanoTime();
+                loaded = BTree.readSnapshot(path, null, Serializer.LONG, Serializer.LONG);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            report("readSnapshot", size, best);
+            verify(tree, loaded);
+        } finally {
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private static void report(String name, long entries, long nanos) {
+        double perSecond = entries * 1e9 / nanos;
+        System.out.printf("%-16s %8.2f s %14.0f entries/s   %.1f s for %d entries%n",
+                name, nanos / 1e9, perSecond, TARGET / perSecond, TARGET);
+    }
+
+    private static void verify(BTree<Long, Long> expected, BTree<Long, Long> actual) {
+        if(expected.size() != actual.size())
+            throw new IllegalStateException("Size mismatch: " + expected.size() + " vs " + actual.size());
+        Iterator<Map.Entry<Long, Long>> e = expected.range(null, true, null, true);
+        Iterator<Map.Entry<Long, Long>> a = actual.range(null, true, null, true);
+        while(e.hasNext()) {
+            Map.Entry<Long, Long> x = e.next();
+            Map.Entry<Long, Long> y = a.next();
+            if(!x.getKey().equals(y.getKey()) || !x.getValue().equals(y.getValue()))
+                throw new IllegalStateException("Entry mismatch: " + x + " vs " + y);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.newcoder.tree.bench;
+
+import com.newcoder.tree.BPlusTree;
+import com.newcoder.tree.StringBPlusTree;
+
+import java.util.Map;
+
+/**
+ * 前缀压缩的{@link StringBPlusTree}与BPlusTree<String, V>在URL形式的键上的对比。
+ *
+ * 键形如https://www.example-shop.com/catalog/garden/category-117/item-0012345.html，有序时相邻的键共享很长的前缀。
+ * 对每种实现按随机顺序插入size个键，输出GC之后树占用的堆（每个键值对的字节数），
+ * 然后用另一组相等但不同的String对象做均匀随机的search，输出吞吐量和延迟。
+ * 参数（name=value）：impl（默认BPlusTree,StringBPlusTree），size（默认1000000），t（默认32），
+ * 	warmup（默认3），iterations（默认5），millis（默认1000）
+ */
+public class StringBPlusTreeBenchmark {
+    private static final String[][] DEFAULTS = {
+        {"impl", "BPlusTree,StringBPlusTree"},
+        {"size", "1000000"},
+        {"t", "32"},
+        {"warmup", "3"},
+        {"iterations", "5"},
+        {"millis", "1000"},
+    };
+
+    private static final String[] DEPARTMENTS = {
+        "books", "electronics", "garden", "home-and-kitchen", "music", "office-products",
+        "sports-and-outdoors", "tools", "toys-and-games", "video-games", "clothing", "grocery",
+    };
+
+    /**
+     *@Desc 被测的String键映射
+     */
+    interface Subject {
+        Object search(String key);
+        Object put(String key, Integer value);
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> params = BenchmarkHarness.parseArgs(args, DEFAULTS);
+        final int size = Integer.parseInt(params.get("size"));
+        int t = Integer.parseInt(params.get("t"));
+        BenchmarkHarness harness = new BenchmarkHarness(Integer.parseInt(params.get("warmup")),
+                Integer.parseInt(params.get("iterations")), Long.parseLong(params.get("millis")));
+
+        final String[] lookupKeys = new String[size];
+        for(int i = 0; i < size; ++ i)
+            lookupKeys[i] = url(i);
+        int[] order = BTreeBenchmark.permutation(size, 1);
+
+        System.out.printf("%-16s %10s %10s   %s%n", "impl", "heap MiB", "B/entry", "search");
+        for(String impl : BenchmarkHarness.list(params, "impl")) {
+            long before = usedHeap();
+            final Subject subject = newSubject(impl, t);
+            // 树中的键由url()重新生成，不与lookupKeys共享String对象
+            for(int index : order)
+                subject.put(url(index), index);
+            long retained = usedHeap() - before;
+
+            BenchmarkHarness.Result result = harness.measure(new BenchmarkHarness.Workload() {
+                private final KeySequence.Generator generator = KeySequence.UNIFORM.generator(size, 2);
+                private final String[] keys = new String[1024];
+
+                public int setUp() {
+                    for(int i = 0; i < keys.length; ++ i)
+                        keys[i] = lookupKeys[(int) generator.next()];
+                    return keys.length;
+                }
+
+                public void run(int from, int to) {
+                    for(int i = from; i < to; ++ i)
+                        BenchmarkHarness.consume(subject.search(keys[i]));
+                }
+            });
+            System.out.printf("%-16s %10.1f %10.1f   %s%n", impl, retained / 1048576.0, (double) retained / size, result);
+            BenchmarkHarness.consume(subject);
+        }
+    }
+
+    static String url(int index) {
+        return String.format("https://www.example-shop.com/catalog/%s/category-%d/item-%07d.html",
+                DEPARTMENTS[index % DEPARTMENTS.length], index / DEPARTMENTS.length % 500, index);
+    }
+
+    private static Subject newSubject(String impl, int t) {
+        if(impl.equalsIgnoreCase("BPlusTree")) {
+            final BPlusTree<String, Integer> tree = new BPlusTree<String, Integer>(t);
+            return new Subject() {
+                public Object search(String key) { return tree.search(key); }
+                public Object put(String key, Integer value) { return tree.put(key, value); }
+            };
+        }
+        if(impl.equalsIgnoreCase("StringBPlusTree")) {
+            final StringBPlusTree<Integer> tree = new StringBPlusTree<Integer>(t);
+            return new Subject() {
+                public Object search(String key) { return tree.search(key); }
+                public Object put(String key, Integer value) { return tree.put(key, value); }
+            };
+        }
+        throw new IllegalArgumentException("Unknown impl: " + impl);
+    }
+
+    /**
+     *@Desc 几次GC之后的堆占用
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 3; ++ i)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}